@@ -0,0 +1,87 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.utils.PerceptualHash;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Measures near-duplicate reuse on a labeled image set: how many photos would reuse an
+ * earlier result, how many of those belong to another label, and the lookup time, for a
+ * range of Hamming distances. Push images as {@code <dir>/<label>/*.jpg}, named so that
+ * repeat shots of one lesion sort together, and run, for example:
+ *
+ * <pre>
+ * adb push images /sdcard/Android/data/com.tckmpsi.objectdetectordemo/files/near-duplicates
+ * ./gradlew connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.tckmpsi.objectdetectordemo.inference.NearDuplicateEvaluationTest
+ * </pre>
+ *
+ * The report is written next to the images as near-duplicates.json.
+ * Runner arguments: {@code images} (directory, default files/near-duplicates) and
+ * {@code distances} (comma-separated, default 0,2,4,6,8,10,12).
+ */
+@RunWith(AndroidJUnit4.class)
+public class NearDuplicateEvaluationTest {
+
+    private static final String TAG = "NearDuplicateEvaluation";
+    private static final String DEFAULT_DISTANCES = "0,2,4,6,8,10,12";
+
+    @Test
+    public void evaluateReuse() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Bundle args = InstrumentationRegistry.getArguments();
+        String imagesArg = args.getString("images");
+        File imagesDir = imagesArg != null ? new File(imagesArg)
+                : new File(context.getExternalFilesDir(null), "near-duplicates");
+        Assume.assumeTrue("No images in " + imagesDir, imagesDir.isDirectory());
+
+        List<VariantComparison.LabeledImage> images = VariantComparison.loadImages(
+                context.getContentResolver(), imagesDir, ModelSpec.DEFAULT_INPUT_SIZE);
+        assertFalse("No images in " + imagesDir, images.isEmpty());
+
+        long[] hashes = new long[images.size()];
+        String[] labels = new String[images.size()];
+        long hashNanos = 0;
+        for (int i = 0; i < images.size(); i++) {
+            long start = System.nanoTime();
+            hashes[i] = PerceptualHash.dHash(images.get(i).getBitmap());
+            hashNanos += System.nanoTime() - start;
+            labels[i] = images.get(i).getLabel();
+        }
+
+        StringBuilder json = new StringBuilder("{\"images\":").append(images.size())
+                .append(",\"hash_mean_us\":").append(hashNanos / 1000 / images.size())
+                .append(",\"results\":[");
+        String[] distances = args.getString("distances", DEFAULT_DISTANCES).split(",");
+        for (int i = 0; i < distances.length; i++) {
+            NearDuplicateIndex.Evaluation evaluation =
+                    NearDuplicateIndex.evaluate(hashes, labels, Integer.parseInt(distances[i].trim()));
+            Log.i(TAG, evaluation.toString());
+            json.append(i > 0 ? "," : "").append(evaluation.toJson());
+        }
+        json.append("]}");
+
+        try (OutputStream out = new FileOutputStream(new File(imagesDir, "near-duplicates.json"))) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
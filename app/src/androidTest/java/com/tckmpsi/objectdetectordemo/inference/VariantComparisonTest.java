@@ -0,0 +1,88 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Compares the fp32 and int8 variants of each bundled model on a labeled image set.
+ * Push images as {@code <dir>/<label>/*.jpg} and run, for example:
+ *
+ * <pre>
+ * adb push images /sdcard/Android/data/com.tckmpsi.objectdetectordemo/files/variants
+ * ./gradlew connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.tckmpsi.objectdetectordemo.inference.VariantComparisonTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.models=mobilenet_v2,resnet50
+ * </pre>
+ *
+ * Reports are written next to the images as variants-&lt;model&gt;.json and .txt.
+ * Runner arguments: {@code images} (directory, default files/variants) and {@code models}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VariantComparisonTest {
+
+    private static final String TAG = "VariantComparison";
+    private static final String DEFAULT_MODELS = "inception_v3,efficientnet_b0,mobilenet_v2,resnet50,vgg16,densenet121";
+
+    @Test
+    public void compareVariants() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Bundle args = InstrumentationRegistry.getArguments();
+        String imagesArg = args.getString("images");
+        File imagesDir = imagesArg != null ? new File(imagesArg) : new File(context.getExternalFilesDir(null), "variants");
+        Assume.assumeTrue("No images in " + imagesDir, imagesDir.isDirectory());
+
+        ModelManager modelManager = new ModelManager(context, Long.MAX_VALUE);
+        LocalClassifier localClassifier = new LocalClassifier(context, modelManager);
+        VariantComparison comparison = new VariantComparison(modelManager, localClassifier);
+        String models = args.getString("models", DEFAULT_MODELS);
+        int compared = 0;
+        try {
+            for (String model : models.split(",")) {
+                model = model.trim();
+                if (!localClassifier.hasVariant(model, Precision.FP32)
+                        || !localClassifier.hasVariant(model, Precision.INT8)) {
+                    Log.i(TAG, "Skipping " + model + ": not bundled in both precisions");
+                    continue;
+                }
+                List<VariantComparison.LabeledImage> images = VariantComparison.loadImages(
+                        context.getContentResolver(), imagesDir, ModelSpec.forName(model).getInputSize());
+                assertFalse("No images in " + imagesDir, images.isEmpty());
+
+                VariantComparison.Report report = comparison.compare(model, images);
+                Log.i(TAG, report.toText());
+                write(new File(imagesDir, "variants-" + model + ".json"), report.toJson());
+                write(new File(imagesDir, "variants-" + model + ".txt"), report.toText());
+                compared++;
+            }
+        } finally {
+            localClassifier.close();
+            modelManager.close();
+        }
+        Assume.assumeTrue("No model is bundled in both precisions", compared > 0);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
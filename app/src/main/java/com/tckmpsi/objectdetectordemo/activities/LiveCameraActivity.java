@@ -0,0 +1,382 @@
+package com.tckmpsi.objectdetectordemo.activities;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.TextureView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+
+import com.tckmpsi.objectdetectordemo.R;
+import com.tckmpsi.objectdetectordemo.inference.FrameScheduler;
+import com.tckmpsi.objectdetectordemo.inference.InferenceSession;
+import com.tckmpsi.objectdetectordemo.inference.LocalClassifier;
+import com.tckmpsi.objectdetectordemo.inference.ModelManager;
+import com.tckmpsi.objectdetectordemo.inference.Precision;
+import com.tckmpsi.objectdetectordemo.inference.ResultSmoother;
+import com.tckmpsi.objectdetectordemo.inference.YuvTensorConverter;
+
+import org.pytorch.Module;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Classifies the camera preview continuously with the on-device model. Frames go
+// from the ImageReader straight into the input tensor; while a frame is being
+// classified only the newest incoming frame is kept, the rest are dropped.
+public class LiveCameraActivity extends AppCompatActivity {
+
+    public static final String EXTRA_MODEL = "model_name";
+    // Precision.name() of the preferred variant; the classifier default when absent
+    public static final String EXTRA_PRECISION = "precision";
+
+    private static final String TAG = "LiveCameraActivity";
+    private static final int REQUEST_CAMERA_PERMISSION = 1;
+    // Smallest analysis resolution we accept; frames are cropped and scaled to the model input anyway
+    private static final int MIN_FRAME_SIDE = 480;
+    // Newest frame waiting + frame being classified + one for acquireLatestImage
+    private static final int MAX_IMAGES = 3;
+    private static final int SMOOTHING_WINDOW = 5;
+    private static final long UI_UPDATE_INTERVAL_MS = 200;
+
+    private TextureView previewView;
+    private TextView resultTextView;
+
+    private String modelName;
+    private ModelManager modelManager;
+    private LocalClassifier localClassifier;
+
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private volatile CameraDevice camera;
+    private volatile CameraCaptureSession captureSession;
+    private ImageReader imageReader;
+    private FrameScheduler<Image> scheduler;
+    private int rotationDegrees;
+
+    // Owned by the scheduler's worker thread
+    private InferenceSession session;
+    private Module module;
+    private String moduleAsset;
+    private final ResultSmoother smoother = new ResultSmoother(SMOOTHING_WINDOW);
+    private long lastUiUpdate;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_live_camera);
+        previewView = findViewById(R.id.preview);
+        resultTextView = findViewById(R.id.live_result);
+
+        modelName = getIntent().getStringExtra(EXTRA_MODEL);
+        // Shared with MainActivity, so a model it has loaded is not loaded a second time
+        modelManager = ModelManager.get(this);
+        localClassifier = new LocalClassifier(this, modelManager);
+        String precision = getIntent().getStringExtra(EXTRA_PRECISION);
+        if (modelName != null && precision != null) {
+            localClassifier.setPrecision(modelName, Precision.valueOf(precision));
+        }
+
+        if (modelName == null || !localClassifier.hasModel(modelName)) {
+            resultTextView.setText("No on-device model for " + modelName);
+            return;
+        }
+        localClassifier.preload(modelName);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (modelName == null || !localClassifier.hasModel(modelName)) {
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA},
+                    REQUEST_CAMERA_PERMISSION);
+            return;
+        }
+        startStream();
+    }
+
+    @Override
+    protected void onPause() {
+        stopStream();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        localClassifier.close();
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode != REQUEST_CAMERA_PERMISSION) {
+            return;
+        }
+        if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            startStream();
+        } else {
+            resultTextView.setText("Camera permission is required for live mode");
+        }
+    }
+
+    private void startStream() {
+        if (cameraThread != null) {
+            return;
+        }
+        cameraThread = new HandlerThread("LiveCamera");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        scheduler = new FrameScheduler<>("LiveInference", this::classifyFrame, Image::close);
+        scheduler.start();
+
+        if (previewView.isAvailable()) {
+            openCamera();
+        } else {
+            previewView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+                @Override
+                public void onSurfaceTextureAvailable(@NonNull SurfaceTexture surface, int width, int height) {
+                    openCamera();
+                }
+
+                @Override
+                public void onSurfaceTextureSizeChanged(@NonNull SurfaceTexture surface, int width, int height) {
+                }
+
+                @Override
+                public boolean onSurfaceTextureDestroyed(@NonNull SurfaceTexture surface) {
+                    return true;
+                }
+
+                @Override
+                public void onSurfaceTextureUpdated(@NonNull SurfaceTexture surface) {
+                }
+            });
+        }
+    }
+
+    private void stopStream() {
+        if (cameraThread == null) {
+            return;
+        }
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+        }
+        if (camera != null) {
+            camera.close();
+            camera = null;
+        }
+        // Waits for the frame in progress, so images can be closed safely afterwards
+        scheduler.close();
+        Log.d(TAG, "Stream stopped: " + scheduler.getStats());
+        if (module != null) {
+            modelManager.release(moduleAsset, module);
+            module = null;
+        }
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+        }
+        cameraThread.quitSafely();
+        cameraThread = null;
+        cameraHandler = null;
+        smoother.reset();
+    }
+
+    @SuppressLint("MissingPermission")
+    private void openCamera() {
+        if (cameraHandler == null) {
+            return;
+        }
+        CameraManager manager = (CameraManager) getSystemService(CAMERA_SERVICE);
+        try {
+            String cameraId = backCameraId(manager);
+            if (cameraId == null) {
+                resultTextView.setText("No camera available");
+                return;
+            }
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size size = chooseFrameSize(map.getOutputSizes(ImageFormat.YUV_420_888));
+            Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            rotationDegrees = ((sensorOrientation == null ? 0 : sensorOrientation)
+                    - displayRotationDegrees() + 360) % 360;
+
+            imageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                    ImageFormat.YUV_420_888, MAX_IMAGES);
+            imageReader.setOnImageAvailableListener(reader -> {
+                Image image = reader.acquireLatestImage();
+                if (image != null) {
+                    scheduler.offer(image);
+                }
+            }, cameraHandler);
+            previewView.getSurfaceTexture().setDefaultBufferSize(size.getWidth(), size.getHeight());
+
+            manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(@NonNull CameraDevice device) {
+                    camera = device;
+                    startCapture();
+                }
+
+                @Override
+                public void onDisconnected(@NonNull CameraDevice device) {
+                    device.close();
+                    camera = null;
+                }
+
+                @Override
+                public void onError(@NonNull CameraDevice device, int error) {
+                    device.close();
+                    camera = null;
+                    runOnUiThread(() -> resultTextView.setText("Camera error " + error));
+                }
+            }, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not open camera", e);
+            resultTextView.setText("Could not open camera: " + e.getMessage());
+        }
+    }
+
+    private void startCapture() {
+        try {
+            Surface previewSurface = new Surface(previewView.getSurfaceTexture());
+            Surface analysisSurface = imageReader.getSurface();
+            CaptureRequest.Builder request = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            request.addTarget(previewSurface);
+            request.addTarget(analysisSurface);
+
+            camera.createCaptureSession(Arrays.asList(previewSurface, analysisSurface),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(@NonNull CameraCaptureSession session) {
+                            if (camera == null) {
+                                return;
+                            }
+                            captureSession = session;
+                            try {
+                                session.setRepeatingRequest(request.build(), null, cameraHandler);
+                            } catch (CameraAccessException e) {
+                                Log.e(TAG, "Could not start preview", e);
+                            }
+                        }
+
+                        @Override
+                        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                            runOnUiThread(() -> resultTextView.setText("Could not configure camera"));
+                        }
+                    }, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not start capture", e);
+        }
+    }
+
+    // Runs on the scheduler's worker thread
+    private void classifyFrame(Image image) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            if (session == null) {
+                session = localClassifier.newSession(modelName);
+            }
+            if (module == null) {
+                moduleAsset = localClassifier.assetFor(modelName);
+                module = modelManager.acquire(moduleAsset);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load " + modelName, e);
+            runOnUiThread(() -> resultTextView.setText("On-device error: " + e.getMessage()));
+            return;
+        }
+
+        Image.Plane[] planes = image.getPlanes();
+        YuvTensorConverter.convert(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                image.getWidth(), image.getHeight(), rotationDegrees, session.getInputSize(),
+                session.getMean(), session.getStd(), session.getInputBuffer(), 0);
+        session.runInput(module);
+        smoother.add(session.getScores(), session.getClassCount());
+
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastUiUpdate < UI_UPDATE_INTERVAL_MS) {
+            return;
+        }
+        lastUiUpdate = now;
+        int best = smoother.best();
+        String text = String.format(Locale.US, "%s %.2f\n%d ms inference\n%s",
+                session.getLabel(best), smoother.score(best), now - start, scheduler.getStats());
+        runOnUiThread(() -> resultTextView.setText(text));
+    }
+
+    private static String backCameraId(CameraManager manager) throws CameraAccessException {
+        String fallback = null;
+        for (String id : manager.getCameraIdList()) {
+            Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                return id;
+            }
+            if (fallback == null) {
+                fallback = id;
+            }
+        }
+        return fallback;
+    }
+
+    // Smallest size whose shorter side is at least MIN_FRAME_SIDE, so conversion touches few pixels
+    private static Size chooseFrameSize(Size[] sizes) {
+        Size best = null;
+        Size largest = null;
+        for (Size size : sizes) {
+            long area = (long) size.getWidth() * size.getHeight();
+            if (largest == null || area > (long) largest.getWidth() * largest.getHeight()) {
+                largest = size;
+            }
+            if (Math.min(size.getWidth(), size.getHeight()) >= MIN_FRAME_SIDE
+                    && (best == null || area < (long) best.getWidth() * best.getHeight())) {
+                best = size;
+            }
+        }
+        return best != null ? best : largest;
+    }
+
+    private int displayRotationDegrees() {
+        switch (getWindowManager().getDefaultDisplay().getRotation()) {
+            case Surface.ROTATION_90:
+                return 90;
+            case Surface.ROTATION_180:
+                return 180;
+            case Surface.ROTATION_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+}
@@ -1,61 +1,283 @@
 package com.tckmpsi.objectdetectordemo.activities;
 
 import android.annotation.SuppressLint;
+import android.content.ClipData;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.net.ConnectivityManager;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
+import android.util.Log;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.Spinner;
 import android.widget.TextView;
+import android.widget.Toast;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.tckmpsi.objectdetectordemo.R;
+import com.tckmpsi.objectdetectordemo.inference.BatchClassifier;
+import com.tckmpsi.objectdetectordemo.inference.CascadeClassifier;
+import com.tckmpsi.objectdetectordemo.inference.EnsembleClassifier;
+import com.tckmpsi.objectdetectordemo.inference.InferenceRouter;
+import com.tckmpsi.objectdetectordemo.inference.LocalClassifier;
+import com.tckmpsi.objectdetectordemo.inference.ModelManager;
+import com.tckmpsi.objectdetectordemo.inference.NearDuplicateClassifier;
+import com.tckmpsi.objectdetectordemo.inference.NearDuplicateIndex;
+import com.tckmpsi.objectdetectordemo.inference.Precision;
+import com.tckmpsi.objectdetectordemo.inference.RemoteClassifier;
+import com.tckmpsi.objectdetectordemo.inference.SpeculativeClassifier;
+import com.tckmpsi.objectdetectordemo.inference.TileGrid;
+import com.tckmpsi.objectdetectordemo.inference.TiledClassifier;
+import com.tckmpsi.objectdetectordemo.metrics.Metrics;
+import com.tckmpsi.objectdetectordemo.metrics.Stage;
 import com.tckmpsi.objectdetectordemo.models.Disease;
 import com.tckmpsi.objectdetectordemo.models.DiseaseDetail;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.JournalDrainer;
+import com.tckmpsi.objectdetectordemo.network.JournalingCallback;
+import com.tckmpsi.objectdetectordemo.network.ModelRegistry;
 import com.tckmpsi.objectdetectordemo.network.NetworkClient;
-import com.tckmpsi.objectdetectordemo.utils.ImageUtils;
+import com.tckmpsi.objectdetectordemo.network.RequestJournal;
+import com.tckmpsi.objectdetectordemo.network.ResultCache;
+import com.tckmpsi.objectdetectordemo.network.TransportConfig;
+import com.tckmpsi.objectdetectordemo.utils.ImageIngestor;
+import com.tckmpsi.objectdetectordemo.utils.ImagePreprocessor;
+import com.tckmpsi.objectdetectordemo.utils.StatsBitmapPool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
+
     private static final int REQUEST_IMAGE_CAPTURE = 1;
     private static final int REQUEST_GALLERY_PICK = 2;
 
+    private static final int RESULT_CACHE_ENTRIES = 64;
+    private static final long RESULT_CACHE_DISK_BYTES = 2 * 1024 * 1024;
+    private static final long RESULT_CACHE_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+    // Requests kept for when the server is back, in the app's files so they outlive the cache
+    private static final String JOURNAL_FILE = "journal/requests.log";
+    private static final long JOURNAL_MAX_BYTES = 16 * 1024 * 1024;
+    private static final int JOURNAL_BATCH_SIZE = 8;
+    private static final int JOURNAL_BATCHES_IN_FLIGHT = 2;
+    private static final long JOURNAL_BACKOFF_MS = 2000;
+    private static final long JOURNAL_MAX_BACKOFF_MS = 5 * 60 * 1000;
+    // Encodes and journals failed requests; lives with the process like the drainer
+    private static final ExecutorService JOURNAL_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Last model registry fetched from the server
+    private static final String MODEL_REGISTRY_FILE = "models.json";
+
+    private static final int ROUTER_PROBE_INTERVAL = 10;
+    private static final long ROUTER_TIMEOUT_MS = 15000;
+
+    private static final int BATCH_SIZE = 8;
+
+    // Rows of per-class scores shown; a 1000-class model would not fit otherwise
+    private static final int MAX_DETAIL_ROWS = 6;
+
+    // Return whatever the ensemble has after this long
+    private static final long ENSEMBLE_DEADLINE_MS = 10000;
+
+    // Preferred on-device precision per model, as "precision_<model>" -> Precision.name()
+    private static final String PREFS_NAME = "model_precision";
+    private static final String PREF_CASCADE = "cascade";
+
+    // Photos whose dHashes differ in at most this many of 64 bits share a result
+    private static final int REUSE_MAX_DISTANCE = 6;
+    private static final int REUSE_ENTRIES_PER_MODEL = 256;
+    // Still classify every Nth reused photo, to measure how often reuse is wrong
+    private static final int REUSE_AUDIT_INTERVAL = 10;
+
+    // Cheap first stage of the cascade, and the top-1 score it needs to answer on its own
+    private static final String CASCADE_FIRST_STAGE = "mobilenet_v2";
+    private static final float CASCADE_THRESHOLD = 0.85f;
+
+    // Classify a selected image before Classify is tapped, at most this often, and
+    // pause while more than half of the recent speculations went unused
+    private static final int SPECULATION_MAX_PER_MINUTE = 6;
+    private static final double SPECULATION_MAX_WASTE_RATIO = 0.5;
+
     private ImageView imageView;
     private TextView resultTextView;
     private ProgressBar progressBar;
     private Button classifyButton;
+    private Button ensembleButton;
     private Spinner modelSpinner;
+    private CheckBox int8CheckBox;
+    private CheckBox cascadeCheckBox;
     private String currentModel;
-    private String base64Image;
-
-    // Define your models
-    private final String[] models = {
-            "inception_v3",
-            "efficientnet_b0",
-            "mobilenet_v2",
-            "resnet50",
-            "vgg16",
-            "densenet121"
-    };
+    private Bitmap selectedBitmap;
+    // Source of selectedBitmap when picked from the gallery, for full-resolution tiled inference
+    private Uri selectedUri;
+
+    // Classify requests are numbered; a result is shown only if no newer request,
+    // image or model came after it. UI thread only.
+    private long classifySequence;
+    private Cancellable pendingClassify;
+    private Bitmap pendingBitmap;
+    private String pendingModel;
+
+    private InferenceRouter classifier;
+    private CascadeClassifier cascadeClassifier;
+    // Near-duplicate reuse in front of the router and the cascade, sharing one index
+    private NearDuplicateClassifier reuseClassifier;
+    private NearDuplicateClassifier reuseCascadeClassifier;
+    private SpeculativeClassifier speculativeClassifier;
+    private LocalClassifier localClassifier;
+    private ModelManager modelManager;
+    private BatchClassifier batchClassifier;
+    private EnsembleClassifier ensembleClassifier;
+    private TiledClassifier tiledClassifier;
+    private ImageIngestor imageIngestor;
+    private JournalingCallback.Encoder journalEncoder;
+    private ModelRegistry modelRegistry;
+
+    // Models in the spinner, from the registry (see ModelSpec)
+    private String[] models;
+    private ArrayAdapter<String> modelAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // Log HTTP traffic in debuggable builds
+        if (savedInstanceState == null && (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            NetworkClient.configure(NetworkClient.getBaseUrl(),
+                    new TransportConfig.Builder().loggingEnabled(true).build());
+        }
+
+        // Reuse results for images we have already classified
+        if (NetworkClient.getResultCache() == null) {
+            NetworkClient.setResultCache(new ResultCache(getCacheDir(),
+                    RESULT_CACHE_ENTRIES, RESULT_CACHE_DISK_BYTES, RESULT_CACHE_TTL_MS));
+        }
+
+        // Journal requests the server cannot take now and send them once it is reachable again
+        if (NetworkClient.getJournalDrainer() == null) {
+            try {
+                JournalDrainer drainer = new JournalDrainer(
+                        new RequestJournal(new File(getFilesDir(), JOURNAL_FILE), JOURNAL_MAX_BYTES),
+                        JOURNAL_BATCH_SIZE, JOURNAL_BATCHES_IN_FLIGHT, JOURNAL_BACKOFF_MS, JOURNAL_MAX_BACKOFF_MS);
+                drainer.start(this);
+                NetworkClient.setJournalDrainer(drainer);
+            } catch (IOException e) {
+                Log.w(TAG, "Offline journal unavailable", e);
+            }
+        }
+        JournalDrainer drainer = NetworkClient.getJournalDrainer();
+        if (drainer != null) {
+            drainer.setListener((modelName, entries, diseases) -> runOnUiThread(() ->
+                    Toast.makeText(this, "Classified " + entries.size() + " queued image"
+                            + (entries.size() == 1 ? "" : "s") + " with " + modelName, Toast.LENGTH_SHORT).show()));
+        }
+
+        // The models the server offers; the last list fetched until this one arrives
+        modelRegistry = new ModelRegistry(new File(getFilesDir(), MODEL_REGISTRY_FILE));
+        modelRegistry.loadCached();
+        models = ModelSpec.names();
+
+        // Route each request to whichever of on-device and server inference is faster
+        modelManager = ModelManager.get(this);
+        localClassifier = new LocalClassifier(this, modelManager);
+        ImagePreprocessor preprocessor = new ImagePreprocessor();
+        journalEncoder = (bitmap, model) -> preprocessor.prepare(bitmap, ModelSpec.forName(model)).getJpeg();
+        classifier = new InferenceRouter(localClassifier,
+                new RemoteClassifier(preprocessor), ROUTER_PROBE_INTERVAL, ROUTER_TIMEOUT_MS);
+        cascadeClassifier = new CascadeClassifier(classifier, new CascadeClassifier.Config.Builder()
+                .stages(CASCADE_FIRST_STAGE)
+                .defaultThreshold(CASCADE_THRESHOLD)
+                .build());
+        // Separate indexes: a cascade result stored under "resnet50" may be the first stage's answer,
+        // which a plain resnet50 request must not reuse
+        reuseClassifier = new NearDuplicateClassifier(classifier,
+                new NearDuplicateIndex(REUSE_MAX_DISTANCE, REUSE_ENTRIES_PER_MODEL), REUSE_AUDIT_INTERVAL);
+        reuseCascadeClassifier = new NearDuplicateClassifier(cascadeClassifier,
+                new NearDuplicateIndex(REUSE_MAX_DISTANCE, REUSE_ENTRIES_PER_MODEL), REUSE_AUDIT_INTERVAL);
+        speculativeClassifier = new SpeculativeClassifier(new SpeculativeClassifier.Policy.Builder()
+                .maxPerMinute(SPECULATION_MAX_PER_MINUTE)
+                .maxWasteRatio(SPECULATION_MAX_WASTE_RATIO)
+                .build());
+        ensembleClassifier = new EnsembleClassifier(preprocessor);
+        batchClassifier = new BatchClassifier(getContentResolver(), localClassifier, preprocessor, BATCH_SIZE);
+        tiledClassifier = new TiledClassifier(localClassifier, modelManager, new TiledClassifier.Config.Builder().build());
+        imageIngestor = new ImageIngestor(getContentResolver(), StatsBitmapPool.from(this));
+
         // Initialize views
         initializeViews();
         // Setup model spinner
         setupModelSpinner();
         // Setup button click listeners
         setupClickListeners();
+
+        modelRegistry.refresh(new NetworkClient.RegistryCallback() {
+            @Override
+            public void onSuccess(List<ModelSpec> specs) {
+                runOnUiThread(() -> {
+                    if (!isDestroyed()) {
+                        showModels();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                Log.w(TAG, "Model registry not updated: " + errorMessage);
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        supersedeClassification();
+        speculativeClassifier.discard();
+        JournalDrainer drainer = NetworkClient.getJournalDrainer();
+        if (drainer != null) {
+            // The drainer lives on with the process; only stop telling this activity
+            drainer.setListener(null);
+        }
+        imageIngestor.close();
+        classifier.close();
+        batchClassifier.close();
+        ensembleClassifier.close();
+        tiledClassifier.close();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ResultCache cache = NetworkClient.getResultCache();
+        if (cache != null) {
+            cache.evictExpired();
+        }
     }
 
     private void initializeViews() {
@@ -63,25 +285,62 @@ public class MainActivity extends AppCompatActivity {
         resultTextView = findViewById(R.id.result_text);
         progressBar = findViewById(R.id.progressBar);
         classifyButton = findViewById(R.id.detect);
+        ensembleButton = findViewById(R.id.ensemble_button);
         modelSpinner = findViewById(R.id.model_spinner);
+        int8CheckBox = findViewById(R.id.int8_checkbox);
+        cascadeCheckBox = findViewById(R.id.cascade_checkbox);
 
         // Initially disable the "Classify Image" button
         classifyButton.setEnabled(false);
+        ensembleButton.setEnabled(false);
     }
 
     private void setupModelSpinner() {
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        loadPrecisions(prefs);
+        int8CheckBox.setOnCheckedChangeListener((button, checked) -> {
+            // Ignore updatePrecisionToggle() reflecting the current model
+            if (!button.isPressed()) {
+                return;
+            }
+            Precision precision = checked ? Precision.INT8 : Precision.FP32;
+            localClassifier.setPrecision(currentModel, precision);
+            prefs.edit().putString("precision_" + currentModel, precision.name()).apply();
+            localClassifier.preload(currentModel);
+        });
+        cascadeCheckBox.setChecked(prefs.getBoolean(PREF_CASCADE, false));
+        cascadeCheckBox.setOnCheckedChangeListener((button, checked) -> {
+            supersedeClassification();
+            speculativeClassifier.discard();
+            progressBar.setVisibility(View.GONE);
+            prefs.edit().putBoolean(PREF_CASCADE, checked).apply();
+        });
+
+        // A mutable list, so a newer registry can replace the models
+        modelAdapter = new ArrayAdapter<>(
                 this,
                 android.R.layout.simple_spinner_item,
-                models
+                new ArrayList<>(Arrays.asList(models))
         );
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        modelSpinner.setAdapter(adapter);
+        modelAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        modelSpinner.setAdapter(modelAdapter);
 
         modelSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                boolean changed = !models[position].equals(currentModel);
+                if (changed) {
+                    supersedeClassification();
+                    speculativeClassifier.discard();
+                    progressBar.setVisibility(View.GONE);
+                }
                 currentModel = models[position];
+                updatePrecisionToggle();
+                // Load the on-device model in the background so it is ready before Classify.
+                // A model that has to be downloaded is only fetched once the user picks it.
+                if (changed || !localClassifier.needsDownload(currentModel)) {
+                    localClassifier.preload(currentModel);
+                }
             }
 
             @Override
@@ -92,15 +351,58 @@ public class MainActivity extends AppCompatActivity {
 
         // Set default model
         currentModel = models[0];
+        updatePrecisionToggle();
+    }
+
+    private void loadPrecisions(SharedPreferences prefs) {
+        for (String model : models) {
+            String precision = prefs.getString("precision_" + model, null);
+            if (precision != null) {
+                localClassifier.setPrecision(model, Precision.valueOf(precision));
+            }
+        }
+    }
+
+    // Show the models of a newer registry, keeping the current one selected if it is still offered
+    private void showModels() {
+        models = ModelSpec.names();
+        loadPrecisions(getSharedPreferences(PREFS_NAME, MODE_PRIVATE));
+        modelAdapter.clear();
+        modelAdapter.addAll(models);
+        int position = Arrays.asList(models).indexOf(currentModel);
+        if (position < 0) {
+            // Withdrawn from the server; the spinner may not report the change itself
+            supersedeClassification();
+            speculativeClassifier.discard();
+            progressBar.setVisibility(View.GONE);
+            position = 0;
+            currentModel = models[0];
+        }
+        modelSpinner.setSelection(position);
+        updatePrecisionToggle();
+    }
+
+    // The toggle only means something when both variants of the model are available
+    private void updatePrecisionToggle() {
+        int8CheckBox.setEnabled(localClassifier.hasVariant(currentModel, Precision.FP32)
+                && localClassifier.hasVariant(currentModel, Precision.INT8));
+        int8CheckBox.setChecked(localClassifier.resolve(currentModel) == Precision.INT8);
     }
 
     private void setupClickListeners() {
         Button cameraButton = findViewById(R.id.camera_button);
         Button galleryButton = findViewById(R.id.gallery_button);
+        Button liveButton = findViewById(R.id.live_button);
 
         cameraButton.setOnClickListener(v -> openCamera());
         galleryButton.setOnClickListener(v -> openGallery());
+        liveButton.setOnClickListener(v -> openLiveCamera());
         classifyButton.setOnClickListener(v -> classifyImage());
+        // Long-press Classify for tiled on-device inference at full resolution
+        classifyButton.setOnLongClickListener(v -> classifyTiled());
+        ensembleButton.setOnClickListener(v -> chooseEnsembleModels());
+        // Long-press the result to export per-stage latency metrics
+        resultTextView.setOnLongClickListener(v -> exportMetrics());
     }
 
     // Open camera to take picture
@@ -111,9 +413,19 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    // Classify the camera preview continuously with the on-device model
+    private void openLiveCamera() {
+        Intent intent = new Intent(this, LiveCameraActivity.class);
+        intent.putExtra(LiveCameraActivity.EXTRA_MODEL, currentModel);
+        intent.putExtra(LiveCameraActivity.EXTRA_PRECISION, localClassifier.getPrecision(currentModel).name());
+        startActivity(intent);
+    }
+
+    // Picking more than one image switches to batch classification
     private void openGallery() {
-        Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
         intent.setType("image/*");
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
         startActivityForResult(intent, REQUEST_GALLERY_PICK);
     }
 
@@ -125,71 +437,367 @@ public class MainActivity extends AppCompatActivity {
             Bitmap bitmap = null;
 
             if (requestCode == REQUEST_IMAGE_CAPTURE && data != null) {
-                // Handle camera image
+                // Handle camera image; drop any gallery image still being decoded
+                imageIngestor.cancel();
                 bitmap = (Bitmap) data.getExtras().get("data");
+                selectedUri = null;
+            } else if (requestCode == REQUEST_GALLERY_PICK && data != null
+                    && data.getClipData() != null && data.getClipData().getItemCount() > 1) {
+                // Handle several gallery images
+                imageIngestor.cancel();
+                ClipData clipData = data.getClipData();
+                List<Uri> uris = new ArrayList<>(clipData.getItemCount());
+                for (int i = 0; i < clipData.getItemCount(); i++) {
+                    uris.add(clipData.getItemAt(i).getUri());
+                }
+                classifyBatch(uris);
+                return;
             } else if (requestCode == REQUEST_GALLERY_PICK && data != null) {
                 // Handle gallery image
                 Uri selectedImageUri = data.getData();
+                if (selectedImageUri == null && data.getClipData() != null) {
+                    selectedImageUri = data.getClipData().getItemAt(0).getUri();
+                }
                 if (selectedImageUri != null) {
-                    try {
-                        bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), selectedImageUri);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                    ingestImage(selectedImageUri);
                 }
             }
 
             // Set image to ImageView and process the image
             if (bitmap != null) {
-                imageView.setImageBitmap(bitmap);
-                base64Image = ImageUtils.convertBitmapToBase64(bitmap);
-                classifyButton.setEnabled(true);
+                Glide.with(this).load(bitmap).into(imageView);
+                showSelectedImage(bitmap);
             }
         }
     }
 
-    private void classifyImage() {
+    // Decode off the UI thread; picking another image before this finishes discards it.
+    // Glide decodes the preview separately, downsampled to the view and cached in
+    // memory and on disk, so going back to a recent image costs no decode at all.
+    private void ingestImage(Uri uri) {
+        supersedeClassification();
+        speculativeClassifier.discard();
+        selectedUri = uri;
+        classifyButton.setEnabled(false);
+        ensembleButton.setEnabled(false);
+        progressBar.setVisibility(View.VISIBLE);
+        Glide.with(this).load(uri).into(imageView);
+        // Decode for the largest model so switching models later does not need a re-decode
+        imageIngestor.ingest(uri, ModelSpec.maxInputSize(), new ImageIngestor.Callback() {
+            @Override
+            public void onIngested(ImageIngestor.Result result) {
+                progressBar.setVisibility(View.GONE);
+                showSelectedImage(result.getModelInput());
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                progressBar.setVisibility(View.GONE);
+                resultTextView.setText("Error: " + errorMessage);
+            }
+        });
+    }
+
+    private void showSelectedImage(Bitmap modelInput) {
+        supersedeClassification();
+        selectedBitmap = modelInput;
+        classifyButton.setEnabled(true);
+        ensembleButton.setEnabled(true);
+        speculate();
+    }
+
+    // Start on the likely next request while the user looks at the image, so Classify
+    // can pick up a result that is already on its way or done
+    private void speculate() {
+        if (!NetworkClient.isServerAvailable()) {
+            return;
+        }
+        ConnectivityManager connectivity = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+        boolean metered = connectivity == null || connectivity.isActiveNetworkMetered();
+        boolean cascade = cascadeCheckBox.isChecked();
+        if (speculativeClassifier.start(cascade ? reuseCascadeClassifier : reuseClassifier,
+                selectedBitmap, currentModel, metered) && cascade) {
+            // Queued behind the current model on the loader thread
+            localClassifier.preload(CASCADE_FIRST_STAGE);
+        }
+    }
+
+    private void classifyBatch(List<Uri> uris) {
+        final String modelName = currentModel;
+        supersedeClassification();
+        final long sequence = classifySequence;
+        pendingBitmap = null;
+        progressBar.setVisibility(View.VISIBLE);
+        resultTextView.setText("Classifying 0/" + uris.size());
+        final String[] lines = new String[uris.size()];
+        final AtomicInteger finished = new AtomicInteger();
+
+        pendingClassify = batchClassifier.classify(uris, modelName, new BatchClassifier.Listener() {
+            @SuppressLint("DefaultLocale")
+            @Override
+            public void onItem(int index, Disease disease) {
+                lines[index] = String.format("%d. %s %.2f", index + 1, disease.getDisease(), disease.getScore());
+                showProgress();
+            }
+
+            @Override
+            public void onItemFailed(int index, String errorMessage) {
+                lines[index] = (index + 1) + ". Error: " + errorMessage;
+                showProgress();
+            }
+
+            private void showProgress() {
+                int done = finished.incrementAndGet();
+                runOnUiThread(() -> {
+                    if (sequence == classifySequence) {
+                        resultTextView.setText("Classifying " + done + "/" + uris.size());
+                    }
+                });
+            }
+
+            @Override
+            public void onComplete(BatchClassifier.Stats stats) {
+                runOnUiThread(() -> {
+                    if (!isCurrent(sequence)) {
+                        return;
+                    }
+                    progressBar.setVisibility(View.GONE);
+                    StringBuilder resultText = new StringBuilder();
+                    resultText.append("Model: ").append(modelName).append('\n').append(stats).append("\n\n");
+                    for (String line : lines) {
+                        resultText.append(line).append('\n');
+                    }
+                    resultTextView.setText(resultText.toString());
+                });
+            }
+        });
+    }
+
+    // Let the user pick which models to combine, then run them all at once
+    private void chooseEnsembleModels() {
+        final boolean[] checked = new boolean[models.length];
+        Arrays.fill(checked, true);
+        new AlertDialog.Builder(this)
+                .setTitle("Ensemble models")
+                .setMultiChoiceItems(models, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton("Classify", (dialog, which) -> {
+                    List<String> chosen = new ArrayList<>();
+                    for (int i = 0; i < models.length; i++) {
+                        if (checked[i]) {
+                            chosen.add(models[i]);
+                        }
+                    }
+                    if (!chosen.isEmpty()) {
+                        classifyEnsemble(chosen);
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void classifyEnsemble(List<String> chosen) {
+        supersedeClassification();
+        final long sequence = classifySequence;
+        pendingBitmap = null;
         progressBar.setVisibility(View.VISIBLE);
-        sendImageDataToServer(base64Image, currentModel);
+        final StringBuilder perModel = new StringBuilder();
+        resultTextView.setText("Waiting for " + chosen.size() + " models");
+
+        pendingClassify = ensembleClassifier.classify(selectedBitmap, chosen, EnsembleClassifier.Aggregation.AVERAGE,
+                ENSEMBLE_DEADLINE_MS, new EnsembleClassifier.Listener() {
+                    @SuppressLint("DefaultLocale")
+                    @Override
+                    public void onModelResult(String modelName, Disease disease) {
+                        synchronized (perModel) {
+                            perModel.append(String.format("%s: %s %.2f\n", modelName, disease.getDisease(),
+                                    disease.getScore()));
+                        }
+                        showPerModel();
+                    }
+
+                    @Override
+                    public void onModelFailed(String modelName, String errorMessage) {
+                        synchronized (perModel) {
+                            perModel.append(modelName).append(": ").append(errorMessage).append('\n');
+                        }
+                        showPerModel();
+                    }
+
+                    private void showPerModel() {
+                        final String text;
+                        synchronized (perModel) {
+                            text = perModel.toString();
+                        }
+                        runOnUiThread(() -> {
+                            if (sequence == classifySequence) {
+                                resultTextView.setText(text);
+                            }
+                        });
+                    }
+
+                    @SuppressLint("DefaultLocale")
+                    @Override
+                    public void onComplete(EnsembleClassifier.Result result) {
+                        final String text;
+                        synchronized (perModel) {
+                            text = perModel.toString();
+                        }
+                        runOnUiThread(() -> {
+                            if (!isCurrent(sequence)) {
+                                return;
+                            }
+                            progressBar.setVisibility(View.GONE);
+                            if (result.getCombined().getDisease() == null) {
+                                resultTextView.setText("Error: no model answered\n\n" + text);
+                                return;
+                            }
+                            resultTextView.setText(String.format("Ensemble: %s\nScore: %.2f%s\n\n%s",
+                                    result.getCombined().getDisease(), result.getCombined().getScore(),
+                                    result.isPartial() ? " (partial)" : "", text));
+                        });
+                    }
+                });
+    }
+
+    // A newer image or model makes the request in flight pointless: cancel it and
+    // make sure its result, if already on its way, is not shown
+    private void supersedeClassification() {
+        classifySequence++;
+        if (pendingClassify != null) {
+            pendingClassify.cancel();
+            pendingClassify = null;
+        }
     }
 
-    private void sendImageDataToServer(String base64Image, String modelName) {
-        NetworkClient.sendImageData(base64Image, modelName, new NetworkClient.DiseaseCallback() {
+    // False for results of a request that was superseded; clears the pending request otherwise
+    private boolean isCurrent(long sequence) {
+        if (sequence != classifySequence) {
+            Log.d(TAG, "Dropped result of superseded request " + sequence);
+            return false;
+        }
+        pendingClassify = null;
+        pendingBitmap = null;
+        return true;
+    }
+
+    private void classifyImage() {
+        final String modelName = currentModel;
+        if (pendingClassify != null && pendingBitmap == selectedBitmap && modelName.equals(pendingModel)) {
+            // Tapped again while the same image and model is in flight; that result will do
+            return;
+        }
+        supersedeClassification();
+        final long sequence = classifySequence;
+        pendingBitmap = selectedBitmap;
+        pendingModel = modelName;
+        progressBar.setVisibility(View.VISIBLE);
+        final long start = System.nanoTime();
+        final boolean cascade = cascadeCheckBox.isChecked();
+        final NearDuplicateClassifier active = cascade ? reuseCascadeClassifier : reuseClassifier;
+        NetworkClient.DiseaseCallback callback = new NetworkClient.DiseaseCallback() {
             @SuppressLint("DefaultLocale")
             @Override
             public void onSuccess(Disease disease) {
                 runOnUiThread(() -> {
+                    if (!isCurrent(sequence)) {
+                        return;
+                    }
+                    long renderStart = System.nanoTime();
                     progressBar.setVisibility(View.GONE);
 
                     StringBuilder resultText = new StringBuilder();
-                    resultText.append("Model: ").append(currentModel)
+                    resultText.append("Model: ").append(modelName);
+                    // How this result was reached, from the classifiers it passed through
+                    NearDuplicateIndex.Match reused = disease.getNote(NearDuplicateIndex.Match.class);
+                    InferenceRouter.Decision decision = disease.getNote(InferenceRouter.Decision.class);
+                    if (reused != null) {
+                        resultText.append(" (reused from a near-identical photo, ")
+                                .append(reused.getDistance()).append(" bits apart)");
+                    } else if (decision != null) {
+                        resultText.append(" (").append(decision.getBackend());
+                        Precision precision = localClassifier.resolve(modelName);
+                        if (decision.getBackend() == InferenceRouter.Backend.LOCAL && precision != null) {
+                            resultText.append(", ").append(precision.name().toLowerCase(Locale.ROOT));
+                        }
+                        resultText.append(")");
+                    }
+                    CascadeClassifier.Outcome outcome = disease.getNote(CascadeClassifier.Outcome.class);
+                    if (outcome != null && reused == null) {
+                        resultText.append("\nCascade: ").append(outcome);
+                    }
+                    resultText
                             .append("\nDisease: ").append(disease.getDisease())
                             .append("\nScore: ").append(String.format("%.2f", disease.getScore()));
 
                     if (disease.getDetail() != null) {
                         resultText.append("\n\nDetails:\n");
-                        DiseaseDetail detail = disease.getDetail();
+                        appendTopScores(resultText, disease.getDetail());
+                    }
 
-                        if (detail.getHac_to() > 0) {
-                            resultText.append("Hac to: ").append(String.format("%.2f", detail.getHac_to())).append("\n");
-                        }
-                        if (detail.getVay() > 0) {
-                            resultText.append("Vay: ").append(String.format("%.2f", detail.getVay())).append("\n");
-                        }
-                        if (detail.getDay() > 0) {
-                            resultText.append("Day: ").append(String.format("%.2f", detail.getDay())).append("\n");
-                        }
-                        if (detail.getKhong_benh() > 0) {
-                            resultText.append("Khong benh: ").append(String.format("%.2f", detail.getKhong_benh())).append("\n");
-                        }
-                        if (detail.getUng_thu() > 0) {
-                            resultText.append("Ung thu: ").append(String.format("%.2f", detail.getUng_thu())).append("\n");
-                        }
-                        if (detail.getBenh_khac() > 0) {
-                            resultText.append("Benh khac: ").append(String.format("%.2f", detail.getBenh_khac())).append("\n");
-                        }
+                    resultTextView.setText(resultText.toString());
+
+                    long end = System.nanoTime();
+                    Metrics.record(modelName, Stage.RENDER, end - renderStart);
+                    Metrics.record(modelName, Stage.TOTAL, end - start);
+                });
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                runOnUiThread(() -> {
+                    if (!isCurrent(sequence)) {
+                        return;
                     }
+                    progressBar.setVisibility(View.GONE);
+                    resultTextView.setText("Error: " + errorMessage);
+                });
+            }
+        };
+        // Only this explicit request is kept for later when the server cannot be reached
+        callback = new JournalingCallback(selectedBitmap, modelName, journalEncoder, NetworkClient.getJournalDrainer(),
+                JOURNAL_EXECUTOR, callback);
+        Cancellable handle = speculativeClassifier.claim(active, selectedBitmap, modelName, callback);
+        if (handle == null) {
+            handle = active.classify(selectedBitmap, modelName, callback);
+        }
+        // A reused or speculated result is delivered from inside the call, and isCurrent() has already run
+        if (pendingBitmap != null) {
+            pendingClassify = handle;
+        }
+    }
 
+    // Split the image into overlapping model-sized tiles and classify them on all cores
+    private boolean classifyTiled() {
+        final String modelName = currentModel;
+        if (!localClassifier.hasModel(modelName)) {
+            resultTextView.setText("Tiled inference needs an on-device model for " + modelName);
+            return true;
+        }
+        supersedeClassification();
+        final long sequence = classifySequence;
+        pendingBitmap = null;
+        progressBar.setVisibility(View.VISIBLE);
+        TiledClassifier.Listener listener = new TiledClassifier.Listener() {
+            @SuppressLint("DefaultLocale")
+            @Override
+            public void onResult(TiledClassifier.Result result) {
+                runOnUiThread(() -> {
+                    if (!isCurrent(sequence)) {
+                        return;
+                    }
+                    progressBar.setVisibility(View.GONE);
+                    Disease disease = result.toDisease();
+                    TileGrid grid = result.getGrid();
+                    StringBuilder resultText = new StringBuilder();
+                    resultText.append("Model: ").append(modelName).append(" (tiled)")
+                            .append("\nDisease: ").append(disease.getDisease())
+                            .append("\nScore: ").append(String.format("%.2f", disease.getScore()))
+                            .append(String.format("\n%d tiles (%dx%d of %dpx), %d ms, CPU %.0f%%",
+                                    grid.getCount(), grid.getCols(), grid.getRows(), grid.getTileSize(),
+                                    result.getWallMs(), result.getCpuUtilization() * 100))
+                            .append("\n\nHeatmap:\n").append(result.heatmapText())
+                            .append("\nDetails:\n");
+                    appendTopScores(resultText, disease.getDetail());
                     resultTextView.setText(resultText.toString());
                 });
             }
@@ -197,10 +805,87 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onFailure(String errorMessage) {
                 runOnUiThread(() -> {
+                    if (!isCurrent(sequence)) {
+                        return;
+                    }
                     progressBar.setVisibility(View.GONE);
                     resultTextView.setText("Error: " + errorMessage);
                 });
             }
-        });
+        };
+        pendingClassify = selectedUri != null
+                ? tiledClassifier.classify(getContentResolver(), selectedUri, modelName, listener)
+                : tiledClassifier.classify(selectedBitmap, modelName, listener);
+        return true;
+    }
+
+    // The highest non-zero scores, best first, e.g. "Ung thu: 0.12"
+    @SuppressLint("DefaultLocale")
+    private static void appendTopScores(StringBuilder text, DiseaseDetail detail) {
+        boolean[] shown = new boolean[detail.size()];
+        for (int row = 0; row < MAX_DETAIL_ROWS; row++) {
+            int best = -1;
+            for (int i = 0; i < detail.size(); i++) {
+                if (!shown[i] && detail.getScore(i) > 0 && (best < 0 || detail.getScore(i) > detail.getScore(best))) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                return;
+            }
+            shown[best] = true;
+            text.append(detail.getLabel(best).replace('_', ' ')).append(": ")
+                    .append(String.format("%.2f", detail.getScore(best))).append("\n");
+        }
+    }
+
+    // Write the latency histograms as JSON and CSV next to the app's other files
+    private boolean exportMetrics() {
+        List<Metrics.Row> rows = Metrics.snapshot();
+        File dir = new File(getExternalFilesDir(null), "metrics");
+        String name = "metrics-" + System.currentTimeMillis();
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            writeFile(new File(dir, name + ".json"), Metrics.toJson(rows));
+            writeFile(new File(dir, name + ".csv"), Metrics.toCsv(rows));
+            String exported = "Exported " + rows.size() + " metrics to\n" + dir + "/" + name;
+            BitmapPool pool = StatsBitmapPool.from(this);
+            if (pool instanceof StatsBitmapPool) {
+                StatsBitmapPool.Stats stats = ((StatsBitmapPool) pool).getStats();
+                writeFile(new File(dir, name + "-bitmap-pool.json"), stats.toJson());
+                exported += "\n" + stats;
+            }
+            JournalDrainer drainer = NetworkClient.getJournalDrainer();
+            if (drainer != null) {
+                writeFile(new File(dir, name + "-journal.json"), drainer.getStats().toJson());
+                exported += "\n\nOffline queue: " + drainer.getStats();
+            }
+            NearDuplicateIndex.Stats reuseStats = reuseClassifier.getIndex().getStats();
+            writeFile(new File(dir, name + "-reuse.json"), reuseStats.toJson());
+            exported += "\n\nNear-duplicates: " + reuseStats;
+            NearDuplicateIndex.Stats cascadeReuseStats = reuseCascadeClassifier.getIndex().getStats();
+            writeFile(new File(dir, name + "-reuse-cascade.json"), cascadeReuseStats.toJson());
+            exported += "\n\nNear-duplicates (cascade): " + cascadeReuseStats;
+            SpeculativeClassifier.Stats speculationStats = speculativeClassifier.getStats();
+            writeFile(new File(dir, name + "-speculation.json"), speculationStats.toJson());
+            exported += "\n\nSpeculation: " + speculationStats;
+            CascadeClassifier.Stats cascadeStats = cascadeClassifier.getStats();
+            if (cascadeStats.getRequests() > 0) {
+                writeFile(new File(dir, name + "-cascade.json"), cascadeStats.toJson());
+                exported += "\n\nCascade: " + cascadeStats;
+            }
+            resultTextView.setText(exported);
+        } catch (IOException e) {
+            resultTextView.setText("Error: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
     }
 }
\ No newline at end of file
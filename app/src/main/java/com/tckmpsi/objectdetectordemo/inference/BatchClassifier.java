@@ -0,0 +1,279 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.network.RequestHandle;
+import com.tckmpsi.objectdetectordemo.utils.ImageIngestor;
+import com.tckmpsi.objectdetectordemo.utils.ImagePreprocessor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Classifies many gallery images at once: one batched request per chunk for the
+// server, or one stacked NCHW tensor per chunk on the device
+public class BatchClassifier {
+
+    private static final String TAG = "BatchClassifier";
+
+    private final ContentResolver resolver;
+    private final LocalClassifier local;
+    private final ImagePreprocessor preprocessor;
+    private final int batchSize;
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+
+    public BatchClassifier(ContentResolver resolver, LocalClassifier local, ImagePreprocessor preprocessor,
+                           int batchSize) {
+        this.resolver = resolver;
+        this.local = local;
+        this.preprocessor = preprocessor;
+        this.batchSize = batchSize;
+    }
+
+    // Cancelling stops decoding and sending the chunks not yet started; a chunk
+    // already running still reports to the listener
+    public Cancellable classify(List<Uri> uris, String modelName, Listener listener) {
+        final RequestHandle handle = new RequestHandle();
+        decodeExecutor.execute(() -> {
+            if (handle.isCancelled()) {
+                return;
+            }
+            if (local.hasModel(modelName)) {
+                classifyLocal(uris, modelName, handle, listener);
+            } else {
+                classifyRemote(uris, modelName, handle, listener);
+            }
+        });
+        return handle;
+    }
+
+    // Decode and encode one chunk at a time, uploading each chunk while the next one is decoded
+    private void classifyRemote(List<Uri> uris, String modelName, RequestHandle handle, Listener listener) {
+        Progress progress = new Progress(uris.size(), "remote", listener);
+        ModelSpec spec = ModelSpec.forName(modelName);
+
+        for (int from = 0; from < uris.size() && !handle.isCancelled(); from += batchSize) {
+            int count = Math.min(batchSize, uris.size() - from);
+            List<byte[]> jpegs = new ArrayList<>(count);
+            List<Integer> indices = new ArrayList<>(count);
+            for (int i = from; i < from + count; i++) {
+                Bitmap bitmap = decode(uris.get(i), preprocessor.targetSize(spec));
+                if (bitmap == null) {
+                    progress.failed(i, "Could not decode image");
+                    continue;
+                }
+                jpegs.add(preprocessor.prepare(bitmap, spec).getJpeg());
+                bitmap.recycle();
+                indices.add(i);
+            }
+            if (jpegs.isEmpty()) {
+                continue;
+            }
+
+            NetworkClient.sendImageBatch(jpegs, modelName, new NetworkClient.BatchCallback() {
+                @Override
+                public void onSuccess(List<Disease> diseases) {
+                    for (int i = 0; i < diseases.size(); i++) {
+                        progress.succeeded(indices.get(i), diseases.get(i));
+                    }
+                }
+
+                @Override
+                public void onFailure(String errorMessage) {
+                    for (int index : indices) {
+                        progress.failed(index, errorMessage);
+                    }
+                }
+            });
+        }
+    }
+
+    // Decode everything at model input size, then run stacked batches on the device
+    private void classifyLocal(List<Uri> uris, String modelName, RequestHandle handle, Listener listener) {
+        Progress progress = new Progress(uris.size(), "local", listener);
+        int inputSize = ModelSpec.forName(modelName).getInputSize();
+
+        final List<Bitmap> bitmaps = new ArrayList<>(uris.size());
+        final List<Integer> indices = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            if (handle.isCancelled()) {
+                for (Bitmap bitmap : bitmaps) {
+                    bitmap.recycle();
+                }
+                return;
+            }
+            Bitmap bitmap = decode(uris.get(i), inputSize);
+            if (bitmap == null) {
+                progress.failed(i, "Could not decode image");
+                continue;
+            }
+            bitmaps.add(Bitmap.createScaledBitmap(bitmap, inputSize, inputSize, true));
+            if (bitmaps.get(bitmaps.size() - 1) != bitmap) {
+                bitmap.recycle();
+            }
+            indices.add(i);
+        }
+        if (bitmaps.isEmpty()) {
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        local.classifyBatch(bitmaps, modelName, batchSize, new NetworkClient.BatchCallback() {
+            @Override
+            public void onSuccess(List<Disease> diseases) {
+                int start = next.getAndAdd(diseases.size());
+                for (int i = 0; i < diseases.size(); i++) {
+                    progress.succeeded(indices.get(start + i), diseases.get(i));
+                }
+                recycleUpTo(start + diseases.size());
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                int start = next.get();
+                int count = Math.min(batchSize, bitmaps.size() - start);
+                next.addAndGet(count);
+                for (int i = 0; i < count; i++) {
+                    progress.failed(indices.get(start + i), errorMessage);
+                }
+                recycleUpTo(start + count);
+            }
+
+            private void recycleUpTo(int end) {
+                if (end == bitmaps.size()) {
+                    for (Bitmap bitmap : bitmaps) {
+                        bitmap.recycle();
+                    }
+                }
+            }
+        });
+    }
+
+    // Subsampled, upright decode so the shorter side is at least targetSize
+    private Bitmap decode(Uri uri, int targetSize) {
+        try {
+            ImageIngestor.Decoded decoded = ImageIngestor.decode(resolver, uri, targetSize);
+            if (decoded == null) {
+                return null;
+            }
+            Bitmap upright = ImageIngestor.upright(decoded, 1f);
+            if (upright != decoded.getBitmap()) {
+                decoded.getBitmap().recycle();
+            }
+            return upright;
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Could not open " + uri, e);
+            return null;
+        }
+    }
+
+    public void close() {
+        decodeExecutor.shutdownNow();
+    }
+
+    public interface Listener {
+        // Called once per image, from a background thread, in completion order
+        void onItem(int index, Disease disease);
+
+        void onItemFailed(int index, String errorMessage);
+
+        void onComplete(Stats stats);
+    }
+
+    // Counts finished items and fires onComplete after the last one
+    private static class Progress {
+        private final int total;
+        private final String backend;
+        private final Listener listener;
+        private final long start = SystemClock.elapsedRealtime();
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        // Bumped after the outcome counters; exactly one caller sees it reach total
+        private final AtomicInteger completed = new AtomicInteger();
+
+        Progress(int total, String backend, Listener listener) {
+            this.total = total;
+            this.backend = backend;
+            this.listener = listener;
+        }
+
+        void succeeded(int index, Disease disease) {
+            listener.onItem(index, disease);
+            succeeded.incrementAndGet();
+            finishIfDone();
+        }
+
+        void failed(int index, String errorMessage) {
+            listener.onItemFailed(index, errorMessage);
+            failed.incrementAndGet();
+            finishIfDone();
+        }
+
+        private void finishIfDone() {
+            if (completed.incrementAndGet() == total) {
+                Stats stats = new Stats(total, succeeded.get(), failed.get(),
+                        SystemClock.elapsedRealtime() - start, backend);
+                Log.d(TAG, stats.toString());
+                listener.onComplete(stats);
+            }
+        }
+    }
+
+    public static class Stats {
+        private final int total;
+        private final int succeeded;
+        private final int failed;
+        private final long elapsedMs;
+        private final String backend;
+
+        Stats(int total, int succeeded, int failed, long elapsedMs, String backend) {
+            this.total = total;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.elapsedMs = elapsedMs;
+            this.backend = backend;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public String getBackend() {
+            return backend;
+        }
+
+        public double getImagesPerSecond() {
+            return elapsedMs == 0 ? 0 : total * 1000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d/%d images in %d ms on %s (%.1f images/s, %d failed)",
+                    succeeded, total, elapsedMs, backend, getImagesPerSecond(), failed);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+
+import com.tckmpsi.objectdetectordemo.metrics.Histogram;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.network.RequestHandle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Runs cheap models first and only escalates to the requested (heavy) model
+// when they are unsure. A stage's answer is accepted when its top-1 score
+// clears the threshold for that class; the requested model always answers
+// last. Each stage goes through the delegate, so the router still picks
+// on-device or server per model. Counts which stage resolves each request
+// and what that saves against always running the requested model; each result
+// carries its Outcome as a note.
+public class CascadeClassifier implements Classifier {
+
+    private final Classifier delegate;
+    private final Config config;
+    private final Stats stats = new Stats();
+
+    public CascadeClassifier(Classifier delegate, Config config) {
+        this.delegate = delegate;
+        this.config = config;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    // The configured stages that come before modelName, then modelName itself
+    public List<String> stagesFor(String modelName) {
+        List<String> stages = new ArrayList<>();
+        for (String stage : config.stages) {
+            if (stage.equals(modelName)) {
+                break;
+            }
+            stages.add(stage);
+        }
+        stages.add(modelName);
+        return stages;
+    }
+
+    @Override
+    public Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback) {
+        RequestHandle handle = new RequestHandle();
+        Run run = new Run(bitmap, modelName, stagesFor(modelName), handle, callback);
+        run.next(0);
+        return handle;
+    }
+
+    // Nothing of its own to release; the delegate is shared and closed by its owner
+    @Override
+    public void close() {
+    }
+
+    // State of one request as it moves down the stages
+    private class Run {
+        final Bitmap bitmap;
+        final String target;
+        final List<String> stages;
+        final RequestHandle handle;
+        final NetworkClient.DiseaseCallback callback;
+        final long start = System.nanoTime();
+
+        Run(Bitmap bitmap, String target, List<String> stages, RequestHandle handle,
+            NetworkClient.DiseaseCallback callback) {
+            this.bitmap = bitmap;
+            this.target = target;
+            this.stages = stages;
+            this.handle = handle;
+            this.callback = callback;
+        }
+
+        void next(final int index) {
+            if (handle.isCancelled()) {
+                return;
+            }
+            final String stage = stages.get(index);
+            final boolean last = index == stages.size() - 1;
+            final long stageStart = System.nanoTime();
+            handle.attach(delegate.classify(bitmap, stage, new NetworkClient.DiseaseCallback() {
+                @Override
+                public void onSuccess(Disease disease) {
+                    if (handle.isCancelled()) {
+                        return;
+                    }
+                    stats.recordStage(stage, elapsedMs(stageStart), true);
+                    if (last || config.accepts(disease)) {
+                        finish(index, disease);
+                    } else {
+                        next(index + 1);
+                    }
+                }
+
+                @Override
+                public void onFailure(String errorMessage) {
+                    if (handle.isCancelled()) {
+                        return;
+                    }
+                    stats.recordStage(stage, elapsedMs(stageStart), false);
+                    if (last) {
+                        stats.recordFailure(target, elapsedMs(start));
+                        callback.onFailure(errorMessage);
+                    } else {
+                        // A cheap stage that cannot answer just escalates
+                        next(index + 1);
+                    }
+                }
+            }));
+        }
+
+        void finish(int index, Disease disease) {
+            long elapsedMs = elapsedMs(start);
+            stats.recordResolved(target, stages.get(index), elapsedMs);
+            Outcome outcome = new Outcome(target, stages.get(index), index, stages.size(), elapsedMs);
+            callback.onSuccess(disease.withNote(Outcome.class, outcome));
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    public static class Outcome {
+        private final String target;
+        private final String resolvedBy;
+        private final int stage;
+        private final int stageCount;
+        private final long elapsedMs;
+
+        Outcome(String target, String resolvedBy, int stage, int stageCount, long elapsedMs) {
+            this.target = target;
+            this.resolvedBy = resolvedBy;
+            this.stage = stage;
+            this.stageCount = stageCount;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public String getResolvedBy() {
+            return resolvedBy;
+        }
+
+        // True when a cheaper model answered and the requested one never ran
+        public boolean isEarlyExit() {
+            return stage < stageCount - 1;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s, stage %d/%d, %d ms", resolvedBy, stage + 1, stageCount, elapsedMs);
+        }
+    }
+
+    // Per-model counters, plus what the same requests would have cost on the requested model alone.
+    // The latency baseline is the requested model's mean latency when it did run, so it is an
+    // estimate until every requested model has escalated at least once.
+    public static class Stats {
+        private final Map<String, StageStats> stages = new LinkedHashMap<>();
+        private final Map<String, Long> requestsByTarget = new HashMap<>();
+        private long requests;
+        private long earlyExits;
+        private long failures;
+        private long totalMs;
+
+        synchronized void recordStage(String model, long latencyMs, boolean answered) {
+            StageStats stage = stage(model);
+            stage.runs++;
+            if (answered) {
+                stage.latencyMs.record(latencyMs);
+            } else {
+                stage.failures++;
+            }
+        }
+
+        synchronized void recordResolved(String target, String resolvedBy, long elapsedMs) {
+            countRequest(target, elapsedMs);
+            stage(resolvedBy).resolved++;
+            if (!resolvedBy.equals(target)) {
+                earlyExits++;
+            }
+        }
+
+        synchronized void recordFailure(String target, long elapsedMs) {
+            countRequest(target, elapsedMs);
+            failures++;
+        }
+
+        private void countRequest(String target, long elapsedMs) {
+            requests++;
+            totalMs += elapsedMs;
+            Long count = requestsByTarget.get(target);
+            requestsByTarget.put(target, count == null ? 1 : count + 1);
+        }
+
+        private StageStats stage(String model) {
+            StageStats stage = stages.get(model);
+            if (stage == null) {
+                stage = new StageStats(model);
+                stages.put(model, stage);
+            }
+            return stage;
+        }
+
+        public synchronized long getRequests() {
+            return requests;
+        }
+
+        // Requests answered by a cheaper model than the one asked for
+        public synchronized double getEarlyExitRate() {
+            return requests > 0 ? (double) earlyExits / requests : 0;
+        }
+
+        // Share of requests each model resolved, in the order models were first used
+        public synchronized Map<String, Double> getResolvedShare() {
+            Map<String, Double> share = new LinkedHashMap<>();
+            for (StageStats stage : stages.values()) {
+                share.put(stage.model, requests > 0 ? (double) stage.resolved / requests : 0);
+            }
+            return share;
+        }
+
+        // Mean end-to-end latency of the cascade, in ms
+        public synchronized double getMeanLatencyMs() {
+            return requests > 0 ? (double) totalMs / requests : 0;
+        }
+
+        // Mean latency had every request gone straight to its requested model, or -1 if unknown
+        public synchronized double getBaselineLatencyMs() {
+            double sum = 0;
+            long counted = 0;
+            for (Map.Entry<String, Long> entry : requestsByTarget.entrySet()) {
+                StageStats stage = stages.get(entry.getKey());
+                if (stage == null || stage.latencyMs.getCount() == 0) {
+                    continue;
+                }
+                sum += entry.getValue() * stage.latencyMs.getMean();
+                counted += entry.getValue();
+            }
+            return counted > 0 ? sum / counted : -1;
+        }
+
+        // Model compute spent by the cascade and by the baseline, in GFLOPs. On the server
+        // path this is the server's work per request.
+        public synchronized double getGflops() {
+            double gflops = 0;
+            for (StageStats stage : stages.values()) {
+                gflops += stage.runs * ModelSpec.forName(stage.model).getGflops();
+            }
+            return gflops;
+        }
+
+        public synchronized double getBaselineGflops() {
+            double gflops = 0;
+            for (Map.Entry<String, Long> entry : requestsByTarget.entrySet()) {
+                gflops += entry.getValue() * ModelSpec.forName(entry.getKey()).getGflops();
+            }
+            return gflops;
+        }
+
+        public synchronized String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US,
+                    "{\"requests\":%d,\"early_exit_rate\":%.3f,\"failures\":%d,\"mean_latency_ms\":%.1f,"
+                            + "\"baseline_latency_ms\":%.1f,\"gflops\":%.2f,\"baseline_gflops\":%.2f,\"stages\":[",
+                    requests, getEarlyExitRate(), failures, getMeanLatencyMs(), getBaselineLatencyMs(),
+                    getGflops(), getBaselineGflops()));
+            boolean first = true;
+            for (StageStats stage : stages.values()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(String.format(Locale.US,
+                        "{\"model\":\"%s\",\"runs\":%d,\"resolved\":%d,\"failures\":%d,"
+                                + "\"latency_mean_ms\":%.1f,\"latency_p95_ms\":%d}",
+                        stage.model, stage.runs, stage.resolved, stage.failures,
+                        stage.latencyMs.getMean(), stage.latencyMs.percentile(0.95)));
+            }
+            return sb.append("]}").toString();
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "%d requests, %.0f%% resolved early", requests, getEarlyExitRate() * 100));
+            for (StageStats stage : stages.values()) {
+                sb.append(String.format(Locale.US, "\n%s: resolved %d of %d runs, mean %.0f ms",
+                        stage.model, stage.resolved, stage.runs, stage.latencyMs.getMean()));
+            }
+            double baselineMs = getBaselineLatencyMs();
+            if (baselineMs >= 0) {
+                sb.append(String.format(Locale.US, "\nlatency %.0f ms vs %.0f ms heavy-only",
+                        getMeanLatencyMs(), baselineMs));
+            }
+            double baselineGflops = getBaselineGflops();
+            if (baselineGflops > 0) {
+                sb.append(String.format(Locale.US, "\ncompute %.0f%% of heavy-only",
+                        getGflops() / baselineGflops * 100));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class StageStats {
+        final String model;
+        final Histogram latencyMs = new Histogram();
+        long runs;
+        long resolved;
+        long failures;
+
+        StageStats(String model) {
+            this.model = model;
+        }
+    }
+
+    public static class Config {
+        private final List<String> stages;
+        private final float defaultThreshold;
+        private final Map<String, Float> classThresholds;
+
+        private Config(Builder builder) {
+            this.stages = Collections.unmodifiableList(new ArrayList<>(builder.stages));
+            this.defaultThreshold = builder.defaultThreshold;
+            this.classThresholds = Collections.unmodifiableMap(new HashMap<>(builder.classThresholds));
+        }
+
+        // Cheapest first; a request for one of these stops the cascade at that model
+        public List<String> getStages() {
+            return stages;
+        }
+
+        public float threshold(String label) {
+            Float threshold = classThresholds.get(label);
+            return threshold != null ? threshold : defaultThreshold;
+        }
+
+        // Whether a stage's answer is confident enough to return without escalating
+        public boolean accepts(Disease disease) {
+            return disease.getDisease() != null && disease.getScore() >= threshold(disease.getDisease());
+        }
+
+        public static class Builder {
+            private List<String> stages = Collections.singletonList("mobilenet_v2");
+            private float defaultThreshold = 0.8f;
+            private final Map<String, Float> classThresholds = new HashMap<>();
+
+            public Builder stages(String... stages) {
+                this.stages = Arrays.asList(stages);
+                return this;
+            }
+
+            // Top-1 score a cheap stage needs for classes without their own threshold
+            public Builder defaultThreshold(float threshold) {
+                this.defaultThreshold = threshold;
+                return this;
+            }
+
+            // E.g. a higher bar for classes that are costly to get wrong; above 1 always escalates
+            public Builder classThreshold(String label, float threshold) {
+                classThresholds.put(label, threshold);
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+
+// Common interface for the on-device and remote classification backends.
+// Implementations must not block the caller; results arrive on a background thread.
+public interface Classifier {
+
+    // Cancelling the returned handle drops the callback and stops what work it can
+    Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback);
+
+    // Release threads and loaded models
+    void close();
+}
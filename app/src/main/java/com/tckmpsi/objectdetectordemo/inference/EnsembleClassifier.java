@@ -0,0 +1,309 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.utils.ImagePreprocessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Sends one image to several server models at once and combines their answers.
+// The image is encoded once per distinct input size, results stream to the
+// listener as they arrive, and an optional deadline returns a partial ensemble.
+public class EnsembleClassifier {
+
+    private static final String TAG = "EnsembleClassifier";
+
+    public enum Aggregation {
+        // Mean of the per-class scores of every model
+        AVERAGE,
+        // Most common top-1 class; ties go to the higher mean score
+        MAJORITY_VOTE
+    }
+
+    private final ImagePreprocessor preprocessor;
+    private final ExecutorService encodeExecutor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    public EnsembleClassifier(ImagePreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+
+    // deadlineMs <= 0 waits for every model. Cancelling stops the encodes and
+    // requests still outstanding; the listener hears nothing more.
+    public Cancellable classify(Bitmap bitmap, List<String> modelNames, Aggregation aggregation, long deadlineMs,
+                                Listener listener) {
+        final Run run = new Run(modelNames, aggregation, listener);
+        if (deadlineMs > 0) {
+            run.deadline = timer.schedule(run::finish, deadlineMs, TimeUnit.MILLISECONDS);
+        }
+
+        encodeExecutor.execute(() -> {
+            // Models sharing an input size share one encoded image
+            Map<Integer, byte[]> encoded = new HashMap<>();
+            for (String modelName : modelNames) {
+                if (run.isCancelled()) {
+                    return;
+                }
+                ModelSpec spec = ModelSpec.forName(modelName);
+                int size = preprocessor.targetSize(spec);
+                byte[] jpeg = encoded.get(size);
+                if (jpeg == null) {
+                    jpeg = preprocessor.prepare(bitmap, spec).getJpeg();
+                    encoded.put(size, jpeg);
+                }
+                run.track(NetworkClient.sendImageBytes(jpeg, modelName, new NetworkClient.DiseaseCallback() {
+                    @Override
+                    public void onSuccess(Disease disease) {
+                        run.onResult(modelName, disease);
+                    }
+
+                    @Override
+                    public void onFailure(String errorMessage) {
+                        run.onFailure(modelName, errorMessage);
+                    }
+                }));
+            }
+        });
+        return run;
+    }
+
+    public void close() {
+        encodeExecutor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    // Combine per-model results into one prediction
+    public static Result aggregate(Map<String, Disease> results, Aggregation aggregation,
+                                   List<String> missing, long elapsedMs) {
+        Map<String, Double> meanScores = new LinkedHashMap<>();
+        Map<String, Integer> votes = new HashMap<>();
+        for (Disease disease : results.values()) {
+            Map<String, Double> scores = disease.getDetail() != null
+                    ? disease.getDetail().toMap()
+                    : Collections.singletonMap(disease.getDisease(), disease.getScore());
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                Double sum = meanScores.get(entry.getKey());
+                meanScores.put(entry.getKey(), (sum == null ? 0 : sum) + entry.getValue());
+            }
+            Integer count = votes.get(disease.getDisease());
+            votes.put(disease.getDisease(), count == null ? 1 : count + 1);
+        }
+        int n = Math.max(1, results.size());
+        for (Map.Entry<String, Double> entry : meanScores.entrySet()) {
+            entry.setValue(entry.getValue() / n);
+        }
+
+        String best = null;
+        double bestScore = -1;
+        if (aggregation == Aggregation.MAJORITY_VOTE) {
+            int bestVotes = 0;
+            for (Map.Entry<String, Integer> entry : votes.entrySet()) {
+                Double mean = meanScores.get(entry.getKey());
+                double score = mean == null ? 0 : mean;
+                if (entry.getValue() > bestVotes || (entry.getValue() == bestVotes && score > bestScore)) {
+                    best = entry.getKey();
+                    bestVotes = entry.getValue();
+                    bestScore = score;
+                }
+            }
+        } else {
+            for (Map.Entry<String, Double> entry : meanScores.entrySet()) {
+                if (entry.getValue() > bestScore) {
+                    best = entry.getKey();
+                    bestScore = entry.getValue();
+                }
+            }
+        }
+
+        Disease combined = new Disease();
+        combined.setDisease(best);
+        combined.setScore(Math.max(0, bestScore));
+        return new Result(combined, meanScores, new ArrayList<>(results.keySet()), missing, elapsedMs);
+    }
+
+    // State of one ensemble request
+    private static class Run implements Cancellable {
+        final List<String> modelNames;
+        final Aggregation aggregation;
+        final Listener listener;
+        final long start = SystemClock.elapsedRealtime();
+        final Map<String, Disease> results = new LinkedHashMap<>();
+        final List<Cancellable> requests = new ArrayList<>();
+        int answered;
+        boolean finished;
+        boolean cancelled;
+        volatile ScheduledFuture<?> deadline;
+
+        Run(List<String> modelNames, Aggregation aggregation, Listener listener) {
+            this.modelNames = modelNames;
+            this.aggregation = aggregation;
+            this.listener = listener;
+        }
+
+        void track(Cancellable request) {
+            synchronized (this) {
+                if (!cancelled) {
+                    requests.add(request);
+                    return;
+                }
+            }
+            request.cancel();
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void cancel() {
+            List<Cancellable> outstanding;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                finished = true;
+                outstanding = new ArrayList<>(requests);
+                requests.clear();
+            }
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            for (Cancellable request : outstanding) {
+                request.cancel();
+            }
+        }
+
+        void onResult(String modelName, Disease disease) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                results.put(modelName, disease);
+            }
+            listener.onModelResult(modelName, disease);
+            countAnswer();
+        }
+
+        void onFailure(String modelName, String errorMessage) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+            }
+            Log.w(TAG, modelName + " failed: " + errorMessage);
+            listener.onModelFailed(modelName, errorMessage);
+            countAnswer();
+        }
+
+        private void countAnswer() {
+            boolean last;
+            synchronized (this) {
+                last = ++answered == modelNames.size();
+            }
+            if (last) {
+                finish();
+            }
+        }
+
+        void finish() {
+            Map<String, Disease> snapshot;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                snapshot = new LinkedHashMap<>(results);
+            }
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            List<String> missing = new ArrayList<>();
+            for (String modelName : modelNames) {
+                if (!snapshot.containsKey(modelName)) {
+                    missing.add(modelName);
+                }
+            }
+            Result result = aggregate(snapshot, aggregation, missing, SystemClock.elapsedRealtime() - start);
+            Log.d(TAG, result.toString());
+            listener.onComplete(result);
+        }
+    }
+
+    public interface Listener {
+        // Called from a background thread as each model answers
+        void onModelResult(String modelName, Disease disease);
+
+        void onModelFailed(String modelName, String errorMessage);
+
+        // Called once, after the last model or at the deadline
+        void onComplete(Result result);
+    }
+
+    public static class Result {
+        private final Disease combined;
+        private final Map<String, Double> meanScores;
+        private final List<String> answered;
+        private final List<String> missing;
+        private final long elapsedMs;
+
+        Result(Disease combined, Map<String, Double> meanScores, List<String> answered, List<String> missing,
+               long elapsedMs) {
+            this.combined = combined;
+            this.meanScores = meanScores;
+            this.answered = answered;
+            this.missing = missing;
+            this.elapsedMs = elapsedMs;
+        }
+
+        // Null disease when no model answered in time
+        public Disease getCombined() {
+            return combined;
+        }
+
+        public Map<String, Double> getMeanScores() {
+            return meanScores;
+        }
+
+        public List<String> getAnswered() {
+            return answered;
+        }
+
+        // Models that failed or missed the deadline
+        public List<String> getMissing() {
+            return missing;
+        }
+
+        public boolean isPartial() {
+            return !missing.isEmpty();
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %.2f from %d models in %d ms%s",
+                    combined.getDisease(), combined.getScore(), answered.size(), elapsedMs,
+                    isPartial() ? " (missing " + missing + ")" : "");
+        }
+    }
+}
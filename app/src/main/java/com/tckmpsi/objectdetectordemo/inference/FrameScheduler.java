@@ -0,0 +1,214 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import java.util.Locale;
+
+// Hands camera frames to a single worker thread, keeping only the newest one.
+// When inference is slower than the camera, the waiting frame is replaced and
+// released instead of queueing up, so results never lag behind the preview.
+public class FrameScheduler<T> {
+
+    // Frames used for the FPS and latency figures
+    private static final int STATS_WINDOW = 30;
+
+    private final Processor<T> processor;
+    private final Releaser<T> releaser;
+    private final Thread worker;
+
+    private T pending;
+    private long pendingOfferedAt;
+    private boolean closed;
+
+    private long offered;
+    private long processed;
+    private long dropped;
+    private long failed;
+    private final long[] completedAt = new long[STATS_WINDOW];
+    private final long[] latencies = new long[STATS_WINDOW];
+
+    public FrameScheduler(String name, Processor<T> processor, Releaser<T> releaser) {
+        this.processor = processor;
+        this.releaser = releaser;
+        this.worker = new Thread(this::loop, name);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    // Called from the camera thread. Replaces (and releases) a frame that is still waiting.
+    public void offer(T frame) {
+        T replaced;
+        synchronized (this) {
+            if (closed) {
+                replaced = frame;
+            } else {
+                replaced = pending;
+                if (replaced != null) {
+                    dropped++;
+                }
+                pending = frame;
+                pendingOfferedAt = System.nanoTime();
+                offered++;
+                notifyAll();
+            }
+        }
+        if (replaced != null) {
+            releaser.release(replaced);
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            T frame;
+            long offeredAt;
+            synchronized (this) {
+                while (pending == null && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                frame = pending;
+                offeredAt = pendingOfferedAt;
+                pending = null;
+            }
+
+            boolean ok = false;
+            try {
+                processor.process(frame);
+                ok = true;
+            } catch (RuntimeException e) {
+                // Keep the stream alive; one bad frame should not stop it
+            } finally {
+                releaser.release(frame);
+            }
+
+            long now = System.nanoTime();
+            synchronized (this) {
+                if (ok) {
+                    int slot = (int) (processed % STATS_WINDOW);
+                    completedAt[slot] = now;
+                    latencies[slot] = now - offeredAt;
+                    processed++;
+                } else {
+                    failed++;
+                }
+            }
+        }
+    }
+
+    // Stop accepting frames, release the waiting one and wait for the frame in progress
+    public void close() {
+        T replaced;
+        synchronized (this) {
+            closed = true;
+            replaced = pending;
+            pending = null;
+            notifyAll();
+        }
+        if (replaced != null) {
+            releaser.release(replaced);
+        }
+        if (worker.isAlive() && Thread.currentThread() != worker) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public synchronized Stats getStats() {
+        int window = (int) Math.min(processed, STATS_WINDOW);
+        double fps = 0;
+        double meanLatencyMs = 0;
+        long maxLatencyNs = 0;
+        if (window > 0) {
+            int newest = (int) ((processed - 1) % STATS_WINDOW);
+            int oldest = (int) ((processed - window) % STATS_WINDOW);
+            long span = completedAt[newest] - completedAt[oldest];
+            if (window > 1 && span > 0) {
+                fps = (window - 1) * 1e9 / span;
+            }
+            long sum = 0;
+            for (int i = 0; i < window; i++) {
+                sum += latencies[i];
+                maxLatencyNs = Math.max(maxLatencyNs, latencies[i]);
+            }
+            meanLatencyMs = sum / 1e6 / window;
+        }
+        return new Stats(offered, processed, dropped, failed, fps, meanLatencyMs, maxLatencyNs / 1e6);
+    }
+
+    public interface Processor<T> {
+        // Runs on the worker thread; the frame is released right after it returns
+        void process(T frame);
+    }
+
+    public interface Releaser<T> {
+        // Return the frame to its owner, e.g. Image.close()
+        void release(T frame);
+    }
+
+    public static class Stats {
+        private final long offered;
+        private final long processed;
+        private final long dropped;
+        private final long failed;
+        private final double fps;
+        private final double meanLatencyMs;
+        private final double maxLatencyMs;
+
+        Stats(long offered, long processed, long dropped, long failed, double fps, double meanLatencyMs,
+              double maxLatencyMs) {
+            this.offered = offered;
+            this.processed = processed;
+            this.dropped = dropped;
+            this.failed = failed;
+            this.fps = fps;
+            this.meanLatencyMs = meanLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+        }
+
+        public long getOffered() {
+            return offered;
+        }
+
+        public long getProcessed() {
+            return processed;
+        }
+
+        // Replaced by a newer frame before the worker got to them
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        // Sustained rate over the last frames processed
+        public double getFps() {
+            return fps;
+        }
+
+        // From frame arrival to result, including time spent waiting for the worker
+        public double getMeanLatencyMs() {
+            return meanLatencyMs;
+        }
+
+        public double getMaxLatencyMs() {
+            return maxLatencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f fps, %.0f ms/frame (max %.0f), dropped %d/%d",
+                    fps, meanLatencyMs, maxLatencyMs, dropped, offered);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.network.RequestHandle;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sends each request to the backend (on-device or server) with the lowest
+// expected completion time, occasionally re-probing the slower one and
+// falling back to the other backend on failure or timeout
+public class InferenceRouter implements Classifier {
+
+    private static final String TAG = "InferenceRouter";
+
+    public enum Backend {
+        LOCAL,
+        REMOTE
+    }
+
+    private final OnDeviceClassifier local;
+    private final Classifier remote;
+    private final LatencyTracker tracker = new LatencyTracker(0.2);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    // Send every Nth request to the slower backend to keep its estimate fresh
+    private final int probeInterval;
+    // Give up on a backend after this long and try the other one
+    private final long timeoutMs;
+
+    private volatile DecisionListener listener;
+
+    public InferenceRouter(OnDeviceClassifier local, Classifier remote, int probeInterval, long timeoutMs) {
+        this.local = local;
+        this.remote = remote;
+        this.probeInterval = probeInterval;
+        this.timeoutMs = timeoutMs;
+    }
+
+    public void setDecisionListener(DecisionListener listener) {
+        this.listener = listener;
+    }
+
+    public LatencyTracker getTracker() {
+        return tracker;
+    }
+
+    @Override
+    public Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback) {
+        Decision decision = decide(modelName);
+        Log.d(TAG, decision.toString());
+        DecisionListener l = listener;
+        if (l != null) {
+            l.onDecision(decision);
+        }
+
+        boolean canFallBack = decision.backend == Backend.LOCAL || local.hasModel(modelName);
+        RequestHandle handle = new RequestHandle();
+        run(decision, bitmap, canFallBack, handle, callback);
+        return handle;
+    }
+
+    public Decision decide(String modelName) {
+        long n = requestCount.incrementAndGet();
+        String localKey = key(modelName, Backend.LOCAL);
+        String remoteKey = key(modelName, Backend.REMOTE);
+        double localMs = tracker.expected(localKey);
+        double remoteMs = tracker.expected(remoteKey);
+
+        if (!local.hasModel(modelName)) {
+            return new Decision(modelName, Backend.REMOTE, "no on-device model", localMs, remoteMs);
+        }
+        // The server answers while the model downloads, instead of the request waiting for it
+        if (local.needsDownload(modelName)) {
+            local.preload(modelName);
+            return new Decision(modelName, Backend.REMOTE, "downloading on-device model", localMs, remoteMs);
+        }
+        // Fail over while the circuit breaker says the server is unhealthy
+        if (!NetworkClient.isServerAvailable()) {
+            return new Decision(modelName, Backend.LOCAL, "server unavailable", localMs, remoteMs);
+        }
+        // Try each backend at least once before trusting the estimates
+        if (!tracker.isKnown(localKey)) {
+            return new Decision(modelName, Backend.LOCAL, "no local estimate", localMs, remoteMs);
+        }
+        double remoteCost;
+        String reason = "fastest";
+        if (tracker.isKnown(remoteKey)) {
+            remoteCost = cost(remoteKey);
+        } else {
+            // The registry's estimate stands in until the server has answered once; probes
+            // still measure it if that estimate keeps requests on the device
+            long prior = ModelSpec.forName(modelName).getExpectedLatencyMs();
+            if (prior <= 0) {
+                return new Decision(modelName, Backend.REMOTE, "no remote estimate", localMs, remoteMs);
+            }
+            remoteCost = prior;
+            remoteMs = prior;
+            reason = "registry estimate";
+        }
+
+        Backend faster = cost(localKey) <= remoteCost ? Backend.LOCAL : Backend.REMOTE;
+        if (probeInterval > 0 && n % probeInterval == 0) {
+            return new Decision(modelName, other(faster), "probe", localMs, remoteMs);
+        }
+        return new Decision(modelName, faster, reason, localMs, remoteMs);
+    }
+
+    // handle is cancelled by the caller; it then stops the current attempt and any fallback.
+    // A result goes to callback with the decision that produced it as a note.
+    private void run(final Decision decision, final Bitmap bitmap, final boolean canFallBack,
+                     final RequestHandle handle, final NetworkClient.DiseaseCallback callback) {
+        final Backend backend = decision.backend;
+        final String modelName = decision.modelName;
+        final String key = key(modelName, backend);
+        final long start = SystemClock.elapsedRealtime();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        // Cancelled on timeout too, so an abandoned attempt does not keep its backend busy
+        final RequestHandle attempt = new RequestHandle();
+
+        final ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if (done.compareAndSet(false, true)) {
+                attempt.cancel();
+                // Count the timeout as a slow sample so the router steers away
+                tracker.record(key, timeoutMs);
+                tracker.recordFailure(key);
+                fallBack(backend, bitmap, modelName, canFallBack, handle, callback,
+                        "Timed out after " + timeoutMs + " ms");
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        // Attached before the attempt starts, so a fallback it triggers straight away attaches after it
+        handle.attach(() -> {
+            // No result, no timeout sample and no fallback for a cancelled request
+            done.set(true);
+            timeout.cancel(false);
+            attempt.cancel();
+        });
+
+        Classifier classifier = backend == Backend.LOCAL ? local : remote;
+        attempt.attach(classifier.classify(bitmap, modelName, new NetworkClient.DiseaseCallback() {
+            @Override
+            public void onSuccess(Disease disease) {
+                tracker.record(key, SystemClock.elapsedRealtime() - start);
+                if (done.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    callback.onSuccess(disease.withNote(Decision.class, decision));
+                }
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                tracker.recordFailure(key);
+                if (done.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    fallBack(backend, bitmap, modelName, canFallBack, handle, callback, errorMessage);
+                }
+            }
+        }));
+    }
+
+    private void fallBack(Backend failed, Bitmap bitmap, String modelName, boolean canFallBack,
+                          RequestHandle handle, NetworkClient.DiseaseCallback callback, String errorMessage) {
+        if (!canFallBack) {
+            callback.onFailure(errorMessage);
+            return;
+        }
+        Backend next = other(failed);
+        Log.w(TAG, failed + " failed for " + modelName + " (" + errorMessage + "), falling back to " + next);
+        Decision decision = new Decision(modelName, next, "fallback", tracker.expected(key(modelName, Backend.LOCAL)),
+                tracker.expected(key(modelName, Backend.REMOTE)));
+        run(decision, bitmap, false, handle, callback);
+    }
+
+    // Expected time to an answer: a failed attempt costs up to the timeout before the fallback starts.
+    // A backend that has only ever failed is avoided, apart from probes.
+    private double cost(String key) {
+        double expected = tracker.expected(key);
+        if (expected < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return expected + tracker.failureRate(key) * timeoutMs;
+    }
+
+    private static Backend other(Backend backend) {
+        return backend == Backend.LOCAL ? Backend.REMOTE : Backend.LOCAL;
+    }
+
+    private static String key(String modelName, Backend backend) {
+        return modelName + "/" + backend.name().toLowerCase(Locale.US);
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        local.close();
+        remote.close();
+    }
+
+    public interface DecisionListener {
+        void onDecision(Decision decision);
+    }
+
+    public static class Decision {
+        private final String modelName;
+        private final Backend backend;
+        private final String reason;
+        private final double expectedLocalMs;
+        private final double expectedRemoteMs;
+
+        Decision(String modelName, Backend backend, String reason, double expectedLocalMs, double expectedRemoteMs) {
+            this.modelName = modelName;
+            this.backend = backend;
+            this.reason = reason;
+            this.expectedLocalMs = expectedLocalMs;
+            this.expectedRemoteMs = expectedRemoteMs;
+        }
+
+        public String getModelName() {
+            return modelName;
+        }
+
+        public Backend getBackend() {
+            return backend;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        // -1 when there is no estimate yet
+        public double getExpectedLocalMs() {
+            return expectedLocalMs;
+        }
+
+        public double getExpectedRemoteMs() {
+            return expectedRemoteMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s -> %s (%s; local %.0f ms, remote %.0f ms)",
+                    modelName, backend, reason, expectedLocalMs, expectedRemoteMs);
+        }
+    }
+}
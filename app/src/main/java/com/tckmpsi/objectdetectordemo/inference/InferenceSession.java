@@ -0,0 +1,241 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Reusable buffers for classifying at one input size. The input tensor wraps a
+// direct FloatBuffer that is refilled in place on every call, and pixels are
+// read one source row at a time. The output is the one allocation left per
+// call: PyTorch's Java API only hands it back as a new array
+// (getDataAsFloatArray) and cannot fill a buffer we own, so softmax/top-k run
+// in place on that array instead of copying it again, and the caller may keep
+// it (Prediction.getScores).
+// Not thread-safe: use one session per thread.
+public class InferenceSession {
+
+    private final int inputSize;
+    private final float[] mean;
+    private final float[] std;
+    private final String[] labels;
+
+    private final FloatBuffer inputBuffer;
+    private final IValue inputValue;
+    private int[] rowPixels = new int[0];
+    private float[] scores = new float[0];
+    private int classCount;
+    private final int[] topIndices;
+
+    private final Prediction prediction;
+    private final Map<Integer, BatchInput> batchInputs = new HashMap<>();
+
+    public InferenceSession(int inputSize, float[] mean, float[] std, String[] labels, int topK) {
+        this.inputSize = inputSize;
+        this.mean = mean;
+        this.std = std;
+        this.labels = labels;
+        this.inputBuffer = Tensor.allocateFloatBuffer(3 * inputSize * inputSize);
+        this.inputValue = IValue.from(Tensor.fromBlob(inputBuffer, new long[]{1, 3, inputSize, inputSize}));
+        this.topIndices = new int[topK];
+        this.prediction = new Prediction(topK);
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    // Normalization the input buffer must be filled with
+    public float[] getMean() {
+        return mean;
+    }
+
+    public float[] getStd() {
+        return std;
+    }
+
+    // Classify the bitmap; the returned Prediction is owned by the session and
+    // overwritten by the next call
+    public Prediction run(Module module, Bitmap bitmap) {
+        fillInput(bitmap, inputBuffer, 0);
+        return runInput(module);
+    }
+
+    // Input tensor storage, NCHW, for callers that fill it directly (e.g. from camera
+    // YUV planes) instead of from a Bitmap; classify its contents with runInput
+    public FloatBuffer getInputBuffer() {
+        return inputBuffer;
+    }
+
+    public Prediction runInput(Module module) {
+        float[] output = module.forward(inputValue).toTensor().getDataAsFloatArray();
+        scores = output;
+        classCount = output.length;
+        postprocess(output, prediction);
+        return prediction;
+    }
+
+    // Softmax scores of the last single-image run, valid until the next run.
+    // Only the first getClassCount() entries are meaningful.
+    public float[] getScores() {
+        return scores;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    public String getLabel(int index) {
+        return index < labels.length ? labels[index] : "Unknown";
+    }
+
+    // Classify bitmaps[from, from + count) as a single NCHW batch tensor.
+    // Predictions are written into out[0, count), which the caller owns.
+    public void runBatch(Module module, Bitmap[] bitmaps, int from, int count, Prediction[] out) {
+        BatchInput batch = batchInput(count);
+        int imageSize = 3 * inputSize * inputSize;
+        for (int i = 0; i < count; i++) {
+            fillInput(bitmaps[from + i], batch.buffer, i * imageSize);
+        }
+
+        float[] output = module.forward(batch.value).toTensor().getDataAsFloatArray();
+        int classes = output.length / count;
+        for (int i = 0; i < count; i++) {
+            // Each prediction keeps its own row
+            postprocess(count == 1 ? output : Arrays.copyOfRange(output, i * classes, (i + 1) * classes), out[i]);
+        }
+    }
+
+    // Classify tiles [from, from + count) of grid as one NCHW batch, each tile read
+    // straight from bitmap and resized to the input size. Returns the softmax
+    // scores of each tile; count 1 uses the single-image input.
+    public float[][] runTiles(Module module, Bitmap bitmap, TileGrid grid, int from, int count) {
+        FloatBuffer buffer = count == 1 ? inputBuffer : batchInput(count).buffer;
+        IValue value = count == 1 ? inputValue : batchInput(count).value;
+        int imageSize = 3 * inputSize * inputSize;
+        int tileSize = grid.getTileSize();
+        for (int i = 0; i < count; i++) {
+            fillInput(bitmap, grid.getLeft(from + i), grid.getTop(from + i), tileSize, tileSize,
+                    buffer, i * imageSize);
+        }
+
+        float[] output = module.forward(value).toTensor().getDataAsFloatArray();
+        int classes = output.length / count;
+        float[][] tileScores = new float[count][];
+        if (count == 1) {
+            TensorKernels.softmaxInPlace(output, classes);
+            tileScores[0] = output;
+            return tileScores;
+        }
+        for (int i = 0; i < count; i++) {
+            float[] scores = new float[classes];
+            System.arraycopy(output, i * classes, scores, 0, classes);
+            TensorKernels.softmaxInPlace(scores, classes);
+            tileScores[i] = scores;
+        }
+        return tileScores;
+    }
+
+    // Softmax and top-k over one image's logits, in place; target then holds on to them
+    private void postprocess(float[] logits, Prediction target) {
+        TensorKernels.softmaxInPlace(logits, logits.length);
+        int count = TensorKernels.topK(logits, logits.length, topIndices.length, topIndices);
+        target.set(logits, topIndices, count, labels);
+    }
+
+    // Tensor.fromBlob needs the buffer capacity to match the shape exactly, so keep
+    // one buffer per batch size (in practice the full chunk size and the remainder)
+    private BatchInput batchInput(int count) {
+        BatchInput batch = batchInputs.get(count);
+        if (batch == null) {
+            batch = new BatchInput(count, inputSize);
+            batchInputs.put(count, batch);
+        }
+        return batch;
+    }
+
+    public Prediction newPrediction() {
+        return new Prediction(topIndices.length);
+    }
+
+    private static class BatchInput {
+        final FloatBuffer buffer;
+        final IValue value;
+
+        BatchInput(int count, int inputSize) {
+            buffer = Tensor.allocateFloatBuffer(count * 3 * inputSize * inputSize);
+            value = IValue.from(Tensor.fromBlob(buffer, new long[]{count, 3, inputSize, inputSize}));
+        }
+    }
+
+    private void fillInput(Bitmap bitmap, FloatBuffer buffer, int offset) {
+        fillInput(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), buffer, offset);
+    }
+
+    // Resize the width x height region at (left, top) into the input tensor
+    private void fillInput(Bitmap bitmap, int left, int top, int width, int height, FloatBuffer buffer, int offset) {
+        if (rowPixels.length < width) {
+            rowPixels = new int[width];
+        }
+        for (int y = 0; y < inputSize; y++) {
+            int srcY = top + (int) ((long) y * height / inputSize);
+            bitmap.getPixels(rowPixels, 0, width, left, srcY, width, 1);
+            TensorKernels.resizeNormalizeRow(rowPixels, 0, width, y, inputSize, inputSize, mean, std,
+                    buffer, offset);
+        }
+    }
+
+    // Top-k result of the last run
+    public static class Prediction {
+        private final int[] indices;
+        private final float[] probabilities;
+        private final String[] names;
+        private float[] scores;
+        private int count;
+
+        Prediction(int k) {
+            indices = new int[k];
+            probabilities = new float[k];
+            names = new String[k];
+        }
+
+        void set(float[] scores, int[] topIndices, int count, String[] labels) {
+            this.scores = scores;
+            this.count = count;
+            for (int i = 0; i < count; i++) {
+                int index = topIndices[i];
+                indices[i] = index;
+                probabilities[i] = scores[index];
+                names[i] = index < labels.length ? labels[index] : "Unknown";
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        // Softmax over every class. A new array for every run, so it stays valid when
+        // the prediction is overwritten; do not modify.
+        public float[] getScores() {
+            return scores;
+        }
+
+        public int getIndex(int rank) {
+            return indices[rank];
+        }
+
+        public float getProbability(int rank) {
+            return probabilities[rank];
+        }
+
+        public String getLabel(int rank) {
+            return names[rank];
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.content.res.AssetManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Class label tables shipped in assets, e.g. classes.txt
+public class Labels {
+
+    private Labels() {
+    }
+
+    public static String[] load(AssetManager assets, String fileName) throws IOException {
+        try (Reader reader = new InputStreamReader(assets.open(fileName), StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    // One label per line; surrounding whitespace, a trailing comma and quotes are stripped,
+    // so both classes.txt and the Java-array style classes_test.txt parse the same way
+    public static String[] parse(Reader source) throws IOException {
+        List<String> labels = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String label = line.trim();
+            if (label.endsWith(",")) {
+                label = label.substring(0, label.length() - 1).trim();
+            }
+            if (label.length() >= 2 && label.startsWith("\"") && label.endsWith("\"")) {
+                label = label.substring(1, label.length() - 1);
+            }
+            if (!label.isEmpty()) {
+                labels.add(label);
+            }
+        }
+        return labels.toArray(new String[0]);
+    }
+}
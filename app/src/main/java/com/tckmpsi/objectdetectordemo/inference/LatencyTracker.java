@@ -0,0 +1,134 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Rolling latency and failure-rate estimates per key (e.g. model + backend),
+// kept as exponentially weighted moving averages so old samples fade out
+public class LatencyTracker {
+
+    private final double alpha;
+    private final Map<String, Estimate> estimates = new LinkedHashMap<>();
+
+    public LatencyTracker(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public synchronized void record(String key, long latencyMs) {
+        get(key).add(latencyMs, alpha);
+    }
+
+    public synchronized void recordFailure(String key) {
+        get(key).addFailure(alpha);
+    }
+
+    private Estimate get(String key) {
+        Estimate estimate = estimates.get(key);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimates.put(key, estimate);
+        }
+        return estimate;
+    }
+
+    // Expected latency in ms, or -1 if we have never seen a successful sample
+    public synchronized double expected(String key) {
+        Estimate estimate = estimates.get(key);
+        return estimate == null || estimate.samples == 0 ? -1 : estimate.mean;
+    }
+
+    // Recent share of attempts that failed, 0 to 1
+    public synchronized double failureRate(String key) {
+        Estimate estimate = estimates.get(key);
+        return estimate == null ? 0 : estimate.failureRate;
+    }
+
+    // True once anything, success or failure, has been recorded for key
+    public synchronized boolean isKnown(String key) {
+        return estimates.containsKey(key);
+    }
+
+    public synchronized long samples(String key) {
+        Estimate estimate = estimates.get(key);
+        return estimate == null ? 0 : estimate.samples;
+    }
+
+    // Copy of all estimates, for display and logging
+    public synchronized Map<String, Estimate> snapshot() {
+        Map<String, Estimate> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Estimate> entry : estimates.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Estimate> entry : estimates.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static class Estimate {
+        private double mean;
+        private double variance;
+        private long samples;
+        private long failures;
+        private double failureRate;
+
+        void add(long latencyMs, double alpha) {
+            failureRate -= alpha * failureRate;
+            if (samples++ == 0) {
+                mean = latencyMs;
+                return;
+            }
+            double diff = latencyMs - mean;
+            mean += alpha * diff;
+            variance = (1 - alpha) * (variance + alpha * diff * diff);
+        }
+
+        void addFailure(double alpha) {
+            failures++;
+            failureRate += alpha * (1 - failureRate);
+        }
+
+        Estimate copy() {
+            Estimate copy = new Estimate();
+            copy.mean = mean;
+            copy.variance = variance;
+            copy.samples = samples;
+            copy.failures = failures;
+            copy.failureRate = failureRate;
+            return copy;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStdDev() {
+            return Math.sqrt(variance);
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public double getFailureRate() {
+            return failureRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.0f ms (sd %.0f, n=%d, failures=%d, %.0f%% recently)",
+                    mean, getStdDev(), samples, failures, failureRate * 100);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.metrics.Metrics;
+import com.tckmpsi.objectdetectordemo.metrics.Stage;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.DiseaseDetail;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.network.RequestHandle;
+
+import org.pytorch.Module;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs TorchScript models with PyTorch Mobile, bundled in assets or listed in
+// the model registry for download. A model may come as fp32 (<model_name>.pt),
+// int8 (<model_name>_int8.pt) or both; the preferred precision is used when
+// available, falling back to the other variant when it is missing or fails to
+// load or run.
+public class LocalClassifier implements OnDeviceClassifier {
+
+    private static final String TAG = "LocalClassifier";
+    private static final String LABELS_FILE = "classes.txt";
+    private static final int TOP_K = 3;
+
+    // Normalization parameters
+    private static final float[] MEAN = {0.485f, 0.456f, 0.406f};
+    private static final float[] STD = {0.229f, 0.224f, 0.225f};
+
+    private final Context context;
+    private final ModelManager modelManager;
+    // A single thread: Module is not used concurrently
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Map<String, Boolean> bundledAssets = new ConcurrentHashMap<>();
+    private final Map<String, Precision> preferred = new ConcurrentHashMap<>();
+    // Variants that failed on this device, e.g. no quantized kernels for its CPU
+    private final Set<String> failedAssets = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile Precision defaultPrecision = Precision.INT8;
+    private final Map<Integer, InferenceSession> sessions = new HashMap<>();
+    private String[] labels;
+
+    public LocalClassifier(Context context, ModelManager modelManager) {
+        this.context = context.getApplicationContext();
+        this.modelManager = modelManager;
+    }
+
+    // Start loading (and if need be downloading) the model in the background if it is available
+    @Override
+    public void preload(String modelName) {
+        Precision precision = resolve(modelName);
+        if (precision != null) {
+            modelManager.preload(precision.assetName(modelName));
+        }
+    }
+
+    @Override
+    public boolean needsDownload(String modelName) {
+        Precision precision = resolve(modelName);
+        return precision != null && !modelManager.isOnDevice(precision.assetName(modelName));
+    }
+
+    // Precision for models without their own setting
+    public void setDefaultPrecision(Precision precision) {
+        defaultPrecision = precision;
+    }
+
+    public void setPrecision(String modelName, Precision precision) {
+        preferred.put(modelName, precision);
+    }
+
+    public Precision getPrecision(String modelName) {
+        Precision precision = preferred.get(modelName);
+        return precision != null ? precision : defaultPrecision;
+    }
+
+    // The variant classify() will use: the preferred one if usable, else the
+    // other, or null if neither is available
+    public Precision resolve(String modelName) {
+        Precision precision = getPrecision(modelName);
+        if (isUsable(modelName, precision)) {
+            return precision;
+        }
+        return isUsable(modelName, precision.fallback()) ? precision.fallback() : null;
+    }
+
+    // Asset of the variant classify() will use, for callers that run the module themselves
+    public String assetFor(String modelName) throws IOException {
+        Precision precision = resolve(modelName);
+        if (precision == null) {
+            throw new IOException("No on-device model for " + modelName);
+        }
+        return precision.assetName(modelName);
+    }
+
+    // Whether any variant of this model is bundled with the app or can be downloaded
+    @Override
+    public boolean hasModel(String modelName) {
+        return hasVariant(modelName, Precision.FP32) || hasVariant(modelName, Precision.INT8);
+    }
+
+    public boolean hasVariant(String modelName, Precision precision) {
+        String assetName = precision.assetName(modelName);
+        // Registry entries come and go, so only the assets lookup is cached
+        if (ModelSpec.findFile(assetName) != null) {
+            return true;
+        }
+        Boolean bundled = bundledAssets.get(assetName);
+        if (bundled == null) {
+            try (InputStream ignored = context.getAssets().open(assetName)) {
+                bundled = true;
+            } catch (IOException e) {
+                bundled = false;
+            }
+            bundledAssets.put(assetName, bundled);
+        }
+        return bundled;
+    }
+
+    private boolean isUsable(String modelName, Precision precision) {
+        return hasVariant(modelName, precision) && !failedAssets.contains(precision.assetName(modelName));
+    }
+
+    // Stop using a variant after it failed; true if there is another one to fall back to
+    private boolean markFailed(String modelName, Precision precision, Exception e) {
+        Log.w(TAG, precision.assetName(modelName) + " failed, falling back", e);
+        failedAssets.add(precision.assetName(modelName));
+        Precision next = resolve(modelName);
+        return next != null && next != precision;
+    }
+
+    // A forward pass cannot be interrupted; cancelling skips it if it has not started
+    @Override
+    public Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback) {
+        final RequestHandle handle = new RequestHandle();
+        executor.execute(() -> {
+            if (handle.isCancelled()) {
+                return;
+            }
+            try {
+                Disease disease = run(bitmap, modelName);
+                if (!handle.isCancelled()) {
+                    callback.onSuccess(disease);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "On-device inference failed", e);
+                if (!handle.isCancelled()) {
+                    callback.onFailure("On-device error: " + e.getMessage());
+                }
+            }
+        });
+        return handle;
+    }
+
+    // Classify bitmaps stacked into NCHW batches of at most batchSize images.
+    // The callback is invoked once per chunk, in order, with either its results or a failure.
+    public void classifyBatch(List<Bitmap> bitmaps, String modelName, int batchSize,
+                              NetworkClient.BatchCallback chunkCallback) {
+        executor.execute(() -> {
+            String assetName = null;
+            Module module = null;
+            InferenceSession session;
+            String[] classNames;
+            try {
+                // Fall back once if the preferred variant will not load
+                while (module == null) {
+                    Precision precision = resolve(modelName);
+                    if (precision == null) {
+                        throw new IOException("No on-device model for " + modelName);
+                    }
+                    assetName = precision.assetName(modelName);
+                    try {
+                        module = modelManager.acquire(assetName);
+                    } catch (ModelManager.LoadException e) {
+                        if (!markFailed(modelName, precision, e)) {
+                            throw e;
+                        }
+                    }
+                }
+                session = session(ModelSpec.forName(modelName).getInputSize());
+                classNames = labels();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not load " + modelName, e);
+                if (module != null) {
+                    modelManager.release(assetName, module);
+                }
+                // One failure per chunk, so callers can keep counting chunks
+                for (int from = 0; from < bitmaps.size(); from += batchSize) {
+                    chunkCallback.onFailure("On-device error: " + e.getMessage());
+                }
+                return;
+            }
+            try {
+                Bitmap[] images = bitmaps.toArray(new Bitmap[0]);
+                InferenceSession.Prediction[] predictions = new InferenceSession.Prediction[batchSize];
+                for (int i = 0; i < batchSize; i++) {
+                    predictions[i] = session.newPrediction();
+                }
+                for (int from = 0; from < images.length; from += batchSize) {
+                    int count = Math.min(batchSize, images.length - from);
+                    try {
+                        long start = System.nanoTime();
+                        session.runBatch(module, images, from, count, predictions);
+                        // Per image, so batched and single runs are comparable
+                        long perImage = (System.nanoTime() - start) / count;
+                        for (int i = 0; i < count; i++) {
+                            Metrics.record(modelName, Stage.INFERENCE, perImage);
+                        }
+                    } catch (Exception e) {
+                        Log.e(TAG, "On-device batch failed", e);
+                        chunkCallback.onFailure("On-device error: " + e.getMessage());
+                        continue;
+                    }
+                    List<Disease> chunk = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        chunk.add(toDisease(predictions[i], classNames));
+                    }
+                    chunkCallback.onSuccess(chunk);
+                }
+            } finally {
+                modelManager.release(assetName, module);
+            }
+        });
+    }
+
+    private Disease run(Bitmap bitmap, String modelName) throws IOException {
+        Precision precision = resolve(modelName);
+        if (precision == null) {
+            throw new IOException("No on-device model for " + modelName);
+        }
+        try {
+            return run(bitmap, modelName, precision);
+        } catch (ModelManager.LoadException | RuntimeException e) {
+            // A model that will not load or a forward pass the runtime rejects; other
+            // IOExceptions (e.g. a failed download) may pass next time, so go through
+            if (!markFailed(modelName, precision, e)) {
+                throw e;
+            }
+            return run(bitmap, modelName, resolve(modelName));
+        }
+    }
+
+    private Disease run(Bitmap bitmap, String modelName, Precision precision) throws IOException {
+        String assetName = precision.assetName(modelName);
+        Module module = modelManager.acquire(assetName);
+        try {
+            return run(module, bitmap, modelName);
+        } finally {
+            modelManager.release(assetName, module);
+        }
+    }
+
+    private Disease run(Module module, Bitmap bitmap, String modelName) throws IOException {
+        InferenceSession session = session(ModelSpec.forName(modelName).getInputSize());
+        long start = System.nanoTime();
+        Disease disease = toDisease(session.run(module, bitmap), labels());
+        Metrics.record(modelName, Stage.INFERENCE, System.nanoTime() - start);
+        return disease;
+    }
+
+    // Top-1 plus every class's score, in the same shape as a server result
+    private static Disease toDisease(InferenceSession.Prediction prediction, String[] labels) {
+        Disease disease = new Disease();
+        disease.setDisease(prediction.getLabel(0));
+        disease.setScore(prediction.getProbability(0));
+        float[] scores = prediction.getScores();
+        // The label file and the model's output should always agree; if not, top-1 is all we can name
+        if (scores != null && scores.length == labels.length) {
+            disease.setDetail(new DiseaseDetail(labels, scores));
+        }
+        return disease;
+    }
+
+    // One session per input shape, reused across calls on the executor thread
+    private InferenceSession session(int inputSize) throws IOException {
+        InferenceSession session = sessions.get(inputSize);
+        if (session == null) {
+            session = new InferenceSession(inputSize, MEAN, STD, labels(), TOP_K);
+            sessions.put(inputSize, session);
+        }
+        return session;
+    }
+
+    // A session of our own for callers that run the model on their own thread,
+    // e.g. the live camera stream
+    public InferenceSession newSession(String modelName) throws IOException {
+        return new InferenceSession(ModelSpec.forName(modelName).getInputSize(), MEAN, STD, labels(), TOP_K);
+    }
+
+    // Class names, indexed like the model output
+    public String[] getLabels() throws IOException {
+        return labels();
+    }
+
+    private synchronized String[] labels() throws IOException {
+        if (labels == null) {
+            labels = Labels.load(context.getAssets(), LABELS_FILE);
+        }
+        return labels;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,522 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.ModelDownloader;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+
+import org.pytorch.Module;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Loads TorchScript models lazily on a background thread and keeps the loaded
+// Modules in an LRU bounded by a memory budget. A model bundled in assets is
+// extracted once; one that is not is downloaded once, if the model registry
+// lists its file and a downloader is set. Downloads run on their own thread,
+// so a slow one does not hold up loading models that are already on the device.
+// A model file that is there but unusable fails with LoadException; anything
+// else (a download, a full disk) is a plain IOException and may work next time.
+public class ModelManager {
+
+    private static final String TAG = "ModelManager";
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+    // Hash mapped files in chunks so a 500 MB model is not mapped in one go
+    private static final long HASH_CHUNK_SIZE = 64L * 1024 * 1024;
+    // How often a model download is resumed before giving up
+    private static final int DOWNLOAD_ATTEMPTS = 5;
+
+    private static ModelManager shared;
+
+    private final Context context;
+    private final long memoryBudgetBytes;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final ExecutorService downloads = Executors.newSingleThreadExecutor();
+
+    // Access-ordered, so iteration starts at the least recently used model
+    private final LinkedHashMap<String, LoadedModel> loaded = new LinkedHashMap<>(8, 0.75f, true);
+    private final Map<String, Future<LoadedModel>> pending = new HashMap<>();
+    private final Map<String, ModelStats> stats = new ConcurrentHashMap<>();
+    // Evicted from the LRU but still being used for inference
+    private final List<LoadedModel> evictedInUse = new ArrayList<>();
+    private long residentBytes;
+    private volatile ModelDownloader downloader;
+
+    public ModelManager(Context context, long memoryBudgetBytes) {
+        this.context = context.getApplicationContext();
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    // The process-wide instance every activity uses, so they share loaded models and one
+    // memory budget of an eighth of the device RAM. It is never closed; it drops models
+    // itself when the system is short on memory.
+    public static synchronized ModelManager get(Context context) {
+        if (shared == null) {
+            Context app = context.getApplicationContext();
+            ActivityManager activityManager = (ActivityManager) app.getSystemService(Context.ACTIVITY_SERVICE);
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            final ModelManager manager = new ModelManager(app, memoryInfo.totalMem / 8);
+            // Models that are not bundled are downloaded the first time they are used
+            manager.setDownloader(new ModelDownloader(NetworkClient::openModelFile, DOWNLOAD_ATTEMPTS));
+            app.registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    manager.onTrimMemory(level);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+
+                @Override
+                public void onLowMemory() {
+                    manager.releaseAll();
+                }
+            });
+            shared = manager;
+        }
+        return shared;
+    }
+
+    // Fetches models that are not bundled; null to only use bundled ones
+    public void setDownloader(ModelDownloader downloader) {
+        this.downloader = downloader;
+    }
+
+    // Bundled, or downloaded on an earlier run; false means loading it needs a download first
+    public boolean isOnDevice(String assetName) {
+        return isBundled(assetName) || new File(context.getFilesDir(), assetName + ".sha256").exists();
+    }
+
+    // Start loading in the background, e.g. when the model is picked in the spinner
+    public void preload(String assetName) {
+        synchronized (this) {
+            if (loaded.containsKey(assetName)) {
+                return;
+            }
+        }
+        submit(assetName);
+    }
+
+    // Blocks until the model is loaded. Every acquire must be paired with release.
+    public Module acquire(String assetName) throws IOException {
+        while (true) {
+            synchronized (this) {
+                LoadedModel model = loaded.get(assetName);
+                if (model != null) {
+                    model.users++;
+                    return model.module;
+                }
+            }
+            try {
+                LoadedModel model = submit(assetName).get();
+                synchronized (this) {
+                    // Evicted and destroyed before we got to it; load again
+                    if (model.destroyed) {
+                        continue;
+                    }
+                    model.users++;
+                    if (!loaded.containsKey(assetName)) {
+                        evictedInUse.remove(model);
+                        loaded.put(assetName, model);
+                        residentBytes += model.sizeBytes;
+                    }
+                    return model.module;
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + assetName, e);
+            }
+        }
+    }
+
+    public synchronized void release(String assetName, Module module) {
+        LoadedModel model = loaded.get(assetName);
+        if (model != null && model.module == module) {
+            model.users--;
+            return;
+        }
+        // Evicted while in use; destroy it now that the last user is done
+        for (LoadedModel evicted : evictedInUse) {
+            if (evicted.module == module && --evicted.users == 0) {
+                evicted.module.destroy();
+                evicted.destroyed = true;
+            }
+        }
+        evictedInUse.removeIf(m -> m.destroyed);
+    }
+
+    // One load per model at a time; a finished load is replaced on the next request
+    private synchronized Future<LoadedModel> submit(String assetName) {
+        Future<LoadedModel> future = pending.get(assetName);
+        if (future == null || future.isDone()) {
+            final ModelSpec.ModelFile remote = toDownload(assetName);
+            if (remote == null) {
+                future = loader.submit(() -> load(assetName, 0));
+            } else {
+                future = downloads.submit(() -> {
+                    long start = SystemClock.elapsedRealtime();
+                    download(assetName, remote);
+                    long downloadTimeMs = SystemClock.elapsedRealtime() - start;
+                    return await(loader.submit(() -> load(assetName, downloadTimeMs)));
+                });
+            }
+            pending.put(assetName, future);
+        }
+        return future;
+    }
+
+    private static LoadedModel await(Future<LoadedModel> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    // downloadTimeMs is counted as extract time
+    private LoadedModel load(String assetName, long downloadTimeMs) throws IOException {
+        synchronized (this) {
+            LoadedModel existing = loaded.get(assetName);
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        File file = extract(assetName);
+        long extractTimeMs = downloadTimeMs + SystemClock.elapsedRealtime() - start;
+
+        // Make room before loading so we never hold more than the budget
+        long size = file.length();
+        synchronized (this) {
+            evictUntilFits(size);
+        }
+
+        start = SystemClock.elapsedRealtime();
+        Module module;
+        try {
+            module = Module.load(file.getAbsolutePath());
+        } catch (RuntimeException e) {
+            throw new LoadException("Could not load " + assetName, e);
+        }
+        long loadTimeMs = SystemClock.elapsedRealtime() - start;
+
+        LoadedModel model = new LoadedModel(module, size);
+        synchronized (this) {
+            loaded.put(assetName, model);
+            residentBytes += size;
+        }
+        ModelStats modelStats = new ModelStats(assetName, extractTimeMs, loadTimeMs, size);
+        stats.put(assetName, modelStats);
+        Log.d(TAG, modelStats.toString());
+        return model;
+    }
+
+    // The registry's file for assetName if it has to be downloaded first: not bundled,
+    // and not already downloaded in the version the registry lists
+    private ModelSpec.ModelFile toDownload(String assetName) {
+        if (downloader == null || isBundled(assetName)) {
+            return null;
+        }
+        ModelSpec.ModelFile remote = ModelSpec.findFile(assetName);
+        if (remote == null) {
+            return null;
+        }
+        File file = new File(context.getFilesDir(), assetName);
+        File digestFile = new File(context.getFilesDir(), assetName + ".sha256");
+        try {
+            if (file.exists() && digestFile.exists()
+                    && remote.getSha256().equalsIgnoreCase(readFirstLine(new FileInputStream(digestFile)))) {
+                return null;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + digestFile, e);
+        }
+        return remote;
+    }
+
+    // Runs on the download thread; load() then finds the file verified and in place
+    private void download(String assetName, ModelSpec.ModelFile remote) throws IOException {
+        File file = new File(context.getFilesDir(), assetName);
+        File digestFile = new File(context.getFilesDir(), assetName + ".sha256");
+        ModelDownloader downloader = this.downloader;
+        if (downloader == null) {
+            throw new IOException(assetName + " is not bundled and downloads are off");
+        }
+        // A new version in the registry: the digest goes first so a crash cannot pair it with the old file
+        digestFile.delete();
+        String actual = downloader.download(remote, file, null);
+        try (OutputStream out = new FileOutputStream(digestFile)) {
+            out.write(actual.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    // Copy the asset out of the APK once, verifying it against <asset>.sha256 when bundled.
+    // A downloaded model is only checked against the registry here; download() fetched it.
+    private File extract(String assetName) throws IOException {
+        File file = new File(context.getFilesDir(), assetName);
+        File digestFile = new File(context.getFilesDir(), assetName + ".sha256");
+        String expected = readExpectedDigest(assetName);
+        ModelSpec.ModelFile remote = expected == null && !isBundled(assetName) ? ModelSpec.findFile(assetName) : null;
+        if (remote != null) {
+            expected = remote.getSha256();
+        }
+
+        // Already extracted and checked on a previous run
+        if (file.exists() && digestFile.exists()) {
+            String recorded = readFirstLine(new FileInputStream(digestFile));
+            if (expected == null || expected.equalsIgnoreCase(recorded)) {
+                return file;
+            }
+        }
+        if (remote != null) {
+            throw new IOException(assetName + " has not been downloaded");
+        }
+
+        File tmp = new File(context.getFilesDir(), assetName + ".tmp");
+        copyAsset(assetName, tmp);
+        String actual = sha256(tmp);
+        if (expected != null && !expected.equalsIgnoreCase(actual)) {
+            tmp.delete();
+            throw new LoadException("Checksum mismatch for " + assetName, null);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not move " + tmp + " to " + file);
+        }
+        try (OutputStream out = new FileOutputStream(digestFile)) {
+            out.write(actual.getBytes(StandardCharsets.US_ASCII));
+        }
+        return file;
+    }
+
+    private void copyAsset(String assetName, File target) throws IOException {
+        // Uncompressed assets (see noCompress in build.gradle) can be copied
+        // channel to channel without passing through a Java buffer
+        try (AssetFileDescriptor fd = context.getAssets().openFd(assetName);
+             FileInputStream in = fd.createInputStream();
+             FileOutputStream out = new FileOutputStream(target)) {
+            FileChannel source = in.getChannel();
+            FileChannel sink = out.getChannel();
+            long offset = fd.getStartOffset();
+            long length = fd.getLength();
+            long copied = 0;
+            while (copied < length) {
+                copied += source.transferTo(offset + copied, length - copied, sink);
+            }
+            return;
+        } catch (IOException e) {
+            // Compressed asset, openFd is not supported; stream it instead
+        }
+
+        try (InputStream in = context.getAssets().open(assetName);
+             OutputStream out = new FileOutputStream(target)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_CHUNK_SIZE) {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_CHUNK_SIZE, size - position));
+                digest.update(chunk);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private boolean isBundled(String assetName) {
+        try (InputStream ignored = context.getAssets().open(assetName)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private String readExpectedDigest(String assetName) {
+        try {
+            return readFirstLine(context.getAssets().open(assetName + ".sha256"));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String readFirstLine(InputStream in) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+            String line = reader.readLine();
+            // Accept the "<digest>  <file>" format written by sha256sum
+            return line == null ? "" : line.trim().split("\\s+")[0];
+        }
+    }
+
+    private void evictUntilFits(long incoming) {
+        Iterator<Map.Entry<String, LoadedModel>> it = loaded.entrySet().iterator();
+        while (residentBytes + incoming > memoryBudgetBytes && it.hasNext()) {
+            Map.Entry<String, LoadedModel> eldest = it.next();
+            it.remove();
+            unload(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void unload(String assetName, LoadedModel model) {
+        residentBytes -= model.sizeBytes;
+        if (model.users > 0) {
+            evictedInUse.add(model);
+        } else {
+            model.module.destroy();
+            model.destroyed = true;
+        }
+        Log.d(TAG, "Released " + assetName);
+    }
+
+    // Drop models when the system is short on memory
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            releaseAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // Keep only the most recently used model
+            while (loaded.size() > 1) {
+                Iterator<Map.Entry<String, LoadedModel>> it = loaded.entrySet().iterator();
+                Map.Entry<String, LoadedModel> eldest = it.next();
+                it.remove();
+                unload(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    public synchronized void releaseAll() {
+        for (Map.Entry<String, LoadedModel> entry : loaded.entrySet()) {
+            unload(entry.getKey(), entry.getValue());
+        }
+        loaded.clear();
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public ModelStats getStats(String assetName) {
+        return stats.get(assetName);
+    }
+
+    public void close() {
+        downloads.shutdownNow();
+        loader.shutdownNow();
+        releaseAll();
+    }
+
+    // The model itself is bad (the runtime rejects it, or a bundled copy fails its
+    // checksum), so retrying it will not help
+    public static class LoadException extends IOException {
+        LoadException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class LoadedModel {
+        final Module module;
+        final long sizeBytes;
+        int users;
+        boolean destroyed;
+
+        LoadedModel(Module module, long sizeBytes) {
+            this.module = module;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    public static class ModelStats {
+        private final String assetName;
+        private final long extractTimeMs;
+        private final long loadTimeMs;
+        private final long residentBytes;
+
+        ModelStats(String assetName, long extractTimeMs, long loadTimeMs, long residentBytes) {
+            this.assetName = assetName;
+            this.extractTimeMs = extractTimeMs;
+            this.loadTimeMs = loadTimeMs;
+            this.residentBytes = residentBytes;
+        }
+
+        public String getAssetName() {
+            return assetName;
+        }
+
+        public long getExtractTimeMs() {
+            return extractTimeMs;
+        }
+
+        public long getLoadTimeMs() {
+            return loadTimeMs;
+        }
+
+        // Estimated from the serialized model size, which the weights dominate
+        public long getResidentBytes() {
+            return residentBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "ModelStats{" +
+                    "asset=" + assetName +
+                    ", extractTimeMs=" + extractTimeMs +
+                    ", loadTimeMs=" + loadTimeMs +
+                    ", residentBytes=" + residentBytes +
+                    '}';
+        }
+    }
+}
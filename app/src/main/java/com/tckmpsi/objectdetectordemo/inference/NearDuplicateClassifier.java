@@ -0,0 +1,79 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.utils.PerceptualHash;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Answers straight from the NearDuplicateIndex when the image looks like one
+// already classified with the same model, and classifies through the delegate
+// (adding the result to the index) otherwise. Every auditInterval-th reuse is
+// still classified in the background and compared, which measures how often
+// reuse gives a different answer than the server would have. A reused result
+// carries its Match as a note; the notes of the original result stay on it.
+public class NearDuplicateClassifier implements Classifier {
+
+    private final Classifier delegate;
+    private final NearDuplicateIndex index;
+    private final int auditInterval;
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    // auditInterval <= 0 never audits
+    public NearDuplicateClassifier(Classifier delegate, NearDuplicateIndex index, int auditInterval) {
+        this.delegate = delegate;
+        this.index = index;
+        this.auditInterval = auditInterval;
+    }
+
+    public NearDuplicateIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback) {
+        final long hash = PerceptualHash.dHash(bitmap);
+        NearDuplicateIndex.Match match = index.find(modelName, hash);
+        if (match != null) {
+            if (auditInterval > 0 && reuseCount.incrementAndGet() % auditInterval == 0) {
+                audit(bitmap, modelName, match.getResult());
+            }
+            callback.onSuccess(match.getResult().withNote(NearDuplicateIndex.Match.class, match));
+            return Cancellable.NONE;
+        }
+        return delegate.classify(bitmap, modelName, new NetworkClient.DiseaseCallback() {
+            @Override
+            public void onSuccess(Disease disease) {
+                index.add(modelName, hash, disease);
+                callback.onSuccess(disease);
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                callback.onFailure(errorMessage);
+            }
+        });
+    }
+
+    private void audit(Bitmap bitmap, String modelName, final Disease reused) {
+        delegate.classify(bitmap, modelName, new NetworkClient.DiseaseCallback() {
+            @Override
+            public void onSuccess(Disease disease) {
+                index.recordAudit(disease.getDisease() != null && disease.getDisease().equals(reused.getDisease()));
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                // Nothing to compare against
+            }
+        });
+    }
+
+    // Nothing of its own to release; the delegate is shared and closed by its owner
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,316 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import com.tckmpsi.objectdetectordemo.metrics.Histogram;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.utils.PerceptualHash;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Recent results keyed by perceptual hash, one BK-tree per model, so a photo
+// within maxDistance bits of one already classified can reuse its result.
+// A BK-tree only visits children whose edge distance is within the search
+// radius of the query's distance to the parent, so a lookup touches a small
+// part of the tree. When a model's tree is full the older half is dropped and
+// the tree rebuilt. Plain Java, so it can be tested on a desktop JVM.
+public class NearDuplicateIndex {
+
+    private final int maxDistance;
+    private final int maxEntriesPerModel;
+    private final Map<String, Tree> trees = new HashMap<>();
+
+    private final Histogram lookupNanos = new Histogram();
+    private long lookups;
+    private long hits;
+    private long audits;
+    private long auditMismatches;
+
+    public NearDuplicateIndex(int maxDistance, int maxEntriesPerModel) {
+        this.maxDistance = maxDistance;
+        this.maxEntriesPerModel = maxEntriesPerModel;
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    // Closest earlier result for the model within maxDistance, or null
+    public Match find(String modelName, long hash) {
+        long start = System.nanoTime();
+        Match match;
+        synchronized (this) {
+            Tree tree = trees.get(modelName);
+            match = tree != null ? tree.nearest(hash, maxDistance) : null;
+            lookups++;
+            if (match != null) {
+                hits++;
+            }
+        }
+        lookupNanos.record(System.nanoTime() - start);
+        return match;
+    }
+
+    public synchronized void add(String modelName, long hash, Disease result) {
+        Tree tree = trees.get(modelName);
+        if (tree == null) {
+            tree = new Tree();
+            trees.put(modelName, tree);
+        }
+        tree.add(hash, result);
+        if (tree.size() > maxEntriesPerModel) {
+            tree.dropOldest(tree.size() - maxEntriesPerModel / 2);
+        }
+    }
+
+    // A reused result checked against a fresh classification of the same image
+    public synchronized void recordAudit(boolean agreed) {
+        audits++;
+        if (!agreed) {
+            auditMismatches++;
+        }
+    }
+
+    public synchronized void clear() {
+        trees.clear();
+    }
+
+    public synchronized Stats getStats() {
+        int entries = 0;
+        for (Tree tree : trees.values()) {
+            entries += tree.size();
+        }
+        return new Stats(entries, lookups, hits, audits, auditMismatches, lookupNanos.getMean(),
+                lookupNanos.percentile(0.95));
+    }
+
+    // Replays images in order through an empty index, as if each were classified in turn, and
+    // counts reuse against the true labels: a reuse is false when the earlier image it matched
+    // has another label. Hashes and labels line up.
+    public static Evaluation evaluate(long[] hashes, String[] labels, int maxDistance) {
+        NearDuplicateIndex index = new NearDuplicateIndex(maxDistance, Integer.MAX_VALUE);
+        int reused = 0;
+        int falseReused = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            Match match = index.find("eval", hashes[i]);
+            if (match != null) {
+                reused++;
+                if (!labels[i].equals(match.getResult().getDisease())) {
+                    falseReused++;
+                }
+            } else {
+                Disease result = new Disease();
+                result.setDisease(labels[i]);
+                index.add("eval", hashes[i], result);
+            }
+        }
+        return new Evaluation(maxDistance, hashes.length, reused, falseReused, index.lookupNanos);
+    }
+
+    private static class Node {
+        final long hash;
+        Disease result;
+        // children[d] is the subtree of hashes at distance d from this one
+        Node[] children;
+
+        Node(long hash, Disease result) {
+            this.hash = hash;
+            this.result = result;
+        }
+    }
+
+    private static class Tree {
+        private Node root;
+        // Insertion order, for dropping the oldest entries
+        private final ArrayDeque<Node> order = new ArrayDeque<>();
+
+        int size() {
+            return order.size();
+        }
+
+        void add(long hash, Disease result) {
+            Node node = new Node(hash, result);
+            if (root == null) {
+                root = node;
+                order.add(node);
+                return;
+            }
+            Node parent = root;
+            while (true) {
+                int d = PerceptualHash.distance(hash, parent.hash);
+                if (d == 0) {
+                    // Same hash: the newer result wins and the entry counts as fresh
+                    parent.result = result;
+                    order.remove(parent);
+                    order.add(parent);
+                    return;
+                }
+                if (parent.children == null) {
+                    parent.children = new Node[65];
+                }
+                if (parent.children[d] == null) {
+                    parent.children[d] = node;
+                    order.add(node);
+                    return;
+                }
+                parent = parent.children[d];
+            }
+        }
+
+        Match nearest(long hash, int maxDistance) {
+            if (root == null) {
+                return null;
+            }
+            Node best = null;
+            int radius = maxDistance;
+            List<Node> stack = new ArrayList<>();
+            stack.add(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.remove(stack.size() - 1);
+                int d = PerceptualHash.distance(hash, node.hash);
+                if (d <= radius && (best == null || d < PerceptualHash.distance(hash, best.hash))) {
+                    best = node;
+                    // Only something closer is of interest from here on
+                    radius = d;
+                }
+                if (node.children == null) {
+                    continue;
+                }
+                for (int c = Math.max(1, d - radius); c <= Math.min(64, d + radius); c++) {
+                    if (node.children[c] != null) {
+                        stack.add(node.children[c]);
+                    }
+                }
+            }
+            return best != null ? new Match(best.result, PerceptualHash.distance(hash, best.hash)) : null;
+        }
+
+        void dropOldest(int count) {
+            for (int i = 0; i < count; i++) {
+                order.poll();
+            }
+            List<Node> keep = new ArrayList<>(order);
+            root = null;
+            order.clear();
+            for (Node node : keep) {
+                add(node.hash, node.result);
+            }
+        }
+    }
+
+    public static class Match {
+        private final Disease result;
+        private final int distance;
+
+        Match(Disease result, int distance) {
+            this.result = result;
+            this.distance = distance;
+        }
+
+        public Disease getResult() {
+            return result;
+        }
+
+        // Differing hash bits, 0 to maxDistance
+        public int getDistance() {
+            return distance;
+        }
+    }
+
+    public static class Stats {
+        private final int entries;
+        private final long lookups;
+        private final long hits;
+        private final long audits;
+        private final long auditMismatches;
+        private final double meanLookupNanos;
+        private final long p95LookupNanos;
+
+        Stats(int entries, long lookups, long hits, long audits, long auditMismatches, double meanLookupNanos,
+              long p95LookupNanos) {
+            this.entries = entries;
+            this.lookups = lookups;
+            this.hits = hits;
+            this.audits = audits;
+            this.auditMismatches = auditMismatches;
+            this.meanLookupNanos = meanLookupNanos;
+            this.p95LookupNanos = p95LookupNanos;
+        }
+
+        public double getReuseRate() {
+            return lookups > 0 ? (double) hits / lookups : 0;
+        }
+
+        // Share of audited reuses where a fresh classification disagreed, or -1 before any audit
+        public double getFalseReuseRate() {
+            return audits > 0 ? (double) auditMismatches / audits : -1;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"entries\":%d,\"lookups\":%d,\"reused\":%d,\"reuse_rate\":%.3f,\"audits\":%d,"
+                            + "\"audit_mismatches\":%d,\"false_reuse_rate\":%.3f,\"lookup_mean_us\":%.1f,"
+                            + "\"lookup_p95_us\":%.1f}",
+                    entries, lookups, hits, getReuseRate(), audits, auditMismatches, getFalseReuseRate(),
+                    meanLookupNanos / 1000, p95LookupNanos / 1000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "reused %d of %d (%.0f%%), %d/%d audits disagreed, lookup p95 %.1f us",
+                    hits, lookups, getReuseRate() * 100, auditMismatches, audits, p95LookupNanos / 1000.0);
+        }
+    }
+
+    public static class Evaluation {
+        private final int maxDistance;
+        private final int images;
+        private final int reused;
+        private final int falseReused;
+        private final Histogram lookupNanos;
+
+        Evaluation(int maxDistance, int images, int reused, int falseReused, Histogram lookupNanos) {
+            this.maxDistance = maxDistance;
+            this.images = images;
+            this.reused = reused;
+            this.falseReused = falseReused;
+            this.lookupNanos = lookupNanos;
+        }
+
+        public int getReused() {
+            return reused;
+        }
+
+        public int getFalseReused() {
+            return falseReused;
+        }
+
+        // Share of reused results that belonged to another label
+        public double getFalseReuseRate() {
+            return reused > 0 ? (double) falseReused / reused : 0;
+        }
+
+        public double getReuseRate() {
+            return images > 0 ? (double) reused / images : 0;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"max_distance\":%d,\"images\":%d,\"reused\":%d,\"false_reused\":%d,\"reuse_rate\":%.3f,"
+                            + "\"false_reuse_rate\":%.3f,\"lookup_mean_us\":%.2f,\"lookup_p95_us\":%.2f}",
+                    maxDistance, images, reused, falseReused, getReuseRate(), getFalseReuseRate(),
+                    lookupNanos.getMean() / 1000, lookupNanos.percentile(0.95) / 1000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "distance <= %d: %d of %d reused (%.0f%%), %d false (%.1f%%), "
+                            + "lookup p95 %.1f us",
+                    maxDistance, reused, images, getReuseRate() * 100, falseReused, getFalseReuseRate() * 100,
+                    lookupNanos.percentile(0.95) / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+// What InferenceRouter needs from the on-device backend besides classify()
+public interface OnDeviceClassifier extends Classifier {
+
+    // Whether the model can run on the device at all, now or after a download
+    boolean hasModel(String modelName);
+
+    // Whether running the model means downloading it first
+    boolean needsDownload(String modelName);
+
+    // Start loading (and if need be downloading) the model in the background
+    void preload(String modelName);
+}
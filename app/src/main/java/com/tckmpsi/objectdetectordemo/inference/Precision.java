@@ -0,0 +1,23 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+// Numeric format of a bundled TorchScript model. Each variant is its own asset:
+// <model>.pt for fp32 and <model>_int8.pt for the quantized export.
+public enum Precision {
+    FP32(""),
+    INT8("_int8");
+
+    private final String suffix;
+
+    Precision(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String assetName(String modelName) {
+        return modelName + suffix + ".pt";
+    }
+
+    // The variant to try when this one is missing or fails
+    public Precision fallback() {
+        return this == INT8 ? FP32 : INT8;
+    }
+}
@@ -0,0 +1,68 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.metrics.Trace;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.network.RequestHandle;
+import com.tckmpsi.objectdetectordemo.utils.ImagePreprocessor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Classifies on the inference server through NetworkClient
+public class RemoteClassifier implements Classifier {
+
+    private static final String TAG = "RemoteClassifier";
+
+    private final ImagePreprocessor preprocessor;
+    private final ExecutorService encodeExecutor = Executors.newSingleThreadExecutor();
+
+    public RemoteClassifier(ImagePreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+
+    @Override
+    public Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback) {
+        final RequestHandle handle = new RequestHandle();
+        // Downscale and encode off the caller's thread
+        encodeExecutor.execute(() -> {
+            if (handle.isCancelled()) {
+                return;
+            }
+            final Trace trace = Trace.start(modelName);
+            ImagePreprocessor.Result prepared = preprocessor.prepare(bitmap, ModelSpec.forName(modelName), trace);
+            handle.attach(NetworkClient.sendImageBytes(prepared.getJpeg(), modelName, trace,
+                    new NetworkClient.DiseaseCallback() {
+                        @Override
+                        public void onSuccess(Disease disease) {
+                            finish(trace);
+                            callback.onSuccess(disease);
+                        }
+
+                        @Override
+                        public void onFailure(String errorMessage) {
+                            finish(trace);
+                            callback.onFailure(errorMessage);
+                        }
+                    }));
+        });
+        return handle;
+    }
+
+    private static void finish(Trace trace) {
+        if (trace != null) {
+            trace.finish();
+            Log.d(TAG, trace.toString());
+        }
+    }
+
+    @Override
+    public void close() {
+        encodeExecutor.shutdownNow();
+    }
+}
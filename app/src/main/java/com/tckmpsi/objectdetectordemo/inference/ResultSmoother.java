@@ -0,0 +1,71 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+// Moving average of per-class scores over the last few frames, so the live
+// label does not flicker when consecutive frames disagree
+public class ResultSmoother {
+
+    private final int window;
+    private float[][] history = new float[0][];
+    private float[] sum = new float[0];
+    private int next;
+    private int size;
+
+    public ResultSmoother(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1");
+        }
+        this.window = window;
+    }
+
+    // Add one frame's scores[0, length). A different class count starts over.
+    public void add(float[] scores, int length) {
+        if (length != sum.length) {
+            history = new float[window][length];
+            sum = new float[length];
+            next = 0;
+            size = 0;
+        }
+        float[] slot = history[next];
+        boolean full = size == window;
+        for (int i = 0; i < length; i++) {
+            if (full) {
+                sum[i] -= slot[i];
+            }
+            slot[i] = scores[i];
+            sum[i] += scores[i];
+        }
+        next = (next + 1) % window;
+        if (!full) {
+            size++;
+        }
+    }
+
+    // Class with the highest average score, or -1 before the first frame
+    public int best() {
+        int best = -1;
+        float bestSum = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < sum.length; i++) {
+            if (sum[i] > bestSum) {
+                best = i;
+                bestSum = sum[i];
+            }
+        }
+        return best;
+    }
+
+    public float score(int index) {
+        return size == 0 ? 0f : sum[index] / size;
+    }
+
+    // Frames currently averaged
+    public int getSize() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+        next = 0;
+        sum = new float[0];
+        history = new float[0][];
+    }
+}
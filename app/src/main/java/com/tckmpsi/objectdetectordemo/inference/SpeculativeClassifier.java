@@ -0,0 +1,342 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.network.RequestHandle;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+// Starts classifying an image as soon as it is selected, before the user asks.
+// A later request for the same image, model and classifier claims that work,
+// whether it is still running or already done; a new selection discards it.
+// One that already failed is not claimed, as the failure may be long stale.
+// The Policy caps how much speculative work may go unused. One speculation
+// at a time; start, claim and discard are called from the UI thread.
+public class SpeculativeClassifier {
+
+    private final Policy policy;
+    private final Stats stats = new Stats();
+    private Speculation current;
+
+    public SpeculativeClassifier(Policy policy) {
+        this.policy = policy;
+    }
+
+    public synchronized Stats getStats() {
+        return stats.copy();
+    }
+
+    // Classify in the background if the policy allows; returns whether it started
+    public boolean start(Classifier classifier, Bitmap bitmap, String modelName, boolean metered) {
+        discard();
+        long now = now();
+        synchronized (this) {
+            if (!policy.allow(now, metered)) {
+                stats.skipped++;
+                return false;
+            }
+            policy.recordStart(now);
+            stats.started++;
+        }
+        final Speculation speculation = new Speculation(classifier, bitmap, modelName, now);
+        current = speculation;
+        speculation.work = classifier.classify(bitmap, modelName, new NetworkClient.DiseaseCallback() {
+            @Override
+            public void onSuccess(Disease disease) {
+                speculation.complete(disease, null);
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                speculation.complete(null, errorMessage);
+            }
+        });
+        return true;
+    }
+
+    // Hand the speculative result for this request to callback, now or when it arrives.
+    // Null when there is nothing to claim, or it failed; the caller then classifies as usual.
+    public Cancellable claim(Classifier classifier, Bitmap bitmap, String modelName,
+                             NetworkClient.DiseaseCallback callback) {
+        Speculation speculation = current;
+        if (speculation == null || speculation.classifier != classifier || speculation.bitmap != bitmap
+                || !speculation.modelName.equals(modelName)) {
+            return null;
+        }
+        current = null;
+        return speculation.claim(callback);
+    }
+
+    // The selection changed: stop unclaimed work and count it as wasted
+    public void discard() {
+        Speculation speculation = current;
+        current = null;
+        if (speculation != null) {
+            speculation.discard();
+        }
+    }
+
+    private void recordOutcome(boolean wasted, long hiddenMs, long waitedMs) {
+        synchronized (this) {
+            policy.recordOutcome(wasted);
+            if (wasted) {
+                stats.wasted++;
+            } else {
+                stats.claimed++;
+                stats.hiddenMs += hiddenMs;
+                stats.waitedMs += waitedMs;
+            }
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private class Speculation {
+        final Classifier classifier;
+        final Bitmap bitmap;
+        final String modelName;
+        final long startedAt;
+        final RequestHandle handle = new RequestHandle();
+        Cancellable work;
+
+        // Guarded by this
+        Disease result;
+        String error;
+        long doneAt;
+        NetworkClient.DiseaseCallback claimant;
+        long claimedAt;
+        boolean discarded;
+
+        Speculation(Classifier classifier, Bitmap bitmap, String modelName, long startedAt) {
+            this.classifier = classifier;
+            this.bitmap = bitmap;
+            this.modelName = modelName;
+            this.startedAt = startedAt;
+        }
+
+        void complete(Disease disease, String errorMessage) {
+            NetworkClient.DiseaseCallback deliverTo;
+            synchronized (this) {
+                if (discarded || doneAt != 0) {
+                    return;
+                }
+                result = disease;
+                error = errorMessage;
+                doneAt = now();
+                deliverTo = claimant;
+            }
+            if (deliverTo != null) {
+                // Claimed while running: the user waited only for the rest of it
+                recordOutcome(false, claimedAt - startedAt, doneAt - claimedAt);
+                deliver(deliverTo);
+            }
+        }
+
+        // Null if it already failed, which counts as wasted
+        Cancellable claim(NetworkClient.DiseaseCallback callback) {
+            boolean failed;
+            boolean done;
+            synchronized (this) {
+                failed = error != null;
+                if (failed) {
+                    discarded = true;
+                } else {
+                    claimant = callback;
+                    claimedAt = now();
+                }
+                done = doneAt != 0;
+            }
+            if (failed) {
+                recordOutcome(true, 0, 0);
+                return null;
+            }
+            if (done) {
+                // Finished before the tap: all of its latency was hidden
+                recordOutcome(false, doneAt - startedAt, 0);
+                deliver(callback);
+                return Cancellable.NONE;
+            }
+            // Cancelling the claimed request now cancels the speculative work
+            handle.attach(() -> {
+                synchronized (this) {
+                    discarded = true;
+                }
+                work.cancel();
+            });
+            return handle;
+        }
+
+        void discard() {
+            synchronized (this) {
+                if (claimant != null || discarded) {
+                    return;
+                }
+                discarded = true;
+            }
+            work.cancel();
+            recordOutcome(true, 0, 0);
+        }
+
+        private void deliver(NetworkClient.DiseaseCallback callback) {
+            if (result != null) {
+                callback.onSuccess(result);
+            } else {
+                callback.onFailure(error);
+            }
+        }
+    }
+
+    // When to speculate: never on a metered network unless allowed, at most
+    // maxPerMinute starts, and not while more than maxWasteRatio of the recent
+    // speculations went unused (once there are enough to judge). Plain Java.
+    public static class Policy {
+        private final int maxPerMinute;
+        private final double maxWasteRatio;
+        private final int window;
+        private final int minSamples;
+        private final boolean allowMetered;
+
+        private final ArrayDeque<Long> recentStarts = new ArrayDeque<>();
+        private final ArrayDeque<Boolean> recentOutcomes = new ArrayDeque<>();
+        private int recentWasted;
+
+        private Policy(Builder builder) {
+            this.maxPerMinute = builder.maxPerMinute;
+            this.maxWasteRatio = builder.maxWasteRatio;
+            this.window = builder.window;
+            this.minSamples = builder.minSamples;
+            this.allowMetered = builder.allowMetered;
+        }
+
+        public boolean allow(long nowMs, boolean metered) {
+            if (metered && !allowMetered) {
+                return false;
+            }
+            while (!recentStarts.isEmpty() && nowMs - recentStarts.peekFirst() >= 60000) {
+                recentStarts.pollFirst();
+            }
+            if (recentStarts.size() >= maxPerMinute) {
+                return false;
+            }
+            return recentOutcomes.size() < minSamples || getRecentWasteRatio() <= maxWasteRatio;
+        }
+
+        public void recordStart(long nowMs) {
+            recentStarts.addLast(nowMs);
+        }
+
+        public void recordOutcome(boolean wasted) {
+            recentOutcomes.addLast(wasted);
+            if (wasted) {
+                recentWasted++;
+            }
+            if (recentOutcomes.size() > window && recentOutcomes.pollFirst()) {
+                recentWasted--;
+            }
+        }
+
+        public double getRecentWasteRatio() {
+            return recentOutcomes.isEmpty() ? 0 : (double) recentWasted / recentOutcomes.size();
+        }
+
+        public static class Builder {
+            private int maxPerMinute = 10;
+            private double maxWasteRatio = 0.5;
+            private int window = 20;
+            private int minSamples = 5;
+            private boolean allowMetered;
+
+            public Builder maxPerMinute(int maxPerMinute) {
+                this.maxPerMinute = maxPerMinute;
+                return this;
+            }
+
+            // Pause speculation while more than this share of recent ones went unused
+            public Builder maxWasteRatio(double maxWasteRatio) {
+                this.maxWasteRatio = maxWasteRatio;
+                return this;
+            }
+
+            // Speculations the waste ratio is computed over, and how many it needs first
+            public Builder window(int window, int minSamples) {
+                this.window = window;
+                this.minSamples = minSamples;
+                return this;
+            }
+
+            public Builder allowMetered(boolean allowMetered) {
+                this.allowMetered = allowMetered;
+                return this;
+            }
+
+            public Policy build() {
+                return new Policy(this);
+            }
+        }
+    }
+
+    // Counters guarded by the SpeculativeClassifier; getStats() hands out copies
+    public static class Stats {
+        private long started;
+        private long skipped;
+        private long claimed;
+        private long wasted;
+        private long hiddenMs;
+        private long waitedMs;
+
+        Stats copy() {
+            Stats copy = new Stats();
+            copy.started = started;
+            copy.skipped = skipped;
+            copy.claimed = claimed;
+            copy.wasted = wasted;
+            copy.hiddenMs = hiddenMs;
+            copy.waitedMs = waitedMs;
+            return copy;
+        }
+
+        public long getClaimed() {
+            return claimed;
+        }
+
+        public long getWasted() {
+            return wasted;
+        }
+
+        // Share of finished speculations nobody asked for
+        public double getWastedRatio() {
+            long finished = claimed + wasted;
+            return finished > 0 ? (double) wasted / finished : 0;
+        }
+
+        // Mean latency per claimed request that the user did not wait for
+        public double getMeanHiddenMs() {
+            return claimed > 0 ? (double) hiddenMs / claimed : 0;
+        }
+
+        // Mean latency per claimed request still left when the user asked
+        public double getMeanWaitedMs() {
+            return claimed > 0 ? (double) waitedMs / claimed : 0;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"started\":%d,\"skipped\":%d,\"claimed\":%d,\"wasted\":%d,\"wasted_ratio\":%.3f,"
+                            + "\"hidden_ms_mean\":%.1f,\"waited_ms_mean\":%.1f,\"hidden_ms_total\":%d}",
+                    started, skipped, claimed, wasted, getWastedRatio(), getMeanHiddenMs(), getMeanWaitedMs(),
+                    hiddenMs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d started, %d skipped, %d used, %d wasted (%.0f%%), %.0f ms hidden per use",
+                    started, skipped, claimed, wasted, getWastedRatio() * 100, getMeanHiddenMs());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import java.nio.FloatBuffer;
+
+// Allocation-free pre- and postprocessing kernels. Plain Java with no Android
+// dependencies, so they can be benchmarked and tested on a desktop JVM.
+public final class TensorKernels {
+
+    private TensorKernels() {
+    }
+
+    // Nearest-neighbour resize of ARGB pixels to dstWidth x dstHeight, normalized with
+    // (value / 255 - mean) / std and written planar (CHW) into out, all in one pass
+    public static void resizeNormalizeChw(int[] pixels, int srcWidth, int srcHeight,
+                                          int dstWidth, int dstHeight,
+                                          float[] mean, float[] std, FloatBuffer out) {
+        resizeNormalizeChw(pixels, srcWidth, srcHeight, dstWidth, dstHeight, mean, std, out, 0);
+    }
+
+    // Same as above, writing the image at outOffset, e.g. item i of an NCHW batch
+    public static void resizeNormalizeChw(int[] pixels, int srcWidth, int srcHeight,
+                                          int dstWidth, int dstHeight,
+                                          float[] mean, float[] std, FloatBuffer out, int outOffset) {
+        for (int y = 0; y < dstHeight; y++) {
+            int srcY = (int) ((long) y * srcHeight / dstHeight);
+            resizeNormalizeRow(pixels, srcY * srcWidth, srcWidth, y, dstWidth, dstHeight, mean, std, out, outOffset);
+        }
+    }
+
+    // One destination row of resizeNormalizeChw, reading the source row starting at rowOffset.
+    // Lets callers stream a large image row by row instead of copying all of its pixels.
+    public static void resizeNormalizeRow(int[] pixels, int rowOffset, int srcWidth,
+                                          int dstY, int dstWidth, int dstHeight,
+                                          float[] mean, float[] std, FloatBuffer out, int outOffset) {
+        int plane = dstWidth * dstHeight;
+        float rScale = 1f / (255f * std[0]);
+        float gScale = 1f / (255f * std[1]);
+        float bScale = 1f / (255f * std[2]);
+        float rOffset = mean[0] / std[0];
+        float gOffset = mean[1] / std[1];
+        float bOffset = mean[2] / std[2];
+
+        int base = outOffset + dstY * dstWidth;
+        for (int x = 0; x < dstWidth; x++) {
+            int pixel = pixels[rowOffset + (int) ((long) x * srcWidth / dstWidth)];
+            int index = base + x;
+            out.put(index, ((pixel >> 16) & 0xff) * rScale - rOffset);
+            out.put(plane + index, ((pixel >> 8) & 0xff) * gScale - gOffset);
+            out.put(2 * plane + index, (pixel & 0xff) * bScale - bOffset);
+        }
+    }
+
+    // Softmax over the first length scores, in place. Subtracts the max logit first
+    // so exp() cannot overflow. Returns the index of the highest probability.
+    public static int softmaxInPlace(float[] scores, int length) {
+        int best = 0;
+        for (int i = 1; i < length; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        float max = scores[best];
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            float e = (float) Math.exp(scores[i] - max);
+            scores[i] = e;
+            sum += e;
+        }
+        float inv = 1f / sum;
+        for (int i = 0; i < length; i++) {
+            scores[i] *= inv;
+        }
+        return best;
+    }
+
+    // Indices of the k highest scores, best first, written into topIndices.
+    // Insertion into a k-sized window, O(n * k), which beats sorting for small k.
+    // Returns the number of indices written (min(k, length)).
+    public static int topK(float[] scores, int length, int k, int[] topIndices) {
+        if (k <= 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            float score = scores[i];
+            if (count == k && score <= scores[topIndices[k - 1]]) {
+                continue;
+            }
+            int pos = count < k ? count++ : k - 1;
+            while (pos > 0 && scores[topIndices[pos - 1]] < score) {
+                topIndices[pos] = topIndices[pos - 1];
+                pos--;
+            }
+            topIndices[pos] = i;
+        }
+        return count;
+    }
+}
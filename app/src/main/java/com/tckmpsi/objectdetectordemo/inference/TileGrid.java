@@ -0,0 +1,117 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+// Overlapping square tiles covering an image, in row-major order, and the
+// merging of per-tile scores into one result. The shorter side is split into
+// tilesPerShortSide tiles; the longer side gets as many as the same stride
+// needs. Tiles are spread evenly so the last one ends flush with the edge.
+// Plain Java, so it can be tested on a desktop JVM.
+public final class TileGrid {
+
+    public enum Merge {
+        // Mean of the tile scores: the image as a whole
+        MEAN,
+        // Per-class maximum, renormalized: a lesion in any one tile counts
+        MAX
+    }
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int cols;
+    private final int rows;
+
+    private TileGrid(int width, int height, int tileSize, int cols, int rows) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    // overlap is the fraction of a tile shared with its neighbour, 0 (none) to 0.9
+    public static TileGrid create(int width, int height, int tilesPerShortSide, float overlap) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Empty image " + width + "x" + height);
+        }
+        if (tilesPerShortSide < 1) {
+            throw new IllegalArgumentException("tilesPerShortSide " + tilesPerShortSide);
+        }
+        if (overlap < 0 || overlap > 0.9f) {
+            throw new IllegalArgumentException("overlap " + overlap);
+        }
+        int shortSide = Math.min(width, height);
+        int tileSize = (int) Math.ceil(shortSide / (tilesPerShortSide - (tilesPerShortSide - 1) * overlap));
+        tileSize = Math.max(1, Math.min(shortSide, tileSize));
+        float stride = Math.max(1f, tileSize * (1 - overlap));
+        return new TileGrid(width, height, tileSize,
+                count(width, tileSize, stride), count(height, tileSize, stride));
+    }
+
+    private static int count(int length, int tileSize, float stride) {
+        return length <= tileSize ? 1 : (int) Math.ceil((length - tileSize) / stride - 1e-4f) + 1;
+    }
+
+    public int getCount() {
+        return cols * rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    // Side of every tile in image pixels
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getLeft(int tile) {
+        return offset(tile % cols, cols, width);
+    }
+
+    public int getTop(int tile) {
+        return offset(tile / cols, rows, height);
+    }
+
+    private int offset(int index, int count, int length) {
+        return count == 1 ? 0 : (int) ((long) index * (length - tileSize) / (count - 1));
+    }
+
+    // Image-level scores from per-tile probability vectors (tileScores[tile][class])
+    public static float[] merge(float[][] tileScores, Merge merge) {
+        int classes = tileScores[0].length;
+        float[] merged = new float[classes];
+        for (float[] scores : tileScores) {
+            for (int c = 0; c < classes; c++) {
+                merged[c] = merge == Merge.MAX ? Math.max(merged[c], scores[c]) : merged[c] + scores[c];
+            }
+        }
+        float sum = 0;
+        for (float score : merged) {
+            sum += score;
+        }
+        if (sum > 0) {
+            for (int c = 0; c < classes; c++) {
+                merged[c] /= sum;
+            }
+        }
+        return merged;
+    }
+
+    // One value per tile, row-major: how strongly each tile shows classIndex
+    public float[] heatmap(float[][] tileScores, int classIndex) {
+        float[] heatmap = new float[getCount()];
+        for (int tile = 0; tile < heatmap.length; tile++) {
+            heatmap[tile] = tileScores[tile][classIndex];
+        }
+        return heatmap;
+    }
+
+    @Override
+    public String toString() {
+        return "TileGrid{" + cols + "x" + rows + " tiles of " + tileSize + "px over " + width + "x" + height + '}';
+    }
+}
@@ -0,0 +1,414 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.metrics.Metrics;
+import com.tckmpsi.objectdetectordemo.metrics.Stage;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.DiseaseDetail;
+import com.tckmpsi.objectdetectordemo.models.LabelTable;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.RequestHandle;
+import com.tckmpsi.objectdetectordemo.utils.ImageIngestor;
+
+import org.pytorch.Module;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Classifies a high-resolution image as overlapping model-sized tiles instead
+// of one downscaled input, so small lesions keep their detail. Tiles run either
+// in parallel on a fork-join pool, each task checking out an InferenceSession,
+// or stacked into batch tensors on a single thread. Per-tile scores are merged
+// into an image-level result plus a coarse heatmap of the winning class.
+public class TiledClassifier {
+
+    private static final String TAG = "TiledClassifier";
+
+    public enum Mode {
+        // One tile per task across all cores, sharing PyTorch's intra-op threads
+        PARALLEL,
+        // Batches of tiles on one thread, leaving the cores to PyTorch's own threads
+        BATCHED
+    }
+
+    private final LocalClassifier localClassifier;
+    private final ModelManager modelManager;
+    private final Config config;
+    private final ForkJoinPool pool;
+    // Runs one image at a time and waits for its tiles, so classify() does not block
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor();
+    // InferenceSession is not thread-safe, so each task checks one out and puts it back.
+    // Not tied to threads: fork-join workers retire when idle and are replaced, while
+    // this holds at most as many sessions as tasks ever ran at once.
+    private final ConcurrentLinkedQueue<InferenceSession> idleSessions = new ConcurrentLinkedQueue<>();
+
+    public TiledClassifier(LocalClassifier localClassifier, ModelManager modelManager, Config config) {
+        this.localClassifier = localClassifier;
+        this.modelManager = modelManager;
+        this.config = config;
+        this.pool = new ForkJoinPool(config.parallelism);
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    // Shorter side to decode images at so each tile has about the model's input resolution
+    public int decodeSize(String modelName) {
+        return config.tilesPerShortSide * ModelSpec.forName(modelName).getInputSize();
+    }
+
+    // Decode uri at decodeSize() on the coordinator thread, then classify it
+    public Cancellable classify(ContentResolver resolver, Uri uri, String modelName, Listener listener) {
+        return classify(null, resolver, uri, modelName, listener);
+    }
+
+    public Cancellable classify(Bitmap image, String modelName, Listener listener) {
+        return classify(image, null, null, modelName, listener);
+    }
+
+    private Cancellable classify(Bitmap bitmap, ContentResolver resolver, Uri uri, String modelName,
+                                 Listener listener) {
+        final RequestHandle handle = new RequestHandle();
+        coordinator.execute(() -> {
+            if (handle.isCancelled()) {
+                return;
+            }
+            Bitmap image = bitmap;
+            try {
+                if (image == null) {
+                    image = decode(resolver, uri, decodeSize(modelName));
+                }
+                Result result = run(image, modelName, handle);
+                Log.d(TAG, result.toString());
+                if (!handle.isCancelled()) {
+                    listener.onResult(result);
+                }
+            } catch (CancellationException e) {
+                Log.d(TAG, "Tiled inference cancelled");
+            } catch (Exception e) {
+                Log.e(TAG, "Tiled inference failed", e);
+                if (!handle.isCancelled()) {
+                    listener.onFailure("On-device error: " + e.getMessage());
+                }
+            } finally {
+                if (bitmap == null && image != null) {
+                    image.recycle();
+                }
+            }
+        });
+        return handle;
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri uri, int minShortSide) throws IOException {
+        ImageIngestor.Decoded decoded = ImageIngestor.decode(resolver, uri, minShortSide);
+        if (decoded == null) {
+            throw new IOException("Could not decode image");
+        }
+        Bitmap upright = ImageIngestor.upright(decoded, 1f);
+        if (upright != decoded.getBitmap()) {
+            decoded.getBitmap().recycle();
+        }
+        return upright;
+    }
+
+    private Result run(Bitmap image, String modelName, RequestHandle handle) throws IOException {
+        TileGrid grid = TileGrid.create(image.getWidth(), image.getHeight(), config.tilesPerShortSide,
+                config.overlap);
+        String[] labels = localClassifier.getLabels();
+        String assetName = localClassifier.assetFor(modelName);
+        Module module = modelManager.acquire(assetName);
+        try {
+            float[][] tileScores = new float[grid.getCount()][];
+            long start = SystemClock.elapsedRealtime();
+            long cpuStart = Process.getElapsedCpuTime();
+            if (config.mode == Mode.PARALLEL) {
+                // PyTorch's intra-op thread count is process-wide and shared with every other
+                // classifier, so it is left alone; concurrent passes may queue on that pool
+                pool.invoke(new TileTask(module, modelName, image, grid, tileScores, handle, 0, grid.getCount()));
+            } else {
+                InferenceSession session = checkOut(modelName);
+                try {
+                    for (int from = 0; from < grid.getCount(); from += config.batchSize) {
+                        checkCancelled(handle);
+                        int count = Math.min(config.batchSize, grid.getCount() - from);
+                        System.arraycopy(session.runTiles(module, image, grid, from, count), 0, tileScores, from,
+                                count);
+                    }
+                } finally {
+                    idleSessions.offer(session);
+                }
+            }
+            long wallMs = SystemClock.elapsedRealtime() - start;
+            long cpuMs = Process.getElapsedCpuTime() - cpuStart;
+            Metrics.record(modelName, Stage.INFERENCE, wallMs * 1_000_000);
+            return new Result(config, grid, labels, tileScores, wallMs, cpuMs);
+        } finally {
+            modelManager.release(assetName, module);
+        }
+    }
+
+    // An idle session for the model's input size, or a new one; give it back to idleSessions.
+    // Idle sessions of another size are dropped, as only one model is tiled at a time.
+    private InferenceSession checkOut(String modelName) throws IOException {
+        int inputSize = ModelSpec.forName(modelName).getInputSize();
+        InferenceSession session;
+        while ((session = idleSessions.poll()) != null) {
+            if (session.getInputSize() == inputSize) {
+                return session;
+            }
+        }
+        return localClassifier.newSession(modelName);
+    }
+
+    private static void checkCancelled(RequestHandle handle) {
+        if (handle.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    public void close() {
+        coordinator.shutdownNow();
+        pool.shutdownNow();
+        idleSessions.clear();
+    }
+
+    // Splits the tile range in halves until one tile is left, which it classifies
+    private class TileTask extends RecursiveAction {
+        private final Module module;
+        private final String modelName;
+        private final Bitmap image;
+        private final TileGrid grid;
+        private final float[][] tileScores;
+        private final RequestHandle handle;
+        private final int from;
+        private final int to;
+
+        TileTask(Module module, String modelName, Bitmap image, TileGrid grid, float[][] tileScores,
+                 RequestHandle handle, int from, int to) {
+            this.module = module;
+            this.modelName = modelName;
+            this.image = image;
+            this.grid = grid;
+            this.tileScores = tileScores;
+            this.handle = handle;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            checkCancelled(handle);
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(module, modelName, image, grid, tileScores, handle, from, mid),
+                        new TileTask(module, modelName, image, grid, tileScores, handle, mid, to));
+                return;
+            }
+            InferenceSession session;
+            try {
+                session = checkOut(modelName);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            try {
+                tileScores[from] = session.runTiles(module, image, grid, from, 1)[0];
+            } finally {
+                idleSessions.offer(session);
+            }
+        }
+    }
+
+    public interface Listener {
+        // Called on a background thread
+        void onResult(Result result);
+
+        void onFailure(String errorMessage);
+    }
+
+    public static class Result {
+        private final Mode mode;
+        private final TileGrid grid;
+        private final float overlap;
+        private final String[] labels;
+        private final float[] scores;
+        private final int best;
+        private final float[] heatmap;
+        private final long wallMs;
+        private final long cpuMs;
+        private final int cores;
+
+        Result(Config config, TileGrid grid, String[] labels, float[][] tileScores, long wallMs, long cpuMs) {
+            this.mode = config.mode;
+            this.grid = grid;
+            this.overlap = config.overlap;
+            this.scores = TileGrid.merge(tileScores, config.merge);
+            this.labels = labels;
+            this.best = scores.length > 0 ? argMax(scores) : -1;
+            this.heatmap = best >= 0 ? grid.heatmap(tileScores, best) : new float[grid.getCount()];
+            this.wallMs = wallMs;
+            this.cpuMs = cpuMs;
+            this.cores = Runtime.getRuntime().availableProcessors();
+        }
+
+        private static int argMax(float[] values) {
+            int best = 0;
+            for (int i = 1; i < values.length; i++) {
+                if (values[i] > values[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        private String label(int index) {
+            return index >= 0 && index < labels.length ? labels[index] : "Unknown";
+        }
+
+        // The merged result in the same shape as a single-image one
+        public Disease toDisease() {
+            Disease disease = new Disease();
+            disease.setDisease(label(best));
+            disease.setScore(best >= 0 ? scores[best] : 0);
+            String[] names = new String[scores.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = label(i);
+            }
+            disease.setDetail(new DiseaseDetail(LabelTable.intern(names), scores.clone()));
+            return disease;
+        }
+
+        public TileGrid getGrid() {
+            return grid;
+        }
+
+        // Score of the winning class per tile, row-major, getGrid().getCols() wide
+        public float[] getHeatmap() {
+            return heatmap;
+        }
+
+        public long getWallMs() {
+            return wallMs;
+        }
+
+        public long getCpuMs() {
+            return cpuMs;
+        }
+
+        // Process CPU time over wall time across all cores: 1.0 means every core busy
+        public double getCpuUtilization() {
+            return wallMs > 0 ? (double) cpuMs / (wallMs * cores) : 0;
+        }
+
+        // The heatmap as rows of scores, e.g. for the result text
+        public String heatmapText() {
+            StringBuilder sb = new StringBuilder();
+            for (int row = 0; row < grid.getRows(); row++) {
+                for (int col = 0; col < grid.getCols(); col++) {
+                    sb.append(col > 0 ? " " : "")
+                            .append(String.format(Locale.US, "%.2f", heatmap[row * grid.getCols() + col]));
+                }
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %.2f from %d tiles (%dx%d of %dpx, %.0f%% overlap, %s): "
+                            + "%d ms wall, %d ms CPU, %.0f%% of %d cores",
+                    label(best), best >= 0 ? scores[best] : 0, grid.getCount(), grid.getCols(), grid.getRows(),
+                    grid.getTileSize(), overlap * 100, mode.name().toLowerCase(Locale.ROOT),
+                    wallMs, cpuMs, getCpuUtilization() * 100, cores);
+        }
+    }
+
+    public static class Config {
+        private final int tilesPerShortSide;
+        private final float overlap;
+        private final Mode mode;
+        private final TileGrid.Merge merge;
+        private final int batchSize;
+        private final int parallelism;
+
+        private Config(Builder builder) {
+            this.tilesPerShortSide = builder.tilesPerShortSide;
+            this.overlap = builder.overlap;
+            this.mode = builder.mode;
+            this.merge = builder.merge;
+            this.batchSize = builder.batchSize;
+            this.parallelism = builder.parallelism;
+        }
+
+        public int getTilesPerShortSide() {
+            return tilesPerShortSide;
+        }
+
+        public float getOverlap() {
+            return overlap;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public static class Builder {
+            private int tilesPerShortSide = 3;
+            private float overlap = 0.25f;
+            private Mode mode = Mode.PARALLEL;
+            private TileGrid.Merge merge = TileGrid.Merge.MAX;
+            private int batchSize = 4;
+            private int parallelism = Runtime.getRuntime().availableProcessors();
+
+            public Builder tilesPerShortSide(int tilesPerShortSide) {
+                this.tilesPerShortSide = tilesPerShortSide;
+                return this;
+            }
+
+            // Fraction of a tile shared with each neighbour, 0 to 0.9
+            public Builder overlap(float overlap) {
+                this.overlap = overlap;
+                return this;
+            }
+
+            public Builder mode(Mode mode) {
+                this.mode = mode;
+                return this;
+            }
+
+            public Builder merge(TileGrid.Merge merge) {
+                this.merge = merge;
+                return this;
+            }
+
+            // Tiles per tensor in BATCHED mode
+            public Builder batchSize(int batchSize) {
+                this.batchSize = batchSize;
+                return this;
+            }
+
+            // Worker threads in PARALLEL mode
+            public Builder parallelism(int parallelism) {
+                this.parallelism = parallelism;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+        }
+    }
+}
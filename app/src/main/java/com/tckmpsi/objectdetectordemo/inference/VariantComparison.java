@@ -0,0 +1,268 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Debug;
+
+import com.tckmpsi.objectdetectordemo.metrics.Histogram;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.utils.ImageIngestor;
+
+import org.pytorch.Module;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Runs the same labeled images through the fp32 and int8 variants of a model and
+// reports what quantization costs and buys: top-1 agreement between the two,
+// accuracy against the labels, per-image latency, peak native memory and file size.
+// Blocking; run it off the main thread, e.g. from an instrumentation test.
+public class VariantComparison {
+
+    private static final int WARMUP_RUNS = 3;
+
+    private final ModelManager modelManager;
+    private final LocalClassifier localClassifier;
+
+    public VariantComparison(ModelManager modelManager, LocalClassifier localClassifier) {
+        this.modelManager = modelManager;
+        this.localClassifier = localClassifier;
+    }
+
+    // Images laid out as <dir>/<label>/<image>, where label is a class name from classes.txt
+    public static List<LabeledImage> loadImages(ContentResolver resolver, File dir, int inputSize)
+            throws IOException {
+        List<LabeledImage> images = new ArrayList<>();
+        File[] labelDirs = dir.listFiles(File::isDirectory);
+        if (labelDirs == null) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        Arrays.sort(labelDirs);
+        for (File labelDir : labelDirs) {
+            File[] files = labelDir.listFiles(File::isFile);
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                ImageIngestor.Decoded decoded = ImageIngestor.decode(resolver, Uri.fromFile(file), inputSize);
+                if (decoded == null) {
+                    continue;
+                }
+                Bitmap bitmap = ImageIngestor.upright(decoded,
+                        ImageIngestor.shortSideScale(decoded.getBitmap(), inputSize));
+                images.add(new LabeledImage(file.getName(), labelDir.getName(), bitmap));
+            }
+        }
+        return images;
+    }
+
+    public Report compare(String modelName, List<LabeledImage> images) throws IOException {
+        if (!localClassifier.hasVariant(modelName, Precision.FP32)
+                || !localClassifier.hasVariant(modelName, Precision.INT8)) {
+            throw new IOException(modelName + " is not bundled in both precisions");
+        }
+        InferenceSession session = localClassifier.newSession(modelName);
+        VariantResult fp32 = run(modelName, Precision.FP32, session, images);
+        VariantResult int8 = run(modelName, Precision.INT8, session, images);
+
+        int agreed = 0;
+        for (int i = 0; i < images.size(); i++) {
+            if (fp32.top1[i].equals(int8.top1[i])) {
+                agreed++;
+            }
+        }
+        return new Report(modelName, images, fp32, int8, agreed);
+    }
+
+    // One variant at a time, with nothing else loaded, so the memory peaks do not overlap
+    private VariantResult run(String modelName, Precision precision, InferenceSession session,
+                              List<LabeledImage> images) throws IOException {
+        String assetName = precision.assetName(modelName);
+        modelManager.releaseAll();
+        System.gc();
+        long baseline = Debug.getNativeHeapAllocatedSize();
+        long peak = baseline;
+
+        Module module = modelManager.acquire(assetName);
+        VariantResult result = new VariantResult(precision, images.size());
+        try {
+            peak = Math.max(peak, Debug.getNativeHeapAllocatedSize());
+            for (int i = 0; i < Math.min(WARMUP_RUNS, images.size()); i++) {
+                session.run(module, images.get(i).getBitmap());
+            }
+            for (int i = 0; i < images.size(); i++) {
+                LabeledImage image = images.get(i);
+                long start = System.nanoTime();
+                InferenceSession.Prediction prediction = session.run(module, image.getBitmap());
+                result.latencyUs.record((System.nanoTime() - start) / 1000);
+                peak = Math.max(peak, Debug.getNativeHeapAllocatedSize());
+                result.top1[i] = prediction.getLabel(0);
+                if (result.top1[i].equals(image.getLabel())) {
+                    result.correct++;
+                }
+            }
+        } finally {
+            modelManager.release(assetName, module);
+        }
+        ModelManager.ModelStats stats = modelManager.getStats(assetName);
+        result.fileBytes = stats != null ? stats.getResidentBytes() : 0;
+        result.peakNativeBytes = peak - baseline;
+        modelManager.releaseAll();
+        return result;
+    }
+
+    public static class LabeledImage {
+        private final String name;
+        private final String label;
+        private final Bitmap bitmap;
+
+        public LabeledImage(String name, String label, Bitmap bitmap) {
+            this.name = name;
+            this.label = label;
+            this.bitmap = bitmap;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+    }
+
+    public static class VariantResult {
+        private final Precision precision;
+        private final String[] top1;
+        private final Histogram latencyUs = new Histogram();
+        private int correct;
+        private long fileBytes;
+        private long peakNativeBytes;
+
+        VariantResult(Precision precision, int imageCount) {
+            this.precision = precision;
+            this.top1 = new String[imageCount];
+        }
+
+        public Precision getPrecision() {
+            return precision;
+        }
+
+        public String getTop1(int index) {
+            return top1[index];
+        }
+
+        public double getAccuracy() {
+            return top1.length > 0 ? (double) correct / top1.length : 0;
+        }
+
+        public Histogram getLatencyUs() {
+            return latencyUs;
+        }
+
+        public long getFileBytes() {
+            return fileBytes;
+        }
+
+        // Native heap growth over the variant's run, which is where the weights live
+        public long getPeakNativeBytes() {
+            return peakNativeBytes;
+        }
+    }
+
+    public static class Report {
+        private final String modelName;
+        private final List<LabeledImage> images;
+        private final VariantResult fp32;
+        private final VariantResult int8;
+        private final int agreed;
+
+        Report(String modelName, List<LabeledImage> images, VariantResult fp32, VariantResult int8, int agreed) {
+            this.modelName = modelName;
+            this.images = images;
+            this.fp32 = fp32;
+            this.int8 = int8;
+            this.agreed = agreed;
+        }
+
+        public VariantResult getFp32() {
+            return fp32;
+        }
+
+        public VariantResult getInt8() {
+            return int8;
+        }
+
+        // Fraction of images both variants give the same top-1 class
+        public double getAgreement() {
+            return images.isEmpty() ? 0 : (double) agreed / images.size();
+        }
+
+        public String toText() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(modelName).append(": ").append(images.size()).append(" images, input ")
+                    .append(ModelSpec.forName(modelName).getInputSize()).append("px, top-1 agreement ")
+                    .append(format(getAgreement() * 100)).append("%\n");
+            for (VariantResult variant : new VariantResult[]{fp32, int8}) {
+                Histogram latency = variant.latencyUs;
+                sb.append(String.format(Locale.US,
+                        "  %-4s accuracy %5.1f%%  p50 %7.1f ms  p95 %7.1f ms  peak %6.1f MB  file %6.1f MB%n",
+                        variant.precision.name().toLowerCase(Locale.ROOT), variant.getAccuracy() * 100,
+                        latency.percentile(0.5) / 1000.0, latency.percentile(0.95) / 1000.0,
+                        variant.peakNativeBytes / 1048576.0, variant.fileBytes / 1048576.0));
+            }
+            // The images the variants disagree on are the ones worth looking at
+            for (int i = 0; i < images.size(); i++) {
+                if (!fp32.top1[i].equals(int8.top1[i])) {
+                    LabeledImage image = images.get(i);
+                    sb.append("  differs: ").append(image.getLabel()).append('/').append(image.getName())
+                            .append(" fp32=").append(fp32.top1[i]).append(" int8=").append(int8.top1[i]).append('\n');
+                }
+            }
+            return sb.toString();
+        }
+
+        public String toJson() {
+            StringBuilder sb = new StringBuilder("{\"model\":\"").append(escape(modelName))
+                    .append("\",\"images\":").append(images.size())
+                    .append(",\"agreement\":").append(format(getAgreement()))
+                    .append(",\"variants\":[");
+            VariantResult[] variants = {fp32, int8};
+            for (int i = 0; i < variants.length; i++) {
+                VariantResult variant = variants[i];
+                Histogram latency = variant.latencyUs;
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"precision\":\"").append(variant.precision.name().toLowerCase(Locale.ROOT))
+                        .append("\",\"accuracy\":").append(format(variant.getAccuracy()))
+                        .append(",\"latency_mean_ms\":").append(format(latency.getMean() / 1000))
+                        .append(",\"latency_p50_ms\":").append(format(latency.percentile(0.5) / 1000.0))
+                        .append(",\"latency_p95_ms\":").append(format(latency.percentile(0.95) / 1000.0))
+                        .append(",\"latency_max_ms\":").append(format(latency.getMax() / 1000.0))
+                        .append(",\"peak_native_bytes\":").append(variant.peakNativeBytes)
+                        .append(",\"file_bytes\":").append(variant.fileBytes)
+                        .append('}');
+            }
+            return sb.append("]}").toString();
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.US, "%.3f", value);
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+// Converts YUV_420_888 camera planes straight into a normalized CHW input tensor:
+// centre crop to a square, rotate upright, nearest-neighbour resize and
+// YUV -> RGB (BT.601 full range, as produced by camera JPEG pipelines) in one pass,
+// without building an intermediate Bitmap. Plain Java, so it runs on the JVM.
+public final class YuvTensorConverter {
+
+    private YuvTensorConverter() {
+    }
+
+    // rotationDegrees is the clockwise rotation (0, 90, 180, 270) that makes the
+    // sensor image upright. Plane layout follows android.media.Image.Plane: the chroma
+    // planes are subsampled 2x2 and may be interleaved (uvPixelStride 2).
+    public static void convert(ByteBuffer y, int yRowStride,
+                               ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                               int width, int height, int rotationDegrees, int dstSize,
+                               float[] mean, float[] std, FloatBuffer out, int outOffset) {
+        int side = Math.min(width, height);
+        int cropX = (width - side) / 2;
+        int cropY = (height - side) / 2;
+        int plane = dstSize * dstSize;
+
+        float rScale = 1f / (255f * std[0]);
+        float gScale = 1f / (255f * std[1]);
+        float bScale = 1f / (255f * std[2]);
+        float rOffset = mean[0] / std[0];
+        float gOffset = mean[1] / std[1];
+        float bOffset = mean[2] / std[2];
+
+        // Destination coordinate -> coordinate in the upright square crop
+        int[] scaled = new int[dstSize];
+        for (int i = 0; i < dstSize; i++) {
+            scaled[i] = (int) ((long) i * side / dstSize);
+        }
+
+        for (int dy = 0; dy < dstSize; dy++) {
+            int uy = scaled[dy];
+            for (int dx = 0; dx < dstSize; dx++) {
+                int ux = scaled[dx];
+                int sx;
+                int sy;
+                switch (rotationDegrees) {
+                    case 90:
+                        sx = uy;
+                        sy = side - 1 - ux;
+                        break;
+                    case 180:
+                        sx = side - 1 - ux;
+                        sy = side - 1 - uy;
+                        break;
+                    case 270:
+                        sx = side - 1 - uy;
+                        sy = ux;
+                        break;
+                    default:
+                        sx = ux;
+                        sy = uy;
+                }
+                sx += cropX;
+                sy += cropY;
+
+                int luma = y.get(sy * yRowStride + sx) & 0xff;
+                int uvIndex = (sy >> 1) * uvRowStride + (sx >> 1) * uvPixelStride;
+                int cb = (u.get(uvIndex) & 0xff) - 128;
+                int cr = (v.get(uvIndex) & 0xff) - 128;
+
+                int r = clamp(luma + ((91881 * cr) >> 16));
+                int g = clamp(luma - ((22554 * cb + 46802 * cr) >> 16));
+                int b = clamp(luma + ((116130 * cb) >> 16));
+
+                int index = outOffset + dy * dstSize + dx;
+                out.put(index, r * rScale - rOffset);
+                out.put(plane + index, g * gScale - gOffset);
+                out.put(2 * plane + index, b * bScale - bOffset);
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
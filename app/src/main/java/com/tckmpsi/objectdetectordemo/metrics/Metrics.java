@@ -0,0 +1,222 @@
+package com.tckmpsi.objectdetectordemo.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Process-wide latency and payload histograms, per model and per stage.
+// Timings are kept in microseconds and reported in milliseconds.
+public final class Metrics {
+
+    // Model name for stages that happen before a model is chosen, e.g. DECODE
+    public static final String ALL_MODELS = "*";
+    public static final String REQUEST_BYTES = "request_bytes";
+    public static final String RESPONSE_BYTES = "response_bytes";
+    // Upload size saved by ImagePreprocessor against the old full-size quality-100 JPEG
+    public static final String BYTES_SAVED = "bytes_saved";
+
+    private static final Map<String, ModelMetrics> models = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = true;
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static void record(String modelName, Stage stage, long nanos) {
+        if (enabled) {
+            forModel(modelName).stage(stage).record(nanos / 1000);
+        }
+    }
+
+    // name is REQUEST_BYTES, RESPONSE_BYTES or BYTES_SAVED
+    public static void recordBytes(String modelName, String name, long bytes) {
+        if (enabled) {
+            ModelMetrics metrics = forModel(modelName);
+            if (RESPONSE_BYTES.equals(name)) {
+                metrics.responseBytes.record(bytes);
+            } else if (BYTES_SAVED.equals(name)) {
+                metrics.bytesSaved.record(bytes);
+            } else {
+                metrics.requestBytes.record(bytes);
+            }
+        }
+    }
+
+    private static ModelMetrics forModel(String modelName) {
+        String key = modelName != null ? modelName : ALL_MODELS;
+        ModelMetrics metrics = models.get(key);
+        if (metrics == null) {
+            models.putIfAbsent(key, new ModelMetrics());
+            metrics = models.get(key);
+        }
+        return metrics;
+    }
+
+    public static void reset() {
+        models.clear();
+    }
+
+    // One row per model and metric that has samples, sorted by model then stage order
+    public static List<Row> snapshot() {
+        List<Row> rows = new ArrayList<>();
+        for (Map.Entry<String, ModelMetrics> entry : new TreeMap<>(models).entrySet()) {
+            ModelMetrics metrics = entry.getValue();
+            for (Stage stage : Stage.values()) {
+                Histogram histogram = metrics.stages.get(stage.ordinal());
+                if (histogram != null && histogram.getCount() > 0) {
+                    rows.add(Row.of(entry.getKey(), stage.name().toLowerCase(Locale.US), "ms", histogram, 1000.0));
+                }
+            }
+            if (metrics.requestBytes.getCount() > 0) {
+                rows.add(Row.of(entry.getKey(), REQUEST_BYTES, "bytes", metrics.requestBytes, 1.0));
+            }
+            if (metrics.responseBytes.getCount() > 0) {
+                rows.add(Row.of(entry.getKey(), RESPONSE_BYTES, "bytes", metrics.responseBytes, 1.0));
+            }
+            if (metrics.bytesSaved.getCount() > 0) {
+                rows.add(Row.of(entry.getKey(), BYTES_SAVED, "bytes", metrics.bytesSaved, 1.0));
+            }
+        }
+        return rows;
+    }
+
+    public static String toCsv(List<Row> rows) {
+        StringBuilder sb = new StringBuilder("model,metric,unit,count,mean,p50,p95,p99,max\n");
+        for (Row row : rows) {
+            sb.append(row.model).append(',')
+                    .append(row.metric).append(',')
+                    .append(row.unit).append(',')
+                    .append(row.count).append(',')
+                    .append(format(row.mean)).append(',')
+                    .append(format(row.p50)).append(',')
+                    .append(format(row.p95)).append(',')
+                    .append(format(row.p99)).append(',')
+                    .append(format(row.max)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static String toJson(List<Row> rows) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"model\":\"").append(escape(row.model))
+                    .append("\",\"metric\":\"").append(row.metric)
+                    .append("\",\"unit\":\"").append(row.unit)
+                    .append("\",\"count\":").append(row.count)
+                    .append(",\"mean\":").append(format(row.mean))
+                    .append(",\"p50\":").append(format(row.p50))
+                    .append(",\"p95\":").append(format(row.p95))
+                    .append(",\"p99\":").append(format(row.p99))
+                    .append(",\"max\":").append(format(row.max))
+                    .append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static class ModelMetrics {
+        // Created on first use; most models only ever hit a few stages
+        final AtomicReferenceArray<Histogram> stages = new AtomicReferenceArray<>(Stage.values().length);
+        final Histogram requestBytes = new Histogram();
+        final Histogram responseBytes = new Histogram();
+        final Histogram bytesSaved = new Histogram();
+
+        Histogram stage(Stage stage) {
+            Histogram histogram = stages.get(stage.ordinal());
+            if (histogram == null) {
+                stages.compareAndSet(stage.ordinal(), null, new Histogram());
+                histogram = stages.get(stage.ordinal());
+            }
+            return histogram;
+        }
+    }
+
+    public static class Row {
+        private final String model;
+        private final String metric;
+        private final String unit;
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p95;
+        private final double p99;
+        private final double max;
+
+        Row(String model, String metric, String unit, long count, double mean, double p50, double p95,
+            double p99, double max) {
+            this.model = model;
+            this.metric = metric;
+            this.unit = unit;
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        static Row of(String model, String metric, String unit, Histogram histogram, double divisor) {
+            return new Row(model, metric, unit, histogram.getCount(), histogram.getMean() / divisor,
+                    histogram.percentile(0.50) / divisor, histogram.percentile(0.95) / divisor,
+                    histogram.percentile(0.99) / divisor, histogram.getMax() / divisor);
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getMetric() {
+            return metric;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP95() {
+            return p95;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
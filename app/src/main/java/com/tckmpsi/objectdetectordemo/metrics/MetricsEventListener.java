@@ -0,0 +1,111 @@
+package com.tckmpsi.objectdetectordemo.metrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+// Adds OkHttp's connection-level timings (DNS, connect, upload, TTFB, body) and
+// byte counts to the Trace tagged on the request. Calls without a Trace get
+// EventListener.NONE, so untraced traffic costs nothing. A cloned call (a hedge)
+// carries the same Trace, so each call collects into its own and Trace.merge keeps
+// the one that answered; a cancelled call adds nothing.
+public class MetricsEventListener extends EventListener {
+
+    public static final EventListener.Factory FACTORY = call -> {
+        Trace trace = call.request().tag(Trace.class);
+        return trace != null ? new MetricsEventListener(trace) : EventListener.NONE;
+    };
+
+    private final Trace request;
+    private final Trace trace;
+    private long dnsStart;
+    private long connectStart;
+    private long requestStart;
+    private long requestEnd;
+    private long responseBodyStart;
+
+    MetricsEventListener(Trace request) {
+        this.request = request;
+        this.trace = request.newCall();
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        request.merge(trace, true);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        if (!call.isCanceled()) {
+            request.merge(trace, false);
+        }
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        trace.end(Stage.DNS, dnsStart);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        trace.end(Stage.CONNECT, connectStart);
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol,
+                              IOException ioe) {
+        trace.end(Stage.CONNECT, connectStart);
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        requestStart = System.nanoTime();
+        requestEnd = requestStart;
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        requestEnd = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        requestEnd = System.nanoTime();
+        trace.addRequestBytes(byteCount);
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        long now = System.nanoTime();
+        trace.add(Stage.UPLOAD, requestEnd - requestStart);
+        trace.add(Stage.TTFB, now - requestEnd);
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+        responseBodyStart = System.nanoTime();
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        trace.end(Stage.PARSE, responseBodyStart);
+        trace.addResponseBytes(byteCount);
+    }
+}
@@ -0,0 +1,34 @@
+package com.tckmpsi.objectdetectordemo.metrics;
+
+// Steps of a classification that are timed separately
+public enum Stage {
+    // Reading the picked image from disk into a Bitmap
+    DECODE,
+    // Downscaling to the model input size
+    SCALE,
+    // JPEG compression
+    COMPRESS,
+    // Base64 encoding for the JSON upload mode
+    BASE64,
+    // Building the request, including serialization of JSON bodies
+    SERIALIZE,
+    // Result cache lookup
+    CACHE,
+    DNS,
+    // TCP (and TLS) connect; absent when a pooled connection is reused
+    CONNECT,
+    // Writing the request headers and body
+    UPLOAD,
+    // From the end of the request to the first response byte: server time plus one round trip
+    TTFB,
+    // Reading the response body, which is parsed as it streams in
+    PARSE,
+    // From enqueueing the call to its callback, across retries and hedges
+    NETWORK,
+    // On-device model forward pass with pre- and postprocessing
+    INFERENCE,
+    // Building and showing the result in the UI
+    RENDER,
+    // From the Classify tap to the rendered result
+    TOTAL
+}
@@ -0,0 +1,117 @@
+package com.tckmpsi.objectdetectordemo.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Stage timings and payload sizes of one classification request. Stages may be
+// recorded from different threads; finish() adds them to the Metrics histograms.
+public class Trace {
+
+    private final String modelName;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final AtomicBoolean responseMerged = new AtomicBoolean();
+
+    private Trace(String modelName) {
+        this.modelName = modelName;
+    }
+
+    // Null when metrics are disabled; every caller checks for that
+    public static Trace start(String modelName) {
+        return Metrics.isEnabled() ? new Trace(modelName) : null;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    // Add the time since startNanos (from System.nanoTime()) to a stage
+    public void end(Stage stage, long startNanos) {
+        add(stage, System.nanoTime() - startNanos);
+    }
+
+    // Repeated stages (e.g. a reconnect on retry) accumulate
+    public void add(Stage stage, long nanos) {
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    public long getNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    public void addRequestBytes(long bytes) {
+        requestBytes.addAndGet(bytes);
+    }
+
+    public void addResponseBytes(long bytes) {
+        responseBytes.addAndGet(bytes);
+    }
+
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    // Empty trace collecting one HTTP call's timings until merge decides whether they count
+    Trace newCall() {
+        return new Trace(modelName);
+    }
+
+    // Add a call's timings and bytes. A hedged request is sent twice under the same
+    // Trace, so only the first call to complete with a response is merged; failed
+    // calls (not cancelled ones) accumulate like any retry.
+    void merge(Trace call, boolean responded) {
+        if (responded && !responseMerged.compareAndSet(false, true)) {
+            return;
+        }
+        for (int i = 0; i < stageNanos.length(); i++) {
+            stageNanos.addAndGet(i, call.stageNanos.get(i));
+        }
+        requestBytes.addAndGet(call.requestBytes.get());
+        responseBytes.addAndGet(call.responseBytes.get());
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    // Record every stage that was hit; only the first call counts
+    public void finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        for (Stage stage : Stage.values()) {
+            long nanos = stageNanos.get(stage.ordinal());
+            if (nanos > 0) {
+                Metrics.record(modelName, stage, nanos);
+            }
+        }
+        if (requestBytes.get() > 0) {
+            Metrics.recordBytes(modelName, Metrics.REQUEST_BYTES, requestBytes.get());
+        }
+        if (responseBytes.get() > 0) {
+            Metrics.recordBytes(modelName, Metrics.RESPONSE_BYTES, responseBytes.get());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(modelName).append(':');
+        for (Stage stage : Stage.values()) {
+            long nanos = stageNanos.get(stage.ordinal());
+            if (nanos > 0) {
+                sb.append(String.format(Locale.US, " %s=%.1fms", stage.name().toLowerCase(Locale.US), nanos / 1e6));
+            }
+        }
+        sb.append(" up=").append(requestBytes.get()).append("B down=").append(responseBytes.get()).append('B');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package com.tckmpsi.objectdetectordemo.models;
+
+import com.google.gson.annotations.JsonAdapter;
+
+import java.util.List;
+
+@JsonAdapter(JsonAdapters.BatchImageDataAdapter.class)
+public class BatchImageData {
+
+    private List<String> images;
+    private String model_name;
+
+    // Constructor
+    public BatchImageData(List<String> images, String model_name) {
+        this.images = images;
+        this.model_name = model_name;
+    }
+
+    // Getters and setters
+    public List<String> getImages() {
+        return images;
+    }
+
+    public void setImages(List<String> images) {
+        this.images = images;
+    }
+
+    public String getModel_name() {
+        return model_name;
+    }
+
+    public void setModel_name(String model_name) {
+        this.model_name = model_name;
+    }
+}
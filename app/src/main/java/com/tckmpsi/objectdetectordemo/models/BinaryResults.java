@@ -0,0 +1,132 @@
+package com.tckmpsi.objectdetectordemo.models;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compact binary encoding of Disease results, asked for with
+// "Accept: application/x-disease-result". Big-endian, per result:
+//
+//   u8   version (1)
+//   u8   flags: 1 = has detail, 2 = labels inline
+//   UTF  disease (DataOutput.writeUTF)
+//   f64  score
+//   if has detail:
+//     u16  label count
+//     i64  label table hash (LabelTable.hash)
+//     UTF  label, count times, only if labels inline
+//     f32  score, count times
+//
+// A list is a u32 count followed by that many results. The client sends the hash
+// of a table it already holds in LABEL_TABLE_HEADER; the server may then leave
+// the labels out, so a 1000-class result is 4 KB of floats instead of some 40 KB of JSON.
+public final class BinaryResults {
+
+    public static final String MEDIA_TYPE = "application/x-disease-result";
+    public static final String LABEL_TABLE_HEADER = "X-Label-Table";
+
+    private static final int VERSION = 1;
+    private static final int FLAG_DETAIL = 1;
+    private static final int FLAG_LABELS = 2;
+
+    private BinaryResults() {
+    }
+
+    // Labels are left out when the table hashes to knownTableHash
+    public static void write(DataOutputStream out, Disease disease, long knownTableHash) throws IOException {
+        DiseaseDetail detail = disease.getDetail();
+        long tableHash = detail != null ? LabelTable.hash(detail.getLabels()) : 0;
+        boolean labelsInline = detail != null && tableHash != knownTableHash;
+        out.writeByte(VERSION);
+        out.writeByte((detail != null ? FLAG_DETAIL : 0) | (labelsInline ? FLAG_LABELS : 0));
+        out.writeUTF(disease.getDisease() != null ? disease.getDisease() : "");
+        out.writeDouble(disease.getScore());
+        if (detail == null) {
+            return;
+        }
+        if (detail.size() > 0xffff) {
+            throw new IOException("Too many labels: " + detail.size());
+        }
+        out.writeShort(detail.size());
+        out.writeLong(tableHash);
+        if (labelsInline) {
+            for (int i = 0; i < detail.size(); i++) {
+                out.writeUTF(detail.getLabel(i));
+            }
+        }
+        for (int i = 0; i < detail.size(); i++) {
+            out.writeFloat(detail.getScore(i));
+        }
+    }
+
+    public static void writeList(DataOutputStream out, List<Disease> diseases, long knownTableHash)
+            throws IOException {
+        out.writeInt(diseases.size());
+        for (Disease disease : diseases) {
+            write(out, disease, knownTableHash);
+        }
+    }
+
+    public static Disease read(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported result version " + version);
+        }
+        int flags = in.readUnsignedByte();
+        Disease disease = new Disease();
+        disease.setDisease(in.readUTF());
+        disease.setScore(in.readDouble());
+        if ((flags & FLAG_DETAIL) == 0) {
+            return disease;
+        }
+
+        int count = in.readUnsignedShort();
+        long tableHash = in.readLong();
+        String[] labels;
+        if ((flags & FLAG_LABELS) != 0) {
+            labels = new String[count];
+            for (int i = 0; i < count; i++) {
+                labels[i] = in.readUTF();
+            }
+            labels = LabelTable.intern(labels);
+        } else {
+            labels = LabelTable.get(tableHash);
+            if (labels == null || labels.length != count) {
+                throw new IOException("Unknown label table " + Long.toHexString(tableHash));
+            }
+        }
+        float[] scores = new float[count];
+        for (int i = 0; i < count; i++) {
+            scores[i] = in.readFloat();
+        }
+        disease.setDetail(new DiseaseDetail(labels, scores));
+        return disease;
+    }
+
+    public static List<Disease> readList(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative result count");
+        }
+        List<Disease> diseases = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            diseases.add(read(in));
+        }
+        return diseases;
+    }
+
+    // Header value for a hash, and back; 0 means no table
+    public static String formatHash(long hash) {
+        return Long.toString(hash);
+    }
+
+    public static long parseHash(String value) {
+        try {
+            return value != null ? Long.parseLong(value.trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package com.tckmpsi.objectdetectordemo.models;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+@JsonAdapter(JsonAdapters.DiseaseAdapter.class)
 public class Disease {
 
     private String Disease;
     private double Score;
     private DiseaseDetail Detail;
+    // How this result was reached, e.g. the router's decision, keyed by type. Added by the
+    // classifiers it passed through; never serialized.
+    private transient Map<Class<?>, Object> notes = Collections.emptyMap();
 
     // Getter and Setter methods
     public String getDisease() {
@@ -33,6 +42,23 @@ public class Disease {
         Detail = detail;
     }
 
+    // A copy carrying note as well. Results are shared (the result cache, coalesced requests,
+    // the near-duplicate index), so a note for one request never goes on the original.
+    public <T> Disease withNote(Class<T> type, T note) {
+        Disease copy = new Disease();
+        copy.Disease = Disease;
+        copy.Score = Score;
+        copy.Detail = Detail;
+        copy.notes = new HashMap<>(notes);
+        copy.notes.put(type, note);
+        return copy;
+    }
+
+    // The note of that type, or null
+    public <T> T getNote(Class<T> type) {
+        return type.cast(notes.get(type));
+    }
+
     @Override
     public String toString() {
         return "Disease{" +
@@ -1,73 +1,157 @@
 package com.tckmpsi.objectdetectordemo.models;
 
-import com.google.gson.annotations.SerializedName;
+import com.google.gson.annotations.JsonAdapter;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Per-class scores of one result: a float per label, indexed like a shared label
+// table, so a 1000-class model costs one float array instead of 1000 fields.
+// On the wire it is still a JSON object of label -> score.
+@JsonAdapter(JsonAdapters.DiseaseDetailAdapter.class)
 public class DiseaseDetail {
-    private double Hac_to;
-    private double Vay;
-    private double Day;
-    private double Khong_benh;
-    private double Ung_thu;
-    private double Benh_khac;
-
-    // Getter and Setter methods
+
+    private static final String[] NO_LABELS = new String[0];
+
+    private String[] labels;
+    private float[] scores;
+
+    public DiseaseDetail() {
+        this(NO_LABELS, new float[0]);
+    }
+
+    // labels is shared, not copied (see LabelTable); scores is owned by this detail
+    public DiseaseDetail(String[] labels, float[] scores) {
+        if (labels.length != scores.length) {
+            throw new IllegalArgumentException(labels.length + " labels for " + scores.length + " scores");
+        }
+        this.labels = labels;
+        this.scores = scores;
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    public String getLabel(int index) {
+        return labels[index];
+    }
+
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    // The label table; do not modify
+    public String[] getLabels() {
+        return labels;
+    }
+
+    public int indexOf(String label) {
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i].equals(label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Score of a label, 0 if the server did not report it
+    public double get(String label) {
+        int index = indexOf(label);
+        return index >= 0 ? scores[index] : 0;
+    }
+
+    public void set(String label, double score) {
+        int index = indexOf(label);
+        if (index < 0) {
+            // Copy on write: the label array may be shared with other results
+            index = labels.length;
+            labels = Arrays.copyOf(labels, index + 1);
+            labels[index] = label;
+            scores = Arrays.copyOf(scores, index + 1);
+        }
+        scores[index] = (float) score;
+    }
+
+    // Index of the highest score, -1 when empty
+    public int best() {
+        int best = -1;
+        for (int i = 0; i < scores.length; i++) {
+            if (best < 0 || scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // The classes of the original six-class skin model
     public double getHac_to() {
-        return Hac_to;
+        return get("Hac_to");
     }
 
     public void setHac_to(double hac_to) {
-        Hac_to = hac_to;
+        set("Hac_to", hac_to);
     }
 
     public double getVay() {
-        return Vay;
+        return get("Vay");
     }
 
     public void setVay(double vay) {
-        Vay = vay;
+        set("Vay", vay);
     }
 
     public double getDay() {
-        return Day;
+        return get("Day");
     }
 
     public void setDay(double day) {
-        Day = day;
+        set("Day", day);
     }
 
     public double getKhong_benh() {
-        return Khong_benh;
+        return get("Khong_benh");
     }
 
     public void setKhong_benh(double khong_benh) {
-        Khong_benh = khong_benh;
+        set("Khong_benh", khong_benh);
     }
 
     public double getUng_thu() {
-        return Ung_thu;
+        return get("Ung_thu");
     }
 
     public void setUng_thu(double ung_thu) {
-        Ung_thu = ung_thu;
+        set("Ung_thu", ung_thu);
     }
 
     public double getBenh_khac() {
-        return Benh_khac;
+        return get("Benh_khac");
     }
 
     public void setBenh_khac(double benh_khac) {
-        Benh_khac = benh_khac;
+        set("Benh_khac", benh_khac);
+    }
+
+    // Per-class scores keyed by class name, in the server's order
+    public Map<String, Double> toMap() {
+        Map<String, Double> map = new LinkedHashMap<>();
+        for (int i = 0; i < labels.length; i++) {
+            map.put(labels[i], (double) scores[i]);
+        }
+        return map;
     }
 
     @Override
     public String toString() {
-        return "DiseaseDetail{" +
-                "Hac_to=" + Hac_to +
-                ", Vay=" + Vay +
-                ", Day=" + Day +
-                ", Khong_benh=" + Khong_benh +
-                ", Ung_thu=" + Ung_thu +
-                ", Benh_khac=" + Benh_khac +
-                '}';
-    }
-}
\ No newline at end of file
+        StringBuilder sb = new StringBuilder("DiseaseDetail{");
+        for (int i = 0; i < labels.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(labels[i]).append('=').append(scores[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -1,5 +1,8 @@
 package com.tckmpsi.objectdetectordemo.models;
 
+import com.google.gson.annotations.JsonAdapter;
+
+@JsonAdapter(JsonAdapters.ImageDataAdapter.class)
 public class ImageData {
 
     private String image;
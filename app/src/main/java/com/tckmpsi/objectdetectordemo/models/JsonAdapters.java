@@ -0,0 +1,268 @@
+package com.tckmpsi.objectdetectordemo.models;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Hand-written streaming adapters for the wire models. They read and write the
+// same JSON as Gson's reflective adapter did, without reflection, and parse a
+// Detail object straight into a float[] against the last label table seen.
+// The models name them in @JsonAdapter, so a plain new Gson() picks them up too.
+public final class JsonAdapters {
+
+    public static final TypeAdapter<Disease> DISEASE = new DiseaseAdapter();
+    public static final TypeAdapter<DiseaseDetail> DISEASE_DETAIL = new DiseaseDetailAdapter();
+    public static final TypeAdapter<ImageData> IMAGE_DATA = new ImageDataAdapter();
+    public static final TypeAdapter<BatchImageData> BATCH_IMAGE_DATA = new BatchImageDataAdapter();
+
+    private JsonAdapters() {
+    }
+
+    // A JSON array of Disease objects, as returned by the batch endpoints
+    public static List<Disease> readDiseaseList(JsonReader in) throws IOException {
+        List<Disease> diseases = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            diseases.add(DISEASE.read(in));
+        }
+        in.endArray();
+        return diseases;
+    }
+
+    public static void writeDiseaseList(JsonWriter out, List<Disease> diseases) throws IOException {
+        out.beginArray();
+        for (Disease disease : diseases) {
+            DISEASE.write(out, disease);
+        }
+        out.endArray();
+    }
+
+    private static String nextStringOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    public static class DiseaseAdapter extends TypeAdapter<Disease> {
+
+        @Override
+        public void write(JsonWriter out, Disease disease) throws IOException {
+            if (disease == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("Disease").value(disease.getDisease());
+            out.name("Score").value(disease.getScore());
+            if (disease.getDetail() != null) {
+                out.name("Detail");
+                DISEASE_DETAIL.write(out, disease.getDetail());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Disease read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Disease disease = new Disease();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "Disease":
+                        disease.setDisease(nextStringOrNull(in));
+                        break;
+                    case "Score":
+                        disease.setScore(in.nextDouble());
+                        break;
+                    case "Detail":
+                        disease.setDetail(DISEASE_DETAIL.read(in));
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return disease;
+        }
+    }
+
+    public static class DiseaseDetailAdapter extends TypeAdapter<DiseaseDetail> {
+
+        @Override
+        public void write(JsonWriter out, DiseaseDetail detail) throws IOException {
+            if (detail == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            for (int i = 0; i < detail.size(); i++) {
+                // Float.toString, so 0.1f is written as 0.1 rather than 0.10000000149011612
+                out.name(detail.getLabel(i)).value(Float.valueOf(detail.getScore(i)));
+            }
+            out.endObject();
+        }
+
+        @Override
+        public DiseaseDetail read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            // Keys normally arrive exactly as in the previous result; while they do,
+            // nothing but the score array is kept
+            String[] expected = LabelTable.latest();
+            // At least 8, as the last table may be empty (an earlier "Detail":{})
+            float[] scores = new float[Math.max(8, expected != null ? expected.length : 0)];
+            String[] names = null;
+            int count = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                float score;
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    score = 0;
+                } else {
+                    score = (float) in.nextDouble();
+                }
+                if (count == scores.length) {
+                    scores = Arrays.copyOf(scores, Math.max(8, count * 2));
+                }
+                if (names == null && expected != null && count < expected.length && expected[count].equals(name)) {
+                    scores[count++] = score;
+                    continue;
+                }
+                if (names == null) {
+                    names = new String[scores.length];
+                    if (expected != null) {
+                        System.arraycopy(expected, 0, names, 0, count);
+                    }
+                } else if (count == names.length) {
+                    names = Arrays.copyOf(names, scores.length);
+                }
+                names[count] = name;
+                scores[count++] = score;
+            }
+            in.endObject();
+
+            String[] labels;
+            if (names == null && expected != null && count == expected.length) {
+                labels = expected;
+            } else if (names == null) {
+                labels = LabelTable.intern(Arrays.copyOf(expected != null ? expected : new String[0], count));
+            } else {
+                labels = LabelTable.intern(Arrays.copyOf(names, count));
+            }
+            return new DiseaseDetail(labels, count == scores.length ? scores : Arrays.copyOf(scores, count));
+        }
+    }
+
+    public static class ImageDataAdapter extends TypeAdapter<ImageData> {
+
+        @Override
+        public void write(JsonWriter out, ImageData data) throws IOException {
+            if (data == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("image").value(data.getImage());
+            out.name("model_name").value(data.getModel_name());
+            out.endObject();
+        }
+
+        @Override
+        public ImageData read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String image = null;
+            String modelName = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "image":
+                        image = nextStringOrNull(in);
+                        break;
+                    case "model_name":
+                        modelName = nextStringOrNull(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ImageData(image, modelName);
+        }
+    }
+
+    public static class BatchImageDataAdapter extends TypeAdapter<BatchImageData> {
+
+        @Override
+        public void write(JsonWriter out, BatchImageData batch) throws IOException {
+            if (batch == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("images");
+            if (batch.getImages() == null) {
+                out.nullValue();
+            } else {
+                out.beginArray();
+                for (String image : batch.getImages()) {
+                    out.value(image);
+                }
+                out.endArray();
+            }
+            out.name("model_name").value(batch.getModel_name());
+            out.endObject();
+        }
+
+        @Override
+        public BatchImageData read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            List<String> images = null;
+            String modelName = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "images":
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                            break;
+                        }
+                        images = new ArrayList<>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            images.add(nextStringOrNull(in));
+                        }
+                        in.endArray();
+                        break;
+                    case "model_name":
+                        modelName = nextStringOrNull(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new BatchImageData(images, modelName);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.tckmpsi.objectdetectordemo.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Shared, immutable label arrays. Every result from the same server model has the
+// same labels in the same order, so parsed results point at one interned array
+// instead of each holding its own copy; the binary format refers to a table by hash.
+// A table advertised to the server is pinned until its response has been read, so
+// a result that leaves the labels out can always be resolved.
+public final class LabelTable {
+
+    // A device talks to a handful of models at most
+    private static final int MAX_TABLES = 8;
+
+    // Access order, eldest first; guarded by itself, as is pins
+    private static final Map<Long, String[]> tables = new LinkedHashMap<>(16, 0.75f, true);
+    // Outstanding pins per table hash; pinned tables are never evicted
+    private static final Map<Long, Integer> pins = new HashMap<>();
+    private static volatile String[] latest;
+    private static volatile long latestHash;
+
+    private LabelTable() {
+    }
+
+    // The registered array equal to labels, registering labels (not a copy) if new.
+    // Callers must not modify the array afterwards.
+    public static String[] intern(String[] labels) {
+        long hash = hash(labels);
+        synchronized (tables) {
+            String[] known = tables.get(hash);
+            if (known == null || !Arrays.equals(known, labels)) {
+                tables.put(hash, labels);
+                known = labels;
+                evict();
+            }
+            latest = known;
+            latestHash = hash;
+            return known;
+        }
+    }
+
+    // Registered table with this hash, or null
+    public static String[] get(long hash) {
+        synchronized (tables) {
+            return tables.get(hash);
+        }
+    }
+
+    // Most recently interned table, used as the first guess when parsing the next result
+    public static String[] latest() {
+        return latest;
+    }
+
+    // Pin the most recently interned table and return its hash for the server, or 0
+    // when there is none yet. Every non-zero hash must be given back to release.
+    public static long pinLatest() {
+        synchronized (tables) {
+            if (latest == null) {
+                return 0;
+            }
+            tables.put(latestHash, latest);
+            pins.merge(latestHash, 1, Integer::sum);
+            return latestHash;
+        }
+    }
+
+    public static void release(long hash) {
+        synchronized (tables) {
+            Integer count = pins.get(hash);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                pins.put(hash, count - 1);
+            } else {
+                pins.remove(hash);
+                evict();
+            }
+        }
+    }
+
+    // Drop the least recently used unpinned tables beyond MAX_TABLES
+    private static void evict() {
+        Iterator<Long> hashes = tables.keySet().iterator();
+        while (tables.size() > MAX_TABLES && hashes.hasNext()) {
+            if (!pins.containsKey(hashes.next())) {
+                hashes.remove();
+            }
+        }
+    }
+
+    // 64-bit FNV-1a over the UTF-8 labels, each followed by a 0 byte
+    public static long hash(String[] labels) {
+        long hash = 0xcbf29ce484222325L;
+        for (String label : labels) {
+            for (byte b : label.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static void clear() {
+        synchronized (tables) {
+            tables.clear();
+            pins.clear();
+            latest = null;
+            latestHash = 0;
+        }
+    }
+}
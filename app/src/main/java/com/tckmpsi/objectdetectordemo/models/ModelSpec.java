@@ -0,0 +1,185 @@
+package com.tckmpsi.objectdetectordemo.models;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A model the app can classify with. The built-in list below is used until the
+// server's registry (GET models, see ModelRegistry) has been fetched once; after
+// that the registry decides which models exist and where their files come from.
+// Fields a registry entry leaves out keep the built-in values for that model.
+public class ModelSpec {
+
+    // Fallback for models we know nothing about
+    public static final int DEFAULT_INPUT_SIZE = 224;
+
+    private static final Map<String, ModelSpec> KNOWN = new LinkedHashMap<>();
+    // Everything ever registered, to fill in what the registry leaves out
+    private static final Map<String, ModelSpec> BUILT_IN = new LinkedHashMap<>();
+
+    static {
+        register(new ModelSpec("inception_v3", 299, 5.71));
+        register(new ModelSpec("efficientnet_b0", 224, 0.39));
+        register(new ModelSpec("mobilenet_v2", 224, 0.30));
+        register(new ModelSpec("resnet50", 224, 4.09));
+        register(new ModelSpec("vgg16", 224, 15.47));
+        register(new ModelSpec("densenet121", 224, 2.83));
+    }
+
+    private String name;
+    private String version;
+    @SerializedName("input_size")
+    private int inputSize;
+    private double gflops;
+    @SerializedName("expected_latency_ms")
+    private long expectedLatencyMs;
+    // On-device variants, named like Precision.assetName(); empty for server-only models
+    private List<ModelFile> files;
+
+    public ModelSpec(String name, int inputSize) {
+        this(name, inputSize, 0);
+    }
+
+    public ModelSpec(String name, int inputSize, double gflops) {
+        this.name = name;
+        this.inputSize = inputSize;
+        this.gflops = gflops;
+    }
+
+    public static synchronized void register(ModelSpec spec) {
+        KNOWN.put(spec.getName(), spec);
+        BUILT_IN.put(spec.getName(), spec);
+    }
+
+    // Replace the known models with the server's registry, keeping its order. Input size,
+    // GFLOPs and expected latency the registry leaves out come from the built-in spec.
+    public static synchronized void replaceAll(List<ModelSpec> specs) {
+        KNOWN.clear();
+        for (ModelSpec spec : specs) {
+            if (spec.getName() != null) {
+                KNOWN.put(spec.getName(), spec.withDefaults(BUILT_IN.get(spec.getName())));
+            }
+        }
+    }
+
+    // This spec, with its missing fields taken from builtIn (may be null)
+    private ModelSpec withDefaults(ModelSpec builtIn) {
+        if (builtIn == null) {
+            return this;
+        }
+        ModelSpec merged = new ModelSpec(name, inputSize > 0 ? inputSize : builtIn.inputSize,
+                gflops > 0 ? gflops : builtIn.gflops);
+        merged.version = version;
+        merged.expectedLatencyMs = expectedLatencyMs > 0 ? expectedLatencyMs : builtIn.expectedLatencyMs;
+        merged.files = files != null ? files : builtIn.files;
+        return merged;
+    }
+
+    // Names of the known models, in registry order
+    public static synchronized String[] names() {
+        return KNOWN.keySet().toArray(new String[0]);
+    }
+
+    // The downloadable file with this name in any known model, or null
+    public static synchronized ModelFile findFile(String fileName) {
+        for (ModelSpec spec : KNOWN.values()) {
+            for (ModelFile file : spec.getFiles()) {
+                if (fileName.equals(file.getName())) {
+                    return file;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Look up a model by name, falling back to the default input size
+    public static synchronized ModelSpec forName(String name) {
+        ModelSpec spec = KNOWN.get(name);
+        return spec != null ? spec : new ModelSpec(name, DEFAULT_INPUT_SIZE);
+    }
+
+    // Largest input size of any registered model
+    public static synchronized int maxInputSize() {
+        int max = DEFAULT_INPUT_SIZE;
+        for (ModelSpec spec : KNOWN.values()) {
+            max = Math.max(max, spec.getInputSize());
+        }
+        return max;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Server-side version, or null for the built-in list
+    public String getVersion() {
+        return version;
+    }
+
+    // Square input resolution the network was trained on
+    public int getInputSize() {
+        return inputSize > 0 ? inputSize : DEFAULT_INPUT_SIZE;
+    }
+
+    // Compute for one image at the input size, in billions of multiply-adds; 0 if unknown
+    public double getGflops() {
+        return gflops;
+    }
+
+    // Server's estimate of one classification, 0 if unknown; InferenceRouter's prior for
+    // the server until it has measured it
+    public long getExpectedLatencyMs() {
+        return expectedLatencyMs;
+    }
+
+    public List<ModelFile> getFiles() {
+        return files != null ? files : Collections.<ModelFile>emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return "ModelSpec{" +
+                "name='" + name + '\'' +
+                ", inputSize=" + inputSize +
+                ", version=" + version +
+                ", gflops=" + gflops +
+                ", expectedLatencyMs=" + expectedLatencyMs +
+                ", files=" + getFiles() +
+                '}';
+    }
+
+    // A TorchScript file downloaded on demand from models/<name>
+    public static class ModelFile {
+        private String name;
+        @SerializedName("size_bytes")
+        private long sizeBytes;
+        private String sha256;
+
+        public ModelFile(String name, long sizeBytes, String sha256) {
+            this.name = name;
+            this.sizeBytes = sizeBytes;
+            this.sha256 = sha256;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        // Lowercase hex
+        public String getSha256() {
+            return sha256;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + sizeBytes + " bytes)";
+        }
+    }
+}
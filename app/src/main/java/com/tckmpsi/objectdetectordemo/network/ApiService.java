@@ -1,22 +1,67 @@
 package com.tckmpsi.objectdetectordemo.network;
 
+import com.tckmpsi.objectdetectordemo.metrics.Trace;
+import com.tckmpsi.objectdetectordemo.models.BatchImageData;
 import com.tckmpsi.objectdetectordemo.models.Disease;
 import com.tckmpsi.objectdetectordemo.models.ImageData;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
 
 import java.util.List;
 
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.Headers;
+import retrofit2.http.Multipart;
 import retrofit2.http.POST;
+import retrofit2.http.Part;
+import retrofit2.http.Path;
+import retrofit2.http.Streaming;
+import retrofit2.http.Tag;
 
 public interface ApiService {
 
     // Define a POST request to send the image data and model name
+    // Classification has no side effects, so these are marked safe to retry
+    // The Trace tag (may be null) collects connection timings for the metrics layer
+    @Headers(RetryInterceptor.IDEMPOTENT_HEADER + ": true")
     @POST("kq")  // Replace "your-endpoint" with your actual server endpoint
-    Call<Disease> sendImageData(@Body ImageData imageData);
+    Call<Disease> sendImageData(@Body ImageData imageData, @Tag Trace trace);
     Call<Disease> getDisease();
 
+    // Same request as sendImageData, but the JPEG is sent as raw bytes in a
+    // multipart/form-data body instead of Base64 inside JSON
+    @Multipart
+    @Headers(RetryInterceptor.IDEMPOTENT_HEADER + ": true")
+    @POST("kq/upload")
+    Call<Disease> sendImageMultipart(@Part("model_name") RequestBody modelName,
+                                     @Part MultipartBody.Part image,
+                                     @Tag Trace trace);
+
+    // Classify several images in one request; results come back in the same order
+    @Headers(RetryInterceptor.IDEMPOTENT_HEADER + ": true")
+    @POST("kq/batch")
+    Call<List<Disease>> sendImageDataBatch(@Body BatchImageData batch);
+
+    @Multipart
+    @Headers(RetryInterceptor.IDEMPOTENT_HEADER + ": true")
+    @POST("kq/batch/upload")
+    Call<List<Disease>> sendImageBatchMultipart(@Part("model_name") RequestBody modelName,
+                                                @Part List<MultipartBody.Part> images);
+
+    // Models the server offers, with their on-device files and checksums
+    @GET("models")
+    Call<List<ModelSpec>> getModelRegistry();
+
+    // A model file, streamed rather than buffered; range is "bytes=<offset>-" to resume, or null
+    @Streaming
+    @GET("models/{file}")
+    Call<ResponseBody> downloadModelFile(@Path("file") String fileName, @Header("Range") String range);
+
 //    @POST("kq") // Replace with your server endpoint path
 //    Call<Disease> getDisease();
 
@@ -0,0 +1,13 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+// Handle to a request in flight. Cancelling stops the work where possible and
+// its callback is then no longer invoked, except for a result already being
+// delivered at that moment. A no-op once the request is done.
+public interface Cancellable {
+
+    // For requests answered on the spot, e.g. from the result cache
+    Cancellable NONE = () -> {
+    };
+
+    void cancel();
+}
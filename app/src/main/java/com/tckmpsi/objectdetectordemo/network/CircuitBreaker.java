@@ -0,0 +1,111 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+// Fails calls fast while the server looks unhealthy. After failureThreshold
+// consecutive failures the breaker opens for openMs; then a single trial call
+// is let through and its outcome closes or re-opens the breaker.
+public class CircuitBreaker implements Interceptor {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMs;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        this(failureThreshold, openMs, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMs, Clock clock) {
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+        this.clock = clock;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.now() - openedAt >= openMs) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    // Whether a call may go out now
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && clock.now() - openedAt >= openMs) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = clock.now();
+        }
+    }
+
+    // A call that ended without an answer either way, e.g. cancelled
+    public synchronized void recordIgnored() {
+        trialInFlight = false;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (!allowRequest()) {
+            throw new IOException("Server unavailable (circuit open)");
+        }
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                recordIgnored();
+            } else {
+                recordFailure();
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            // Still has to end a half-open trial, or no request would ever be let through again
+            recordFailure();
+            throw e;
+        }
+        if (response.code() >= 500) {
+            recordFailure();
+        } else {
+            recordSuccess();
+        }
+        return response;
+    }
+
+    interface Clock {
+        long now();
+    }
+}
@@ -0,0 +1,125 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+// Runs a call and, if it has not answered after hedgeDelayMs, a duplicate of it.
+// The first successful response wins and the other call is cancelled; failure is
+// reported only after every launched attempt has failed. Cancelling the returned
+// handle cancels both calls and reports nothing.
+public class HedgedCall<T> implements Callback<T> {
+
+    private final Call<T> primary;
+    private final Callback<T> callback;
+    private Call<T> hedge;
+    private ScheduledFuture<?> hedgeTimer;
+    private int outstanding;
+    private boolean done;
+
+    private HedgedCall(Call<T> primary, Callback<T> callback) {
+        this.primary = primary;
+        this.callback = callback;
+    }
+
+    public static <T> Cancellable enqueue(Call<T> call, long hedgeDelayMs, ScheduledExecutorService timer,
+                                          Callback<T> callback) {
+        HedgedCall<T> hedged = new HedgedCall<>(call, callback);
+        synchronized (hedged) {
+            hedged.outstanding = 1;
+            hedged.hedgeTimer = timer.schedule(hedged::launchHedge, hedgeDelayMs, TimeUnit.MILLISECONDS);
+        }
+        call.enqueue(hedged);
+        return hedged::cancel;
+    }
+
+    private void cancel() {
+        Call<T> duplicate;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            hedgeTimer.cancel(false);
+            duplicate = hedge;
+        }
+        primary.cancel();
+        if (duplicate != null) {
+            duplicate.cancel();
+        }
+    }
+
+    private void launchHedge() {
+        Call<T> duplicate;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            duplicate = primary.clone();
+            hedge = duplicate;
+            outstanding++;
+        }
+        duplicate.enqueue(this);
+    }
+
+    @Override
+    public void onResponse(Call<T> call, Response<T> response) {
+        if (response.isSuccessful()) {
+            if (win()) {
+                cancelOthers(call);
+                callback.onResponse(call, response);
+            }
+        } else if (lose()) {
+            callback.onResponse(call, response);
+        }
+    }
+
+    @Override
+    public void onFailure(Call<T> call, Throwable t) {
+        if (lose()) {
+            callback.onFailure(call, t instanceof IOException ? t : new IOException(t));
+        }
+    }
+
+    private synchronized boolean win() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        return true;
+    }
+
+    // True for the failure that should be reported, i.e. the last outstanding attempt
+    private synchronized boolean lose() {
+        if (done) {
+            return false;
+        }
+        if (--outstanding > 0) {
+            return false;
+        }
+        if (hedge == null && hedgeTimer != null) {
+            // Primary failed before the hedge was sent; don't bother sending it
+            hedgeTimer.cancel(false);
+        }
+        done = true;
+        return true;
+    }
+
+    private void cancelOthers(Call<T> winner) {
+        Call<T> other;
+        synchronized (this) {
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+            }
+            other = winner == primary ? hedge : primary;
+        }
+        if (other != null) {
+            other.cancel();
+        }
+    }
+}
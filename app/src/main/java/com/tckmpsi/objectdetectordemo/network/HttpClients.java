@@ -0,0 +1,47 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import com.tckmpsi.objectdetectordemo.metrics.MetricsEventListener;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.logging.HttpLoggingInterceptor;
+
+// Builds the OkHttp stack described by a TransportConfig. Kept free of Android
+// classes so the load generator runs the exact same transport on a desktop JVM.
+public final class HttpClients {
+
+    private HttpClients() {
+    }
+
+    // logger receives request/response lines when config.isLoggingEnabled()
+    public static OkHttpClient create(TransportConfig config, CircuitBreaker breaker,
+                                      HttpLoggingInterceptor.Logger logger) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(),
+                        config.getKeepAliveMs(), TimeUnit.MILLISECONDS))
+                .connectTimeout(config.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getReadTimeoutMs(), TimeUnit.MILLISECONDS)
+                .writeTimeout(config.getWriteTimeoutMs(), TimeUnit.MILLISECONDS)
+                .callTimeout(config.getCallTimeoutMs(), TimeUnit.MILLISECONDS)
+                .eventListenerFactory(MetricsEventListener.FACTORY)
+                // Breaker outermost so it sees the outcome after retries
+                .addInterceptor(breaker)
+                .addInterceptor(new RetryInterceptor(config.getMaxRetries(),
+                        config.getRetryBaseDelayMs(), config.getRetryMaxDelayMs()));
+        if (config.isBinaryResultsEnabled()) {
+            builder.addInterceptor(new ResultFormatInterceptor());
+        }
+        if (config.isLoggingEnabled()) {
+            HttpLoggingInterceptor logging = new HttpLoggingInterceptor(logger);
+            logging.setLevel(HttpLoggingInterceptor.Level.BASIC);
+            builder.addInterceptor(logging);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,134 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Single-flight registry for classification requests, keyed by image digest and
+// model (ResultCache.key). A request identical to one already in flight waits for
+// that call's result instead of sending its own. Each caller can cancel its own
+// wait; the call itself is cancelled once nobody is waiting for it any more.
+public class InFlightRequests {
+
+    // Sends the request; its result goes to callback and cancelling it cancels the call
+    public interface Starter {
+        Cancellable start(NetworkClient.DiseaseCallback callback);
+    }
+
+    private final Map<String, Flight> flights = new HashMap<>();
+    private long started;
+    private long coalesced;
+    private long cancelled;
+
+    public Cancellable join(String key, NetworkClient.DiseaseCallback callback, Starter starter) {
+        Flight flight;
+        boolean leader;
+        Waiter waiter;
+        synchronized (this) {
+            flight = flights.get(key);
+            leader = flight == null;
+            if (leader) {
+                flight = new Flight(key);
+                flights.put(key, flight);
+                started++;
+            } else {
+                coalesced++;
+            }
+            waiter = new Waiter(flight, callback);
+            flight.waiters.add(waiter);
+        }
+        if (leader) {
+            // Outside the lock: the starter may answer synchronously, e.g. from a cache
+            flight.call.attach(starter.start(flight));
+        }
+        return waiter;
+    }
+
+    public synchronized int size() {
+        return flights.size();
+    }
+
+    // Calls actually started
+    public synchronized long getStarted() {
+        return started;
+    }
+
+    // Requests that shared a call already in flight
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    // Calls cancelled because every caller waiting for them gave up
+    public synchronized long getCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "InFlightRequests{inFlight=" + flights.size() + ", started=" + started
+                + ", coalesced=" + coalesced + ", cancelled=" + cancelled + '}';
+    }
+
+    private class Flight implements NetworkClient.DiseaseCallback {
+        final String key;
+        final List<Waiter> waiters = new ArrayList<>(2);
+        final RequestHandle call = new RequestHandle();
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        // Detach everyone still waiting; nobody can join this flight afterwards
+        private List<Waiter> finish() {
+            synchronized (InFlightRequests.this) {
+                if (flights.get(key) == this) {
+                    flights.remove(key);
+                }
+                List<Waiter> finished = new ArrayList<>(waiters);
+                waiters.clear();
+                return finished;
+            }
+        }
+
+        @Override
+        public void onSuccess(Disease disease) {
+            for (Waiter waiter : finish()) {
+                waiter.callback.onSuccess(disease);
+            }
+        }
+
+        @Override
+        public void onFailure(String errorMessage) {
+            for (Waiter waiter : finish()) {
+                waiter.callback.onFailure(errorMessage);
+            }
+        }
+    }
+
+    private class Waiter implements Cancellable {
+        final Flight flight;
+        final NetworkClient.DiseaseCallback callback;
+
+        Waiter(Flight flight, NetworkClient.DiseaseCallback callback) {
+            this.flight = flight;
+            this.callback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (InFlightRequests.this) {
+                if (!flight.waiters.remove(this) || !flight.waiters.isEmpty()) {
+                    return;
+                }
+                if (flights.get(flight.key) == flight) {
+                    flights.remove(flight.key);
+                }
+                cancelled++;
+            }
+            flight.call.cancel();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Sends the requests in a RequestJournal once the server is reachable again:
+// batched per model, a bounded number of batches at a time, with exponential
+// backoff and jitter after failures. Answers go into the result cache under
+// the same key, so classifying the image again is a cache hit, and to the
+// listener. Wakes up on network changes and after every enqueue.
+public class JournalDrainer implements JournalingCallback.Journal {
+
+    private static final String TAG = "JournalDrainer";
+
+    // A request that fails this many batches in a row is dropped
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final RequestJournal journal;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+
+    // Worker thread only
+    private final Set<String> sending = new HashSet<>();
+    private final Map<String, Integer> attempts = new HashMap<>();
+    private int batchesInFlight;
+    private int consecutiveFailures;
+    private long backoffUntil;
+    private ScheduledFuture<?> retry;
+    private long drainStart;
+    private long drainDelivered;
+
+    private final Stats stats = new Stats();
+    private volatile boolean online = true;
+    private volatile Listener listener;
+    private ConnectivityManager connectivityManager;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    public JournalDrainer(RequestJournal journal, int batchSize, int maxBatchesInFlight,
+                          long baseBackoffMs, long maxBackoffMs) {
+        this.journal = journal;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = maxBatchesInFlight;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    public RequestJournal getJournal() {
+        return journal;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Follow the default network and drain whenever one comes up
+    public void start(Context context) {
+        connectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        online = connectivityManager.getActiveNetwork() != null;
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                online = true;
+                worker.execute(() -> {
+                    // A new network is worth trying straight away
+                    consecutiveFailures = 0;
+                    backoffUntil = 0;
+                    drainNow();
+                });
+            }
+
+            @Override
+            public void onLost(Network network) {
+                online = false;
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+        drain();
+    }
+
+    public void stop() {
+        if (connectivityManager != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        }
+        worker.shutdownNow();
+    }
+
+    // Queue a request that failed to reach the server; false if it was already queued
+    @Override
+    public boolean enqueue(String key, String modelName, byte[] jpeg) throws IOException {
+        boolean added = journal.append(key, modelName, jpeg);
+        if (added) {
+            worker.execute(() -> {
+                stats.enqueued++;
+                drainNow();
+            });
+        }
+        return added;
+    }
+
+    public void drain() {
+        worker.execute(this::drainNow);
+    }
+
+    private void drainNow() {
+        List<RequestJournal.Entry> waiting = journal.pending();
+        if (waiting.isEmpty() || !online) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now < backoffUntil || !NetworkClient.isServerAvailable()) {
+            scheduleRetry(Math.max(backoffUntil - now, baseBackoffMs));
+            return;
+        }
+        if (drainStart == 0) {
+            drainStart = now;
+        }
+
+        // Oldest first, grouped by model, skipping what is already on its way
+        Map<String, List<RequestJournal.Entry>> byModel = new LinkedHashMap<>();
+        for (RequestJournal.Entry entry : waiting) {
+            if (sending.contains(entry.getKey())) {
+                continue;
+            }
+            List<RequestJournal.Entry> entries = byModel.get(entry.getModelName());
+            if (entries == null) {
+                entries = new ArrayList<>();
+                byModel.put(entry.getModelName(), entries);
+            }
+            entries.add(entry);
+        }
+        for (Map.Entry<String, List<RequestJournal.Entry>> group : byModel.entrySet()) {
+            List<RequestJournal.Entry> entries = group.getValue();
+            for (int from = 0; from < entries.size() && batchesInFlight < maxBatchesInFlight; from += batchSize) {
+                send(group.getKey(), entries.subList(from, Math.min(entries.size(), from + batchSize)));
+            }
+        }
+    }
+
+    private void send(String modelName, List<RequestJournal.Entry> entries) {
+        final List<RequestJournal.Entry> batch = new ArrayList<>(entries.size());
+        List<byte[]> jpegs = new ArrayList<>(entries.size());
+        for (RequestJournal.Entry entry : entries) {
+            try {
+                jpegs.add(journal.readImage(entry));
+                batch.add(entry);
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable request " + entry.getKey(), e);
+                done(entry);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (RequestJournal.Entry entry : batch) {
+            sending.add(entry.getKey());
+        }
+        batchesInFlight++;
+        stats.batches++;
+        NetworkClient.sendImageBatch(jpegs, modelName, new NetworkClient.BatchCallback() {
+            @Override
+            public void onSuccess(List<Disease> diseases) {
+                worker.execute(() -> onBatchDone(modelName, batch, diseases));
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                worker.execute(() -> onBatchFailed(batch, errorMessage));
+            }
+        });
+    }
+
+    private void onBatchDone(String modelName, List<RequestJournal.Entry> batch, List<Disease> diseases) {
+        batchesInFlight--;
+        consecutiveFailures = 0;
+        ResultCache cache = NetworkClient.getResultCache();
+        for (int i = 0; i < batch.size(); i++) {
+            RequestJournal.Entry entry = batch.get(i);
+            sending.remove(entry.getKey());
+            if (cache != null) {
+                cache.put(entry.getKey(), diseases.get(i));
+            }
+            done(entry);
+            stats.delivered++;
+            drainDelivered++;
+            stats.recordWait(System.currentTimeMillis() - entry.getCreatedAt());
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onDelivered(modelName, batch, diseases);
+        }
+        finishDrainIfEmpty();
+        drainNow();
+    }
+
+    private void onBatchFailed(List<RequestJournal.Entry> batch, String errorMessage) {
+        batchesInFlight--;
+        stats.failedBatches++;
+        for (RequestJournal.Entry entry : batch) {
+            sending.remove(entry.getKey());
+            Integer count = attempts.get(entry.getKey());
+            int attempt = count == null ? 1 : count + 1;
+            if (attempt >= MAX_ATTEMPTS) {
+                Log.w(TAG, "Giving up on " + entry.getKey() + " after " + attempt + " attempts: " + errorMessage);
+                stats.dropped++;
+                done(entry);
+            } else {
+                attempts.put(entry.getKey(), attempt);
+            }
+        }
+        long delayMs = backoff(++consecutiveFailures);
+        Log.d(TAG, "Batch failed (" + errorMessage + "), retrying in " + delayMs + " ms");
+        backoffUntil = SystemClock.elapsedRealtime() + delayMs;
+        finishDrainIfEmpty();
+        scheduleRetry(delayMs);
+    }
+
+    // Full jitter: anywhere from 0 to base * 2^failures, capped at the maximum, so clinics
+    // coming back online do not retry in step
+    private long backoff(int failures) {
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(failures, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private void scheduleRetry(long delayMs) {
+        if (retry != null && !retry.isDone()) {
+            return;
+        }
+        retry = worker.schedule(this::drainNow, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void done(RequestJournal.Entry entry) {
+        attempts.remove(entry.getKey());
+        try {
+            journal.markDone(entry.getKey());
+        } catch (IOException e) {
+            // Worst case it is sent again after a restart
+            Log.w(TAG, "Could not mark " + entry.getKey() + " done", e);
+        }
+    }
+
+    private void finishDrainIfEmpty() {
+        if (batchesInFlight == 0 && journal.size() == 0 && drainStart != 0) {
+            stats.recordDrain(drainDelivered, SystemClock.elapsedRealtime() - drainStart);
+            drainStart = 0;
+            drainDelivered = 0;
+        }
+    }
+
+    public interface Listener {
+        // Called on the drainer's thread; diseases line up with entries
+        void onDelivered(String modelName, List<RequestJournal.Entry> entries, List<Disease> diseases);
+    }
+
+    // Written on the worker thread only and read from anywhere; a slightly
+    // stale read is fine for display
+    public class Stats {
+        private volatile long enqueued;
+        private volatile long delivered;
+        private volatile long dropped;
+        private volatile long batches;
+        private volatile long failedBatches;
+        private volatile long drains;
+        private volatile long drainedRequests;
+        private volatile long drainMs;
+        private volatile long waitMsTotal;
+
+        void recordWait(long waitMs) {
+            waitMsTotal += waitMs;
+        }
+
+        // One backlog emptied: from the first batch sent to the last answer
+        void recordDrain(long requests, long elapsedMs) {
+            drains++;
+            drainedRequests += requests;
+            drainMs += elapsedMs;
+        }
+
+        public int getPending() {
+            return journal.size();
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        // Requests delivered per second while the backlog was draining
+        public double getDrainRate() {
+            return drainMs > 0 ? drainedRequests * 1000.0 / drainMs : 0;
+        }
+
+        // Mean time from enqueue to answer, in seconds
+        public double getMeanWaitSeconds() {
+            return delivered > 0 ? waitMsTotal / 1000.0 / delivered : 0;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"pending\":%d,\"enqueued\":%d,\"delivered\":%d,\"dropped\":%d,\"batches\":%d,"
+                            + "\"failed_batches\":%d,\"drains\":%d,\"drain_ms\":%d,\"drain_rate_per_s\":%.2f,"
+                            + "\"mean_wait_s\":%.1f}",
+                    getPending(), enqueued, delivered, dropped, batches, failedBatches, drains, drainMs,
+                    getDrainRate(), getMeanWaitSeconds());
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d queued, %d delivered (%.1f/s), %d dropped, %d of %d batches failed",
+                    getPending(), delivered, getDrainRate(), dropped, failedBatches, batches);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import android.graphics.Bitmap;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+// Callback for a request the user asked for. When it finally fails for lack of
+// a connection, the image goes into the offline journal for JournalDrainer to
+// send once the server is back, and the failure is reported as queued. Only
+// the final outcome counts: an attempt the classifier recovered from, e.g. by
+// falling back to on-device inference, never reaches this callback. Ensembles,
+// cascade stages, reuse audits and speculative work do not use it.
+public class JournalingCallback implements NetworkClient.DiseaseCallback {
+
+    private final Bitmap bitmap;
+    private final String modelName;
+    private final Encoder encoder;
+    private final Journal journal;
+    // Encoding and the journal's disk sync run here
+    private final Executor executor;
+    private final NetworkClient.DiseaseCallback callback;
+
+    public JournalingCallback(Bitmap bitmap, String modelName, Encoder encoder, Journal journal, Executor executor,
+                              NetworkClient.DiseaseCallback callback) {
+        this.bitmap = bitmap;
+        this.modelName = modelName;
+        this.encoder = encoder;
+        this.journal = journal;
+        this.executor = executor;
+        this.callback = callback;
+    }
+
+    @Override
+    public void onSuccess(Disease disease) {
+        callback.onSuccess(disease);
+    }
+
+    @Override
+    public void onFailure(String errorMessage) {
+        if (journal == null || !NetworkClient.isNetworkError(errorMessage)) {
+            callback.onFailure(errorMessage);
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                // The same bytes RemoteClassifier sends, so the drained result lands under the same cache key
+                byte[] jpeg = encoder.encode(bitmap, modelName);
+                journal.enqueue(ResultCache.key(jpeg, modelName), modelName, jpeg);
+                callback.onFailure(errorMessage + NetworkClient.QUEUED_SUFFIX);
+            } catch (IOException e) {
+                callback.onFailure(errorMessage);
+            }
+        });
+    }
+
+    public interface Encoder {
+        byte[] encode(Bitmap bitmap, String modelName);
+    }
+
+    // JournalDrainer in the app
+    public interface Journal {
+        // False if the request was already queued
+        boolean enqueue(String key, String modelName, byte[] jpeg) throws IOException;
+    }
+}
@@ -0,0 +1,248 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Downloads model files on demand. The body is streamed straight to
+// <target>.<sha256>.part and hashed as it arrives, so a finished download
+// needs no second pass over the file. A connection that drops mid-file, now or
+// in an earlier run, resumes with a Range request from what reached the disk;
+// keying the part by the expected SHA-256 means a part of another version is
+// never resumed. A server that ignores the range sends the whole file and we
+// start over. The part is renamed to target only once its size and SHA-256
+// match the registry.
+// Plain Java, with the HTTP side behind Transport.
+public class ModelDownloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final Transport transport;
+    private final int maxAttempts;
+
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong bytesResumed = new AtomicLong();
+
+    public ModelDownloader(Transport transport, int maxAttempts) {
+        this.transport = transport;
+        this.maxAttempts = maxAttempts;
+    }
+
+    // Blocks until target holds the verified file; returns its SHA-256 in hex
+    public String download(ModelSpec.ModelFile file, File target, ProgressListener listener) throws IOException {
+        File part = partFile(target, file);
+        deleteOtherParts(target, part);
+        long size = file.getSizeBytes();
+        MessageDigest digest = newDigest();
+
+        long have = part.length();
+        if (have > size) {
+            truncate(part, 0);
+            have = 0;
+        }
+        if (have > 0) {
+            hashPrefix(part, have, digest);
+        }
+        long resumedFrom = have;
+        if (part.getAbsoluteFile().getParentFile().getUsableSpace() < size - have) {
+            throw new IOException("Not enough space for " + file.getName());
+        }
+
+        IOException lastError = null;
+        boolean progressed = true;
+        for (int attempt = 0; attempt < maxAttempts && have < size; attempt++) {
+            // A connection that dropped mid-file is resumed at once; one that got nowhere is given time
+            if (!progressed) {
+                sleep(RETRY_DELAY_MS * attempt);
+            }
+            long before = have;
+            try (Body body = transport.open(file.getName(), have)) {
+                if (body.getOffset() != have) {
+                    if (body.getOffset() != 0) {
+                        throw new IOException("Server sent " + file.getName() + " from byte " + body.getOffset());
+                    }
+                    // Range ignored: the whole file is coming
+                    truncate(part, 0);
+                    digest.reset();
+                    have = 0;
+                }
+                have = copy(body.getStream(), part, have, size, digest, file.getName(), listener);
+            } catch (FileNotFoundException e) {
+                // Not on the server; trying again will not help
+                throw e;
+            } catch (IOException e) {
+                lastError = e;
+                long onDisk = part.length();
+                if (onDisk != have) {
+                    // A write failed part way; hash again from what is really there
+                    digest.reset();
+                    hashPrefix(part, onDisk, digest);
+                    have = onDisk;
+                }
+            }
+            progressed = have > before;
+        }
+        bytesDownloaded.addAndGet(have - resumedFrom);
+        bytesResumed.addAndGet(resumedFrom);
+        if (have < size) {
+            throw lastError != null ? lastError : new IOException("Incomplete download of " + file.getName());
+        }
+
+        String actual = toHex(digest.digest());
+        if (!actual.equalsIgnoreCase(file.getSha256())) {
+            part.delete();
+            throw new IOException("Checksum mismatch for " + file.getName());
+        }
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Could not replace " + target);
+        }
+        if (!part.renameTo(target)) {
+            throw new IOException("Could not move " + part + " to " + target);
+        }
+        return actual;
+    }
+
+    static File partFile(File target, ModelSpec.ModelFile file) {
+        return new File(target.getPath() + "." + file.getSha256().toLowerCase(Locale.US) + ".part");
+    }
+
+    // Parts of other versions of target, which will never be resumed
+    private static void deleteOtherParts(File target, File keep) {
+        File dir = target.getAbsoluteFile().getParentFile();
+        final String prefix = target.getName() + ".";
+        File[] stale = dir.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(".part"));
+        if (stale == null) {
+            return;
+        }
+        for (File f : stale) {
+            if (!f.getName().equals(keep.getName())) {
+                f.delete();
+            }
+        }
+    }
+
+    // Appends the body to part and returns the new length
+    private static long copy(InputStream in, File part, long have, long size, MessageDigest digest,
+                             String name, ProgressListener listener) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (FileOutputStream out = new FileOutputStream(part, have > 0)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (have + read > size) {
+                    throw new IOException(name + " is longer than the registry says");
+                }
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                have += read;
+                if (listener != null) {
+                    listener.onProgress(name, have, size);
+                }
+            }
+            out.getFD().sync();
+        }
+        return have;
+    }
+
+    private static void hashPrefix(File part, long length, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(part)) {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Partial download of " + part + " shrank");
+                }
+                digest.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static void sleep(long ms) throws IOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading");
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    // Bytes fetched over the network
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    // Bytes not fetched again because an interrupted download had left them on disk
+    public long getBytesResumed() {
+        return bytesResumed.get();
+    }
+
+    public interface Transport {
+        // The file from offset on, or from 0 if the server does not do ranges
+        Body open(String fileName, long offset) throws IOException;
+    }
+
+    public interface ProgressListener {
+        void onProgress(String fileName, long bytes, long total);
+    }
+
+    public static class Body implements Closeable {
+        private final InputStream stream;
+        private final long offset;
+
+        public Body(InputStream stream, long offset) {
+            this.stream = stream;
+            this.offset = offset;
+        }
+
+        public InputStream getStream() {
+            return stream;
+        }
+
+        // Position in the file of the first byte of the stream
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// The server's model list (GET models). The last one fetched is kept in a file,
+// so the app starts with it offline and before the next fetch has finished;
+// with neither, ModelSpec's built-in list stays in place.
+public class ModelRegistry {
+
+    private static final String TAG = "ModelRegistry";
+    private static final Type SPEC_LIST = new TypeToken<List<ModelSpec>>() { }.getType();
+
+    private final File cacheFile;
+    private final Gson gson = new Gson();
+
+    public ModelRegistry(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    // Use the registry saved by the last successful refresh, if any; true if there was one
+    public boolean loadCached() {
+        if (!cacheFile.exists()) {
+            return false;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8)) {
+            List<ModelSpec> specs = gson.fromJson(reader, SPEC_LIST);
+            if (specs == null || specs.isEmpty()) {
+                return false;
+            }
+            ModelSpec.replaceAll(specs);
+            return true;
+        } catch (IOException | JsonParseException e) {
+            Log.w(TAG, "Ignoring unreadable " + cacheFile, e);
+            return false;
+        }
+    }
+
+    // Fetch the registry, apply it to ModelSpec and save it for the next start.
+    // The callback runs on a background thread.
+    public void refresh(final NetworkClient.RegistryCallback callback) {
+        NetworkClient.fetchModelRegistry(new NetworkClient.RegistryCallback() {
+            @Override
+            public void onSuccess(List<ModelSpec> specs) {
+                ModelSpec.replaceAll(specs);
+                save(specs);
+                callback.onSuccess(specs);
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                callback.onFailure(errorMessage);
+            }
+        });
+    }
+
+    private void save(List<ModelSpec> specs) {
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(gson.toJson(specs, SPEC_LIST).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save the model registry", e);
+            return;
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            Log.w(TAG, "Could not move " + tmp + " to " + cacheFile);
+        }
+    }
+}
@@ -1,11 +1,29 @@
 package com.tckmpsi.objectdetectordemo.network;
 
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.tckmpsi.objectdetectordemo.metrics.Stage;
+import com.tckmpsi.objectdetectordemo.metrics.Trace;
+import com.tckmpsi.objectdetectordemo.models.BatchImageData;
 import com.tckmpsi.objectdetectordemo.models.Disease;
 import com.tckmpsi.objectdetectordemo.models.ImageData;
-import com.tckmpsi.objectdetectordemo.models.DiseaseDetail;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.utils.ImageUtils;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
@@ -16,22 +34,300 @@ public class NetworkClient {
     private static final String BASE_URL = "http://192.168.1.18:8088/";
     private static final String TAG = "NetworkClient";
 
-    private static final Retrofit retrofit = new Retrofit.Builder()
-            .baseUrl(BASE_URL)
-            .addConverterFactory(GsonConverterFactory.create())
-            .build();
+    private static final MediaType MEDIA_TYPE_TEXT = MediaType.get("text/plain");
+    private static final MediaType MEDIA_TYPE_JPEG = MediaType.get("image/jpeg");
+
+    // Failures that never got an answer from the server start with this
+    private static final String NETWORK_ERROR = "Network error: ";
+    public static final String QUEUED_SUFFIX = " (queued until the server is back)";
+
+    // How images are put on the wire. Images are encoded up front (ImagePreprocessor
+    // fits the JPEG to a byte budget, and the cache key and journal need the bytes),
+    // so both modes send a byte[] rather than streaming a Bitmap.
+    public enum UploadMode {
+        // Raw JPEG bytes in a multipart/form-data body (default). A server without the
+        // upload endpoints answers 404/405/415, and every later upload uses BASE64_JSON.
+        MULTIPART,
+        // Base64 string inside the JSON ImageData body, for servers that only speak the old format
+        BASE64_JSON
+    }
+
+    private static volatile UploadMode uploadMode = UploadMode.MULTIPART;
+    private static volatile ResultCache resultCache;
+    private static volatile JournalDrainer journalDrainer;
+    private static final ExecutorService cacheExecutor = Executors.newSingleThreadExecutor();
+    private static final InFlightRequests inFlight = new InFlightRequests();
+
+    private static final LatencyWindow latencyWindow = new LatencyWindow(100);
+    private static final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor();
+
+    private static volatile TransportConfig transportConfig;
+    private static volatile CircuitBreaker circuitBreaker;
+    private static volatile OkHttpClient httpClient;
+    private static volatile ApiService apiService;
+    private static volatile String baseUrl;
+
+    static {
+        configure(BASE_URL, TransportConfig.defaults());
+    }
+
+    // Rebuild the shared client, e.g. with other timeouts or a MockWebServer URL
+    public static synchronized void configure(String baseUrl, TransportConfig config) {
+        CircuitBreaker breaker = new CircuitBreaker(config.getBreakerFailureThreshold(), config.getBreakerOpenMs());
+        OkHttpClient client = HttpClients.create(config, breaker, message -> Log.d(TAG, message));
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .client(client)
+                // Streaming adapters for the kq models; Gson for anything else
+                .addConverterFactory(ResultConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+
+        OkHttpClient previous = httpClient;
+        NetworkClient.baseUrl = baseUrl;
+        transportConfig = config;
+        circuitBreaker = breaker;
+        httpClient = client;
+        apiService = retrofit.create(ApiService.class);
+        if (previous != null) {
+            previous.connectionPool().evictAll();
+        }
+    }
+
+    public static String getBaseUrl() {
+        return baseUrl;
+    }
+
+    // False while the circuit breaker is failing calls fast
+    public static boolean isServerAvailable() {
+        return circuitBreaker.getState() != CircuitBreaker.State.OPEN;
+    }
+
+    public static CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    // Observed p95 of successful single-image calls, or -1 before the first one
+    public static long getLatencyP95Ms() {
+        return latencyWindow.percentile(0.95);
+    }
+
+    public static UploadMode getUploadMode() {
+        return uploadMode;
+    }
+
+    public static void setUploadMode(UploadMode mode) {
+        uploadMode = mode;
+    }
+
+    // How an old server that only has the JSON kq endpoints answers a multipart upload
+    private static boolean rejectsMultipart(int code) {
+        return code == 404 || code == 405 || code == 415;
+    }
+
+    private static void fallBackToBase64(int code) {
+        if (uploadMode == UploadMode.MULTIPART) {
+            Log.w(TAG, "Multipart upload answered " + code + ", switching to Base64 JSON");
+            uploadMode = UploadMode.BASE64_JSON;
+        }
+    }
+
+    public static void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+
+    public static ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    // Where JournalingCallback puts user requests that cannot reach the server, to be sent later
+    public static void setJournalDrainer(JournalDrainer drainer) {
+        journalDrainer = drainer;
+    }
+
+    public static JournalDrainer getJournalDrainer() {
+        return journalDrainer;
+    }
+
+    // True for failures where the server never answered, e.g. no route, timeout or open breaker
+    public static boolean isNetworkError(String errorMessage) {
+        return errorMessage != null && errorMessage.startsWith(NETWORK_ERROR);
+    }
+
+    // Requests currently sharing or waiting for a call, with coalescing counters
+    public static InFlightRequests getInFlightRequests() {
+        return inFlight;
+    }
+
+    // Send an already encoded JPEG, answering from the result cache when possible
+    public static Cancellable sendImageBytes(final byte[] jpeg, final String modelName,
+                                             final DiseaseCallback callback) {
+        return sendImageBytes(jpeg, modelName, null, callback);
+    }
+
+    // Same, adding stage timings to trace (may be null). A request for the same image
+    // and model as one already in flight shares its call; only that call's trace
+    // gets the network stages.
+    public static Cancellable sendImageBytes(final byte[] jpeg, final String modelName, final Trace trace,
+                                             final DiseaseCallback callback) {
+        final ResultCache cache = resultCache;
+        long lookupStart = System.nanoTime();
+        final String key = ResultCache.key(jpeg, modelName);
+        if (cache != null) {
+            Disease cached = cache.getFromMemory(key);
+            if (trace != null) {
+                trace.end(Stage.CACHE, lookupStart);
+            }
+            if (cached != null) {
+                callback.onSuccess(cached);
+                return Cancellable.NONE;
+            }
+        }
+        return inFlight.join(key, callback, flightCallback -> fetch(jpeg, modelName, key, cache, trace,
+                flightCallback));
+    }
+
+    // Disk cache, then the server
+    private static Cancellable fetch(byte[] jpeg, String modelName, String key, ResultCache cache, Trace trace,
+                                     final DiseaseCallback callback) {
+        if (cache == null) {
+            return upload(jpeg, modelName, trace, callback);
+        }
+
+        // Disk lookup does file I/O, keep it off the caller's thread
+        final RequestHandle handle = new RequestHandle();
+        cacheExecutor.execute(() -> {
+            if (handle.isCancelled()) {
+                return;
+            }
+            long diskStart = System.nanoTime();
+            Disease fromDisk = cache.get(key);
+            if (trace != null) {
+                trace.end(Stage.CACHE, diskStart);
+            }
+            if (fromDisk != null) {
+                callback.onSuccess(fromDisk);
+                return;
+            }
+            handle.attach(upload(jpeg, modelName, trace, new DiseaseCallback() {
+                @Override
+                public void onSuccess(Disease disease) {
+                    cacheExecutor.execute(() -> cache.put(key, disease));
+                    callback.onSuccess(disease);
+                }
+
+                @Override
+                public void onFailure(String errorMessage) {
+                    callback.onFailure(errorMessage);
+                }
+            }));
+        });
+        return handle;
+    }
+
+    // Upload an already encoded JPEG using the current upload mode
+    private static Cancellable upload(byte[] jpeg, String modelName, Trace trace, final DiseaseCallback callback) {
+        if (uploadMode == UploadMode.BASE64_JSON) {
+            return sendBase64(jpeg, modelName, trace, callback);
+        }
+        // Sent again as Base64 JSON if the server turns out not to take multipart
+        final RequestHandle handle = new RequestHandle();
+        handle.attach(enqueue(apiService.sendImageMultipart(
+                RequestBody.create(modelName, MEDIA_TYPE_TEXT),
+                MultipartBody.Part.createFormData("image", "image.jpg", RequestBody.create(jpeg, MEDIA_TYPE_JPEG)),
+                trace), trace, callback, code -> {
+            fallBackToBase64(code);
+            handle.attach(sendBase64(jpeg, modelName, trace, callback));
+        }));
+        return handle;
+    }
 
-    private static final ApiService apiService = retrofit.create(ApiService.class);
+    private static Cancellable sendBase64(byte[] jpeg, String modelName, Trace trace, DiseaseCallback callback) {
+        long start = System.nanoTime();
+        String base64 = ImageUtils.encodeBase64(jpeg);
+        if (trace != null) {
+            trace.end(Stage.BASE64, start);
+        }
+        return sendImageData(base64, modelName, trace, callback);
+    }
 
-    public static void sendImageData(String base64Image, String modelName, final DiseaseCallback callback) {
+    public static Cancellable sendImageData(String base64Image, String modelName, final DiseaseCallback callback) {
+        return sendImageData(base64Image, modelName, null, callback);
+    }
+
+    private static Cancellable sendImageData(String base64Image, String modelName, Trace trace,
+                                             final DiseaseCallback callback) {
         ImageData imageData = new ImageData(base64Image, modelName);
-        Call<Disease> call = apiService.sendImageData(imageData);
+        return enqueue(apiService.sendImageData(imageData, trace), trace, callback, null);
+    }
 
-        call.enqueue(new Callback<Disease>() {
+    // Send several encoded JPEGs in one request using the current upload mode
+    public static void sendImageBatch(final List<byte[]> jpegs, final String modelName, final BatchCallback callback) {
+        final Call<List<Disease>> call;
+        final boolean multipart = uploadMode == UploadMode.MULTIPART;
+        if (!multipart) {
+            List<String> images = new ArrayList<>(jpegs.size());
+            for (byte[] jpeg : jpegs) {
+                images.add(ImageUtils.encodeBase64(jpeg));
+            }
+            call = apiService.sendImageDataBatch(new BatchImageData(images, modelName));
+        } else {
+            List<MultipartBody.Part> parts = new ArrayList<>(jpegs.size());
+            for (int i = 0; i < jpegs.size(); i++) {
+                parts.add(MultipartBody.Part.createFormData("images", "image" + i + ".jpg",
+                        RequestBody.create(jpegs.get(i), MEDIA_TYPE_JPEG)));
+            }
+            call = apiService.sendImageBatchMultipart(RequestBody.create(modelName, MEDIA_TYPE_TEXT), parts);
+        }
+
+        final int expected = jpegs.size();
+        call.enqueue(new Callback<List<Disease>>() {
+            @Override
+            public void onResponse(Call<List<Disease>> call, Response<List<Disease>> response) {
+                List<Disease> body = response.body();
+                if (response.isSuccessful() && body != null && body.size() == expected) {
+                    callback.onSuccess(body);
+                } else if (response.isSuccessful()) {
+                    callback.onFailure("Invalid response: expected " + expected + " results");
+                } else if (multipart && rejectsMultipart(response.code())) {
+                    fallBackToBase64(response.code());
+                    sendImageBatch(jpegs, modelName, callback);
+                } else {
+                    callback.onFailure("Error: " + response.code());
+                }
+            }
+
+            @Override
+            public void onFailure(Call<List<Disease>> call, Throwable t) {
+                Log.e(TAG, "Network error", t);
+                callback.onFailure(NETWORK_ERROR + t.getMessage());
+            }
+        });
+    }
+
+    // Cancelled calls report nothing. onMultipartRejected (may be null) takes over from
+    // callback when a multipart upload is answered as rejectsMultipart.
+    private static Cancellable enqueue(Call<Disease> call, final Trace trace, final DiseaseCallback callback,
+                                       final MultipartRejected onMultipartRejected) {
+        if (trace != null) {
+            // Retrofit builds the request, running the JSON body converter, on first access
+            long serializeStart = System.nanoTime();
+            call.request();
+            trace.end(Stage.SERIALIZE, serializeStart);
+        }
+        final long networkStart = System.nanoTime();
+        final long start = SystemClock.elapsedRealtime();
+        Callback<Disease> handler = new Callback<Disease>() {
             @Override
             public void onResponse(Call<Disease> call, Response<Disease> response) {
+                if (trace != null) {
+                    trace.end(Stage.NETWORK, networkStart);
+                }
                 if (response.isSuccessful() && response.body() != null) {
+                    latencyWindow.record(SystemClock.elapsedRealtime() - start);
                     callback.onSuccess(response.body());
+                } else if (onMultipartRejected != null && rejectsMultipart(response.code())) {
+                    onMultipartRejected.retry(response.code());
                 } else {
                     if (response.code() == 422) {
                         callback.onFailure("Invalid request: Please check image data format");
@@ -43,10 +339,26 @@ public class NetworkClient {
 
             @Override
             public void onFailure(Call<Disease> call, Throwable t) {
+                if (trace != null) {
+                    trace.end(Stage.NETWORK, networkStart);
+                }
+                if (call.isCanceled()) {
+                    Log.d(TAG, "Call cancelled");
+                    return;
+                }
                 Log.e(TAG, "Network error", t);
-                callback.onFailure("Network error: " + t.getMessage());
+                callback.onFailure(NETWORK_ERROR + t.getMessage());
             }
-        });
+        };
+
+        TransportConfig config = transportConfig;
+        if (config.isHedgingEnabled()) {
+            // Send a duplicate once the call is slower than 95% of recent calls
+            long hedgeDelayMs = Math.max(config.getHedgeMinDelayMs(), latencyWindow.percentile(0.95));
+            return HedgedCall.enqueue(call, hedgeDelayMs, hedgeTimer, handler);
+        }
+        call.enqueue(handler);
+        return call::cancel;
     }
 
     public static void fetchDiseaseData(DiseaseCallback callback) {
@@ -65,13 +377,94 @@ public class NetworkClient {
             @Override
             public void onFailure(Call<Disease> call, Throwable t) {
                 Log.e(TAG, "Network error", t);
-                callback.onFailure("Network error: " + t.getMessage());
+                callback.onFailure(NETWORK_ERROR + t.getMessage());
             }
         });
     }
 
+    public static void fetchModelRegistry(final RegistryCallback callback) {
+        apiService.getModelRegistry().enqueue(new Callback<List<ModelSpec>>() {
+            @Override
+            public void onResponse(Call<List<ModelSpec>> call, Response<List<ModelSpec>> response) {
+                List<ModelSpec> body = response.body();
+                if (response.isSuccessful() && body != null && !body.isEmpty()) {
+                    callback.onSuccess(body);
+                } else if (response.isSuccessful()) {
+                    callback.onFailure("Invalid response: empty model registry");
+                } else {
+                    callback.onFailure("Error: " + response.code());
+                }
+            }
+
+            @Override
+            public void onFailure(Call<List<ModelSpec>> call, Throwable t) {
+                Log.e(TAG, "Network error", t);
+                callback.onFailure(NETWORK_ERROR + t.getMessage());
+            }
+        });
+    }
+
+    // Blocking; ModelDownloader.Transport for model files. The call timeout is
+    // lifted because a large model can take minutes; the read timeout still
+    // catches a stalled transfer.
+    public static ModelDownloader.Body openModelFile(String fileName, long offset) throws IOException {
+        Call<ResponseBody> call = apiService.downloadModelFile(fileName, offset > 0 ? "bytes=" + offset + "-" : null);
+        call.timeout().clearTimeout();
+        Response<ResponseBody> response = call.execute();
+        if (!response.isSuccessful()) {
+            ResponseBody error = response.errorBody();
+            if (error != null) {
+                error.close();
+            }
+            if (response.code() == 404) {
+                throw new FileNotFoundException("No model file " + fileName + " on the server");
+            }
+            throw new IOException("Error: " + response.code());
+        }
+        ResponseBody body = response.body();
+        if (body == null) {
+            throw new IOException("Empty response for " + fileName);
+        }
+        if (response.code() != 206) {
+            // The server ignored the range and sends the whole file
+            return new ModelDownloader.Body(body.byteStream(), 0);
+        }
+        try {
+            return new ModelDownloader.Body(body.byteStream(), contentRangeStart(response.headers().get("Content-Range")));
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    // First byte of "bytes <start>-<end>/<total>"
+    private static long contentRangeStart(String contentRange) throws IOException {
+        if (contentRange != null && contentRange.startsWith("bytes ") && contentRange.indexOf('-') > 6) {
+            try {
+                return Long.parseLong(contentRange.substring(6, contentRange.indexOf('-')).trim());
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+        throw new IOException("Invalid Content-Range: " + contentRange);
+    }
+
+    private interface MultipartRejected {
+        void retry(int code);
+    }
+
     public interface DiseaseCallback {
         void onSuccess(Disease disease);
         void onFailure(String errorMessage);
     }
-}
\ No newline at end of file
+
+    public interface BatchCallback {
+        void onSuccess(List<Disease> diseases);
+        void onFailure(String errorMessage);
+    }
+
+    public interface RegistryCallback {
+        void onSuccess(List<ModelSpec> specs);
+        void onFailure(String errorMessage);
+    }
+}
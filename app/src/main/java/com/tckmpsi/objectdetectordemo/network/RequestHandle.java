@@ -0,0 +1,43 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+// A Cancellable for work that starts later, e.g. after an encode step or a
+// disk lookup. Work attached after cancel() is cancelled straight away.
+public class RequestHandle implements Cancellable {
+
+    private Cancellable current;
+    private boolean cancelled;
+
+    // Replaces the work cancel() acts on, e.g. when a request falls back to another backend
+    public void attach(Cancellable work) {
+        boolean cancelNow;
+        synchronized (this) {
+            cancelNow = cancelled;
+            if (!cancelled) {
+                current = work;
+            }
+        }
+        if (cancelNow) {
+            work.cancel();
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void cancel() {
+        Cancellable work;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            work = current;
+            current = null;
+        }
+        if (work != null) {
+            work.cancel();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Durable queue of classification requests that could not reach the server,
+// kept in one append-only file so it survives process death. Big-endian, per record:
+//
+//   i32  body length
+//   body:
+//     u8   type (1 = request, 2 = done)
+//     UTF  idempotency key (ResultCache.key of image and model)
+//     if request:
+//       UTF  model name
+//       i64  created at, ms since epoch
+//       i32  image length
+//       u8[] JPEG bytes
+//   i32  CRC32 of body
+//
+// Requests are synced to disk before append() returns; done records are not,
+// so a crash may re-send a request that was already answered, which is harmless
+// for classification. A torn record at the end is cut off on open. The file is
+// truncated when the queue empties and rewritten when it is mostly dead records.
+// Plain Java, so it can be tested on a desktop JVM.
+public class RequestJournal implements Closeable {
+
+    private static final byte TYPE_REQUEST = 1;
+    private static final byte TYPE_DONE = 2;
+    // Framing around each body: length prefix and CRC
+    private static final int FRAME_BYTES = 8;
+    // Rewrite the file once it is this large and less than half of it is live
+    private static final long COMPACT_MIN_BYTES = 4L * 1024 * 1024;
+
+    private final File file;
+    private final long maxBytes;
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private RandomAccessFile raf;
+    private long liveBytes;
+
+    public RequestJournal(File file, long maxBytes) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        long valid = replay();
+        raf = new RandomAccessFile(file, "rw");
+        if (raf.length() > valid) {
+            raf.setLength(valid);
+        }
+    }
+
+    // Rebuild the pending set from the file; returns the length of its intact prefix
+    private long replay() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException end) {
+                    break;
+                }
+                if (length <= 0 || position + FRAME_BYTES + length > file.length()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                if (in.readInt() != crc(body)) {
+                    break;
+                }
+                apply(body, position);
+                position += FRAME_BYTES + length;
+            }
+        }
+        return position;
+    }
+
+    private void apply(byte[] body, long position) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        String key = in.readUTF();
+        if (type == TYPE_DONE) {
+            Entry done = pending.remove(key);
+            if (done != null) {
+                liveBytes -= done.recordBytes;
+            }
+            return;
+        }
+        String model = in.readUTF();
+        long createdAt = in.readLong();
+        int imageLength = in.readInt();
+        // The image is the tail of the body
+        long imageOffset = position + 4 + body.length - imageLength;
+        Entry entry = new Entry(key, model, createdAt, imageOffset, imageLength, FRAME_BYTES + body.length);
+        if (!pending.containsKey(key)) {
+            pending.put(key, entry);
+            liveBytes += entry.recordBytes;
+        }
+    }
+
+    // Queue a request; false if the same key is already waiting
+    public synchronized boolean append(String key, String modelName, byte[] jpeg) throws IOException {
+        if (pending.containsKey(key)) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(jpeg.length + 128);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(TYPE_REQUEST);
+        body.writeUTF(key);
+        body.writeUTF(modelName);
+        body.writeLong(System.currentTimeMillis());
+        body.writeInt(jpeg.length);
+        body.write(jpeg);
+        byte[] record = bytes.toByteArray();
+        if (liveBytes + FRAME_BYTES + record.length > maxBytes) {
+            throw new IOException("Journal full: " + pending.size() + " requests waiting");
+        }
+
+        long position = write(record);
+        raf.getFD().sync();
+        apply(record, position);
+        return true;
+    }
+
+    // Drop a request that was answered (or given up on)
+    public synchronized void markDone(String key) throws IOException {
+        if (!pending.containsKey(key)) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(80);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(TYPE_DONE);
+        body.writeUTF(key);
+        byte[] record = bytes.toByteArray();
+
+        if (pending.size() == 1) {
+            // Last one out: start the file over instead of appending a tombstone
+            pending.clear();
+            liveBytes = 0;
+            raf.setLength(0);
+            return;
+        }
+        apply(record, write(record));
+        if (raf.length() >= COMPACT_MIN_BYTES && liveBytes * 2 < raf.length()) {
+            compact();
+        }
+    }
+
+    // Append one framed record at the end of the file; returns where it starts
+    private long write(byte[] body) throws IOException {
+        long position = raf.length();
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(body.length + FRAME_BYTES);
+        DataOutputStream out = new DataOutputStream(framed);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeInt(crc(body));
+        raf.seek(position);
+        raf.write(framed.toByteArray());
+        return position;
+    }
+
+    // Copy the live requests into a new file, then swap it in
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        List<Entry> live = new ArrayList<>(pending.values());
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            for (Entry entry : live) {
+                byte[] framed = new byte[entry.recordBytes];
+                raf.seek(entry.imageOffset + entry.imageLength + 4 - entry.recordBytes);
+                raf.readFully(framed);
+                out.write(framed);
+            }
+            out.getFD().sync();
+        }
+        raf.close();
+        if (!tmp.renameTo(file)) {
+            raf = new RandomAccessFile(file, "rw");
+            throw new IOException("Could not replace " + file);
+        }
+        raf = new RandomAccessFile(file, "rw");
+        pending.clear();
+        liveBytes = 0;
+        replay();
+    }
+
+    // Waiting requests, oldest first
+    public synchronized List<Entry> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized boolean contains(String key) {
+        return pending.containsKey(key);
+    }
+
+    public synchronized byte[] readImage(Entry entry) throws IOException {
+        // Offsets move when the file is compacted, so look the entry up again
+        Entry current = pending.get(entry.key);
+        if (current == null) {
+            throw new IOException("No longer queued: " + entry.key);
+        }
+        byte[] jpeg = new byte[current.imageLength];
+        raf.seek(current.imageOffset);
+        raf.readFully(jpeg);
+        return jpeg;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized long getFileBytes() throws IOException {
+        return raf.length();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    private static int crc(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    public static class Entry {
+        private final String key;
+        private final String modelName;
+        private final long createdAt;
+        private final long imageOffset;
+        private final int imageLength;
+        private final int recordBytes;
+
+        Entry(String key, String modelName, long createdAt, long imageOffset, int imageLength, int recordBytes) {
+            this.key = key;
+            this.modelName = modelName;
+            this.createdAt = createdAt;
+            this.imageOffset = imageOffset;
+            this.imageLength = imageLength;
+            this.recordBytes = recordBytes;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getModelName() {
+            return modelName;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public int getImageLength() {
+            return imageLength;
+        }
+    }
+}
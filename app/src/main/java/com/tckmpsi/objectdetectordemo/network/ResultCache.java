@@ -0,0 +1,234 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Two-tier cache of classification results keyed by a digest of the encoded
+// image and the model name: a bounded in-memory LRU in front of a size-capped
+// directory in the app cache storage
+public class ResultCache {
+
+    private static final String TAG = "ResultCache";
+
+    private final int maxMemoryEntries;
+    private final File diskDir;
+    private final long maxDiskBytes;
+    private final long ttlMs;
+    private final Gson gson = new Gson();
+
+    private final LinkedHashMap<String, Entry> memory;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResultCache(File cacheDir, int maxMemoryEntries, long maxDiskBytes, long ttlMs) {
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.maxDiskBytes = maxDiskBytes;
+        this.ttlMs = ttlMs;
+        this.diskDir = new File(cacheDir, "results");
+        if (!diskDir.exists() && !diskDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + diskDir);
+        }
+        // Access-ordered, so iteration starts at the least recently used entry
+        this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResultCache.this.maxMemoryEntries;
+            }
+        };
+    }
+
+    // Digest of the encoded image bytes plus the model name
+    public static String key(byte[] image, String modelName) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(image);
+            digest.update((byte) 0);
+            digest.update(modelName.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest();
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Memory tier only, cheap enough for the UI thread
+    public Disease getFromMemory(String key) {
+        synchronized (memory) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (!isExpired(entry.createdAt)) {
+                    memoryHits.incrementAndGet();
+                    return entry.disease;
+                }
+                memory.remove(key);
+            }
+        }
+        return null;
+    }
+
+    // Memory tier, then disk tier; does file I/O, so call off the UI thread
+    public Disease get(String key) {
+        Disease disease = getFromMemory(key);
+        if (disease != null) {
+            return disease;
+        }
+
+        File file = new File(diskDir, key);
+        if (file.exists()) {
+            if (isExpired(file.lastModified())) {
+                deleteQuietly(file);
+            } else {
+                try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                    disease = gson.fromJson(reader, Disease.class);
+                } catch (Exception e) {
+                    Log.w(TAG, "Dropping unreadable entry " + key, e);
+                    deleteQuietly(file);
+                }
+                if (disease != null) {
+                    diskHits.incrementAndGet();
+                    // Mark as recently used for disk eviction and promote to memory
+                    file.setLastModified(System.currentTimeMillis());
+                    synchronized (memory) {
+                        memory.put(key, new Entry(disease, file.lastModified()));
+                    }
+                    return disease;
+                }
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, Disease disease) {
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            memory.put(key, new Entry(disease, now));
+        }
+
+        File tmp = new File(diskDir, key + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            gson.toJson(disease, writer);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write entry " + key, e);
+            deleteQuietly(tmp);
+            return;
+        }
+        if (!tmp.renameTo(new File(diskDir, key))) {
+            deleteQuietly(tmp);
+            return;
+        }
+        trimDisk();
+    }
+
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+        File[] files = diskDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteQuietly(file);
+            }
+        }
+    }
+
+    // Delete expired files, then the least recently used ones until under the size cap
+    private synchronized void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (File file : files) {
+            if (total <= maxDiskBytes && !isExpired(file.lastModified())) {
+                break;
+            }
+            total -= file.length();
+            deleteQuietly(file);
+        }
+    }
+
+    // Drop expired memory entries, e.g. when the system asks us to trim
+    public void evictExpired() {
+        synchronized (memory) {
+            Iterator<Entry> it = memory.values().iterator();
+            while (it.hasNext()) {
+                if (isExpired(it.next().createdAt)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private boolean isExpired(long createdAt) {
+        return System.currentTimeMillis() - createdAt > ttlMs;
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCache{" +
+                "memoryHits=" + memoryHits.get() +
+                ", diskHits=" + diskHits.get() +
+                ", misses=" + misses.get() +
+                '}';
+    }
+
+    private static class Entry {
+        final Disease disease;
+        final long createdAt;
+
+        Entry(Disease disease, long createdAt) {
+            this.disease = disease;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.tckmpsi.objectdetectordemo.models.BatchImageData;
+import com.tckmpsi.objectdetectordemo.models.BinaryResults;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ImageData;
+import com.tckmpsi.objectdetectordemo.models.JsonAdapters;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+// Retrofit converters for the kq wire models, using the hand-written streaming
+// adapters in JsonAdapters instead of Gson reflection. Responses are decoded by
+// their Content-Type: BinaryResults.MEDIA_TYPE or JSON. Other types return null,
+// so Retrofit falls through to the next factory.
+public class ResultConverterFactory extends Converter.Factory {
+
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.get("application/json; charset=UTF-8");
+
+    public static ResultConverterFactory create() {
+        return new ResultConverterFactory();
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+        if (type == Disease.class) {
+            return (Converter<ResponseBody, Disease>) body -> {
+                try {
+                    if (isBinary(body)) {
+                        return BinaryResults.read(new DataInputStream(body.byteStream()));
+                    }
+                    return JsonAdapters.DISEASE.read(new JsonReader(body.charStream()));
+                } finally {
+                    body.close();
+                }
+            };
+        }
+        if (isListOf(type, Disease.class)) {
+            return (Converter<ResponseBody, List<Disease>>) body -> {
+                try {
+                    if (isBinary(body)) {
+                        return BinaryResults.readList(new DataInputStream(body.byteStream()));
+                    }
+                    return JsonAdapters.readDiseaseList(new JsonReader(body.charStream()));
+                } finally {
+                    body.close();
+                }
+            };
+        }
+        return null;
+    }
+
+    @Override
+    public Converter<?, RequestBody> requestBodyConverter(Type type, Annotation[] parameterAnnotations,
+                                                          Annotation[] methodAnnotations, Retrofit retrofit) {
+        if (type == ImageData.class) {
+            return (Converter<ImageData, RequestBody>) data -> json(out -> JsonAdapters.IMAGE_DATA.write(out, data));
+        }
+        if (type == BatchImageData.class) {
+            return (Converter<BatchImageData, RequestBody>) batch ->
+                    json(out -> JsonAdapters.BATCH_IMAGE_DATA.write(out, batch));
+        }
+        return null;
+    }
+
+    private static RequestBody json(JsonBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        Writer writer = new OutputStreamWriter(buffer.outputStream(), StandardCharsets.UTF_8);
+        JsonWriter out = new JsonWriter(writer);
+        body.write(out);
+        out.close();
+        return RequestBody.create(buffer.readByteString(), MEDIA_TYPE_JSON);
+    }
+
+    private static boolean isBinary(ResponseBody body) {
+        MediaType contentType = body.contentType();
+        return contentType != null
+                && BinaryResults.MEDIA_TYPE.equals(contentType.type() + "/" + contentType.subtype());
+    }
+
+    private static boolean isListOf(Type type, Class<?> element) {
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+        ParameterizedType parameterized = (ParameterizedType) type;
+        return parameterized.getRawType() == List.class
+                && parameterized.getActualTypeArguments()[0] == element;
+    }
+
+    private interface JsonBody {
+        void write(JsonWriter out) throws IOException;
+    }
+}
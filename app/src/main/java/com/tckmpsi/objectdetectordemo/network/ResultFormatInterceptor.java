@@ -0,0 +1,94 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import com.tckmpsi.objectdetectordemo.models.BinaryResults;
+import com.tckmpsi.objectdetectordemo.models.LabelTable;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+// Offers the binary result encoding ahead of JSON, and tells the server which
+// label table we already hold so it can leave the labels out. That table stays
+// pinned in LabelTable until the response body is closed, i.e. until the
+// converter has read it, so other requests interning tables meanwhile cannot
+// evict it. Without a table yet, no hash is sent and the labels come inline.
+// Only classification requests (under kq) are touched; the model registry and
+// model file downloads go out as they are.
+class ResultFormatInterceptor implements Interceptor {
+
+    static final String ACCEPT = BinaryResults.MEDIA_TYPE + ", application/json;q=0.9";
+    // Path segment of every classify endpoint (see ApiService)
+    private static final String CLASSIFY_SEGMENT = "kq";
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.header("Accept") != null || !request.url().pathSegments().contains(CLASSIFY_SEGMENT)) {
+            return chain.proceed(request);
+        }
+        Request.Builder builder = request.newBuilder().header("Accept", ACCEPT);
+        long tableHash = LabelTable.pinLatest();
+        if (tableHash == 0) {
+            return chain.proceed(builder.build());
+        }
+        builder.header(BinaryResults.LABEL_TABLE_HEADER, BinaryResults.formatHash(tableHash));
+        Response response;
+        try {
+            response = chain.proceed(builder.build());
+        } catch (IOException | RuntimeException e) {
+            LabelTable.release(tableHash);
+            throw e;
+        }
+        if (response.body() == null) {
+            LabelTable.release(tableHash);
+            return response;
+        }
+        return response.newBuilder().body(new PinnedBody(response.body(), tableHash)).build();
+    }
+
+    // Releases the pinned table when closed
+    private static class PinnedBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        PinnedBody(ResponseBody delegate, long tableHash) {
+            this.delegate = delegate;
+            AtomicBoolean released = new AtomicBoolean();
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (released.compareAndSet(false, true)) {
+                            LabelTable.release(tableHash);
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Retries idempotent requests on I/O errors and 502/503/504 with exponential
+// backoff and full jitter. Requests are idempotent if they are GET/HEAD or carry
+// the IDEMPOTENT_HEADER marker, which is stripped before the request goes out.
+public class RetryInterceptor implements Interceptor {
+
+    public static final String IDEMPOTENT_HEADER = "X-Idempotent";
+
+    private final int maxRetries;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    public RetryInterceptor(int maxRetries, long baseDelayMs, long maxDelayMs) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean idempotent = "GET".equals(request.method()) || "HEAD".equals(request.method())
+                || request.header(IDEMPOTENT_HEADER) != null;
+        if (request.header(IDEMPOTENT_HEADER) != null) {
+            request = request.newBuilder().removeHeader(IDEMPOTENT_HEADER).build();
+        }
+        if (!idempotent) {
+            return chain.proceed(request);
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (attempt >= maxRetries || chain.call().isCanceled()) {
+                    throw e;
+                }
+                backOff(attempt);
+                continue;
+            }
+            if (!isRetryable(response.code()) || attempt >= maxRetries) {
+                return response;
+            }
+            response.close();
+            backOff(attempt);
+        }
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 502 || code == 503 || code == 504;
+    }
+
+    // Full jitter: uniform in [0, min(max, base * 2^attempt)]
+    long delayMs(int attempt) {
+        long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private void backOff(int attempt) throws IOException {
+        try {
+            Thread.sleep(delayMs(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while backing off", e);
+        }
+    }
+}
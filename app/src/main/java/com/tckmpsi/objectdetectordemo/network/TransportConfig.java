@@ -0,0 +1,216 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+// Tuning knobs for the HTTP transport used by NetworkClient
+public class TransportConfig {
+
+    private final long connectTimeoutMs;
+    private final long readTimeoutMs;
+    private final long writeTimeoutMs;
+    private final long callTimeoutMs;
+    private final int maxIdleConnections;
+    private final long keepAliveMs;
+    private final int maxRequestsPerHost;
+    private final int maxRetries;
+    private final long retryBaseDelayMs;
+    private final long retryMaxDelayMs;
+    private final boolean hedgingEnabled;
+    private final long hedgeMinDelayMs;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMs;
+    private final boolean loggingEnabled;
+    private final boolean binaryResultsEnabled;
+
+    private TransportConfig(Builder builder) {
+        this.connectTimeoutMs = builder.connectTimeoutMs;
+        this.readTimeoutMs = builder.readTimeoutMs;
+        this.writeTimeoutMs = builder.writeTimeoutMs;
+        this.callTimeoutMs = builder.callTimeoutMs;
+        this.maxIdleConnections = builder.maxIdleConnections;
+        this.keepAliveMs = builder.keepAliveMs;
+        this.maxRequestsPerHost = builder.maxRequestsPerHost;
+        this.maxRetries = builder.maxRetries;
+        this.retryBaseDelayMs = builder.retryBaseDelayMs;
+        this.retryMaxDelayMs = builder.retryMaxDelayMs;
+        this.hedgingEnabled = builder.hedgingEnabled;
+        this.hedgeMinDelayMs = builder.hedgeMinDelayMs;
+        this.breakerFailureThreshold = builder.breakerFailureThreshold;
+        this.breakerOpenMs = builder.breakerOpenMs;
+        this.loggingEnabled = builder.loggingEnabled;
+        this.binaryResultsEnabled = builder.binaryResultsEnabled;
+    }
+
+    public static TransportConfig defaults() {
+        return new Builder().build();
+    }
+
+    public long getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public long getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public long getWriteTimeoutMs() {
+        return writeTimeoutMs;
+    }
+
+    // Deadline for a whole call including retries; 0 means none
+    public long getCallTimeoutMs() {
+        return callTimeoutMs;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public long getKeepAliveMs() {
+        return keepAliveMs;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getRetryBaseDelayMs() {
+        return retryBaseDelayMs;
+    }
+
+    public long getRetryMaxDelayMs() {
+        return retryMaxDelayMs;
+    }
+
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    // Never hedge earlier than this, even if the observed p95 is lower
+    public long getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+
+    public int getBreakerFailureThreshold() {
+        return breakerFailureThreshold;
+    }
+
+    public long getBreakerOpenMs() {
+        return breakerOpenMs;
+    }
+
+    public boolean isLoggingEnabled() {
+        return loggingEnabled;
+    }
+
+    // Ask for the compact binary result encoding; JSON stays acceptable, so servers
+    // that do not know it are unaffected
+    public boolean isBinaryResultsEnabled() {
+        return binaryResultsEnabled;
+    }
+
+    public static class Builder {
+        private long connectTimeoutMs = 5000;
+        private long readTimeoutMs = 15000;
+        private long writeTimeoutMs = 15000;
+        private long callTimeoutMs = 20000;
+        private int maxIdleConnections = 5;
+        private long keepAliveMs = 5 * 60 * 1000;
+        private int maxRequestsPerHost = 8;
+        private int maxRetries = 2;
+        private long retryBaseDelayMs = 200;
+        private long retryMaxDelayMs = 2000;
+        private boolean hedgingEnabled = false;
+        private long hedgeMinDelayMs = 500;
+        private int breakerFailureThreshold = 5;
+        private long breakerOpenMs = 30000;
+        private boolean loggingEnabled = false;
+        private boolean binaryResultsEnabled = false;
+
+        public Builder connectTimeoutMs(long connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        public Builder readTimeoutMs(long readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        public Builder writeTimeoutMs(long writeTimeoutMs) {
+            this.writeTimeoutMs = writeTimeoutMs;
+            return this;
+        }
+
+        public Builder callTimeoutMs(long callTimeoutMs) {
+            this.callTimeoutMs = callTimeoutMs;
+            return this;
+        }
+
+        public Builder maxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        public Builder keepAliveMs(long keepAliveMs) {
+            this.keepAliveMs = keepAliveMs;
+            return this;
+        }
+
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder retryBaseDelayMs(long retryBaseDelayMs) {
+            this.retryBaseDelayMs = retryBaseDelayMs;
+            return this;
+        }
+
+        public Builder retryMaxDelayMs(long retryMaxDelayMs) {
+            this.retryMaxDelayMs = retryMaxDelayMs;
+            return this;
+        }
+
+        public Builder hedgingEnabled(boolean hedgingEnabled) {
+            this.hedgingEnabled = hedgingEnabled;
+            return this;
+        }
+
+        public Builder hedgeMinDelayMs(long hedgeMinDelayMs) {
+            this.hedgeMinDelayMs = hedgeMinDelayMs;
+            return this;
+        }
+
+        public Builder breakerFailureThreshold(int breakerFailureThreshold) {
+            this.breakerFailureThreshold = breakerFailureThreshold;
+            return this;
+        }
+
+        public Builder breakerOpenMs(long breakerOpenMs) {
+            this.breakerOpenMs = breakerOpenMs;
+            return this;
+        }
+
+        public Builder loggingEnabled(boolean loggingEnabled) {
+            this.loggingEnabled = loggingEnabled;
+            return this;
+        }
+
+        public Builder binaryResultsEnabled(boolean binaryResultsEnabled) {
+            this.binaryResultsEnabled = binaryResultsEnabled;
+            return this;
+        }
+
+        public TransportConfig build() {
+            return new TransportConfig(this);
+        }
+    }
+}
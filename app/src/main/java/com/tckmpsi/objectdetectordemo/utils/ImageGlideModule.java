@@ -0,0 +1,42 @@
+package com.tckmpsi.objectdetectordemo.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.module.AppGlideModule;
+
+// Sizes Glide's caches from the per-app heap limit rather than screen size: an
+// eighth of the memory class each for decoded images and the bitmap pool (a
+// sixteenth on low-RAM devices), plus a disk cache of downsampled previews.
+@GlideModule
+public class ImageGlideModule extends AppGlideModule {
+
+    private static final String TAG = "ImageGlideModule";
+    private static final String DISK_CACHE_DIR = "image_cache";
+    private static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long heapBytes = activityManager.getMemoryClass() * 1024L * 1024;
+        long share = heapBytes / (activityManager.isLowRamDevice() ? 16 : 8);
+        Log.d(TAG, "Memory class " + heapBytes / (1024 * 1024) + " MB, cache and pool " + share / 1024 + " KB each");
+
+        builder.setMemoryCache(new LruResourceCache(share));
+        builder.setBitmapPool(new StatsBitmapPool(share));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, DISK_CACHE_DIR, DISK_CACHE_BYTES));
+    }
+
+    // Everything is configured here; skip the legacy manifest scan
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
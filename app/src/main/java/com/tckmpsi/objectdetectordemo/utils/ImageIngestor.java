@@ -0,0 +1,340 @@
+package com.tckmpsi.objectdetectordemo.utils;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.tckmpsi.objectdetectordemo.metrics.Metrics;
+import com.tckmpsi.objectdetectordemo.metrics.Stage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Turns a picked image into a model-sized input off the UI thread: read bounds,
+// decode subsampled to just above the size we need, then apply EXIF orientation.
+// Decode and output buffers come from the bitmap pool shared with Glide, which
+// shows the preview. Selecting a new image cancels work for the previous one.
+public class ImageIngestor {
+
+    private static final String TAG = "ImageIngestor";
+
+    private final ContentResolver resolver;
+    private final BitmapPool pool;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Small and bounded: stale work is cancelled, so a deep queue only wastes memory
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 2, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(2), new ThreadPoolExecutor.DiscardOldestPolicy());
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> current;
+
+    public ImageIngestor(ContentResolver resolver, BitmapPool pool) {
+        this.resolver = resolver;
+        this.pool = pool;
+    }
+
+    // Decode uri into a model input whose shorter side is modelInputSize. The callback
+    // runs on the main thread and is skipped if another image was selected in the meantime.
+    public synchronized void ingest(Uri uri, int modelInputSize, Callback callback) {
+        final long id = generation.incrementAndGet();
+        if (current != null) {
+            current.cancel(true);
+        }
+        current = executor.submit(() -> {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                long decodeStart = System.nanoTime();
+                Decoded decoded = decode(resolver, uri, modelInputSize, pool);
+                Metrics.record(Metrics.ALL_MODELS, Stage.DECODE, System.nanoTime() - decodeStart);
+                if (decoded == null) {
+                    deliverFailure(id, callback, "Could not decode image");
+                    return;
+                }
+                if (isStale(id)) {
+                    pool.put(decoded.bitmap);
+                    return;
+                }
+                Bitmap source = decoded.bitmap;
+                Bitmap modelInput = transform(source, decoded.orientation, shortSideScale(source, modelInputSize), pool);
+                if (modelInput != source) {
+                    // The next decode can land in these pixels
+                    pool.put(source);
+                }
+
+                Result result = new Result(modelInput, decoded.originalWidth, decoded.originalHeight,
+                        decoded.sampleSize, SystemClock.elapsedRealtime() - start);
+                Log.d(TAG, result.toString());
+                mainHandler.post(() -> {
+                    if (isStale(id)) {
+                        return;
+                    }
+                    callback.onIngested(result);
+                });
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Could not open " + uri, e);
+                deliverFailure(id, callback, e.getMessage());
+            }
+        });
+    }
+
+    // Invalidate any work in flight without starting new work
+    public synchronized void cancel() {
+        generation.incrementAndGet();
+        if (current != null) {
+            current.cancel(true);
+        }
+    }
+
+    public void close() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private boolean isStale(long id) {
+        return id != generation.get() || Thread.currentThread().isInterrupted();
+    }
+
+    private void deliverFailure(long id, Callback callback, String errorMessage) {
+        mainHandler.post(() -> {
+            if (id == generation.get()) {
+                callback.onFailure(errorMessage);
+            }
+        });
+    }
+
+    // Subsampled decode so the shorter side stays at or above minShortSide, plus EXIF orientation.
+    // Blocking; returns null if the stream is not an image.
+    public static Decoded decode(ContentResolver resolver, Uri uri, int minShortSide) throws IOException {
+        return decode(resolver, uri, minShortSide, null);
+    }
+
+    // As above, decoding into a pooled bitmap (inBitmap) when pool is not null
+    public static Decoded decode(ContentResolver resolver, Uri uri, int minShortSide, BitmapPool pool)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int originalWidth = options.outWidth;
+        int originalHeight = options.outHeight;
+        int sampleSize = sampleSize(originalWidth, originalHeight, minShortSide);
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        if (pool != null) {
+            // Rounded up, so the buffer is never too small; the decoder shrinks it to fit
+            options.inMutable = true;
+            options.inBitmap = pool.getDirty((originalWidth + sampleSize - 1) / sampleSize,
+                    (originalHeight + sampleSize - 1) / sampleSize, Bitmap.Config.ARGB_8888);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = decodeStream(resolver, uri, options);
+        } catch (IllegalArgumentException e) {
+            // Some decoders reject inBitmap; decode into a fresh bitmap instead
+            Log.w(TAG, "inBitmap rejected for " + uri, e);
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decodeStream(resolver, uri, options);
+        }
+        if (bitmap == null) {
+            if (options.inBitmap != null) {
+                pool.put(options.inBitmap);
+            }
+            return null;
+        }
+
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in != null) {
+                orientation = new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                        ExifInterface.ORIENTATION_NORMAL);
+            }
+        } catch (IOException e) {
+            // No EXIF (e.g. PNG); keep the pixels as they are
+        }
+        return new Decoded(bitmap, orientation, originalWidth, originalHeight, sampleSize);
+    }
+
+    private static Bitmap decodeStream(ContentResolver resolver, Uri uri, BitmapFactory.Options options)
+            throws IOException {
+        try (InputStream in = resolver.openInputStream(uri)) {
+            return BitmapFactory.decodeStream(in, null, options);
+        }
+    }
+
+    // Largest power of two that keeps the shorter side at or above minShortSide
+    public static int sampleSize(int width, int height, int minShortSide) {
+        int shortSide = Math.min(width, height);
+        int sampleSize = 1;
+        while (shortSide / (sampleSize * 2) >= minShortSide) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Decoded bitmap rotated/flipped upright and scaled
+    public static Bitmap upright(Decoded decoded, float scale) {
+        return transform(decoded.bitmap, decoded.orientation, scale, null);
+    }
+
+    // Draws into a pooled bitmap when pool is not null; returns source when there is nothing to do
+    private static Bitmap transform(Bitmap source, int orientation, float scale, BitmapPool pool) {
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(270);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(270);
+                matrix.postScale(-1, 1);
+                break;
+            default:
+                if (scale >= 1f) {
+                    return source;
+                }
+        }
+        if (pool == null) {
+            return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        }
+
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        Bitmap target = pool.get(Math.max(1, Math.round(bounds.width())), Math.max(1, Math.round(bounds.height())),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        canvas.setBitmap(null);
+        return target;
+    }
+
+    // Scale so the shorter side becomes target; never upscale
+    public static float shortSideScale(Bitmap bitmap, int target) {
+        return Math.min(1f, (float) target / Math.min(bitmap.getWidth(), bitmap.getHeight()));
+    }
+
+    // Scale so the longer side fits in target; never upscale
+    public static float longSideScale(Bitmap bitmap, int target) {
+        return Math.min(1f, (float) target / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+    }
+
+    public interface Callback {
+        void onIngested(Result result);
+
+        void onFailure(String errorMessage);
+    }
+
+    public static class Decoded {
+        private final Bitmap bitmap;
+        private final int orientation;
+        private final int originalWidth;
+        private final int originalHeight;
+        private final int sampleSize;
+
+        Decoded(Bitmap bitmap, int orientation, int originalWidth, int originalHeight, int sampleSize) {
+            this.bitmap = bitmap;
+            this.orientation = orientation;
+            this.originalWidth = originalWidth;
+            this.originalHeight = originalHeight;
+            this.sampleSize = sampleSize;
+        }
+
+        // Subsampled pixels, not yet rotated
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        public int getOrientation() {
+            return orientation;
+        }
+
+        public int getOriginalWidth() {
+            return originalWidth;
+        }
+
+        public int getOriginalHeight() {
+            return originalHeight;
+        }
+    }
+
+    public static class Result {
+        private final Bitmap modelInput;
+        private final int originalWidth;
+        private final int originalHeight;
+        private final int sampleSize;
+        private final long elapsedMs;
+
+        Result(Bitmap modelInput, int originalWidth, int originalHeight, int sampleSize, long elapsedMs) {
+            this.modelInput = modelInput;
+            this.originalWidth = originalWidth;
+            this.originalHeight = originalHeight;
+            this.sampleSize = sampleSize;
+            this.elapsedMs = elapsedMs;
+        }
+
+        // Upright, shorter side at the requested model input size
+        public Bitmap getModelInput() {
+            return modelInput;
+        }
+
+        public int getOriginalWidth() {
+            return originalWidth;
+        }
+
+        public int getOriginalHeight() {
+            return originalHeight;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "original=" + originalWidth + "x" + originalHeight +
+                    ", sampleSize=" + sampleSize +
+                    ", input=" + modelInput.getWidth() + "x" + modelInput.getHeight() +
+                    ", elapsedMs=" + elapsedMs +
+                    '}';
+        }
+    }
+}
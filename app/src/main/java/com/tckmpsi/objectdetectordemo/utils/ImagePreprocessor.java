@@ -0,0 +1,199 @@
+package com.tckmpsi.objectdetectordemo.utils;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tckmpsi.objectdetectordemo.metrics.Metrics;
+import com.tckmpsi.objectdetectordemo.metrics.Stage;
+import com.tckmpsi.objectdetectordemo.metrics.Trace;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shrinks an image to what the selected model actually consumes and encodes it
+// as JPEG at the highest quality that still fits the byte budget
+public class ImagePreprocessor {
+
+    private static final String TAG = "ImagePreprocessor";
+
+    // Upload at this multiple of the model input size, so the server can still
+    // resize/center-crop the way it was trained
+    private final float scaleMultiple;
+    // Maximum encoded size; quality is lowered until the JPEG fits
+    private final int byteBudget;
+    private final int minQuality;
+    private final int maxQuality;
+    // Every baselineInterval-th image is also encoded at full size and quality 100, the
+    // old upload, and the difference recorded as Metrics.BYTES_SAVED; 0 never does.
+    // That encode costs about as much as the search, so it is only sampled.
+    private final int baselineInterval;
+    private final AtomicLong prepared = new AtomicLong();
+
+    public ImagePreprocessor() {
+        this(1.0f, 64 * 1024, 60, 95, 20);
+    }
+
+    public ImagePreprocessor(float scaleMultiple, int byteBudget, int minQuality, int maxQuality,
+                             int baselineInterval) {
+        this.scaleMultiple = scaleMultiple;
+        this.byteBudget = byteBudget;
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        this.baselineInterval = baselineInterval;
+    }
+
+    public Result prepare(Bitmap source, ModelSpec spec) {
+        return prepare(source, spec, null);
+    }
+
+    // Same, adding SCALE and COMPRESS timings to trace (may be null)
+    public Result prepare(Bitmap source, ModelSpec spec, Trace trace) {
+        long start = SystemClock.elapsedRealtime();
+
+        long scaleStart = System.nanoTime();
+        Bitmap scaled = scaleToTarget(source, targetSize(spec));
+        long compressStart = System.nanoTime();
+        if (trace != null) {
+            trace.add(Stage.SCALE, compressStart - scaleStart);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(byteBudget);
+
+        // Binary search for the highest quality that fits the budget
+        int low = minQuality;
+        int high = maxQuality;
+        int quality = minQuality;
+        byte[] best = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            out.reset();
+            scaled.compress(Bitmap.CompressFormat.JPEG, mid, out);
+            if (out.size() <= byteBudget) {
+                best = out.toByteArray();
+                quality = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (best == null) {
+            // Nothing fits, send the smallest we are willing to produce
+            out.reset();
+            scaled.compress(Bitmap.CompressFormat.JPEG, minQuality, out);
+            best = out.toByteArray();
+            quality = minQuality;
+        }
+
+        long encodeTimeMs = SystemClock.elapsedRealtime() - start;
+        if (trace != null) {
+            trace.end(Stage.COMPRESS, compressStart);
+        }
+
+        long baselineBytes = -1;
+        if (baselineInterval > 0 && prepared.incrementAndGet() % baselineInterval == 0) {
+            out.reset();
+            source.compress(Bitmap.CompressFormat.JPEG, 100, out);
+            baselineBytes = out.size();
+        }
+
+        Result result = new Result(best, scaled.getWidth(), scaled.getHeight(),
+                quality, encodeTimeMs, source.getByteCount(), baselineBytes);
+        if (baselineBytes >= 0) {
+            Metrics.recordBytes(spec.getName(), Metrics.BYTES_SAVED, Math.max(0, result.getBytesSaved()));
+        }
+        if (scaled != source) {
+            scaled.recycle();
+        }
+        Log.d(TAG, spec.getName() + ": " + result);
+        return result;
+    }
+
+    public int targetSize(ModelSpec spec) {
+        return Math.round(spec.getInputSize() * scaleMultiple);
+    }
+
+    // Scale so the shorter side matches the target; never upscale
+    private static Bitmap scaleToTarget(Bitmap source, int target) {
+        float ratio = ratio(source, target);
+        if (ratio >= 1f) {
+            return source;
+        }
+        int width = Math.max(1, Math.round(source.getWidth() * ratio));
+        int height = Math.max(1, Math.round(source.getHeight() * ratio));
+        return Bitmap.createScaledBitmap(source, width, height, true);
+    }
+
+    private static float ratio(Bitmap source, int target) {
+        int shortSide = Math.min(source.getWidth(), source.getHeight());
+        return Math.min(1f, (float) target / shortSide);
+    }
+
+    public static class Result {
+        private final byte[] jpeg;
+        private final int width;
+        private final int height;
+        private final int quality;
+        private final long encodeTimeMs;
+        private final long sourcePixelBytes;
+        private final long baselineBytes;
+
+        Result(byte[] jpeg, int width, int height, int quality, long encodeTimeMs,
+               long sourcePixelBytes, long baselineBytes) {
+            this.jpeg = jpeg;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.encodeTimeMs = encodeTimeMs;
+            this.sourcePixelBytes = sourcePixelBytes;
+            this.baselineBytes = baselineBytes;
+        }
+
+        public byte[] getJpeg() {
+            return jpeg;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+        public long getEncodeTimeMs() {
+            return encodeTimeMs;
+        }
+
+        // Size of the decoded source bitmap in memory
+        public long getSourcePixelBytes() {
+            return sourcePixelBytes;
+        }
+
+        // Size of the old full-resolution quality-100 upload, or -1 if this image was not sampled
+        public long getBaselineBytes() {
+            return baselineBytes;
+        }
+
+        // Bytes saved compared to the old upload, or -1 if this image was not sampled;
+        // Metrics.BYTES_SAVED has the distribution over the sampled ones
+        public long getBytesSaved() {
+            return baselineBytes >= 0 ? baselineBytes - jpeg.length : -1;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "size=" + width + "x" + height +
+                    ", quality=" + quality +
+                    ", bytes=" + jpeg.length +
+                    ", saved=" + getBytesSaved() +
+                    ", encodeTimeMs=" + encodeTimeMs +
+                    '}';
+        }
+    }
+}
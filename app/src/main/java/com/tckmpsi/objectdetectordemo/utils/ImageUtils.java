@@ -18,4 +18,9 @@ public class ImageUtils {
         byte[] byteArray = byteArrayOutputStream.toByteArray();
         return Base64.encodeToString(byteArray, Base64.NO_WRAP); // Return Base64 encoded string
     }
+
+    // Method to convert already encoded image bytes to Base64 String
+    public static String encodeBase64(byte[] bytes) {
+        return Base64.encodeToString(bytes, Base64.NO_WRAP);
+    }
 }
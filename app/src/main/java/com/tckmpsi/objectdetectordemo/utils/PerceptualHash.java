@@ -0,0 +1,62 @@
+package com.tckmpsi.objectdetectordemo.utils;
+
+import android.graphics.Bitmap;
+
+// 64-bit difference hash (dHash): the image is box-averaged down to a 9x8
+// grayscale grid and each bit says whether a cell is brighter than its right
+// neighbour. Re-encoding, small shifts and exposure changes flip few bits, so
+// near-identical photos are a small Hamming distance apart.
+public final class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    public static long dHash(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return dHash(pixels, width, height);
+    }
+
+    // pixels are ARGB, row-major; images smaller than the grid repeat pixels
+    public static long dHash(int[] pixels, int width, int height) {
+        float[] grid = new float[GRID_WIDTH * GRID_HEIGHT];
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            int y0 = gy * height / GRID_HEIGHT;
+            int y1 = Math.max(y0 + 1, (gy + 1) * height / GRID_HEIGHT);
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                int x0 = gx * width / GRID_WIDTH;
+                int x1 = Math.max(x0 + 1, (gx + 1) * width / GRID_WIDTH);
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    int row = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        int p = pixels[row + x];
+                        // Integer Rec. 601 luma
+                        sum += (((p >> 16) & 0xff) * 299 + ((p >> 8) & 0xff) * 587 + (p & 0xff) * 114);
+                    }
+                }
+                grid[gy * GRID_WIDTH + gx] = (float) sum / ((y1 - y0) * (x1 - x0));
+            }
+        }
+
+        long hash = 0;
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            for (int gx = 0; gx < GRID_WIDTH - 1; gx++) {
+                hash <<= 1;
+                if (grid[gy * GRID_WIDTH + gx] > grid[gy * GRID_WIDTH + gx + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
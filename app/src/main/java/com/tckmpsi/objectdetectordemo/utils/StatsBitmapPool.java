@@ -0,0 +1,151 @@
+package com.tckmpsi.objectdetectordemo.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+
+import java.util.Locale;
+
+// Glide's LRU bitmap pool with hit, miss and reuse counters, so we can see how
+// many allocations the pool actually saves. Shared by Glide and ImageIngestor.
+public class StatsBitmapPool implements BitmapPool {
+
+    private final LruBitmapPool delegate;
+    private long hits;
+    private long misses;
+    private long puts;
+    private long rejected;
+    private long bytesReused;
+
+    public StatsBitmapPool(long maxSizeBytes) {
+        this.delegate = new LruBitmapPool(maxSizeBytes);
+    }
+
+    // The pool Glide was configured with (see ImageGlideModule)
+    public static BitmapPool from(Context context) {
+        return Glide.get(context).getBitmapPool();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return delegate.getMaxSize();
+    }
+
+    @Override
+    public void setSizeMultiplier(float sizeMultiplier) {
+        delegate.setSizeMultiplier(sizeMultiplier);
+    }
+
+    @Override
+    public synchronized void put(Bitmap bitmap) {
+        delegate.put(bitmap);
+        // The pool recycles what it will not keep: immutable, too large or unsupported config
+        if (bitmap.isRecycled()) {
+            rejected++;
+        } else {
+            puts++;
+        }
+    }
+
+    @NonNull
+    @Override
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long before = delegate.getCurrentSize();
+        Bitmap bitmap = delegate.get(width, height, config);
+        count(before, bitmap);
+        return bitmap;
+    }
+
+    @NonNull
+    @Override
+    public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        long before = delegate.getCurrentSize();
+        Bitmap bitmap = delegate.getDirty(width, height, config);
+        count(before, bitmap);
+        return bitmap;
+    }
+
+    // A hit takes its bitmap out of the pool; a miss allocates and leaves the size alone
+    private void count(long sizeBefore, Bitmap bitmap) {
+        if (delegate.getCurrentSize() < sizeBefore) {
+            hits++;
+            bytesReused += bitmap.getAllocationByteCount();
+        } else {
+            misses++;
+        }
+    }
+
+    @Override
+    public void clearMemory() {
+        delegate.clearMemory();
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        delegate.trimMemory(level);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, puts, rejected, bytesReused, delegate.getCurrentSize(), delegate.getMaxSize());
+    }
+
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long puts;
+        private final long rejected;
+        private final long bytesReused;
+        private final long currentBytes;
+        private final long maxBytes;
+
+        Stats(long hits, long misses, long puts, long rejected, long bytesReused, long currentBytes, long maxBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.puts = puts;
+            this.rejected = rejected;
+            this.bytesReused = bytesReused;
+            this.currentBytes = currentBytes;
+            this.maxBytes = maxBytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRate() {
+            return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+        }
+
+        // Bitmap bytes handed out from the pool instead of allocated
+        public long getBytesReused() {
+            return bytesReused;
+        }
+
+        public long getCurrentBytes() {
+            return currentBytes;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US,
+                    "{\"hits\":%d,\"misses\":%d,\"hit_rate\":%.3f,\"puts\":%d,\"rejected\":%d,"
+                            + "\"bytes_reused\":%d,\"current_bytes\":%d,\"max_bytes\":%d}",
+                    hits, misses, getHitRate(), puts, rejected, bytesReused, currentBytes, maxBytes);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "pool %d hits / %d misses (%.0f%%), %.1f MB reused, %.1f / %.1f MB held",
+                    hits, misses, getHitRate() * 100, bytesReused / 1048576.0,
+                    currentBytes / 1048576.0, maxBytes / 1048576.0);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CascadeClassifierTest {
+
+    private final FakeClassifier delegate = new FakeClassifier();
+    private final CascadeClassifier cascade = new CascadeClassifier(delegate, new CascadeClassifier.Config.Builder()
+            .stages("mobilenet_v2", "efficientnet_b0")
+            .defaultThreshold(0.8f)
+            .classThreshold("Melanoma", 0.95f)
+            .build());
+
+    @Test
+    public void confidentCheapModelAnswersAlone() {
+        Recorder recorder = new Recorder();
+        cascade.classify(null, "vgg16", recorder);
+        delegate.answer(0, "Nevus", 0.9);
+
+        assertEquals("Nevus", recorder.result);
+        assertEquals(Arrays.asList("mobilenet_v2"), delegate.models);
+        assertTrue(recorder.outcome.isEarlyExit());
+        assertEquals("mobilenet_v2", recorder.outcome.getResolvedBy());
+        assertEquals(1.0, cascade.getStats().getEarlyExitRate(), 1e-9);
+    }
+
+    @Test
+    public void unsureStagesEscalateToTheRequestedModel() {
+        Recorder recorder = new Recorder();
+        cascade.classify(null, "vgg16", recorder);
+        delegate.answer(0, "Nevus", 0.5);
+        delegate.answer(1, "Nevus", 0.7);
+        // The requested model's answer stands whatever its score
+        delegate.answer(2, "Keratosis", 0.4);
+
+        assertEquals("Keratosis", recorder.result);
+        assertEquals(Arrays.asList("mobilenet_v2", "efficientnet_b0", "vgg16"), delegate.models);
+        assertFalse(recorder.outcome.isEarlyExit());
+        assertEquals(0, cascade.getStats().getEarlyExitRate(), 1e-9);
+    }
+
+    @Test
+    public void perClassThresholdRaisesTheBar() {
+        Recorder recorder = new Recorder();
+        cascade.classify(null, "resnet50", recorder);
+        delegate.answer(0, "Melanoma", 0.9);
+        assertNull(recorder.result);
+        delegate.answer(1, "Melanoma", 0.97);
+
+        assertEquals("Melanoma", recorder.result);
+        assertEquals("efficientnet_b0", recorder.outcome.getResolvedBy());
+    }
+
+    @Test
+    public void failedCheapStageEscalates() {
+        Recorder recorder = new Recorder();
+        cascade.classify(null, "vgg16", recorder);
+        delegate.fail(0);
+        delegate.answer(1, "Nevus", 0.99);
+        assertEquals("Nevus", recorder.result);
+    }
+
+    @Test
+    public void requestedModelFailureIsReported() {
+        Recorder recorder = new Recorder();
+        cascade.classify(null, "mobilenet_v2", recorder);
+        delegate.fail(0);
+        assertEquals("down", recorder.error);
+        assertEquals(1, cascade.getStats().getRequests());
+    }
+
+    @Test
+    public void cascadeStopsAtTheRequestedModel() {
+        assertEquals(Arrays.asList("mobilenet_v2"), cascade.stagesFor("mobilenet_v2"));
+        assertEquals(Arrays.asList("mobilenet_v2", "efficientnet_b0"), cascade.stagesFor("efficientnet_b0"));
+        assertEquals(Arrays.asList("mobilenet_v2", "efficientnet_b0", "vgg16"), cascade.stagesFor("vgg16"));
+    }
+
+    @Test
+    public void cancelStopsEscalation() {
+        Recorder recorder = new Recorder();
+        Cancellable handle = cascade.classify(null, "vgg16", recorder);
+        handle.cancel();
+        assertTrue(delegate.calls.get(0).cancelled);
+        delegate.answer(0, "Nevus", 0.1);
+
+        assertEquals(1, delegate.models.size());
+        assertNull(recorder.result);
+        assertNull(recorder.error);
+    }
+
+    @Test
+    public void computeIsComparedWithTheHeavyModelAlone() {
+        cascade.classify(null, "vgg16", new Recorder());
+        delegate.answer(0, "Nevus", 0.9);
+        cascade.classify(null, "vgg16", new Recorder());
+        delegate.answer(1, "Nevus", 0.1);
+        delegate.answer(2, "Nevus", 0.1);
+        delegate.answer(3, "Nevus", 0.1);
+
+        CascadeClassifier.Stats stats = cascade.getStats();
+        assertEquals(2, stats.getRequests());
+        assertEquals(0.5, stats.getResolvedShare().get("mobilenet_v2"), 1e-9);
+        assertEquals(0.5, stats.getResolvedShare().get("vgg16"), 1e-9);
+        assertEquals(2 * 15.47, stats.getBaselineGflops(), 1e-6);
+        assertEquals(2 * 0.30 + 0.39 + 15.47, stats.getGflops(), 1e-6);
+        assertTrue(stats.getBaselineLatencyMs() >= 0);
+        assertTrue(stats.toJson().startsWith("{\"requests\":2,"));
+    }
+
+    private static class FakeClassifier implements Classifier {
+        final List<String> models = new ArrayList<>();
+        final List<FakeCall> calls = new ArrayList<>();
+
+        @Override
+        public Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback) {
+            FakeCall call = new FakeCall(callback);
+            models.add(modelName);
+            calls.add(call);
+            return call;
+        }
+
+        void answer(int call, String name, double score) {
+            Disease disease = new Disease();
+            disease.setDisease(name);
+            disease.setScore(score);
+            calls.get(call).callback.onSuccess(disease);
+        }
+
+        void fail(int call) {
+            calls.get(call).callback.onFailure("down");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class FakeCall implements Cancellable {
+        final NetworkClient.DiseaseCallback callback;
+        boolean cancelled;
+
+        FakeCall(NetworkClient.DiseaseCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static class Recorder implements NetworkClient.DiseaseCallback {
+        String result;
+        CascadeClassifier.Outcome outcome;
+        String error;
+
+        @Override
+        public void onSuccess(Disease disease) {
+            result = disease.getDisease();
+            outcome = disease.getNote(CascadeClassifier.Outcome.class);
+        }
+
+        @Override
+        public void onFailure(String errorMessage) {
+            error = errorMessage;
+        }
+    }
+}
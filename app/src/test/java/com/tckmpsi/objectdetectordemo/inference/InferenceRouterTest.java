@@ -0,0 +1,230 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+
+import com.google.gson.Gson;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.JournalingCallback;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+import com.tckmpsi.objectdetectordemo.network.RequestJournal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InferenceRouterTest {
+
+    private static final String NETWORK_ERROR = "Network error: failed to connect";
+
+    private final FakeBackend local = new FakeBackend();
+    private final FakeBackend remote = new FakeBackend();
+    private InferenceRouter router;
+    private File dir;
+    private RequestJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        router = new InferenceRouter(local, remote, 0, 10000);
+        dir = Files.createTempDirectory("router").toFile();
+        journal = new RequestJournal(new File(dir, "requests.log"), 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        router.close();
+        journal.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void fallbackAnswerIsNotJournaled() {
+        // The server looks faster, so it is tried first and fails
+        router.getTracker().record("resnet50/local", 500);
+        router.getTracker().record("resnet50/remote", 100);
+        remote.error = NETWORK_ERROR;
+        local.answer = "Nevus";
+
+        Recorder recorder = new Recorder();
+        router.classify(null, "resnet50", journaling(recorder));
+
+        assertEquals(1, remote.calls);
+        assertEquals(1, local.calls);
+        assertEquals("Nevus", recorder.result);
+        assertNull(recorder.error);
+        assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void finalNetworkFailureIsJournaled() {
+        local.hasModel = false;
+        remote.error = NETWORK_ERROR;
+
+        Recorder recorder = new Recorder();
+        router.classify(null, "resnet50", journaling(recorder));
+
+        assertEquals(NETWORK_ERROR + NetworkClient.QUEUED_SUFFIX, recorder.error);
+        assertEquals(1, journal.size());
+    }
+
+    @Test
+    public void otherFailuresAreNotJournaled() {
+        local.hasModel = false;
+        remote.error = "Error: 500";
+
+        Recorder recorder = new Recorder();
+        router.classify(null, "resnet50", journaling(recorder));
+
+        assertEquals("Error: 500", recorder.error);
+        assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void timedOutAttemptIsCancelledBeforeFallingBack() throws InterruptedException {
+        router.close();
+        router = new InferenceRouter(local, remote, 0, 50);
+        router.getTracker().record("resnet50/local", 500);
+        router.getTracker().record("resnet50/remote", 100);
+        remote.hang = true;
+        local.answer = "Nevus";
+
+        Recorder recorder = new Recorder();
+        router.classify(null, "resnet50", recorder);
+
+        assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        assertTrue(remote.cancelled);
+        assertEquals("Nevus", recorder.result);
+    }
+
+    @Test
+    public void resultCarriesTheDecisionThatProducedIt() {
+        router.getTracker().record("resnet50/local", 500);
+        router.getTracker().record("resnet50/remote", 100);
+        remote.error = NETWORK_ERROR;
+        local.answer = "Nevus";
+
+        Recorder recorder = new Recorder();
+        router.classify(null, "resnet50", recorder);
+
+        assertEquals(InferenceRouter.Backend.LOCAL, recorder.decision.getBackend());
+        assertEquals("fallback", recorder.decision.getReason());
+    }
+
+    @Test
+    public void backendThatKeepsFailingIsAvoided() {
+        // The server is faster when it answers, but most attempts fail
+        router.getTracker().record("resnet50/local", 500);
+        router.getTracker().record("resnet50/remote", 100);
+        for (int i = 0; i < 5; i++) {
+            router.getTracker().recordFailure("resnet50/remote");
+        }
+
+        assertEquals(InferenceRouter.Backend.LOCAL, router.decide("resnet50").getBackend());
+    }
+
+    @Test
+    public void backendThatRecoversIsChosenAgain() {
+        router.getTracker().record("resnet50/local", 500);
+        router.getTracker().recordFailure("resnet50/remote");
+        assertEquals(InferenceRouter.Backend.LOCAL, router.decide("resnet50").getBackend());
+
+        for (int i = 0; i < 20; i++) {
+            router.getTracker().record("resnet50/remote", 100);
+        }
+        assertEquals(InferenceRouter.Backend.REMOTE, router.decide("resnet50").getBackend());
+    }
+
+    @Test
+    public void registryEstimateStandsInForAnUnmeasuredServer() {
+        ModelSpec.register(new Gson().fromJson("{\"name\":\"router_prior\",\"expected_latency_ms\":50}",
+                ModelSpec.class));
+        router.getTracker().record("router_prior/local", 500);
+
+        InferenceRouter.Decision decision = router.decide("router_prior");
+
+        assertEquals(InferenceRouter.Backend.REMOTE, decision.getBackend());
+        assertEquals("registry estimate", decision.getReason());
+    }
+
+    // As MainActivity wraps an explicit Classify, encoding and journaling on the calling thread
+    private NetworkClient.DiseaseCallback journaling(Recorder recorder) {
+        return new JournalingCallback(null, "resnet50", (bitmap, modelName) -> new byte[]{1, 2, 3},
+                journal::append, Runnable::run, recorder);
+    }
+
+    // Answers or fails synchronously, or never
+    private static class FakeBackend implements OnDeviceClassifier {
+        boolean hasModel = true;
+        boolean hang;
+        String answer;
+        String error;
+        int calls;
+        volatile boolean cancelled;
+
+        @Override
+        public Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback) {
+            calls++;
+            if (hang) {
+                return () -> cancelled = true;
+            }
+            if (error != null) {
+                callback.onFailure(error);
+            } else {
+                Disease disease = new Disease();
+                disease.setDisease(answer);
+                callback.onSuccess(disease);
+            }
+            return Cancellable.NONE;
+        }
+
+        @Override
+        public boolean hasModel(String modelName) {
+            return hasModel;
+        }
+
+        @Override
+        public boolean needsDownload(String modelName) {
+            return false;
+        }
+
+        @Override
+        public void preload(String modelName) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class Recorder implements NetworkClient.DiseaseCallback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile String result;
+        volatile InferenceRouter.Decision decision;
+        volatile String error;
+
+        @Override
+        public void onSuccess(Disease disease) {
+            result = disease.getDisease();
+            decision = disease.getNote(InferenceRouter.Decision.class);
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(String errorMessage) {
+            error = errorMessage;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Live camera pieces driven with synthetic frames
+public class LiveStreamTest {
+
+    private static final float[] NO_MEAN = {0, 0, 0};
+    private static final float[] NO_STD = {1, 1, 1};
+
+    @Test
+    public void convert_neutralChromaGivesGrey() {
+        int width = 8;
+        int height = 6;
+        ByteBuffer y = filled(width * height, 200);
+        ByteBuffer u = filled(width * height / 4, 128);
+        ByteBuffer v = filled(width * height / 4, 128);
+        FloatBuffer out = FloatBuffer.allocate(3 * 4 * 4);
+
+        YuvTensorConverter.convert(y, width, u, v, width / 2, 1, width, height, 0, 4, NO_MEAN, NO_STD, out, 0);
+
+        for (int i = 0; i < out.capacity(); i++) {
+            assertEquals(200 / 255f, out.get(i), 1e-6);
+        }
+    }
+
+    @Test
+    public void convert_pureRedFromChroma() {
+        int width = 4;
+        int height = 4;
+        // Y=76, Cb=85, Cr=255 is close to RGB (255, 0, 0)
+        ByteBuffer y = filled(16, 76);
+        // Interleaved chroma (NV21-style, pixel stride 2)
+        ByteBuffer uv = ByteBuffer.allocateDirect(2 * 2 * 2);
+        for (int i = 0; i < 4; i++) {
+            uv.put(2 * i, (byte) 85);
+            uv.put(2 * i + 1, (byte) 255);
+        }
+        ByteBuffer u = uv.duplicate();
+        ByteBuffer v = uv.duplicate();
+        v.position(1);
+        v = v.slice();
+        FloatBuffer out = FloatBuffer.allocate(3 * 2 * 2);
+
+        YuvTensorConverter.convert(y, width, u, v, 4, 2, width, height, 0, 2, NO_MEAN, NO_STD, out, 0);
+
+        assertTrue(out.get(0) > 0.95f);
+        assertTrue(out.get(4) < 0.05f);
+        assertTrue(out.get(8) < 0.05f);
+    }
+
+    @Test
+    public void convert_rotatesAndCentreCrops() {
+        // 6x4 landscape frame; after cropping to the centre 4x4, the left column is bright
+        int width = 6;
+        int height = 4;
+        ByteBuffer y = filled(width * height, 0);
+        for (int row = 0; row < height; row++) {
+            y.put(row * width + 1, (byte) 255);
+        }
+        ByteBuffer u = filled(width * height / 4, 128);
+        ByteBuffer v = filled(width * height / 4, 128);
+        FloatBuffer out = FloatBuffer.allocate(3 * 16);
+
+        YuvTensorConverter.convert(y, width, u, v, width / 2, 1, width, height, 90, 4, NO_MEAN, NO_STD, out, 0);
+
+        // Rotating 90 degrees clockwise moves the left column to the top row
+        for (int x = 0; x < 4; x++) {
+            assertEquals(1f, out.get(x), 1e-6);
+            assertEquals(0f, out.get(3 * 4 + x), 1e-6);
+        }
+    }
+
+    @Test
+    public void scheduler_keepsOnlyNewestFrame() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> released = Collections.synchronizedList(new ArrayList<>());
+
+        FrameScheduler<Integer> scheduler = new FrameScheduler<>("test", frame -> {
+            firstStarted.countDown();
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(frame);
+            done.countDown();
+        }, released::add);
+        scheduler.start();
+
+        scheduler.offer(0);
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        // The worker is busy with frame 0; only the last of these survives
+        for (int i = 1; i <= 5; i++) {
+            scheduler.offer(i);
+        }
+        unblock.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        scheduler.close();
+
+        assertEquals(Arrays.asList(0, 5), processed);
+        assertEquals(6, released.size());
+        FrameScheduler.Stats stats = scheduler.getStats();
+        assertEquals(6, stats.getOffered());
+        assertEquals(2, stats.getProcessed());
+        assertEquals(4, stats.getDropped());
+    }
+
+    @Test
+    public void scheduler_releasesFramesOfferedAfterClose() {
+        List<Integer> released = new ArrayList<>();
+        FrameScheduler<Integer> scheduler = new FrameScheduler<>("test", frame -> { }, released::add);
+        scheduler.close();
+
+        scheduler.offer(7);
+
+        assertEquals(Collections.singletonList(7), released);
+    }
+
+    @Test
+    public void smoother_averagesOverWindow() {
+        ResultSmoother smoother = new ResultSmoother(3);
+        smoother.add(new float[]{0.9f, 0.1f}, 2);
+        smoother.add(new float[]{0.2f, 0.8f}, 2);
+        smoother.add(new float[]{0.8f, 0.2f}, 2);
+        assertEquals(0, smoother.best());
+        assertEquals((0.9f + 0.2f + 0.8f) / 3, smoother.score(0), 1e-6);
+
+        // The oldest frame falls out of the window
+        smoother.add(new float[]{0.1f, 0.9f}, 2);
+        assertEquals(3, smoother.getSize());
+        assertEquals(1, smoother.best());
+        assertEquals((0.8f + 0.2f + 0.9f) / 3, smoother.score(1), 1e-6);
+    }
+
+    private static ByteBuffer filled(int size, int value) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, (byte) value);
+        }
+        return buffer;
+    }
+}
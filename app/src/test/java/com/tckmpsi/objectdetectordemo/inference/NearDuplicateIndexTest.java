@@ -0,0 +1,140 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.utils.PerceptualHash;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NearDuplicateIndexTest {
+
+    @Test
+    public void similarPhotosHashClose() {
+        int[] photo = gradientPhoto(120, 90, 0, 0);
+        long hash = PerceptualHash.dHash(photo, 120, 90);
+        // Brighter exposure keeps every comparison
+        assertEquals(0, PerceptualHash.distance(hash, PerceptualHash.dHash(gradientPhoto(120, 90, 20, 0), 120, 90)));
+        // A little sensor noise flips few bits
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(gradientPhoto(120, 90, 0, 6), 120, 90)) <= 6);
+        // Mirrored is a different picture
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(mirror(photo, 120, 90), 120, 90)) > 20);
+    }
+
+    @Test
+    public void findsTheNearestWithinDistance() {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 100);
+        index.add("resnet50", 0b1111L, disease("A"));
+        index.add("resnet50", 0b1111_0000_0000L, disease("B"));
+
+        NearDuplicateIndex.Match match = index.find("resnet50", 0b0111L);
+        assertEquals("A", match.getResult().getDisease());
+        assertEquals(1, match.getDistance());
+        assertNull(index.find("resnet50", 0b1010_1010_1010_1010L));
+        // Results do not cross models
+        assertNull(index.find("vgg16", 0b1111L));
+    }
+
+    @Test
+    public void agreesWithBruteForce() {
+        Random random = new Random(7);
+        NearDuplicateIndex index = new NearDuplicateIndex(8, 10000);
+        long[] stored = new long[2000];
+        for (int i = 0; i < stored.length; i++) {
+            // Clusters of near-duplicates around a few hundred shots
+            stored[i] = i % 4 == 0 ? random.nextLong() : flip(stored[i - i % 4], random, 3);
+            index.add("m", stored[i], disease("d" + i));
+        }
+        for (int q = 0; q < 500; q++) {
+            long query = q % 2 == 0 ? flip(stored[random.nextInt(stored.length)], random, 5) : random.nextLong();
+            int best = Integer.MAX_VALUE;
+            for (long hash : stored) {
+                best = Math.min(best, PerceptualHash.distance(query, hash));
+            }
+            NearDuplicateIndex.Match match = index.find("m", query);
+            if (best <= 8) {
+                assertNotNull(match);
+                assertEquals(best, match.getDistance());
+            } else {
+                assertNull(match);
+            }
+        }
+    }
+
+    @Test
+    public void fullIndexDropsTheOldest() {
+        NearDuplicateIndex index = new NearDuplicateIndex(0, 4);
+        for (long i = 0; i < 5; i++) {
+            index.add("m", i << 8, disease("d" + i));
+        }
+        assertNull(index.find("m", 0));
+        assertEquals("d4", index.find("m", 4L << 8).getResult().getDisease());
+        assertTrue(index.getStats().toJson().contains("\"entries\":2"));
+    }
+
+    @Test
+    public void evaluationCountsFalseReuse() {
+        long shotA = 0x0F0F0F0F0F0F0F0FL;
+        long shotB = 0x00FF00FF00FF00FFL;
+        long[] hashes = {shotA, shotA ^ 1, shotA ^ 3, shotB, shotB ^ 0x10, shotA ^ 0x100};
+        String[] labels = {"Nevus", "Nevus", "Nevus", "Melanoma", "Nevus", "Melanoma"};
+
+        NearDuplicateIndex.Evaluation evaluation = NearDuplicateIndex.evaluate(hashes, labels, 2);
+        assertEquals(4, evaluation.getReused());
+        assertEquals(2, evaluation.getFalseReused());
+        assertEquals(0.5, evaluation.getFalseReuseRate(), 1e-9);
+        assertEquals(0, NearDuplicateIndex.evaluate(hashes, labels, 0).getReused());
+    }
+
+    @Test
+    public void auditsGiveTheFalseReuseRate() {
+        NearDuplicateIndex index = new NearDuplicateIndex(2, 10);
+        assertEquals(-1, index.getStats().getFalseReuseRate(), 0);
+        index.recordAudit(true);
+        index.recordAudit(true);
+        index.recordAudit(false);
+        assertEquals(1 / 3.0, index.getStats().getFalseReuseRate(), 1e-9);
+    }
+
+    private static long flip(long hash, Random random, int maxBits) {
+        int bits = random.nextInt(maxBits + 1);
+        for (int i = 0; i < bits; i++) {
+            hash ^= 1L << random.nextInt(64);
+        }
+        return hash;
+    }
+
+    // Smooth blob plus optional brightness offset and noise, as ARGB
+    private static int[] gradientPhoto(int width, int height, int brighten, int noise) {
+        Random random = new Random(1);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double blob = Math.exp(-(Math.pow(x - width * 0.3, 2) + Math.pow(y - height * 0.6, 2)) / 800.0);
+                int v = (int) (40 + 120 * blob + x * 0.5 + y * 0.3) + brighten
+                        + (noise > 0 ? random.nextInt(2 * noise + 1) - noise : 0);
+                v = Math.max(0, Math.min(255, v));
+                pixels[y * width + x] = 0xff000000 | (v << 16) | (v << 8) | v;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] mirror(int[] pixels, int width, int height) {
+        int[] mirrored = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                mirrored[y * width + x] = pixels[y * width + width - 1 - x];
+            }
+        }
+        return mirrored;
+    }
+
+    private static Disease disease(String name) {
+        Disease disease = new Disease();
+        disease.setDisease(name);
+        return disease;
+    }
+}
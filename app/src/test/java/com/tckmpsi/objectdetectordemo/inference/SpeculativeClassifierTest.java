@@ -0,0 +1,192 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import android.graphics.Bitmap;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.network.Cancellable;
+import com.tckmpsi.objectdetectordemo.network.NetworkClient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpeculativeClassifierTest {
+
+    private final FakeClassifier delegate = new FakeClassifier();
+    private final SpeculativeClassifier speculative = new SpeculativeClassifier(
+            new SpeculativeClassifier.Policy.Builder().maxPerMinute(100).build());
+
+    @Test
+    public void claimAfterTheResultArrivedAnswersAtOnce() {
+        assertTrue(speculative.start(delegate, null, "resnet50", false));
+        delegate.answer(0, "Nevus");
+
+        Recorder recorder = new Recorder();
+        assertSame(Cancellable.NONE, speculative.claim(delegate, null, "resnet50", recorder));
+        assertEquals("Nevus", recorder.result);
+        assertEquals(1, delegate.calls.size());
+        assertEquals(1, speculative.getStats().getClaimed());
+    }
+
+    @Test
+    public void claimWhileRunningWaitsForTheSameRequest() {
+        speculative.start(delegate, null, "resnet50", false);
+        Recorder recorder = new Recorder();
+        Cancellable handle = speculative.claim(delegate, null, "resnet50", recorder);
+        assertNotNull(handle);
+        assertNull(recorder.result);
+
+        delegate.fail(0);
+        assertEquals("down", recorder.error);
+        assertEquals(1, delegate.calls.size());
+    }
+
+    @Test
+    public void failedSpeculationIsNotClaimed() {
+        speculative.start(delegate, null, "resnet50", false);
+        delegate.fail(0);
+
+        Recorder recorder = new Recorder();
+        assertNull(speculative.claim(delegate, null, "resnet50", recorder));
+        assertNull(recorder.error);
+        assertEquals(0, speculative.getStats().getClaimed());
+        assertEquals(1, speculative.getStats().getWasted());
+    }
+
+    @Test
+    public void cancellingTheClaimCancelsTheWork() {
+        speculative.start(delegate, null, "resnet50", false);
+        Recorder recorder = new Recorder();
+        speculative.claim(delegate, null, "resnet50", recorder).cancel();
+        assertTrue(delegate.calls.get(0).cancelled);
+
+        delegate.answer(0, "Nevus");
+        assertNull(recorder.result);
+    }
+
+    @Test
+    public void otherRequestsDoNotClaim() {
+        speculative.start(delegate, null, "resnet50", false);
+        assertNull(speculative.claim(delegate, null, "vgg16", new Recorder()));
+        assertNull(speculative.claim(new FakeClassifier(), null, "resnet50", new Recorder()));
+        // Still there for the matching request
+        assertNotNull(speculative.claim(delegate, null, "resnet50", new Recorder()));
+        // And only once
+        assertNull(speculative.claim(delegate, null, "resnet50", new Recorder()));
+    }
+
+    @Test
+    public void discardCancelsAndCountsAsWasted() {
+        speculative.start(delegate, null, "resnet50", false);
+        speculative.discard();
+        assertTrue(delegate.calls.get(0).cancelled);
+        assertNull(speculative.claim(delegate, null, "resnet50", new Recorder()));
+
+        // A new selection replaces the previous speculation
+        speculative.start(delegate, null, "resnet50", false);
+        speculative.start(delegate, null, "vgg16", false);
+        assertTrue(delegate.calls.get(1).cancelled);
+
+        SpeculativeClassifier.Stats stats = speculative.getStats();
+        assertEquals(2, stats.getWasted());
+        assertEquals(1.0, stats.getWastedRatio(), 0);
+        assertTrue(stats.toJson().startsWith("{\"started\":3,\"skipped\":0,\"claimed\":0,\"wasted\":2,"));
+    }
+
+    @Test
+    public void policyLimitsTheRate() {
+        SpeculativeClassifier.Policy policy = new SpeculativeClassifier.Policy.Builder().maxPerMinute(2).build();
+        assertTrue(policy.allow(0, false));
+        policy.recordStart(0);
+        policy.recordStart(1000);
+        assertFalse(policy.allow(2000, false));
+        assertTrue(policy.allow(60000, false));
+    }
+
+    @Test
+    public void policyPausesWhileMostSpeculationIsWasted() {
+        SpeculativeClassifier.Policy policy = new SpeculativeClassifier.Policy.Builder()
+                .maxPerMinute(100)
+                .maxWasteRatio(0.5)
+                .window(4, 3)
+                .build();
+        policy.recordOutcome(true);
+        policy.recordOutcome(true);
+        // Too few to judge yet
+        assertTrue(policy.allow(0, false));
+        policy.recordOutcome(false);
+        assertFalse(policy.allow(0, false));
+        // Older outcomes leave the window
+        policy.recordOutcome(false);
+        policy.recordOutcome(false);
+        assertEquals(1 / 4.0, policy.getRecentWasteRatio(), 1e-9);
+        assertTrue(policy.allow(0, false));
+    }
+
+    @Test
+    public void meteredNetworksNeedPermission() {
+        assertFalse(new SpeculativeClassifier.Policy.Builder().build().allow(0, true));
+        assertTrue(new SpeculativeClassifier.Policy.Builder().allowMetered(true).build().allow(0, true));
+
+        assertFalse(speculative.start(delegate, null, "resnet50", true));
+        assertTrue(delegate.calls.isEmpty());
+        assertTrue(speculative.getStats().toJson().contains("\"skipped\":1"));
+    }
+
+    private static class FakeClassifier implements Classifier {
+        final List<FakeCall> calls = new ArrayList<>();
+
+        @Override
+        public Cancellable classify(Bitmap bitmap, String modelName, NetworkClient.DiseaseCallback callback) {
+            FakeCall call = new FakeCall(callback);
+            calls.add(call);
+            return call;
+        }
+
+        void answer(int call, String name) {
+            Disease disease = new Disease();
+            disease.setDisease(name);
+            calls.get(call).callback.onSuccess(disease);
+        }
+
+        void fail(int call) {
+            calls.get(call).callback.onFailure("down");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class FakeCall implements Cancellable {
+        final NetworkClient.DiseaseCallback callback;
+        boolean cancelled;
+
+        FakeCall(NetworkClient.DiseaseCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static class Recorder implements NetworkClient.DiseaseCallback {
+        String result;
+        String error;
+
+        @Override
+        public void onSuccess(Disease disease) {
+            result = disease.getDisease();
+        }
+
+        @Override
+        public void onFailure(String errorMessage) {
+            error = errorMessage;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class TensorKernelsTest {
+
+    private static final float[] MEAN = {0.485f, 0.456f, 0.406f};
+    private static final float[] STD = {0.229f, 0.224f, 0.225f};
+
+    @Test
+    public void resizeNormalizeChw_writesPlanarNormalizedChannels() {
+        // 2x2 source: red, green / blue, white
+        int[] pixels = {0xffff0000, 0xff00ff00, 0xff0000ff, 0xffffffff};
+        FloatBuffer out = FloatBuffer.allocate(3 * 4);
+
+        TensorKernels.resizeNormalizeChw(pixels, 2, 2, 2, 2, MEAN, STD, out);
+
+        float redHigh = (1f - MEAN[0]) / STD[0];
+        float redLow = -MEAN[0] / STD[0];
+        assertEquals(redHigh, out.get(0), 1e-5);
+        assertEquals(redLow, out.get(1), 1e-5);
+        assertEquals(redLow, out.get(2), 1e-5);
+        assertEquals(redHigh, out.get(3), 1e-5);
+        // Green plane starts after the red plane
+        assertEquals((1f - MEAN[1]) / STD[1], out.get(4 + 1), 1e-5);
+        // Blue plane
+        assertEquals((1f - MEAN[2]) / STD[2], out.get(8 + 2), 1e-5);
+    }
+
+    @Test
+    public void resizeNormalizeChw_downscalesWithNearestNeighbour() {
+        int[] pixels = new int[4 * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i << 16);
+        }
+        FloatBuffer out = FloatBuffer.allocate(3 * 4);
+
+        TensorKernels.resizeNormalizeChw(pixels, 4, 4, 2, 2, new float[]{0, 0, 0}, new float[]{1, 1, 1}, out);
+
+        assertEquals(0 / 255f, out.get(0), 1e-6);
+        assertEquals(2 / 255f, out.get(1), 1e-6);
+        assertEquals(8 / 255f, out.get(2), 1e-6);
+        assertEquals(10 / 255f, out.get(3), 1e-6);
+    }
+
+    @Test
+    public void softmaxInPlace_isStableForLargeLogits() {
+        float[] scores = {1000f, 1001f, 999f};
+
+        int best = TensorKernels.softmaxInPlace(scores, scores.length);
+
+        assertEquals(1, best);
+        assertEquals(1f, scores[0] + scores[1] + scores[2], 1e-5);
+        assertFalse(Float.isNaN(scores[0]));
+        assertTrue(scores[1] > scores[0] && scores[0] > scores[2]);
+    }
+
+    @Test
+    public void topK_returnsIndicesBestFirst() {
+        float[] scores = {0.1f, 0.5f, 0.05f, 0.3f, 0.05f};
+        int[] top = new int[3];
+
+        int count = TensorKernels.topK(scores, scores.length, 3, top);
+
+        assertEquals(3, count);
+        assertArrayEquals(new int[]{1, 3, 0}, top);
+    }
+
+    @Test
+    public void topK_handlesFewerScoresThanK() {
+        float[] scores = {0.2f, 0.8f};
+        int[] top = new int[5];
+
+        int count = TensorKernels.topK(scores, scores.length, 5, top);
+
+        assertEquals(2, count);
+        assertEquals(1, top[0]);
+        assertEquals(0, top[1]);
+    }
+}
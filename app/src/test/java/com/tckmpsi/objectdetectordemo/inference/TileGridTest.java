@@ -0,0 +1,97 @@
+package com.tckmpsi.objectdetectordemo.inference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileGridTest {
+
+    @Test
+    public void photoIsCoveredByOverlappingTiles() {
+        TileGrid grid = TileGrid.create(4000, 3000, 3, 0.25f);
+        assertEquals(1200, grid.getTileSize());
+        assertEquals(5, grid.getCols());
+        assertEquals(3, grid.getRows());
+        assertEquals(15, grid.getCount());
+
+        assertEquals(0, grid.getLeft(0));
+        assertEquals(0, grid.getTop(0));
+        // The last tile ends flush with the bottom-right corner
+        int last = grid.getCount() - 1;
+        assertEquals(4000, grid.getLeft(last) + grid.getTileSize());
+        assertEquals(3000, grid.getTop(last) + grid.getTileSize());
+        // Neighbours overlap by at least the requested fraction
+        assertTrue(grid.getLeft(1) <= grid.getTileSize() * 0.75f);
+        assertTrue(grid.getTop(grid.getCols()) <= grid.getTileSize() * 0.75f);
+    }
+
+    @Test
+    public void tilesAreRowMajor() {
+        TileGrid grid = TileGrid.create(4000, 3000, 3, 0.25f);
+        assertEquals(grid.getTop(0), grid.getTop(grid.getCols() - 1));
+        assertEquals(grid.getLeft(0), grid.getLeft(grid.getCols()));
+        assertTrue(grid.getTop(grid.getCols()) > 0);
+    }
+
+    @Test
+    public void smallImageIsOneTile() {
+        TileGrid grid = TileGrid.create(224, 224, 1, 0.25f);
+        assertEquals(1, grid.getCount());
+        assertEquals(224, grid.getTileSize());
+        assertEquals(0, grid.getLeft(0));
+        assertEquals(0, grid.getTop(0));
+    }
+
+    @Test
+    public void noOverlapTilesTheShortSideExactly() {
+        TileGrid grid = TileGrid.create(600, 300, 2, 0f);
+        assertEquals(150, grid.getTileSize());
+        assertEquals(4, grid.getCols());
+        assertEquals(2, grid.getRows());
+        assertEquals(150, grid.getLeft(1));
+        assertEquals(450, grid.getLeft(3));
+    }
+
+    @Test
+    public void maxMergeKeepsALocalFinding() {
+        float[][] tiles = {
+                {0.9f, 0.1f, 0f},
+                {0.9f, 0.1f, 0f},
+                {0.2f, 0f, 0.8f},
+        };
+        float[] max = TileGrid.merge(tiles, TileGrid.Merge.MAX);
+        float[] mean = TileGrid.merge(tiles, TileGrid.Merge.MEAN);
+        assertEquals(1f, max[0] + max[1] + max[2], 1e-5f);
+        assertEquals(1f, mean[0] + mean[1] + mean[2], 1e-5f);
+        assertEquals(0.8f / 1.8f, max[2], 1e-5f);
+        assertEquals(2f / 3, mean[0], 1e-5f);
+        assertTrue(max[2] > mean[2]);
+    }
+
+    @Test
+    public void heatmapPicksOneClassPerTile() {
+        TileGrid grid = TileGrid.create(300, 200, 2, 0f);
+        float[][] tiles = {{0.1f, 0.9f}, {0.7f, 0.3f}, {0.5f, 0.5f}, {0f, 1f}, {1f, 0f}, {0.2f, 0.8f}};
+        assertEquals(6, grid.getCount());
+        assertArrayEquals(new float[]{0.9f, 0.3f, 0.5f, 1f, 0f, 0.8f}, grid.heatmap(tiles, 1), 0f);
+    }
+
+    @Test
+    public void invalidArgumentsAreRejected() {
+        int[][] cases = {{0, 100, 2}, {100, 100, 0}};
+        for (int[] c : cases) {
+            try {
+                TileGrid.create(c[0], c[1], c[2], 0f);
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        for (float overlap : new float[]{-0.1f, 0.95f}) {
+            try {
+                TileGrid.create(100, 100, 2, overlap);
+                fail("Expected IllegalArgumentException for overlap " + overlap);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
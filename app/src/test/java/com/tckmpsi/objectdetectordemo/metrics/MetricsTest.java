@@ -0,0 +1,126 @@
+package com.tckmpsi.objectdetectordemo.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Before
+    public void setUp() {
+        Metrics.reset();
+        Metrics.setEnabled(true);
+    }
+
+    @Test
+    public void histogram_percentilesWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(5000.5, histogram.getMean(), 1e-9);
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000, histogram.percentile(0.50), 5000 * 0.04);
+        assertEquals(9500, histogram.percentile(0.95), 9500 * 0.04);
+        assertEquals(9900, histogram.percentile(0.99), 9900 * 0.04);
+    }
+
+    @Test
+    public void histogram_smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        histogram.record(3);
+        histogram.record(7);
+        histogram.record(7);
+
+        assertEquals(7, histogram.percentile(0.5));
+        assertEquals(3, histogram.percentile(0.1));
+        assertEquals(0, new Histogram().percentile(0.5));
+    }
+
+    @Test
+    public void trace_recordsStagesAndBytesOnce() {
+        Trace trace = Trace.start("resnet50");
+        trace.add(Stage.COMPRESS, 2_000_000);
+        trace.add(Stage.NETWORK, 40_000_000);
+        trace.add(Stage.NETWORK, 10_000_000);
+        trace.addRequestBytes(12345);
+        trace.finish();
+        trace.finish();
+
+        List<Metrics.Row> rows = Metrics.snapshot();
+        assertEquals(3, rows.size());
+        assertEquals("compress", rows.get(0).getMetric());
+        assertEquals(2.0, rows.get(0).getP50(), 0.1);
+        assertEquals("network", rows.get(1).getMetric());
+        assertEquals(1, rows.get(1).getCount());
+        assertEquals(50.0, rows.get(1).getP99(), 2.0);
+        assertEquals(Metrics.REQUEST_BYTES, rows.get(2).getMetric());
+        assertEquals("bytes", rows.get(2).getUnit());
+    }
+
+    @Test
+    public void trace_mergesOnlyTheFirstResponseOfAHedgedRequest() {
+        Trace trace = Trace.start("resnet50");
+        Trace failed = trace.newCall();
+        failed.add(Stage.CONNECT, 3_000_000);
+        Trace winner = trace.newCall();
+        winner.add(Stage.TTFB, 20_000_000);
+        winner.addResponseBytes(100);
+        Trace loser = trace.newCall();
+        loser.add(Stage.TTFB, 30_000_000);
+        loser.addResponseBytes(100);
+
+        trace.merge(failed, false);
+        trace.merge(winner, true);
+        trace.merge(loser, true);
+
+        assertEquals(3_000_000, trace.getNanos(Stage.CONNECT));
+        assertEquals(20_000_000, trace.getNanos(Stage.TTFB));
+        assertEquals(100, trace.getResponseBytes());
+    }
+
+    @Test
+    public void bytesSaved_isReportedAsItsOwnRow() {
+        Metrics.recordBytes("resnet50", Metrics.REQUEST_BYTES, 40_000);
+        Metrics.recordBytes("resnet50", Metrics.BYTES_SAVED, 900_000);
+
+        List<Metrics.Row> rows = Metrics.snapshot();
+        assertEquals(2, rows.size());
+        assertEquals(Metrics.REQUEST_BYTES, rows.get(0).getMetric());
+        assertEquals(Metrics.BYTES_SAVED, rows.get(1).getMetric());
+        assertEquals(1, rows.get(1).getCount());
+    }
+
+    @Test
+    public void export_csvAndJson() {
+        Metrics.record("vgg16", Stage.TTFB, 5_000_000);
+        Metrics.record(Metrics.ALL_MODELS, Stage.DECODE, 1_000_000);
+
+        List<Metrics.Row> rows = Metrics.snapshot();
+        String csv = Metrics.toCsv(rows);
+        String[] lines = csv.split("\n");
+        assertEquals("model,metric,unit,count,mean,p50,p95,p99,max", lines[0]);
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].startsWith("*,decode,ms,1,"));
+        assertTrue(lines[2].startsWith("vgg16,ttfb,ms,1,5.000,"));
+
+        String json = Metrics.toJson(rows);
+        assertTrue(json.startsWith("[{\"model\":\"*\",\"metric\":\"decode\""));
+        assertTrue(json.contains("\"model\":\"vgg16\",\"metric\":\"ttfb\",\"unit\":\"ms\",\"count\":1,\"mean\":5.000"));
+    }
+
+    @Test
+    public void disabled_recordsNothing() {
+        Metrics.setEnabled(false);
+        assertNull(Trace.start("resnet50"));
+        Metrics.record("resnet50", Stage.TOTAL, 1_000_000);
+        Metrics.setEnabled(true);
+
+        assertTrue(Metrics.snapshot().isEmpty());
+    }
+}
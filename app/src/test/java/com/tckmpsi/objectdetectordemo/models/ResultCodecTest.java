@@ -0,0 +1,151 @@
+package com.tckmpsi.objectdetectordemo.models;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// Streaming JSON adapters, label tables and the binary result encoding
+public class ResultCodecTest {
+
+    private static final String SKIN_JSON = "{\"Disease\":\"Vay\",\"Score\":0.8731,"
+            + "\"Detail\":{\"Hac_to\":0.0123,\"Vay\":0.8731,\"Day\":0.0402,"
+            + "\"Khong_benh\":0.0511,\"Ung_thu\":0.0077,\"Benh_khac\":0.0156}}";
+
+    @Before
+    public void setUp() {
+        LabelTable.clear();
+    }
+
+    @Test
+    public void json_parsesLegacySixClassResult() throws IOException {
+        Disease disease = parse(SKIN_JSON);
+
+        assertEquals("Vay", disease.getDisease());
+        assertEquals(0.8731, disease.getScore(), 0);
+        DiseaseDetail detail = disease.getDetail();
+        assertEquals(6, detail.size());
+        assertEquals(0.0123, detail.getHac_to(), 1e-6);
+        assertEquals(0.0156, detail.getBenh_khac(), 1e-6);
+        assertEquals(1, detail.best());
+        assertEquals(Arrays.asList("Hac_to", "Vay", "Day", "Khong_benh", "Ung_thu", "Benh_khac"),
+                Arrays.asList(detail.getLabels()));
+    }
+
+    @Test
+    public void json_sharesLabelTableAcrossResults() throws IOException {
+        DiseaseDetail first = parse(SKIN_JSON).getDetail();
+        DiseaseDetail second = parse(SKIN_JSON).getDetail();
+
+        assertSame(first.getLabels(), second.getLabels());
+        // Another label set gets its own table
+        DiseaseDetail other = parse("{\"Disease\":\"a\",\"Score\":1,\"Detail\":{\"a\":1,\"b\":0}}").getDetail();
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(other.getLabels()));
+        assertSame(first.getLabels(), parse(SKIN_JSON).getDetail().getLabels());
+    }
+
+    @Test
+    public void json_parsesDetailAfterAnEmptyOne() throws IOException {
+        assertEquals(0, parse("{\"Disease\":\"a\",\"Score\":1,\"Detail\":{}}").getDetail().size());
+
+        DiseaseDetail detail = parse(SKIN_JSON).getDetail();
+
+        assertEquals(6, detail.size());
+        assertEquals(0.8731, detail.get("Vay"), 1e-6);
+    }
+
+    @Test
+    public void json_handlesThousandClassesAndUnknownFields() throws IOException {
+        StringBuilder json = new StringBuilder("{\"Disease\":\"c999\",\"Score\":0.5,\"model\":{\"x\":[1,2]},\"Detail\":{");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i > 0 ? "," : "").append("\"c").append(i).append("\":").append(i / 2000.0);
+        }
+        json.append("}}");
+
+        DiseaseDetail detail = parse(json.toString()).getDetail();
+
+        assertEquals(1000, detail.size());
+        assertEquals("c999", detail.getLabel(detail.best()));
+        assertEquals(0.25, detail.get("c500"), 1e-6);
+        assertEquals(0, detail.get("missing"), 0);
+    }
+
+    @Test
+    public void json_roundTripsThroughPlainGson() {
+        Gson gson = new Gson();
+        Disease disease = gson.fromJson(SKIN_JSON, Disease.class);
+
+        Disease copy = gson.fromJson(gson.toJson(disease), Disease.class);
+
+        assertEquals(disease.getDisease(), copy.getDisease());
+        assertEquals(disease.getDetail().toMap(), copy.getDetail().toMap());
+        assertEquals("{\"image\":\"abc\",\"model_name\":\"vgg16\"}", gson.toJson(new ImageData("abc", "vgg16")));
+    }
+
+    @Test
+    public void binary_omitsKnownLabelTable() throws IOException {
+        Disease disease = parse(SKIN_JSON);
+        long table = LabelTable.hash(disease.getDetail().getLabels());
+
+        byte[] withLabels = write(disease, 0);
+        byte[] withoutLabels = write(disease, table);
+        assertTrue(withoutLabels.length < withLabels.length);
+
+        for (byte[] bytes : Arrays.asList(withLabels, withoutLabels)) {
+            Disease copy = BinaryResults.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+            assertEquals("Vay", copy.getDisease());
+            assertEquals(disease.getScore(), copy.getScore(), 0);
+            assertSame(disease.getDetail().getLabels(), copy.getDetail().getLabels());
+            assertEquals(disease.getDetail().toMap(), copy.getDetail().toMap());
+        }
+    }
+
+    @Test
+    public void binary_unknownLabelTableFails() throws IOException {
+        Disease disease = parse(SKIN_JSON);
+        byte[] bytes = write(disease, LabelTable.hash(disease.getDetail().getLabels()));
+        LabelTable.clear();
+
+        try {
+            BinaryResults.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Unknown label table"));
+        }
+    }
+
+    @Test
+    public void binary_roundTripsList() throws IOException {
+        List<Disease> diseases = Arrays.asList(parse(SKIN_JSON), new Disease());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryResults.writeList(new DataOutputStream(bytes), diseases, 0);
+
+        List<Disease> copy = BinaryResults.readList(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(2, copy.size());
+        assertEquals(6, copy.get(0).getDetail().size());
+        assertNull(copy.get(1).getDetail());
+    }
+
+    private static Disease parse(String json) throws IOException {
+        return JsonAdapters.DISEASE.read(new JsonReader(new StringReader(json)));
+    }
+
+    private static byte[] write(Disease disease, long knownTable) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryResults.write(new DataOutputStream(bytes), disease, knownTable);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import com.tckmpsi.objectdetectordemo.models.Disease;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class InFlightRequestsTest {
+
+    private final InFlightRequests registry = new InFlightRequests();
+    private final List<FakeCall> calls = new ArrayList<>();
+
+    @Test
+    public void identicalRequestsShareOneCall() {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        registry.join("a", first, this::start);
+        registry.join("a", second, this::start);
+
+        assertEquals(1, calls.size());
+        calls.get(0).callback.onSuccess(disease("Vay"));
+        assertEquals("Vay", first.result);
+        assertEquals("Vay", second.result);
+        assertEquals(1, registry.getStarted());
+        assertEquals(1, registry.getCoalesced());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void differentKeysGetTheirOwnCalls() {
+        registry.join("a", new Recorder(), this::start);
+        registry.join("b", new Recorder(), this::start);
+        assertEquals(2, calls.size());
+        assertEquals(0, registry.getCoalesced());
+    }
+
+    @Test
+    public void callIsCancelledOnlyWhenLastWaiterLeaves() {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Cancellable a = registry.join("a", first, this::start);
+        Cancellable b = registry.join("a", second, this::start);
+
+        a.cancel();
+        assertFalse(calls.get(0).cancelled);
+        calls.get(0).callback.onSuccess(disease("Day"));
+        assertNull(first.result);
+        assertEquals("Day", second.result);
+
+        Cancellable c = registry.join("b", new Recorder(), this::start);
+        c.cancel();
+        assertTrue(calls.get(1).cancelled);
+        assertEquals(1, registry.getCancelled());
+        b.cancel();
+        assertEquals(1, registry.getCancelled());
+    }
+
+    @Test
+    public void requestAfterCancelStartsAFreshCall() {
+        registry.join("a", new Recorder(), this::start).cancel();
+        Recorder recorder = new Recorder();
+        registry.join("a", recorder, this::start);
+
+        assertEquals(2, calls.size());
+        // The cancelled call answering late reaches nobody
+        calls.get(0).callback.onSuccess(disease("Old"));
+        assertNull(recorder.result);
+        calls.get(1).callback.onSuccess(disease("New"));
+        assertEquals("New", recorder.result);
+    }
+
+    @Test
+    public void synchronousAnswerCompletesTheFlight() {
+        Recorder recorder = new Recorder();
+        registry.join("a", recorder, callback -> {
+            callback.onFailure("offline");
+            return Cancellable.NONE;
+        });
+        assertEquals("offline", recorder.error);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void requestHandleCancelsWorkAttachedLater() {
+        AtomicInteger cancelled = new AtomicInteger();
+        RequestHandle handle = new RequestHandle();
+        handle.attach(cancelled::incrementAndGet);
+        handle.cancel();
+        handle.cancel();
+        assertEquals(1, cancelled.get());
+
+        handle.attach(cancelled::incrementAndGet);
+        assertEquals(2, cancelled.get());
+        assertTrue(handle.isCancelled());
+    }
+
+    private Cancellable start(NetworkClient.DiseaseCallback callback) {
+        FakeCall call = new FakeCall(callback);
+        calls.add(call);
+        return call;
+    }
+
+    private static Disease disease(String name) {
+        Disease disease = new Disease();
+        disease.setDisease(name);
+        return disease;
+    }
+
+    private static class FakeCall implements Cancellable {
+        final NetworkClient.DiseaseCallback callback;
+        boolean cancelled;
+
+        FakeCall(NetworkClient.DiseaseCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static class Recorder implements NetworkClient.DiseaseCallback {
+        String result;
+        String error;
+
+        @Override
+        public void onSuccess(Disease disease) {
+            result = disease.getDisease();
+        }
+
+        @Override
+        public void onFailure(String errorMessage) {
+            error = errorMessage;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import com.tckmpsi.objectdetectordemo.models.ModelSpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ModelDownloaderTest {
+
+    private static final int SIZE = 300 * 1024;
+
+    private final byte[] model = new byte[SIZE];
+    private ModelSpec.ModelFile file;
+    private File dir;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(3).nextBytes(model);
+        file = new ModelSpec.ModelFile("resnet50_int8.pt", SIZE, sha256(model));
+        dir = Files.createTempDirectory("models").toFile();
+        target = new File(dir, "resnet50_int8.pt");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void downloadsAndVerifies() throws IOException {
+        FakeServer server = new FakeServer();
+        ModelDownloader downloader = new ModelDownloader(server, 3);
+
+        assertEquals(file.getSha256(), downloader.download(file, target, null));
+        assertArrayEquals(model, Files.readAllBytes(target.toPath()));
+        assertFalse(ModelDownloader.partFile(target, file).exists());
+        assertEquals(SIZE, downloader.getBytesDownloaded());
+    }
+
+    @Test
+    public void resumesWhereTheConnectionDropped() throws IOException {
+        FakeServer server = new FakeServer();
+        server.dropAfter.add(100 * 1024L);
+        server.dropAfter.add(50 * 1024L);
+        ModelDownloader downloader = new ModelDownloader(server, 3);
+
+        downloader.download(file, target, null);
+        assertArrayEquals(model, Files.readAllBytes(target.toPath()));
+        assertEquals(3, server.offsets.size());
+        assertEquals(0, (long) server.offsets.get(0));
+        assertEquals(100 * 1024, (long) server.offsets.get(1));
+        assertEquals(150 * 1024, (long) server.offsets.get(2));
+        // Nothing fetched twice
+        assertEquals(SIZE, downloader.getBytesDownloaded());
+    }
+
+    @Test
+    public void resumesAPartLeftByAnEarlierRun() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(ModelDownloader.partFile(target, file))) {
+            out.write(model, 0, 200 * 1024);
+        }
+        FakeServer server = new FakeServer();
+        ModelDownloader downloader = new ModelDownloader(server, 3);
+
+        downloader.download(file, target, null);
+        assertArrayEquals(model, Files.readAllBytes(target.toPath()));
+        assertEquals(200 * 1024, (long) server.offsets.get(0));
+        assertEquals(200 * 1024, downloader.getBytesResumed());
+        assertEquals(SIZE - 200 * 1024, downloader.getBytesDownloaded());
+    }
+
+    @Test
+    public void discardsAPartOfAnotherVersion() throws IOException {
+        byte[] older = new byte[SIZE];
+        new Random(4).nextBytes(older);
+        ModelSpec.ModelFile olderFile = new ModelSpec.ModelFile("resnet50_int8.pt", SIZE, sha256(older));
+        File olderPart = ModelDownloader.partFile(target, olderFile);
+        try (FileOutputStream out = new FileOutputStream(olderPart)) {
+            out.write(older, 0, 200 * 1024);
+        }
+        FakeServer server = new FakeServer();
+        ModelDownloader downloader = new ModelDownloader(server, 3);
+
+        downloader.download(file, target, null);
+        assertArrayEquals(model, Files.readAllBytes(target.toPath()));
+        assertEquals(0, (long) server.offsets.get(0));
+        assertEquals(0, downloader.getBytesResumed());
+        assertFalse(olderPart.exists());
+    }
+
+    @Test
+    public void startsOverWhenTheServerIgnoresTheRange() throws IOException {
+        FakeServer server = new FakeServer();
+        server.rangeSupported = false;
+        server.dropAfter.add(100 * 1024L);
+        ModelDownloader downloader = new ModelDownloader(server, 3);
+
+        downloader.download(file, target, null);
+        assertArrayEquals(model, Files.readAllBytes(target.toPath()));
+        assertEquals(100 * 1024, (long) server.offsets.get(1));
+    }
+
+    @Test
+    public void rejectsACorruptFile() throws IOException {
+        FakeServer server = new FakeServer();
+        server.corruptAt = 1234;
+        ModelDownloader downloader = new ModelDownloader(server, 3);
+
+        try {
+            downloader.download(file, target, null);
+            fail("Expected a checksum mismatch");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Checksum mismatch"));
+        }
+        assertFalse(target.exists());
+        // Not resumed from next time
+        assertFalse(ModelDownloader.partFile(target, file).exists());
+    }
+
+    @Test
+    public void missingFileIsNotRetried() throws IOException {
+        FakeServer server = new FakeServer();
+        server.missing = true;
+        ModelDownloader downloader = new ModelDownloader(server, 3);
+
+        try {
+            downloader.download(file, target, null);
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            assertEquals(1, server.offsets.size());
+        }
+    }
+
+    @Test
+    public void reportsProgress() throws IOException {
+        final List<Long> progress = new ArrayList<>();
+        new ModelDownloader(new FakeServer(), 3).download(file, target,
+                (name, bytes, total) -> progress.add(bytes));
+        assertEquals(SIZE, (long) progress.get(progress.size() - 1));
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+    }
+
+    // Serves the model from the requested offset, dropping connections on cue
+    private class FakeServer implements ModelDownloader.Transport {
+        final List<Long> offsets = new ArrayList<>();
+        // Bytes each successive connection sends before failing
+        final List<Long> dropAfter = new ArrayList<>();
+        boolean rangeSupported = true;
+        boolean missing;
+        int corruptAt = -1;
+
+        @Override
+        public ModelDownloader.Body open(String fileName, long offset) throws IOException {
+            offsets.add(offset);
+            if (missing) {
+                throw new FileNotFoundException(fileName);
+            }
+            long start = rangeSupported ? offset : 0;
+            byte[] content = model.clone();
+            if (corruptAt >= 0) {
+                content[corruptAt] ^= 1;
+            }
+            long limit = dropAfter.isEmpty() ? Long.MAX_VALUE : dropAfter.remove(0);
+            return new ModelDownloader.Body(new DroppingStream(content, (int) start, limit), start);
+        }
+    }
+
+    private static class DroppingStream extends InputStream {
+        private final ByteArrayInputStream in;
+        private long remaining;
+
+        DroppingStream(byte[] content, int start, long limit) {
+            in = new ByteArrayInputStream(content, start, content.length - start);
+            remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Connection reset");
+            }
+            int read = in.read(b, off, (int) Math.min(len, Math.min(remaining, 8192)));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RequestJournalTest {
+
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+
+    private File dir;
+    private File file;
+    private RequestJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        file = new File(dir, "requests.log");
+        journal = new RequestJournal(file, MAX_BYTES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void requestsSurviveReopen() throws IOException {
+        assertTrue(journal.append("a", "resnet50", image(100, 1)));
+        assertTrue(journal.append("b", "vgg16", image(200, 2)));
+
+        reopen();
+        List<RequestJournal.Entry> pending = journal.pending();
+        assertEquals(2, pending.size());
+        assertEquals("a", pending.get(0).getKey());
+        assertEquals("resnet50", pending.get(0).getModelName());
+        assertArrayEquals(image(100, 1), journal.readImage(pending.get(0)));
+        assertEquals("vgg16", pending.get(1).getModelName());
+        assertArrayEquals(image(200, 2), journal.readImage(pending.get(1)));
+    }
+
+    @Test
+    public void sameKeyIsQueuedOnce() throws IOException {
+        assertTrue(journal.append("a", "resnet50", image(100, 1)));
+        assertFalse(journal.append("a", "resnet50", image(100, 1)));
+        assertEquals(1, journal.size());
+    }
+
+    @Test
+    public void doneRequestsStayDoneAfterReopen() throws IOException {
+        journal.append("a", "resnet50", image(100, 1));
+        journal.append("b", "resnet50", image(100, 2));
+        journal.markDone("a");
+
+        reopen();
+        assertEquals(1, journal.size());
+        assertTrue(journal.contains("b"));
+        assertFalse(journal.contains("a"));
+    }
+
+    @Test
+    public void emptyQueueTruncatesTheFile() throws IOException {
+        journal.append("a", "resnet50", image(1000, 1));
+        journal.markDone("a");
+        assertEquals(0, journal.getFileBytes());
+        assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void tornTailIsDroppedOnOpen() throws IOException {
+        journal.append("a", "resnet50", image(100, 1));
+        long intact = journal.getFileBytes();
+        journal.append("b", "resnet50", image(100, 2));
+        journal.close();
+        // A crash halfway through writing the second record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(intact + 40);
+        }
+
+        journal = new RequestJournal(file, MAX_BYTES);
+        assertEquals(1, journal.size());
+        assertEquals(intact, journal.getFileBytes());
+        // And appending after the cut still works
+        journal.append("c", "resnet50", image(100, 3));
+        reopen();
+        assertEquals(2, journal.size());
+        assertArrayEquals(image(100, 3), journal.readImage(journal.pending().get(1)));
+    }
+
+    @Test
+    public void corruptRecordEndsReplay() throws IOException {
+        journal.append("a", "resnet50", image(100, 1));
+        long first = journal.getFileBytes();
+        journal.append("b", "resnet50", image(100, 2));
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(first + 60);
+            raf.write(0x55);
+        }
+
+        journal = new RequestJournal(file, MAX_BYTES);
+        assertEquals(1, journal.size());
+        assertTrue(journal.contains("a"));
+    }
+
+    @Test
+    public void mostlyDeadFileIsCompacted() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            journal.append("k" + i, "resnet50", image(1024 * 1024, i));
+        }
+        for (int i = 0; i < 9; i++) {
+            journal.markDone("k" + i);
+        }
+        // Rewritten at least once on the way down, but not below the 4 MB floor
+        assertTrue(journal.getFileBytes() < 4 * 1024 * 1024);
+        assertArrayEquals(image(1024 * 1024, 9), journal.readImage(journal.pending().get(0)));
+
+        reopen();
+        assertEquals(1, journal.size());
+        assertArrayEquals(image(1024 * 1024, 9), journal.readImage(journal.pending().get(0)));
+    }
+
+    @Test
+    public void fullJournalRejectsRequests() throws IOException {
+        journal.close();
+        journal = new RequestJournal(file, 1000);
+        journal.append("a", "resnet50", image(500, 1));
+        try {
+            journal.append("b", "resnet50", image(500, 2));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Journal full"));
+        }
+        assertEquals(1, journal.size());
+    }
+
+    private void reopen() throws IOException {
+        journal.close();
+        journal = new RequestJournal(file, MAX_BYTES);
+    }
+
+    private static byte[] image(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,228 @@
+package com.tckmpsi.objectdetectordemo.network;
+
+import com.tckmpsi.objectdetectordemo.models.BinaryResults;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.DiseaseDetail;
+import com.tckmpsi.objectdetectordemo.models.LabelTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+public class TransportTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void retryInterceptor_retriesIdempotentPostOn503() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RetryInterceptor(2, 1, 2))
+                .build();
+
+        try (Response response = client.newCall(post(true)).execute()) {
+            assertEquals(200, response.code());
+        }
+        assertEquals(3, server.getRequestCount());
+        RecordedRequest recorded = server.takeRequest();
+        assertNull(recorded.getHeader(RetryInterceptor.IDEMPOTENT_HEADER));
+    }
+
+    @Test
+    public void retryInterceptor_doesNotRetryPlainPost() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RetryInterceptor(2, 1, 2))
+                .build();
+
+        try (Response response = client.newCall(post(false)).execute()) {
+            assertEquals(503, response.code());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void circuitBreaker_opensAfterThresholdAndFailsFast() throws Exception {
+        AtomicLong now = new AtomicLong(0);
+        CircuitBreaker breaker = new CircuitBreaker(2, 1000, now::get);
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(breaker).build();
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        client.newCall(post(false)).execute().close();
+        client.newCall(post(false)).execute().close();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        try {
+            client.newCall(post(false)).execute().close();
+            fail("Expected the open breaker to fail fast");
+        } catch (IOException expected) {
+            // Not sent to the server
+        }
+        assertEquals(2, server.getRequestCount());
+
+        // After the open period a trial call goes through and closes the breaker
+        now.set(1000);
+        server.enqueue(new MockResponse().setBody("ok"));
+        client.newCall(post(false)).execute().close();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void circuitBreaker_runtimeExceptionInTrialDoesNotWedgeIt() throws Exception {
+        AtomicLong now = new AtomicLong(0);
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000, now::get);
+        breaker.recordFailure();
+        now.set(1000);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(breaker)
+                .addInterceptor(chain -> {
+                    throw new IllegalStateException("interceptor bug");
+                })
+                .build();
+
+        try {
+            client.newCall(post(false)).execute();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // The half-open trial failed
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        now.set(2000);
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void resultFormat_advertisedTableOutlivesEvictionUntilBodyIsRead() throws Exception {
+        String[] labels = LabelTable.intern(new String[]{"pinned-a", "pinned-b"});
+        long hash = LabelTable.hash(labels);
+        Disease disease = new Disease();
+        disease.setDisease("pinned-b");
+        disease.setDetail(new DiseaseDetail(labels, new float[]{0.25f, 0.75f}));
+        Buffer body = new Buffer();
+        BinaryResults.write(new DataOutputStream(body.outputStream()), disease, hash);
+        server.enqueue(new MockResponse().setHeader("Content-Type", BinaryResults.MEDIA_TYPE).setBody(body));
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new ResultFormatInterceptor()).build();
+
+        try (Response response = client.newCall(post(true)).execute()) {
+            // Other models' results arrive while this one is still unread
+            internOtherTables("during");
+            Disease read = BinaryResults.read(new DataInputStream(response.body().byteStream()));
+            assertSame(labels, read.getDetail().getLabels());
+        }
+        assertEquals(BinaryResults.formatHash(hash), server.takeRequest().getHeader(BinaryResults.LABEL_TABLE_HEADER));
+
+        // Released once read, so it ages out like any other table
+        internOtherTables("after");
+        assertNull(LabelTable.get(hash));
+    }
+
+    @Test
+    public void resultFormat_leavesOtherEndpointsAlone() throws Exception {
+        LabelTable.intern(new String[]{"other-a", "other-b"});
+        server.enqueue(new MockResponse().setBody("[]"));
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new ResultFormatInterceptor()).build();
+
+        try (Response response = client.newCall(new Request.Builder().url(server.url("/models")).build()).execute()) {
+            assertEquals(200, response.code());
+        }
+        RecordedRequest recorded = server.takeRequest();
+        assertNull(recorded.getHeader("Accept"));
+        assertNull(recorded.getHeader(BinaryResults.LABEL_TABLE_HEADER));
+    }
+
+    @Test
+    public void networkClient_switchesToBase64WhenMultipartIsRejected() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        server.enqueue(new MockResponse().setHeader("Content-Type", "application/json")
+                .setBody("{\"Disease\":\"Vay\",\"Score\":0.9}"));
+        NetworkClient.configure(server.url("/").toString(), TransportConfig.defaults());
+        NetworkClient.setUploadMode(NetworkClient.UploadMode.MULTIPART);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+        try {
+            NetworkClient.sendImageBytes(new byte[]{1, 2, 3}, "resnet50", new NetworkClient.DiseaseCallback() {
+                @Override
+                public void onSuccess(Disease disease) {
+                    result.set(disease.getDisease());
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(String errorMessage) {
+                    result.set(errorMessage);
+                    done.countDown();
+                }
+            });
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals("Vay", result.get());
+            assertEquals("/kq/upload", server.takeRequest().getPath());
+            assertEquals("/kq", server.takeRequest().getPath());
+            assertEquals(NetworkClient.UploadMode.BASE64_JSON, NetworkClient.getUploadMode());
+        } finally {
+            NetworkClient.setUploadMode(NetworkClient.UploadMode.MULTIPART);
+        }
+    }
+
+    @Test
+    public void latencyWindow_reportsPercentiles() {
+        LatencyWindow window = new LatencyWindow(100);
+        assertEquals(-1, window.percentile(0.95));
+        for (int i = 1; i <= 100; i++) {
+            window.record(i);
+        }
+        assertEquals(95, window.percentile(0.95));
+        assertEquals(50, window.percentile(0.5));
+    }
+
+    private static void internOtherTables(String prefix) {
+        for (int i = 0; i < 8; i++) {
+            LabelTable.intern(new String[]{prefix + i});
+        }
+    }
+
+    private Request post(boolean idempotent) {
+        Request.Builder builder = new Request.Builder()
+                .url(server.url("/kq"))
+                .post(RequestBody.create("{}", MediaType.get("application/json")));
+        if (idempotent) {
+            builder.header(RetryInterceptor.IDEMPOTENT_HEADER, "true");
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,85 @@
+package com.tckmpsi.objectdetectordemo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+// Image to upload payload, the JVM equivalent of ImageUtils.convertBitmapToBase64:
+// JPEG-compress a pixel buffer, then Base64 it. ImageIO's codec is not Skia, so
+// compare runs against each other rather than against on-device timings.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncodeBenchmark {
+
+    // Model inputs, a downscaled photo and a 12 MP camera frame
+    @Param({"224x224", "299x299", "1024x768", "4032x3024"})
+    public String resolution;
+
+    // 100 is what convertBitmapToBase64 uses; 85 is typical after ImagePreprocessor's search
+    @Param({"100", "85"})
+    public int quality;
+
+    private BufferedImage image;
+    private ImageWriter writer;
+    private ImageWriteParam param;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private byte[] jpeg;
+
+    @Setup
+    public void setUp() throws IOException {
+        int[] size = Images.size(resolution);
+        image = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, size[0], size[1], Images.argb(size[0], size[1]), 0, size[0]);
+
+        writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+        jpeg = jpeg();
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.dispose();
+    }
+
+    @Benchmark
+    public byte[] jpeg() throws IOException {
+        out.reset();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public String base64() {
+        return Base64.getEncoder().encodeToString(jpeg);
+    }
+
+    // The whole convertBitmapToBase64 path
+    @Benchmark
+    public String jpegBase64() throws IOException {
+        return Base64.getEncoder().encodeToString(jpeg());
+    }
+}
@@ -0,0 +1,36 @@
+package com.tckmpsi.objectdetectordemo.benchmark;
+
+import java.util.Random;
+
+// Synthetic but photo-like test images: smooth gradients with a little noise, so
+// JPEG sizes land in the same range as real leaf photos rather than at the
+// extremes of pure noise or flat colour
+final class Images {
+
+    private Images() {
+    }
+
+    static int[] argb(int width, int height) {
+        Random random = new Random(42);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = clamp(x * 255 / width + random.nextInt(16) - 8);
+                int g = clamp(y * 255 / height + random.nextInt(16) - 8);
+                int b = clamp((x + y) * 127 / (width + height) + 64 + random.nextInt(16) - 8);
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    // "1024x768" -> {1024, 768}
+    static int[] size(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,70 @@
+package com.tckmpsi.objectdetectordemo.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.tckmpsi.objectdetectordemo.models.ImageData;
+import com.tckmpsi.objectdetectordemo.models.JsonAdapters;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Request serialization: Gson's reflective adapter, as Retrofit's GsonConverterFactory
+// used before, against the streaming adapter the app now uses. Response parsing is
+// in ResultBenchmark.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBenchmark {
+
+    // Encoded JPEG size: a preprocessed model input, and a full-quality photo
+    @Param({"32", "1024"})
+    public int jpegKb;
+
+    private final Gson gson = new Gson();
+    private ImageData imageData;
+    private ReflectiveImageData reflectiveImageData;
+
+    @Setup
+    public void setUp() {
+        byte[] jpeg = new byte[jpegKb * 1024];
+        new Random(42).nextBytes(jpeg);
+        String base64 = Base64.getEncoder().encodeToString(jpeg);
+        imageData = new ImageData(base64, "resnet50");
+        reflectiveImageData = new ReflectiveImageData(base64, "resnet50");
+    }
+
+    @Benchmark
+    public String serializeImageDataReflective() {
+        return gson.toJson(reflectiveImageData);
+    }
+
+    @Benchmark
+    public String serializeImageData() throws IOException {
+        StringWriter writer = new StringWriter(jpegKb * 1400);
+        JsonAdapters.IMAGE_DATA.write(new JsonWriter(writer), imageData);
+        return writer.toString();
+    }
+
+    // ImageData without @JsonAdapter, so Gson falls back to reflection
+    static class ReflectiveImageData {
+        private final String image;
+        private final String model_name;
+
+        ReflectiveImageData(String image, String modelName) {
+            this.image = image;
+            this.model_name = modelName;
+        }
+    }
+}
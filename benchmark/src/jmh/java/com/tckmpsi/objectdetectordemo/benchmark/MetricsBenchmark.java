@@ -0,0 +1,59 @@
+package com.tckmpsi.objectdetectordemo.benchmark;
+
+import com.tckmpsi.objectdetectordemo.metrics.Histogram;
+import com.tckmpsi.objectdetectordemo.metrics.Metrics;
+import com.tckmpsi.objectdetectordemo.metrics.Stage;
+import com.tckmpsi.objectdetectordemo.metrics.Trace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of the always-on metrics layer, to keep it negligible next to the stages it times
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    private final Histogram histogram = new Histogram();
+    private long value;
+
+    @Benchmark
+    public void histogramRecord() {
+        histogram.record(value++ & 0xfffff);
+    }
+
+    // Recording from several threads at once, as the encode, OkHttp and UI threads do
+    @Benchmark
+    @Threads(4)
+    public void histogramRecordContended() {
+        histogram.record(12345);
+    }
+
+    @Benchmark
+    public void metricsRecord() {
+        Metrics.record("resnet50", Stage.NETWORK, 42_000_000);
+    }
+
+    // A typical remote classification: start, six stages, bytes, finish
+    @Benchmark
+    public Trace fullTrace() {
+        Trace trace = Trace.start("resnet50");
+        trace.add(Stage.SCALE, 1_000_000);
+        trace.add(Stage.COMPRESS, 5_000_000);
+        trace.add(Stage.SERIALIZE, 100_000);
+        trace.add(Stage.CONNECT, 3_000_000);
+        trace.add(Stage.TTFB, 60_000_000);
+        trace.add(Stage.NETWORK, 70_000_000);
+        trace.addRequestBytes(32_768);
+        trace.addResponseBytes(256);
+        trace.finish();
+        return trace;
+    }
+}
@@ -0,0 +1,80 @@
+package com.tckmpsi.objectdetectordemo.benchmark;
+
+import com.tckmpsi.objectdetectordemo.inference.TensorKernels;
+import com.tckmpsi.objectdetectordemo.inference.YuvTensorConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Pixels to normalized CHW float tensor, for Bitmaps and for camera YUV frames
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NormalizeBenchmark {
+
+    private static final float[] MEAN = {0.485f, 0.456f, 0.406f};
+    private static final float[] STD = {0.229f, 0.224f, 0.225f};
+
+    // Already at model size, a decoded gallery image, and a camera analysis frame
+    @Param({"224x224", "1024x768", "640x480"})
+    public String source;
+
+    // Most models, and inception_v3
+    @Param({"224", "299"})
+    public int inputSize;
+
+    private int width;
+    private int height;
+    private int[] pixels;
+    private FloatBuffer out;
+    private ByteBuffer y;
+    private ByteBuffer u;
+    private ByteBuffer v;
+
+    @Setup
+    public void setUp() {
+        int[] size = Images.size(source);
+        width = size[0];
+        height = size[1];
+        pixels = Images.argb(width, height);
+        // Direct and in native order, like Tensor.allocateFloatBuffer
+        out = ByteBuffer.allocateDirect(3 * inputSize * inputSize * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        // YUV_420_888 with interleaved chroma, the common camera layout
+        y = ByteBuffer.allocateDirect(width * height);
+        ByteBuffer uv = ByteBuffer.allocateDirect(width * height / 2);
+        for (int i = 0; i < width * height; i++) {
+            y.put(i, (byte) (pixels[i] >> 8));
+        }
+        for (int i = 0; i < width * height / 2; i++) {
+            uv.put(i, (byte) (128 + (i % 32) - 16));
+        }
+        u = uv.duplicate();
+        uv.position(1);
+        v = uv.slice();
+    }
+
+    @Benchmark
+    public FloatBuffer argbToChw() {
+        TensorKernels.resizeNormalizeChw(pixels, width, height, inputSize, inputSize, MEAN, STD, out);
+        return out;
+    }
+
+    @Benchmark
+    public FloatBuffer yuvToChw() {
+        YuvTensorConverter.convert(y, width, u, v, width, 2, width, height, 90, inputSize, MEAN, STD, out, 0);
+        return out;
+    }
+}
@@ -0,0 +1,63 @@
+package com.tckmpsi.objectdetectordemo.benchmark;
+
+import com.tckmpsi.objectdetectordemo.inference.TensorKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Softmax and top-k over model logits as done by InferenceSession
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PostprocessBenchmark {
+
+    private static final int TOP_K = 3;
+
+    // classes.txt, the six-way disease head, and classes_test.txt (ImageNet)
+    @Param({"3", "6", "1000"})
+    public int classes;
+
+    private float[] logits;
+    private float[] scores;
+    private final int[] topIndices = new int[TOP_K];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        logits = new float[classes];
+        for (int i = 0; i < classes; i++) {
+            logits[i] = (float) random.nextGaussian() * 4f;
+        }
+        scores = new float[classes];
+    }
+
+    // Softmax runs in place, so each invocation starts from a fresh copy of the logits;
+    // the copy is included in every benchmark here
+    @Benchmark
+    public int softmax() {
+        System.arraycopy(logits, 0, scores, 0, classes);
+        return TensorKernels.softmaxInPlace(scores, classes);
+    }
+
+    @Benchmark
+    public int topK() {
+        System.arraycopy(logits, 0, scores, 0, classes);
+        return TensorKernels.topK(scores, classes, TOP_K, topIndices);
+    }
+
+    @Benchmark
+    public int softmaxTopK() {
+        System.arraycopy(logits, 0, scores, 0, classes);
+        TensorKernels.softmaxInPlace(scores, classes);
+        return TensorKernels.topK(scores, classes, TOP_K, topIndices);
+    }
+}
@@ -0,0 +1,88 @@
+package com.tckmpsi.objectdetectordemo.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.tckmpsi.objectdetectordemo.models.BinaryResults;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.DiseaseDetail;
+import com.tckmpsi.objectdetectordemo.models.JsonAdapters;
+import com.tckmpsi.objectdetectordemo.models.LabelTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Parsing one classification result: a reflective Gson model with a map of
+// scores, the streaming JSON adapter, and the binary encoding with the label
+// table already known. Run with -prof gc to compare allocation per result.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResultBenchmark {
+
+    // The six-way disease head, and an ImageNet-sized head like classes_test.txt
+    @Param({"6", "1000"})
+    public int classes;
+
+    private final Gson gson = new Gson();
+    private String json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        String[] labels = new String[classes];
+        float[] scores = new float[classes];
+        for (int i = 0; i < classes; i++) {
+            labels[i] = "class_label_" + i;
+            scores[i] = random.nextFloat() / classes;
+        }
+        labels = LabelTable.intern(labels);
+        Disease disease = new Disease();
+        disease.setDisease(labels[0]);
+        disease.setScore(scores[0]);
+        disease.setDetail(new DiseaseDetail(labels, scores));
+
+        json = gson.toJson(disease);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryResults.write(new DataOutputStream(bytes), disease, LabelTable.hash(labels));
+        binary = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public ReflectiveDisease parseJsonReflective() {
+        return gson.fromJson(json, ReflectiveDisease.class);
+    }
+
+    @Benchmark
+    public Disease parseJson() throws IOException {
+        return JsonAdapters.DISEASE.read(new JsonReader(new StringReader(json)));
+    }
+
+    @Benchmark
+    public Disease parseBinary() throws IOException {
+        return BinaryResults.read(new DataInputStream(new ByteArrayInputStream(binary)));
+    }
+
+    // What a reflective model has to look like to accept any label set
+    static class ReflectiveDisease {
+        String Disease;
+        double Score;
+        Map<String, Double> Detail;
+    }
+}
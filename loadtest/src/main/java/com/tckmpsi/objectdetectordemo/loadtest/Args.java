@@ -0,0 +1,48 @@
+package com.tckmpsi.objectdetectordemo.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// "--name value" and bare "--flag" command-line options
+final class Args {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Args(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                values.put(name, args[++i]);
+            } else {
+                values.put(name, "true");
+            }
+        }
+    }
+
+    String get(String name, String fallback) {
+        String value = values.get(name);
+        return value != null ? value : fallback;
+    }
+
+    int getInt(String name, int fallback) {
+        String value = values.get(name);
+        return value != null ? Integer.parseInt(value) : fallback;
+    }
+
+    long getLong(String name, long fallback) {
+        String value = values.get(name);
+        return value != null ? Long.parseLong(value) : fallback;
+    }
+
+    double getDouble(String name, double fallback) {
+        String value = values.get(name);
+        return value != null ? Double.parseDouble(value) : fallback;
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+}
@@ -0,0 +1,347 @@
+package com.tckmpsi.objectdetectordemo.loadtest;
+
+import com.tckmpsi.objectdetectordemo.metrics.Metrics;
+import com.tckmpsi.objectdetectordemo.metrics.Trace;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ImageData;
+import com.tckmpsi.objectdetectordemo.network.ApiService;
+import com.tckmpsi.objectdetectordemo.network.CircuitBreaker;
+import com.tckmpsi.objectdetectordemo.network.HedgedCall;
+import com.tckmpsi.objectdetectordemo.network.HttpClients;
+import com.tckmpsi.objectdetectordemo.network.LatencyWindow;
+import com.tckmpsi.objectdetectordemo.network.ResultConverterFactory;
+import com.tckmpsi.objectdetectordemo.network.TransportConfig;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+// Drives the kq endpoint through the app's own ApiService, OkHttp stack and
+// TransportConfig, then reports throughput, latency percentiles, bytes and errors.
+//
+//   ./gradlew :loadtest:run --args="--concurrency 8 --duration 30 --sizes 224,640"
+//   ./gradlew :loadtest:run --args="--url http://192.168.1.18:8088/ --rate 20 --mode json"
+//
+// Without --url an embedded StandInServer is started, configured by the same
+// flags as the standalone one (--latency, --mean-ms, --error-rate, --classes, ...).
+// --binary asks for the compact binary result encoding instead of JSON.
+//
+// --rate 0 (the default) is a closed loop: each worker sends its next request as
+// soon as the last one returns. --rate N is an open loop at N requests/s; latency
+// is then measured from when a request was due, not when it was sent, so a
+// saturated client shows up as queueing delay instead of hiding it.
+public class LoadGenerator {
+
+    private static final MediaType MEDIA_TYPE_TEXT = MediaType.get("text/plain");
+    private static final MediaType MEDIA_TYPE_JPEG = MediaType.get("image/jpeg");
+    // Distinct images per size, so the server cannot answer from one hash
+    private static final int VARIANTS = 8;
+
+    public enum Mode {
+        // Base64 inside the JSON ImageData body (POST kq)
+        JSON,
+        // Raw JPEG in a multipart body (POST kq/upload)
+        MULTIPART
+    }
+
+    private final ApiService apiService;
+    private final Mode mode;
+    private final String modelName;
+    private final List<byte[]> images;
+    private final TransportConfig config;
+    private final LatencyWindow latencyWindow = new LatencyWindow(100);
+    private final ScheduledExecutorService hedgeTimer;
+
+    public LoadGenerator(String baseUrl, TransportConfig config, Mode mode, String modelName, List<byte[]> images) {
+        this.config = config;
+        this.mode = mode;
+        this.modelName = modelName;
+        this.images = images;
+        CircuitBreaker breaker = new CircuitBreaker(config.getBreakerFailureThreshold(), config.getBreakerOpenMs());
+        OkHttpClient client = HttpClients.create(config, breaker, System.out::println);
+        apiService = new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .client(client)
+                .addConverterFactory(ResultConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(ApiService.class);
+        hedgeTimer = config.isHedgingEnabled() ? Executors.newSingleThreadScheduledExecutor() : null;
+        // Traces carry the wire byte counts from the event listener
+        Metrics.setEnabled(true);
+    }
+
+    // Each worker sends back to back until maxRequests or the deadline
+    public LoadReport runClosedLoop(int concurrency, long maxRequests, long durationMs) throws InterruptedException {
+        final LoadReport report = new LoadReport();
+        final AtomicLong issued = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        report.start();
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                long index;
+                while (System.nanoTime() < deadline && (index = issued.getAndIncrement()) < maxRequests) {
+                    send(index, System.nanoTime(), report);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        report.stop();
+        return report;
+    }
+
+    // Requests are due every 1/rate seconds; one that finds all workers busy is dropped
+    public LoadReport runOpenLoop(int concurrency, double rate, long maxRequests, long durationMs)
+            throws InterruptedException {
+        final LoadReport report = new LoadReport();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+        workers.prestartAllCoreThreads();
+        long intervalNanos = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        long due = start;
+        report.start();
+        for (long i = 0; i < maxRequests && due < deadline; i++, due += intervalNanos) {
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            final long index = i;
+            final long dueNanos = due;
+            try {
+                workers.execute(() -> send(index, dueNanos, report));
+            } catch (RejectedExecutionException e) {
+                report.record(LoadReport.DROPPED, 0, 0, 0);
+            }
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        report.stop();
+        return report;
+    }
+
+    public void close() {
+        if (hedgeTimer != null) {
+            hedgeTimer.shutdown();
+        }
+    }
+
+    private void send(long index, long startNanos, LoadReport report) {
+        byte[] jpeg = images.get((int) (index % images.size()));
+        Trace trace = Trace.start(modelName);
+        String outcome;
+        try {
+            Response<Disease> response = execute(newCall(jpeg, trace));
+            if (response.isSuccessful() && response.body() != null) {
+                outcome = LoadReport.OK;
+            } else {
+                outcome = "http_" + response.code();
+            }
+        } catch (IOException e) {
+            outcome = e.getClass().getSimpleName();
+        }
+        long latencyNanos = System.nanoTime() - startNanos;
+        if (LoadReport.OK.equals(outcome)) {
+            latencyWindow.record(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        }
+        report.record(outcome, latencyNanos,
+                trace != null ? trace.getRequestBytes() : 0, trace != null ? trace.getResponseBytes() : 0);
+    }
+
+    // Same request shapes as NetworkClient.upload, Base64 encoding included
+    private Call<Disease> newCall(byte[] jpeg, Trace trace) {
+        if (mode == Mode.JSON) {
+            String base64 = Base64.getEncoder().encodeToString(jpeg);
+            return apiService.sendImageData(new ImageData(base64, modelName), trace);
+        }
+        return apiService.sendImageMultipart(
+                RequestBody.create(modelName, MEDIA_TYPE_TEXT),
+                MultipartBody.Part.createFormData("image", "image.jpg", RequestBody.create(jpeg, MEDIA_TYPE_JPEG)),
+                trace);
+    }
+
+    private Response<Disease> execute(Call<Disease> call) throws IOException {
+        if (hedgeTimer == null) {
+            return call.execute();
+        }
+        // Hedging is asynchronous; block this worker until the winning response
+        final CompletableFuture<Response<Disease>> result = new CompletableFuture<>();
+        long hedgeDelayMs = Math.max(config.getHedgeMinDelayMs(), latencyWindow.percentile(0.95));
+        HedgedCall.enqueue(call, hedgeDelayMs, hedgeTimer, new Callback<Disease>() {
+            @Override
+            public void onResponse(Call<Disease> call, Response<Disease> response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void onFailure(Call<Disease> call, Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            call.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Synthetic photo-like JPEGs: smooth gradients plus sensor-style noise, so they
+    // compress about as well as real skin photos of the same size
+    static List<byte[]> syntheticImages(int[] sizes, float quality, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<byte[]> images = new ArrayList<>();
+        for (int size : sizes) {
+            for (int v = 0; v < VARIANTS; v++) {
+                BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+                int baseR = 120 + random.nextInt(100);
+                int baseG = 80 + random.nextInt(80);
+                int baseB = 60 + random.nextInt(80);
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        int shade = (x + y) * 60 / (2 * size);
+                        int noise = random.nextInt(17) - 8;
+                        image.setRGB(x, y, clamp(baseR - shade + noise) << 16
+                                | clamp(baseG - shade + noise) << 8 | clamp(baseB - shade + noise));
+                    }
+                }
+                images.add(encodeJpeg(image, quality));
+            }
+        }
+        return images;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static int[] parseSizes(String value) {
+        String[] parts = value.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args(argv);
+        int concurrency = args.getInt("concurrency", 4);
+        double rate = args.getDouble("rate", 0);
+        long durationMs = TimeUnit.SECONDS.toMillis(args.getLong("duration", 30));
+        long maxRequests = args.getLong("requests", Long.MAX_VALUE);
+        int warmup = args.getInt("warmup", 20);
+        Mode mode = Mode.valueOf(args.get("mode", "multipart").toUpperCase());
+        String modelName = args.get("model", "resnet50");
+
+        TransportConfig.Builder transport = new TransportConfig.Builder()
+                .maxRetries(args.getInt("retries", 2))
+                .hedgingEnabled(args.has("hedging"))
+                .maxIdleConnections(args.getInt("max-idle", 5))
+                .maxRequestsPerHost(args.getInt("max-per-host", 8))
+                .binaryResultsEnabled(args.has("binary"))
+                .loggingEnabled(args.has("verbose"));
+        if (args.has("timeout-ms")) {
+            long timeoutMs = args.getLong("timeout-ms", 0);
+            transport.readTimeoutMs(timeoutMs).callTimeoutMs(timeoutMs);
+        }
+
+        StandInServer server = null;
+        String baseUrl = args.get("url", null);
+        if (baseUrl == null) {
+            server = new StandInServer(StandInServer.Config.from(args, 0));
+            server.start();
+            baseUrl = server.getBaseUrl();
+        }
+
+        List<byte[]> images = syntheticImages(parseSizes(args.get("sizes", "224,512,1024")),
+                (float) args.getDouble("quality", 0.9), args.getLong("seed", 1));
+        long imageBytes = 0;
+        for (byte[] image : images) {
+            imageBytes += image.length;
+        }
+        System.out.printf("%s %s, %d images (mean %d bytes), concurrency %d, %s%n", mode, baseUrl, images.size(),
+                imageBytes / images.size(), concurrency, rate > 0 ? rate + " req/s" : "closed loop");
+
+        LoadGenerator generator = new LoadGenerator(baseUrl, transport.build(), mode, modelName, images);
+        try {
+            if (warmup > 0) {
+                // Fills the connection pool and lets the JIT settle; not reported
+                generator.runClosedLoop(concurrency, warmup, durationMs);
+            }
+            LoadReport report = rate > 0
+                    ? generator.runOpenLoop(concurrency, rate, maxRequests, durationMs)
+                    : generator.runClosedLoop(concurrency, maxRequests, durationMs);
+            System.out.print(report.toText());
+            if (args.has("report")) {
+                Files.write(Paths.get(args.get("report", null)), report.toJson().getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            generator.close();
+            if (server != null) {
+                server.stop();
+            }
+        }
+        // OkHttp's dispatcher and pool threads would keep the JVM alive for a minute
+        System.exit(0);
+    }
+}
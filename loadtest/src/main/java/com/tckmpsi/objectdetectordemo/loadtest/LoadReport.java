@@ -0,0 +1,137 @@
+package com.tckmpsi.objectdetectordemo.loadtest;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.tckmpsi.objectdetectordemo.metrics.Histogram;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Outcome counts, latency histogram and bytes of one load run. Thread-safe;
+// the generator's workers record into a shared instance.
+public class LoadReport {
+
+    static final String OK = "ok";
+    // Open loop only: the next request was due but every worker was busy
+    static final String DROPPED = "dropped";
+
+    private final Histogram latencyMicros = new Histogram();
+    private final Map<String, AtomicLong> outcomes = new TreeMap<>();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private long startNanos;
+    private long endNanos;
+
+    void start() {
+        startNanos = System.nanoTime();
+    }
+
+    void stop() {
+        endNanos = System.nanoTime();
+    }
+
+    // outcome is OK, "http_<code>" or the exception's simple class name
+    void record(String outcome, long latencyNanos, long sent, long received) {
+        count(outcome);
+        if (!DROPPED.equals(outcome)) {
+            latencyMicros.record(latencyNanos / 1000);
+        }
+        bytesSent.addAndGet(sent);
+        bytesReceived.addAndGet(received);
+    }
+
+    private void count(String outcome) {
+        AtomicLong counter;
+        synchronized (outcomes) {
+            counter = outcomes.get(outcome);
+            if (counter == null) {
+                counter = new AtomicLong();
+                outcomes.put(outcome, counter);
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    public long getCount(String outcome) {
+        synchronized (outcomes) {
+            AtomicLong counter = outcomes.get(outcome);
+            return counter != null ? counter.get() : 0;
+        }
+    }
+
+    public long getTotal() {
+        long total = 0;
+        synchronized (outcomes) {
+            for (AtomicLong counter : outcomes.values()) {
+                total += counter.get();
+            }
+        }
+        return total;
+    }
+
+    public double getElapsedSeconds() {
+        return (endNanos - startNanos) / 1e9;
+    }
+
+    // Successful requests per second
+    public double getThroughput() {
+        double seconds = getElapsedSeconds();
+        return seconds > 0 ? getCount(OK) / seconds : 0;
+    }
+
+    public double getLatencyMs(double q) {
+        return latencyMicros.percentile(q) / 1000.0;
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "requests    %d in %.1fs, %.1f ok/s%n",
+                getTotal(), getElapsedSeconds(), getThroughput()));
+        sb.append(String.format(Locale.US, "latency ms  mean %.1f  p50 %.1f  p95 %.1f  p99 %.1f  max %.1f%n",
+                latencyMicros.getMean() / 1000.0, getLatencyMs(0.50), getLatencyMs(0.95),
+                getLatencyMs(0.99), latencyMicros.getMax() / 1000.0));
+        long ok = Math.max(1, getCount(OK));
+        sb.append(String.format(Locale.US, "bytes       sent %d (%d/req)  received %d (%d/req)%n",
+                getBytesSent(), getBytesSent() / ok, getBytesReceived(), getBytesReceived() / ok));
+        synchronized (outcomes) {
+            for (Map.Entry<String, AtomicLong> entry : outcomes.entrySet()) {
+                sb.append(String.format(Locale.US, "  %-20s %d%n", entry.getKey(), entry.getValue().get()));
+            }
+        }
+        return sb.toString();
+    }
+
+    public String toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("requests", getTotal());
+        json.addProperty("elapsed_s", getElapsedSeconds());
+        json.addProperty("throughput_rps", getThroughput());
+        JsonObject latency = new JsonObject();
+        latency.addProperty("mean_ms", latencyMicros.getMean() / 1000.0);
+        latency.addProperty("p50_ms", getLatencyMs(0.50));
+        latency.addProperty("p95_ms", getLatencyMs(0.95));
+        latency.addProperty("p99_ms", getLatencyMs(0.99));
+        latency.addProperty("max_ms", latencyMicros.getMax() / 1000.0);
+        json.add("latency", latency);
+        json.addProperty("bytes_sent", getBytesSent());
+        json.addProperty("bytes_received", getBytesReceived());
+        JsonObject breakdown = new JsonObject();
+        synchronized (outcomes) {
+            for (Map.Entry<String, AtomicLong> entry : outcomes.entrySet()) {
+                breakdown.addProperty(entry.getKey(), entry.getValue().get());
+            }
+        }
+        json.add("outcomes", breakdown);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json);
+    }
+}
@@ -0,0 +1,566 @@
+package com.tckmpsi.objectdetectordemo.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tckmpsi.objectdetectordemo.models.BatchImageData;
+import com.tckmpsi.objectdetectordemo.models.BinaryResults;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.DiseaseDetail;
+import com.tckmpsi.objectdetectordemo.models.ImageData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Implements the kq contract of the inference server well enough to load-test the
+// client: same routes, same Disease/Detail JSON, same 422 on bad payloads. Latency
+// and failures are injected from a Config; the scores are a hash of the image, so
+// the same picture always gets the same answer.
+//
+//   ./gradlew :loadtest:runServer --args="--port 8088 --latency lognormal --mean-ms 120"
+public class StandInServer {
+
+    // Classes of the original skin model; --classes N switches to N generated labels
+    private static final String[] SKIN_CLASSES = {"Hac_to", "Vay", "Day", "Khong_benh", "Ung_thu", "Benh_khac"};
+
+    public enum Latency {
+        // Always meanMs
+        FIXED,
+        // meanMs +- spreadMs
+        UNIFORM,
+        // Memoryless, mean meanMs
+        EXPONENTIAL,
+        // Median meanMs with a long tail set by sigma, closest to a real GPU queue
+        LOGNORMAL
+    }
+
+    private final Config config;
+    private final Gson gson = new Gson();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong images = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public StandInServer(Config config) {
+        this.config = config;
+    }
+
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(config.port), 0);
+        executor = Executors.newFixedThreadPool(config.threads);
+        server.setExecutor(executor);
+        server.createContext("/kq", this::handle);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+    }
+
+    // Port actually bound, useful with port 0
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + getPort() + "/";
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            byte[] body = readAll(exchange.getRequestBody());
+            bytesReceived.addAndGet(body.length);
+
+            sleep(sampleLatencyMs());
+            if (config.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < config.errorRate) {
+                injectedErrors.incrementAndGet();
+                sendError(exchange, config.errorCode, "Injected failure");
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            Object response;
+            switch (path) {
+                case "/kq":
+                    ImageData data = gson.fromJson(new String(body, StandardCharsets.UTF_8), ImageData.class);
+                    if (data == null) {
+                        throw new InvalidRequest("Missing body");
+                    }
+                    response = classify(decodeBase64(data.getImage()), data.getModel_name());
+                    break;
+                case "/kq/upload": {
+                    Multipart form = Multipart.parse(body, contentType);
+                    response = classify(form.first("image"), form.text("model_name"));
+                    break;
+                }
+                case "/kq/batch":
+                    BatchImageData batch = gson.fromJson(new String(body, StandardCharsets.UTF_8), BatchImageData.class);
+                    if (batch == null || batch.getImages() == null) {
+                        throw new InvalidRequest("Missing images");
+                    }
+                    List<Disease> results = new ArrayList<>();
+                    for (String image : batch.getImages()) {
+                        results.add(classify(decodeBase64(image), batch.getModel_name()));
+                    }
+                    response = results;
+                    break;
+                case "/kq/batch/upload": {
+                    Multipart form = Multipart.parse(body, contentType);
+                    String modelName = form.text("model_name");
+                    List<Disease> uploaded = new ArrayList<>();
+                    for (byte[] image : form.all("images")) {
+                        uploaded.add(classify(image, modelName));
+                    }
+                    response = uploaded;
+                    break;
+                }
+                default:
+                    sendError(exchange, 404, "Not found");
+                    return;
+            }
+            if (acceptsBinary(exchange)) {
+                sendBinary(exchange, response);
+            } else {
+                send(exchange, 200, gson.toJson(response));
+            }
+        } catch (InvalidRequest | JsonParseException | IllegalArgumentException e) {
+            // Same status FastAPI uses for a payload that fails validation
+            rejected.incrementAndGet();
+            sendError(exchange, 422, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("requests", requests.get());
+        stats.addProperty("images", images.get());
+        stats.addProperty("injected_errors", injectedErrors.get());
+        stats.addProperty("rejected", rejected.get());
+        stats.addProperty("bytes_received", bytesReceived.get());
+        try {
+            send(exchange, 200, gson.toJson(stats));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Disease classify(byte[] jpeg, String modelName) throws InvalidRequest {
+        if (config.validate) {
+            if (jpeg == null || jpeg.length < 4) {
+                throw new InvalidRequest("Missing image");
+            }
+            // JPEG start-of-image marker
+            if ((jpeg[0] & 0xff) != 0xff || (jpeg[1] & 0xff) != 0xd8) {
+                throw new InvalidRequest("Image is not a JPEG");
+            }
+            if (modelName == null || modelName.isEmpty()) {
+                throw new InvalidRequest("Missing model_name");
+            }
+            if (!config.models.isEmpty() && !config.models.contains(modelName)) {
+                throw new InvalidRequest("Unknown model: " + modelName);
+            }
+        }
+        images.incrementAndGet();
+        return scores(config.labels, jpeg, modelName);
+    }
+
+    // Deterministic softmax over a hash of the image and model
+    static Disease scores(String[] labels, byte[] jpeg, String modelName) {
+        int seed = Arrays.hashCode(jpeg) * 31 + (modelName != null ? modelName.hashCode() : 0);
+        double[] logits = new double[labels.length];
+        double sum = 0;
+        for (int i = 0; i < logits.length; i++) {
+            seed = seed * 1103515245 + 12345;
+            logits[i] = Math.exp(((seed >>> 8) & 0xffff) / 8192.0);
+            sum += logits[i];
+        }
+        int best = 0;
+        for (int i = 0; i < logits.length; i++) {
+            logits[i] /= sum;
+            if (logits[i] > logits[best]) {
+                best = i;
+            }
+        }
+
+        float[] scores = new float[labels.length];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = (float) logits[i];
+        }
+        Disease disease = new Disease();
+        disease.setDisease(labels[best]);
+        // The float, so Score matches the Detail entry exactly
+        disease.setScore(scores[best]);
+        disease.setDetail(new DiseaseDetail(labels, scores));
+        return disease;
+    }
+
+    private long sampleLatencyMs() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double ms;
+        switch (config.latency) {
+            case UNIFORM:
+                ms = config.meanMs + (random.nextDouble() * 2 - 1) * config.spreadMs;
+                break;
+            case EXPONENTIAL:
+                ms = -config.meanMs * Math.log(1 - random.nextDouble());
+                break;
+            case LOGNORMAL:
+                ms = config.meanMs * Math.exp(config.sigma * random.nextGaussian());
+                break;
+            default:
+                ms = config.meanMs;
+        }
+        return Math.max(0, Math.round(ms));
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] decodeBase64(String image) throws InvalidRequest {
+        if (image == null) {
+            throw new InvalidRequest("Missing image");
+        }
+        try {
+            return Base64.getMimeDecoder().decode(image);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequest("Image is not valid Base64");
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int code, String detail) throws IOException {
+        JsonObject error = new JsonObject();
+        error.addProperty("detail", detail);
+        send(exchange, code, gson.toJson(error));
+    }
+
+    private static void send(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static boolean acceptsBinary(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        return accept != null && accept.contains(BinaryResults.MEDIA_TYPE);
+    }
+
+    // Labels are left out when the client already holds this table
+    @SuppressWarnings("unchecked")
+    private static void sendBinary(HttpExchange exchange, Object response) throws IOException {
+        long knownTable = BinaryResults.parseHash(
+                exchange.getRequestHeaders().getFirst(BinaryResults.LABEL_TABLE_HEADER));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (response instanceof Disease) {
+            BinaryResults.write(out, (Disease) response, knownTable);
+        } else {
+            BinaryResults.writeList(out, (List<Disease>) response, knownTable);
+        }
+        out.flush();
+        exchange.getResponseHeaders().set("Content-Type", BinaryResults.MEDIA_TYPE);
+        exchange.sendResponseHeaders(200, bytes.size());
+        try (OutputStream body = exchange.getResponseBody()) {
+            bytes.writeTo(body);
+        }
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public static void main(String[] argv) throws IOException {
+        Args args = new Args(argv);
+        Config config = Config.from(args, 8088);
+        StandInServer server = new StandInServer(config);
+        server.start();
+        System.out.println("Stand-in server listening on " + server.getBaseUrl()
+                + " (" + config.latency.name().toLowerCase() + " " + config.meanMs + "ms, error rate "
+                + config.errorRate + ")");
+    }
+
+    static class InvalidRequest extends Exception {
+        InvalidRequest(String message) {
+            super(message);
+        }
+    }
+
+    // Just enough multipart/form-data for the upload routes
+    static class Multipart {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<byte[]> bodies = new ArrayList<>();
+
+        static Multipart parse(byte[] body, String contentType) throws InvalidRequest {
+            String boundary = null;
+            if (contentType != null) {
+                for (String param : contentType.split(";")) {
+                    param = param.trim();
+                    if (param.startsWith("boundary=")) {
+                        boundary = param.substring("boundary=".length()).replace("\"", "");
+                    }
+                }
+            }
+            if (boundary == null) {
+                throw new InvalidRequest("Expected multipart/form-data");
+            }
+            byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+            Multipart form = new Multipart();
+            int at = indexOf(body, delimiter, 0);
+            while (at >= 0) {
+                int partStart = at + delimiter.length;
+                // "--" after the delimiter closes the body
+                if (partStart + 1 < body.length && body[partStart] == '-' && body[partStart + 1] == '-') {
+                    break;
+                }
+                int headersStart = partStart + 2;
+                int headersEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), headersStart);
+                int next = indexOf(body, delimiter, partStart);
+                if (headersEnd < 0 || next < 0) {
+                    throw new InvalidRequest("Malformed multipart body");
+                }
+                String headers = new String(body, headersStart, headersEnd - headersStart, StandardCharsets.UTF_8);
+                // Part content ends with the CRLF before the next delimiter
+                form.names.add(partName(headers));
+                form.bodies.add(Arrays.copyOfRange(body, headersEnd + 4, next - 2));
+                at = next;
+            }
+            return form;
+        }
+
+        byte[] first(String name) {
+            List<byte[]> parts = all(name);
+            return parts.isEmpty() ? null : parts.get(0);
+        }
+
+        String text(String name) {
+            byte[] part = first(name);
+            return part != null ? new String(part, StandardCharsets.UTF_8) : null;
+        }
+
+        List<byte[]> all(String name) {
+            List<byte[]> parts = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                if (name.equals(names.get(i))) {
+                    parts.add(bodies.get(i));
+                }
+            }
+            return parts;
+        }
+
+        private static String partName(String headers) {
+            for (String line : headers.split("\r\n")) {
+                if (!line.toLowerCase().startsWith("content-disposition:")) {
+                    continue;
+                }
+                for (String param : line.split(";")) {
+                    param = param.trim();
+                    if (param.startsWith("name=")) {
+                        return param.substring("name=".length()).replace("\"", "");
+                    }
+                }
+            }
+            return "";
+        }
+
+        private static int indexOf(byte[] haystack, byte[] needle, int from) {
+            outer:
+            for (int i = from; i <= haystack.length - needle.length; i++) {
+                for (int j = 0; j < needle.length; j++) {
+                    if (haystack[i + j] != needle[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+    }
+
+    public static class Config {
+        private final int port;
+        private final int threads;
+        private final Latency latency;
+        private final double meanMs;
+        private final double spreadMs;
+        private final double sigma;
+        private final double errorRate;
+        private final int errorCode;
+        private final boolean validate;
+        private final Set<String> models;
+        private final String[] labels;
+
+        private Config(Builder builder) {
+            port = builder.port;
+            threads = builder.threads;
+            latency = builder.latency;
+            meanMs = builder.meanMs;
+            spreadMs = builder.spreadMs;
+            sigma = builder.sigma;
+            errorRate = builder.errorRate;
+            errorCode = builder.errorCode;
+            validate = builder.validate;
+            models = Collections.unmodifiableSet(new HashSet<>(builder.models));
+            labels = builder.labels.clone();
+        }
+
+        // Reads the same flags as main(); defaultPort applies when --port is absent
+        static Config from(Args args, int defaultPort) {
+            Builder builder = new Builder()
+                    .port(args.getInt("port", defaultPort))
+                    .threads(args.getInt("threads", 8))
+                    .latency(Latency.valueOf(args.get("latency", "lognormal").toUpperCase()))
+                    .meanMs(args.getDouble("mean-ms", 100))
+                    .spreadMs(args.getDouble("spread-ms", 20))
+                    .sigma(args.getDouble("sigma", 0.5))
+                    .errorRate(args.getDouble("error-rate", 0))
+                    .errorCode(args.getInt("error-code", 503))
+                    .validate(!args.has("no-validate"));
+            if (args.has("models")) {
+                builder.models(Arrays.asList(args.get("models", "").split(",")));
+            }
+            if (args.has("classes")) {
+                // e.g. 1000 to look like an ImageNet model
+                String[] labels = new String[args.getInt("classes", SKIN_CLASSES.length)];
+                for (int i = 0; i < labels.length; i++) {
+                    labels[i] = "class_" + i;
+                }
+                builder.labels(labels);
+            }
+            return builder.build();
+        }
+
+        public static class Builder {
+            private int port = 8088;
+            // Roughly what one GPU worker pool serves concurrently
+            private int threads = 8;
+            private Latency latency = Latency.LOGNORMAL;
+            private double meanMs = 100;
+            private double spreadMs = 20;
+            private double sigma = 0.5;
+            private double errorRate;
+            private int errorCode = 503;
+            private boolean validate = true;
+            private List<String> models = new ArrayList<>();
+            private String[] labels = SKIN_CLASSES;
+
+            // 0 picks a free port
+            public Builder port(int port) {
+                this.port = port;
+                return this;
+            }
+
+            public Builder threads(int threads) {
+                this.threads = threads;
+                return this;
+            }
+
+            public Builder latency(Latency latency) {
+                this.latency = latency;
+                return this;
+            }
+
+            public Builder meanMs(double meanMs) {
+                this.meanMs = meanMs;
+                return this;
+            }
+
+            public Builder spreadMs(double spreadMs) {
+                this.spreadMs = spreadMs;
+                return this;
+            }
+
+            public Builder sigma(double sigma) {
+                this.sigma = sigma;
+                return this;
+            }
+
+            // Fraction of requests, 0..1, answered with errorCode after the latency
+            public Builder errorRate(double errorRate) {
+                this.errorRate = errorRate;
+                return this;
+            }
+
+            public Builder errorCode(int errorCode) {
+                this.errorCode = errorCode;
+                return this;
+            }
+
+            public Builder validate(boolean validate) {
+                this.validate = validate;
+                return this;
+            }
+
+            // Accepted model names; empty accepts any
+            public Builder models(List<String> models) {
+                this.models = new ArrayList<>(models);
+                return this;
+            }
+
+            // Class labels of every result, in order
+            public Builder labels(String[] labels) {
+                this.labels = labels;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.tckmpsi.objectdetectordemo.loadtest;
+
+import com.google.gson.Gson;
+import com.tckmpsi.objectdetectordemo.models.Disease;
+import com.tckmpsi.objectdetectordemo.models.ImageData;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+// The stand-in's kq contract, exercised over real HTTP
+public class StandInServerTest {
+
+    private static final byte[] JPEG = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 1, 2, 3, 4};
+
+    private final Gson gson = new Gson();
+    private StandInServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void json_returnsDiseaseWithDetail() throws IOException {
+        start(config());
+
+        Reply reply = post("kq", "application/json", json(JPEG, "resnet50"));
+
+        assertEquals(200, reply.code);
+        Disease disease = gson.fromJson(reply.body, Disease.class);
+        assertNotNull(disease.getDetail());
+        double sum = 0;
+        for (double score : disease.getDetail().toMap().values()) {
+            sum += score;
+            assertTrue(score <= disease.getScore());
+        }
+        assertEquals(1.0, sum, 1e-6);
+        assertEquals(disease.getScore(), disease.getDetail().toMap().get(disease.getDisease()), 0);
+    }
+
+    @Test
+    public void json_sameImageSameAnswer() throws IOException {
+        start(config());
+
+        String first = post("kq", "application/json", json(JPEG, "resnet50")).body;
+        String second = post("kq", "application/json", json(JPEG, "resnet50")).body;
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void multipart_acceptsRawJpeg() throws IOException {
+        start(config());
+        String boundary = "b0undary";
+        byte[] body = concat(
+                ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"model_name\"\r\n\r\nresnet50\r\n"
+                        + "--" + boundary + "\r\nContent-Disposition: form-data; name=\"image\"; filename=\"image.jpg\"\r\n"
+                        + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.US_ASCII),
+                JPEG,
+                ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+
+        Reply reply = post("kq/upload", "multipart/form-data; boundary=" + boundary, body);
+
+        assertEquals(200, reply.code);
+        Disease viaJson = gson.fromJson(post("kq", "application/json", json(JPEG, "resnet50")).body, Disease.class);
+        assertEquals(viaJson.getDisease(), gson.fromJson(reply.body, Disease.class).getDisease());
+    }
+
+    @Test
+    public void validation_rejectsNonJpegAndUnknownModel() throws IOException {
+        List<String> models = Collections.singletonList("resnet50");
+        start(config().models(models));
+
+        assertEquals(422, post("kq", "application/json", json(new byte[]{1, 2, 3, 4}, "resnet50")).code);
+        assertEquals(422, post("kq", "application/json", json(JPEG, "vgg16")).code);
+        assertEquals(422, post("kq", "application/json", "{\"image\":\"!!\",\"model_name\":\"resnet50\"}"
+                .getBytes(StandardCharsets.UTF_8)).code);
+    }
+
+    @Test
+    public void errorRate_injectsConfiguredStatus() throws IOException {
+        start(config().errorRate(1).errorCode(503));
+
+        Reply reply = post("kq", "application/json", json(JPEG, "resnet50"));
+
+        assertEquals(503, reply.code);
+        assertTrue(reply.body.contains("detail"));
+    }
+
+    @Test
+    public void latency_fixedDelayIsApplied() throws IOException {
+        start(config().meanMs(50));
+
+        long start = System.nanoTime();
+        post("kq", "application/json", json(JPEG, "resnet50"));
+
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+
+    // No injected latency unless a test asks for it
+    private static StandInServer.Config.Builder config() {
+        return new StandInServer.Config.Builder().port(0).latency(StandInServer.Latency.FIXED).meanMs(0);
+    }
+
+    private void start(StandInServer.Config.Builder builder) throws IOException {
+        server = new StandInServer(builder.build());
+        server.start();
+    }
+
+    private byte[] json(byte[] image, String modelName) {
+        ImageData data = new ImageData(Base64.getEncoder().encodeToString(image), modelName);
+        return gson.toJson(data).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Reply post(String path, String contentType, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.getBaseUrl() + path).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            Reply reply = new Reply();
+            reply.code = connection.getResponseCode();
+            try (InputStream in = reply.code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                reply.body = new String(StandInServer.readAll(in), StandardCharsets.UTF_8);
+            }
+            return reply;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] all = new byte[length];
+        int at = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, all, at, part.length);
+            at += part.length;
+        }
+        return all;
+    }
+
+    private static class Reply {
+        int code;
+        String body;
+    }
+}